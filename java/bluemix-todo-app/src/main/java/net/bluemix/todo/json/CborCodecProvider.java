@@ -0,0 +1,51 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Reads and writes the model as CBOR, a binary encoding of the same data model as JSON, with the
+ * same {@link JsonCodecs} the JSON provider uses.  CBOR is smaller than JSON and much cheaper to
+ * parse, since strings have their length in front and nothing is escaped.
+ */
+@Provider
+@Produces(CborCodecProvider.APPLICATION_CBOR)
+@Consumes(CborCodecProvider.APPLICATION_CBOR)
+public class CborCodecProvider extends JsonCodecProvider {
+
+  /**
+   * The media type of CBOR.
+   */
+  public static final String APPLICATION_CBOR = "application/cbor";
+
+  @Override
+  protected JsonParser createParser(InputStream in) {
+    return new CborParser(in);
+  }
+
+  @Override
+  protected JsonGenerator createGenerator(OutputStream out) {
+    return new CborGenerator(out);
+  }
+}
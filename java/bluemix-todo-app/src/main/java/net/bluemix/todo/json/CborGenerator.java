@@ -0,0 +1,447 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+/**
+ * Writes the JSON data model as CBOR (RFC 7049), so the {@link JsonCodec}s can write CBOR
+ * without knowing it.
+ *
+ * Objects and arrays are written with indefinite lengths, so nothing has to be counted or
+ * buffered before it is written.  Integers take as few bytes as they need, strings are written
+ * as UTF-8 with their length in front and numbers that are not integers as doubles.
+ *
+ * Closing the generator flushes it but leaves the stream open.
+ */
+class CborGenerator implements JsonGenerator {
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1 << 5;
+  private static final int MAJOR_TEXT = 3 << 5;
+  private static final int START_ARRAY = 0x9f;
+  private static final int START_MAP = 0xbf;
+  private static final int FALSE = 0xf4;
+  private static final int TRUE = 0xf5;
+  private static final int NULL = 0xf6;
+  private static final int DOUBLE = 0xfb;
+  private static final int BREAK = 0xff;
+  private static final int BUFFER_SIZE = 1024;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count;
+  //Whether each open container is an object, the top one last
+  private boolean[] objects = new boolean[16];
+  private int depth;
+  private boolean done;
+
+  /**
+   * Creates a generator.
+   * @param out The stream to write to.
+   */
+  CborGenerator(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public JsonGenerator writeStartObject() {
+    value();
+    push(true);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeStartObject(String name) {
+    name(name);
+    push(true);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeStartArray() {
+    value();
+    push(false);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeStartArray(String name) {
+    name(name);
+    push(false);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, JsonValue value) {
+    name(name);
+    writeValue(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, String value) {
+    name(name);
+    writeText(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, BigInteger value) {
+    name(name);
+    writeNumber(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, BigDecimal value) {
+    name(name);
+    writeNumber(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, int value) {
+    name(name);
+    writeLong(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, long value) {
+    name(name);
+    writeLong(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, double value) {
+    name(name);
+    writeDouble(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String name, boolean value) {
+    name(name);
+    writeByte(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeNull(String name) {
+    name(name);
+    writeByte(NULL);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeEnd() {
+    if(depth == 0) {
+      throw new JsonGenerationException("There is no object or array to end.");
+    }
+    depth--;
+    writeByte(BREAK);
+    done = depth == 0;
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(JsonValue value) {
+    value();
+    writeValue(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(String value) {
+    value();
+    writeText(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(BigDecimal value) {
+    value();
+    writeNumber(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(BigInteger value) {
+    value();
+    writeNumber(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(int value) {
+    value();
+    writeLong(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(long value) {
+    value();
+    writeLong(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(double value) {
+    value();
+    writeDouble(value);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator write(boolean value) {
+    value();
+    writeByte(value ? TRUE : FALSE);
+    return this;
+  }
+
+  @Override
+  public JsonGenerator writeNull() {
+    value();
+    writeByte(NULL);
+    return this;
+  }
+
+  @Override
+  public void flush() {
+    try {
+      flushBuffer();
+      out.flush();
+    } catch(IOException e) {
+      throw new JsonException("There was an error writing CBOR.", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if(depth > 0) {
+      throw new JsonGenerationException("Not every object and array was ended.");
+    }
+    flush();
+  }
+
+  /**
+   * Checks a value without a name can be written here.
+   */
+  private void value() {
+    if(depth == 0 ? done : objects[depth - 1]) {
+      throw new JsonGenerationException("A value without a name cannot be written here.");
+    }
+  }
+
+  /**
+   * Writes the name of the next value in an object.
+   */
+  private void name(String name) {
+    if(depth == 0 || !objects[depth - 1]) {
+      throw new JsonGenerationException("A value with a name can only be written in an object.");
+    }
+    writeText(name);
+  }
+
+  private void push(boolean object) {
+    if(depth == objects.length) {
+      objects = Arrays.copyOf(objects, depth * 2);
+    }
+    objects[depth++] = object;
+    writeByte(object ? START_MAP : START_ARRAY);
+  }
+
+  private void writeValue(JsonValue value) {
+    switch(value.getValueType()) {
+      case OBJECT:
+        push(true);
+        for(Map.Entry<String, JsonValue> entry : ((JsonObject)value).entrySet()) {
+          writeText(entry.getKey());
+          writeValue(entry.getValue());
+        }
+        writeEnd();
+        break;
+      case ARRAY:
+        push(false);
+        for(JsonValue element : (JsonArray)value) {
+          writeValue(element);
+        }
+        writeEnd();
+        break;
+      case STRING:
+        writeText(((JsonString)value).getString());
+        break;
+      case NUMBER:
+        writeNumber(((JsonNumber)value).bigDecimalValue());
+        break;
+      case TRUE:
+        writeByte(TRUE);
+        break;
+      case FALSE:
+        writeByte(FALSE);
+        break;
+      default:
+        writeByte(NULL);
+    }
+  }
+
+  private void writeNumber(BigInteger value) {
+    if(value.bitLength() < 64) {
+      writeLong(value.longValue());
+    } else {
+      writeDouble(value.doubleValue());
+    }
+  }
+
+  private void writeNumber(BigDecimal value) {
+    if(value.signum() == 0 || value.scale() <= 0 || value.stripTrailingZeros().scale() <= 0) {
+      writeNumber(value.toBigInteger());
+    } else {
+      writeDouble(value.doubleValue());
+    }
+  }
+
+  private void writeLong(long value) {
+    if(value < 0) {
+      //-1 - n is written as n
+      writeHead(MAJOR_NEGATIVE, -1 - value);
+    } else {
+      writeHead(MAJOR_UNSIGNED, value);
+    }
+  }
+
+  private void writeDouble(double value) {
+    ensure(9);
+    buffer[count++] = (byte)DOUBLE;
+    long bits = Double.doubleToLongBits(value);
+    for(int shift = 56; shift >= 0; shift -= 8) {
+      buffer[count++] = (byte)(bits >>> shift);
+    }
+  }
+
+  private void writeText(String value) {
+    if(value == null) {
+      writeByte(NULL);
+      return;
+    }
+    int length = value.length();
+    int bytes = 0;
+    for(int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if(c < 0x80) {
+        bytes++;
+      } else if(c < 0x800) {
+        bytes += 2;
+      } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else {
+        //Unpaired surrogates are written as '?', which is 1 byte, everything else takes 3
+        bytes += Character.isSurrogate(c) ? 1 : 3;
+      }
+    }
+    writeHead(MAJOR_TEXT, bytes);
+    for(int i = 0; i < length; i++) {
+      ensure(4);
+      char c = value.charAt(i);
+      if(c < 0x80) {
+        buffer[count++] = (byte)c;
+      } else if(c < 0x800) {
+        buffer[count++] = (byte)(0xc0 | (c >> 6));
+        buffer[count++] = (byte)(0x80 | (c & 0x3f));
+      } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        buffer[count++] = (byte)(0xf0 | (cp >> 18));
+        buffer[count++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+        buffer[count++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+        buffer[count++] = (byte)(0x80 | (cp & 0x3f));
+      } else if(Character.isSurrogate(c)) {
+        buffer[count++] = '?';
+      } else {
+        buffer[count++] = (byte)(0xe0 | (c >> 12));
+        buffer[count++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+        buffer[count++] = (byte)(0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  /**
+   * Writes the first bytes of an item, its major type and a count or value, in as few bytes as
+   * it fits in.
+   */
+  private void writeHead(int major, long value) {
+    ensure(9);
+    if(value < 24) {
+      buffer[count++] = (byte)(major | value);
+    } else if(value <= 0xffL) {
+      buffer[count++] = (byte)(major | 24);
+      buffer[count++] = (byte)value;
+    } else if(value <= 0xffffL) {
+      buffer[count++] = (byte)(major | 25);
+      buffer[count++] = (byte)(value >> 8);
+      buffer[count++] = (byte)value;
+    } else if(value <= 0xffffffffL) {
+      buffer[count++] = (byte)(major | 26);
+      for(int shift = 24; shift >= 0; shift -= 8) {
+        buffer[count++] = (byte)(value >> shift);
+      }
+    } else {
+      buffer[count++] = (byte)(major | 27);
+      for(int shift = 56; shift >= 0; shift -= 8) {
+        buffer[count++] = (byte)(value >>> shift);
+      }
+    }
+  }
+
+  private void writeByte(int b) {
+    ensure(1);
+    buffer[count++] = (byte)b;
+  }
+
+  private void ensure(int bytes) {
+    if(count + bytes > BUFFER_SIZE) {
+      try {
+        flushBuffer();
+      } catch(IOException e) {
+        throw new JsonException("There was an error writing CBOR.", e);
+      }
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    if(count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+}
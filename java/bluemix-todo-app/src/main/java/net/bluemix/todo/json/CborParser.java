@@ -0,0 +1,420 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import javax.json.JsonException;
+import javax.json.stream.JsonLocation;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParsingException;
+
+/**
+ * Reads CBOR (RFC 7049) as events of the JSON data model, so the {@link JsonCodec}s can read
+ * CBOR without knowing it.
+ *
+ * Maps must have text keys.  Both definite and indefinite lengths are read, except for strings,
+ * which must have a definite length.  Tags are skipped, apart from the big number tags, and
+ * byte strings are not supported since JSON has nothing to read them as.
+ */
+class CborParser implements JsonParser {
+
+  private static final int MAJOR_UNSIGNED = 0;
+  private static final int MAJOR_NEGATIVE = 1;
+  private static final int MAJOR_TEXT = 3;
+  private static final int MAJOR_ARRAY = 4;
+  private static final int MAJOR_MAP = 5;
+  private static final int MAJOR_TAG = 6;
+  private static final int MAJOR_SIMPLE = 7;
+  private static final int INDEFINITE = 31;
+  private static final int BREAK = 0xff;
+  private static final int TAG_POSITIVE_BIGNUM = 2;
+  private static final int TAG_NEGATIVE_BIGNUM = 3;
+  //Text longer than this is read in pieces, so a bad length cannot allocate much on its own
+  private static final int MAX_CHUNK = 64 * 1024;
+  //Keys up to this long are remembered, objects of one type repeat the same few keys
+  private static final int MAX_KEY = 32;
+  private static final int KEY_SLOTS = 32;
+
+  private final InputStream in;
+  private final byte[] buffer = new byte[1024];
+  private int position;
+  private int limit;
+  private long offset;
+  //For each open container, whether it is a map, how many items are left, -1 if the container
+  //has an indefinite length, and how many have been read.  Each entry of a map is two items,
+  //its key and its value.
+  private boolean[] maps = new boolean[16];
+  private long[] remaining = new long[16];
+  private long[] items = new long[16];
+  private int depth;
+  private boolean started;
+  private String string;
+  private long number;
+  private BigDecimal decimal;
+  private final String[] keys = new String[KEY_SLOTS];
+
+  /**
+   * Creates a parser.
+   * @param in The stream to read.
+   */
+  CborParser(InputStream in) {
+    this.in = in;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return !started || depth > 0;
+  }
+
+  @Override
+  public Event next() {
+    if(!hasNext()) {
+      throw new NoSuchElementException("There are no more CBOR items.");
+    }
+    started = true;
+    string = null;
+    decimal = null;
+    if(depth > 0 && remaining[depth - 1] == 0) {
+      return end();
+    }
+    int initial = read();
+    if(initial == BREAK) {
+      if(depth == 0 || remaining[depth - 1] != -1) {
+        throw error("Unexpected break.");
+      }
+      return end();
+    }
+    boolean key = false;
+    if(depth > 0) {
+      key = maps[depth - 1] && items[depth - 1] % 2 == 0;
+      items[depth - 1]++;
+      if(remaining[depth - 1] > 0) {
+        remaining[depth - 1]--;
+      }
+    }
+    int major = initial >>> 5;
+    int info = initial & 0x1f;
+    while(major == MAJOR_TAG) {
+      long tag = readArgument(info);
+      initial = read();
+      major = initial >>> 5;
+      info = initial & 0x1f;
+      if(tag == TAG_POSITIVE_BIGNUM || tag == TAG_NEGATIVE_BIGNUM) {
+        throw error("Big numbers are not supported.");
+      }
+    }
+    if(key) {
+      if(major != MAJOR_TEXT) {
+        throw error("Map keys must be text.");
+      }
+      string = readKey(info);
+      return Event.KEY_NAME;
+    }
+    switch(major) {
+      case MAJOR_UNSIGNED:
+        number = readArgument(info);
+        if(number < 0) {
+          decimal = new BigDecimal(new BigInteger(Long.toUnsignedString(number)));
+        }
+        return Event.VALUE_NUMBER;
+      case MAJOR_NEGATIVE:
+        number = readArgument(info);
+        if(number < 0) {
+          decimal = new BigDecimal(new BigInteger(Long.toUnsignedString(number)).negate().subtract(BigInteger.ONE));
+        } else {
+          number = -1 - number;
+        }
+        return Event.VALUE_NUMBER;
+      case MAJOR_TEXT:
+        string = readText(info);
+        return Event.VALUE_STRING;
+      case MAJOR_ARRAY:
+        push(false, info == INDEFINITE ? -1 : readArgument(info));
+        return Event.START_ARRAY;
+      case MAJOR_MAP:
+        push(true, info == INDEFINITE ? -1 : readArgument(info) * 2);
+        return Event.START_OBJECT;
+      case MAJOR_SIMPLE:
+        return readSimple(info);
+      default:
+        throw error("Byte strings are not supported.");
+    }
+  }
+
+  @Override
+  public String getString() {
+    if(string != null) {
+      return string;
+    }
+    if(decimal != null) {
+      return decimal.toString();
+    }
+    return Long.toString(number);
+  }
+
+  @Override
+  public boolean isIntegralNumber() {
+    return decimal == null || decimal.scale() <= 0;
+  }
+
+  @Override
+  public int getInt() {
+    return decimal == null ? (int)number : decimal.intValue();
+  }
+
+  @Override
+  public long getLong() {
+    return decimal == null ? number : decimal.longValue();
+  }
+
+  @Override
+  public BigDecimal getBigDecimal() {
+    return decimal == null ? BigDecimal.valueOf(number) : decimal;
+  }
+
+  @Override
+  public JsonLocation getLocation() {
+    final long streamOffset = offset + position;
+    return new JsonLocation() {
+      @Override
+      public long getLineNumber() {
+        return -1;
+      }
+
+      @Override
+      public long getColumnNumber() {
+        return -1;
+      }
+
+      @Override
+      public long getStreamOffset() {
+        return streamOffset;
+      }
+    };
+  }
+
+  @Override
+  public void close() {
+    try {
+      in.close();
+    } catch(IOException e) {
+      throw new JsonException("There was an error closing the CBOR stream.", e);
+    }
+  }
+
+  private Event end() {
+    depth--;
+    if(maps[depth] && items[depth] % 2 != 0) {
+      throw error("A map ended after a key without a value.");
+    }
+    return maps[depth] ? Event.END_OBJECT : Event.END_ARRAY;
+  }
+
+  private void push(boolean map, long count) {
+    if(depth == maps.length) {
+      maps = Arrays.copyOf(maps, depth * 2);
+      remaining = Arrays.copyOf(remaining, depth * 2);
+      items = Arrays.copyOf(items, depth * 2);
+    }
+    if(count < -1) {
+      throw error("The container is too long.");
+    }
+    maps[depth] = map;
+    remaining[depth] = count;
+    items[depth] = 0;
+    depth++;
+  }
+
+  private Event readSimple(int info) {
+    switch(info) {
+      case 20:
+        return Event.VALUE_FALSE;
+      case 21:
+        return Event.VALUE_TRUE;
+      case 22:
+      case 23:
+        return Event.VALUE_NULL;
+      case 25:
+        decimal = toDecimal(halfToFloat((int)readBytes(2)));
+        return decimal == null ? Event.VALUE_NULL : Event.VALUE_NUMBER;
+      case 26:
+        decimal = toDecimal(Float.intBitsToFloat((int)readBytes(4)));
+        return decimal == null ? Event.VALUE_NULL : Event.VALUE_NUMBER;
+      case 27:
+        decimal = toDecimal(Double.longBitsToDouble(readBytes(8)));
+        return decimal == null ? Event.VALUE_NULL : Event.VALUE_NUMBER;
+      default:
+        throw error("Unsupported simple value " + info + ".");
+    }
+  }
+
+  //JSON has no NaN or infinity, they are read as null
+  private static BigDecimal toDecimal(double value) {
+    return Double.isNaN(value) || Double.isInfinite(value) ? null : BigDecimal.valueOf(value);
+  }
+
+  private static float halfToFloat(int half) {
+    int exponent = (half >> 10) & 0x1f;
+    int mantissa = half & 0x3ff;
+    float value;
+    if(exponent == 0) {
+      value = mantissa * (float)Math.pow(2, -24);
+    } else if(exponent == 31) {
+      value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+    } else {
+      value = (mantissa + 1024) * (float)Math.pow(2, exponent - 25);
+    }
+    return (half & 0x8000) != 0 ? -value : value;
+  }
+
+  /**
+   * Reads a map key, answering with the same string when a key is read again.
+   */
+  private String readKey(int info) {
+    if(info == INDEFINITE) {
+      return readText(info);
+    }
+    long length = readArgument(info);
+    if(length < 0 || length > MAX_KEY || length > limit - position) {
+      return readTextOfLength(length);
+    }
+    int len = (int)length;
+    int hash = len;
+    for(int i = position; i < position + len; i++) {
+      hash = 31 * hash + buffer[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & (KEY_SLOTS - 1);
+    String key = keys[slot];
+    if(key == null || !sameAscii(key, position, len)) {
+      key = new String(buffer, position, len, StandardCharsets.UTF_8);
+      keys[slot] = key;
+    }
+    position += len;
+    return key;
+  }
+
+  private boolean sameAscii(String key, int start, int len) {
+    if(key.length() != len) {
+      return false;
+    }
+    for(int i = 0; i < len; i++) {
+      if(key.charAt(i) != buffer[start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String readText(int info) {
+    if(info == INDEFINITE) {
+      throw error("Text must have a definite length.");
+    }
+    return readTextOfLength(readArgument(info));
+  }
+
+  private String readTextOfLength(long length) {
+    if(length < 0 || length > Integer.MAX_VALUE) {
+      throw error("The text is too long.");
+    }
+    int len = (int)length;
+    if(len <= limit - position) {
+      String text = new String(buffer, position, len, StandardCharsets.UTF_8);
+      position += len;
+      return text;
+    }
+    byte[] bytes = new byte[Math.min(len, MAX_CHUNK)];
+    int read = 0;
+    while(read < len) {
+      if(read == bytes.length) {
+        bytes = Arrays.copyOf(bytes, (int)Math.min(len, bytes.length * 2L));
+      }
+      if(position == limit) {
+        fill();
+      }
+      int n = Math.min(bytes.length - read, limit - position);
+      System.arraycopy(buffer, position, bytes, read, n);
+      position += n;
+      read += n;
+    }
+    return new String(bytes, 0, len, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the argument of an item, a count or value, from its additional information and the
+   * bytes after it.
+   */
+  private long readArgument(int info) {
+    if(info < 24) {
+      return info;
+    }
+    switch(info) {
+      case 24:
+        return readBytes(1);
+      case 25:
+        return readBytes(2);
+      case 26:
+        return readBytes(4);
+      case 27:
+        return readBytes(8);
+      default:
+        throw error("Unsupported additional information " + info + ".");
+    }
+  }
+
+  private long readBytes(int n) {
+    long value = 0;
+    for(int i = 0; i < n; i++) {
+      value = (value << 8) | read();
+    }
+    return value;
+  }
+
+  private int read() {
+    if(position == limit) {
+      fill();
+    }
+    return buffer[position++] & 0xff;
+  }
+
+  private void fill() {
+    try {
+      offset += limit;
+      position = 0;
+      limit = 0;
+      int n;
+      while((n = in.read(buffer)) == 0) {
+        //Keep reading until there is something or the stream ends
+      }
+      if(n < 0) {
+        throw error("The CBOR ends too soon.");
+      }
+      limit = n;
+    } catch(IOException e) {
+      throw new JsonException("There was an error reading CBOR.", e);
+    }
+  }
+
+  private JsonParsingException error(String message) {
+    return new JsonParsingException(message, getLocation());
+  }
+}
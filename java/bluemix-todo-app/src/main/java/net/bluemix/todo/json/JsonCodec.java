@@ -0,0 +1,331 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.json.JsonException;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+/**
+ * Reads and writes one type of object as JSON, field by field, over the streaming JSON API.
+ *
+ * Codecs are written by hand for each type, so nothing is looked up by reflection and no
+ * intermediate tree is built.  Fields that are not understood are skipped when reading.
+ *
+ * @param <T> The type of object.
+ */
+public abstract class JsonCodec<T> {
+
+  private final Class<T> type;
+
+  /**
+   * Creates a codec.
+   * @param type The type of object the codec reads and writes.
+   */
+  protected JsonCodec(Class<T> type) {
+    this.type = type;
+  }
+
+  /**
+   * Gets the type of object the codec reads and writes.
+   * @return The type.
+   */
+  public Class<T> getType() {
+    return type;
+  }
+
+  /**
+   * Reads an object.
+   * @param parser The parser, positioned just after the event that starts the object.
+   * @param event The event that starts the object.
+   * @return The object, or null if the value is null.
+   * @throws JsonException Thrown if the value is not an object of the expected shape.
+   */
+  public T read(JsonParser parser, Event event) {
+    if(event == Event.VALUE_NULL) {
+      return null;
+    }
+    if(event != Event.START_OBJECT) {
+      throw new JsonException("Expected an object for " + type.getSimpleName() + " but found " + event + ".");
+    }
+    T value = create();
+    while(parser.next() != Event.END_OBJECT) {
+      String name = parser.getString();
+      readField(parser, name, parser.next(), value);
+    }
+    return value;
+  }
+
+  /**
+   * Reads an array of objects.
+   * @param parser The parser, positioned just after the event that starts the array.
+   * @param event The event that starts the array.
+   * @return The objects, or null if the value is null.
+   * @throws JsonException Thrown if the value is not an array of objects of the expected shape.
+   */
+  public List<T> readList(JsonParser parser, Event event) {
+    if(event == Event.VALUE_NULL) {
+      return null;
+    }
+    if(event != Event.START_ARRAY) {
+      throw new JsonException("Expected an array of " + type.getSimpleName() + " but found " + event + ".");
+    }
+    List<T> values = new ArrayList<T>();
+    Event next;
+    while((next = parser.next()) != Event.END_ARRAY) {
+      values.add(read(parser, next));
+    }
+    return values;
+  }
+
+  /**
+   * Writes an object as a value of an array, or on its own.
+   * @param gen The generator.
+   * @param value The object, null is written as null.
+   */
+  public void write(JsonGenerator gen, T value) {
+    if(value == null) {
+      gen.writeNull();
+      return;
+    }
+    gen.writeStartObject();
+    writeFields(gen, value);
+    gen.writeEnd();
+  }
+
+  /**
+   * Writes an object as a field of the enclosing object.
+   * @param gen The generator.
+   * @param name The name of the field.
+   * @param value The object, null leaves the field out.
+   */
+  public void write(JsonGenerator gen, String name, T value) {
+    if(value == null) {
+      return;
+    }
+    gen.writeStartObject(name);
+    writeFields(gen, value);
+    gen.writeEnd();
+  }
+
+  /**
+   * Writes objects as an array.
+   * @param gen The generator.
+   * @param values The objects.
+   */
+  public void writeList(JsonGenerator gen, Collection<? extends T> values) {
+    gen.writeStartArray();
+    for(T value : values) {
+      write(gen, value);
+    }
+    gen.writeEnd();
+  }
+
+  /**
+   * Writes objects as an array as they are iterated over, so they need not all be in memory.
+   * @param gen The generator.
+   * @param values The objects.
+   */
+  public void writeList(JsonGenerator gen, Iterator<? extends T> values) {
+    gen.writeStartArray();
+    while(values.hasNext()) {
+      write(gen, values.next());
+    }
+    gen.writeEnd();
+  }
+
+  /**
+   * Writes objects as an array field of the enclosing object.
+   * @param gen The generator.
+   * @param name The name of the field.
+   * @param values The objects, null leaves the field out.
+   */
+  public void writeList(JsonGenerator gen, String name, Collection<? extends T> values) {
+    if(values == null) {
+      return;
+    }
+    gen.writeStartArray(name);
+    for(T value : values) {
+      write(gen, value);
+    }
+    gen.writeEnd();
+  }
+
+  /**
+   * Creates an empty object to read the fields into.
+   * @return The object.
+   */
+  protected abstract T create();
+
+  /**
+   * Reads a field into an object.  Fields that are not understood must be skipped with
+   * {@link #skip(JsonParser, Event)}.
+   * @param parser The parser, positioned just after the event that starts the field's value.
+   * @param name The name of the field.
+   * @param event The event that starts the field's value.
+   * @param value The object to read the field into.
+   */
+  protected abstract void readField(JsonParser parser, String name, Event event, T value);
+
+  /**
+   * Writes the fields of an object.
+   * @param gen The generator, inside the object.
+   * @param value The object.
+   */
+  protected abstract void writeFields(JsonGenerator gen, T value);
+
+  /**
+   * Reads a string value.
+   * @return The string, or null if the value is null.
+   * @throws JsonException Thrown if the value is an object or an array.
+   */
+  protected static String readString(JsonParser parser, Event event) {
+    switch(event) {
+      case VALUE_STRING:
+      case VALUE_NUMBER:
+        return parser.getString();
+      case VALUE_TRUE:
+        return "true";
+      case VALUE_FALSE:
+        return "false";
+      case VALUE_NULL:
+        return null;
+      default:
+        throw new JsonException("Expected a string but found " + event + ".");
+    }
+  }
+
+  /**
+   * Reads an integer value, a number in a string is accepted too.
+   * @return The integer, or 0 if the value is null.
+   * @throws JsonException Thrown if the value is not a number.
+   */
+  protected static int readInt(JsonParser parser, Event event) {
+    switch(event) {
+      case VALUE_NUMBER:
+        return parser.isIntegralNumber() ? parser.getInt() : parser.getBigDecimal().intValue();
+      case VALUE_STRING:
+        try {
+          return Integer.parseInt(parser.getString().trim());
+        } catch(NumberFormatException e) {
+          throw new JsonException("Expected a number but found \"" + parser.getString() + "\".", e);
+        }
+      case VALUE_NULL:
+        return 0;
+      default:
+        throw new JsonException("Expected a number but found " + event + ".");
+    }
+  }
+
+  /**
+   * Reads a boolean value, <code>"true"</code> and <code>"false"</code> are accepted too.
+   * @return The boolean, or null if the value is null.
+   * @throws JsonException Thrown if the value is not a boolean.
+   */
+  protected static Boolean readBoolean(JsonParser parser, Event event) {
+    switch(event) {
+      case VALUE_TRUE:
+        return Boolean.TRUE;
+      case VALUE_FALSE:
+        return Boolean.FALSE;
+      case VALUE_NULL:
+        return null;
+      case VALUE_STRING:
+        if("true".equals(parser.getString())) {
+          return Boolean.TRUE;
+        } else if("false".equals(parser.getString())) {
+          return Boolean.FALSE;
+        }
+        throw new JsonException("Expected a boolean but found \"" + parser.getString() + "\".");
+      default:
+        throw new JsonException("Expected a boolean but found " + event + ".");
+    }
+  }
+
+  /**
+   * Reads an array of strings.
+   * @return The strings, or null if the value is null.
+   * @throws JsonException Thrown if the value is not an array of strings.
+   */
+  protected static List<String> readStrings(JsonParser parser, Event event) {
+    if(event == Event.VALUE_NULL) {
+      return null;
+    }
+    if(event != Event.START_ARRAY) {
+      throw new JsonException("Expected an array of strings but found " + event + ".");
+    }
+    List<String> values = new ArrayList<String>();
+    Event next;
+    while((next = parser.next()) != Event.END_ARRAY) {
+      values.add(readString(parser, next));
+    }
+    return values;
+  }
+
+  /**
+   * Writes an array of strings as a field of the enclosing object.
+   * @param values The strings, null leaves the field out.
+   */
+  protected static void writeStrings(JsonGenerator gen, String name, Collection<String> values) {
+    if(values == null) {
+      return;
+    }
+    gen.writeStartArray(name);
+    for(String value : values) {
+      if(value == null) {
+        gen.writeNull();
+      } else {
+        gen.write(value);
+      }
+    }
+    gen.writeEnd();
+  }
+
+  /**
+   * Writes a string field, leaving it out if the string is null.
+   */
+  protected static void writeString(JsonGenerator gen, String name, String value) {
+    if(value != null) {
+      gen.write(name, value);
+    }
+  }
+
+  /**
+   * Skips over a value, including everything nested in it.
+   * @param parser The parser, positioned just after the event that starts the value.
+   * @param event The event that started the value.
+   */
+  protected static void skip(JsonParser parser, Event event) {
+    if(event != Event.START_OBJECT && event != Event.START_ARRAY) {
+      return;
+    }
+    int depth = 1;
+    while(depth > 0) {
+      event = parser.next();
+      if(event == Event.START_OBJECT || event == Event.START_ARRAY) {
+        depth++;
+      } else if(event == Event.END_OBJECT || event == Event.END_ARRAY) {
+        depth--;
+      }
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Reads and writes the model as JSON with the hand-written {@link JsonCodecs}.  Objects that
+ * have a codec are supported, as are lists and collections of them.  Iterators of them can be
+ * written too, they are written as an array as they are iterated over and closed afterwards if
+ * they are {@link Closeable}.
+ *
+ * Registered with the server resources and with the Cloudant client.  Anything else is left to
+ * the other providers.
+ */
+@Provider
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+public class JsonCodecProvider implements MessageBodyReader<Object>, MessageBodyWriter<Object> {
+
+  //Looking up the JSON provider is expensive so only do it once
+  private static final JsonParserFactory PARSERS = Json.createParserFactory(null);
+  private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+
+  /**
+   * Gets the codec for a type, or for the elements of a list or collection.
+   * @param type The class of the object.
+   * @param genericType The generic type of the object.
+   * @return The codec, or null if the type is not supported.
+   */
+  static JsonCodec<?> codecFor(Class<?> type, Type genericType) {
+    if(!Collection.class.isAssignableFrom(type)) {
+      return JsonCodecs.forType(type);
+    }
+    if(!type.isAssignableFrom(List.class) || !(genericType instanceof ParameterizedType)) {
+      return null;
+    }
+    Type[] args = ((ParameterizedType)genericType).getActualTypeArguments();
+    return args.length == 1 && args[0] instanceof Class ? JsonCodecs.forType((Class<?>)args[0]) : null;
+  }
+
+  private static boolean isIterator(Class<?> type, Type genericType) {
+    return Iterator.class.isAssignableFrom(type) && genericType instanceof ParameterizedType &&
+            ((ParameterizedType)genericType).getRawType() == Iterator.class;
+  }
+
+  private static boolean isCollection(Class<?> type, Type genericType) {
+    if(Collection.class.isAssignableFrom(type)) {
+      return true;
+    }
+    //Writers are asked about the runtime class of a list, an ArrayList say
+    return genericType instanceof ParameterizedType &&
+            ((ParameterizedType)genericType).getRawType() instanceof Class &&
+            Collection.class.isAssignableFrom((Class<?>)((ParameterizedType)genericType).getRawType());
+  }
+
+  /**
+   * Creates a parser for an entity.
+   * @param in The entity, closing it does nothing.
+   * @return The parser.
+   */
+  protected JsonParser createParser(InputStream in) {
+    return PARSERS.createParser(in);
+  }
+
+  /**
+   * Creates a generator for an entity.  Closing the generator must not close the stream.
+   * @param out The entity stream.
+   * @return The generator.
+   */
+  protected JsonGenerator createGenerator(OutputStream out) {
+    //Event streams write many entities to the same stream, so it must stay open
+    return GENERATORS.createGenerator(new Utf8Writer(out));
+  }
+
+  @Override
+  public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations,
+          MediaType mediaType) {
+    return codecFor(type, genericType) != null;
+  }
+
+  @Override
+  public Object readFrom(Class<Object> type, Type genericType, Annotation[] annotations,
+          MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream)
+          throws IOException, WebApplicationException {
+    JsonCodec<?> codec = codecFor(type, genericType);
+    //The container closes the stream, the parser must not
+    try(JsonParser parser = createParser(new FilterInputStream(entityStream) {
+      @Override
+      public void close() {
+      }
+    })) {
+      if(!parser.hasNext()) {
+        throw new BadRequestException("The entity is empty.");
+      }
+      JsonParser.Event event = parser.next();
+      return Collection.class.isAssignableFrom(type) ? codec.readList(parser, event) : codec.read(parser, event);
+    } catch(JsonException e) {
+      throw new BadRequestException("The entity is not valid.", e);
+    } catch(NoSuchElementException e) {
+      throw new BadRequestException("The entity ends too soon.", e);
+    }
+  }
+
+  @Override
+  public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations,
+          MediaType mediaType) {
+    boolean list = isCollection(type, genericType) || isIterator(type, genericType);
+    return codecFor(list ? List.class : type, genericType) != null;
+  }
+
+  @Override
+  public long getSize(Object t, Class<?> type, Type genericType, Annotation[] annotations,
+          MediaType mediaType) {
+    return -1;
+  }
+
+  @Override
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void writeTo(Object t, Class<?> type, Type genericType, Annotation[] annotations,
+          MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+          throws IOException, WebApplicationException {
+    if(isIterator(type, genericType)) {
+      writeIterator((Iterator)t, codecFor(List.class, genericType), entityStream);
+      return;
+    }
+    boolean collection = isCollection(type, genericType);
+    JsonCodec codec = codecFor(collection ? List.class : type, genericType);
+    try(JsonGenerator gen = createGenerator(entityStream)) {
+      if(collection) {
+        codec.writeList(gen, (Collection)t);
+      } else {
+        codec.write(gen, t);
+      }
+    }
+  }
+
+  /**
+   * Writes the objects of an iterator as an array.  Each object is written as soon as it is
+   * iterated to, so writing waits on a slow client, and the iterator is closed whether or not it
+   * was written to the end, a client that goes away included.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void writeIterator(Iterator values, JsonCodec codec, OutputStream entityStream) 
+          throws IOException {
+    try(JsonGenerator gen = createGenerator(entityStream)) {
+      codec.writeList(gen, values);
+    } catch(JsonException e) {
+      //Generators wrap the errors of the stream they write to
+      if(e.getCause() instanceof IOException) {
+        throw (IOException)e.getCause();
+      }
+      throw e;
+    } finally {
+      if(values instanceof Closeable) {
+        ((Closeable)values).close();
+      }
+    }
+  }
+}
@@ -0,0 +1,429 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.CloudantAllDocs;
+import net.bluemix.todo.model.CloudantBulkDocs;
+import net.bluemix.todo.model.CloudantCount;
+import net.bluemix.todo.model.CloudantKeys;
+import net.bluemix.todo.model.CloudantPostResponse;
+import net.bluemix.todo.model.CloudantReducedRow;
+import net.bluemix.todo.model.CloudantRow;
+import net.bluemix.todo.model.CloudantToDo;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+
+/**
+ * The {@link JsonCodec}s of the model.  Fields are written in the same order, and null fields are
+ * left out the same way, as the JAXB binding used before them, so the JSON clients see does not
+ * change.
+ */
+public final class JsonCodecs {
+
+  public static final JsonCodec<ToDo> TODO = new JsonCodec<ToDo>(ToDo.class) {
+    @Override
+    protected ToDo create() {
+      return new ToDo();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, ToDo td) {
+      switch(name) {
+        case "id":
+          td.setId(readString(parser, event));
+          break;
+        case "title":
+          td.setTitle(readString(parser, event));
+          break;
+        case "completed":
+          td.setCompleted(Boolean.TRUE.equals(readBoolean(parser, event)));
+          break;
+        case "order":
+          td.setOrder(readInt(parser, event));
+          break;
+        case "rev":
+          td.setRev(readString(parser, event));
+          break;
+        default:
+          skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, ToDo td) {
+      gen.write("completed", td.isCompleted());
+      writeString(gen, "id", td.getId());
+      gen.write("order", td.getOrder());
+      writeString(gen, "rev", td.getRev());
+      writeString(gen, "title", td.getTitle());
+    }
+  };
+
+  public static final JsonCodec<ToDoChanges> TODO_CHANGES = new JsonCodec<ToDoChanges>(ToDoChanges.class) {
+    @Override
+    protected ToDoChanges create() {
+      return new ToDoChanges();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, ToDoChanges changes) {
+      switch(name) {
+        case "deleted":
+          changes.setDeleted(readStrings(parser, event));
+          break;
+        case "more":
+          changes.setMore(Boolean.TRUE.equals(readBoolean(parser, event)));
+          break;
+        case "resync":
+          changes.setResync(Boolean.TRUE.equals(readBoolean(parser, event)));
+          break;
+        case "seq":
+          changes.setSeq(readString(parser, event));
+          break;
+        case "upserts":
+          changes.setUpserts(TODO.readList(parser, event));
+          break;
+        default:
+          skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, ToDoChanges changes) {
+      writeStrings(gen, "deleted", changes.getDeleted());
+      gen.write("more", changes.isMore());
+      gen.write("resync", changes.isResync());
+      writeString(gen, "seq", changes.getSeq());
+      TODO.writeList(gen, "upserts", changes.getUpserts());
+    }
+  };
+
+  public static final JsonCodec<BulkResult> BULK_RESULT = new JsonCodec<BulkResult>(BulkResult.class) {
+    @Override
+    protected BulkResult create() {
+      return new BulkResult();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, BulkResult result) {
+      switch(name) {
+        case "id":
+          result.setId(readString(parser, event));
+          break;
+        case "ok":
+          result.setOk(Boolean.TRUE.equals(readBoolean(parser, event)));
+          break;
+        case "rev":
+          result.setRev(readString(parser, event));
+          break;
+        case "error":
+          result.setError(readString(parser, event));
+          break;
+        case "reason":
+          result.setReason(readString(parser, event));
+          break;
+        default:
+          skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, BulkResult result) {
+      writeString(gen, "error", result.getError());
+      writeString(gen, "id", result.getId());
+      gen.write("ok", result.isOk());
+      writeString(gen, "reason", result.getReason());
+      writeString(gen, "rev", result.getRev());
+    }
+  };
+
+  public static final JsonCodec<CloudantToDo> CLOUDANT_TODO = new JsonCodec<CloudantToDo>(CloudantToDo.class) {
+    @Override
+    protected CloudantToDo create() {
+      return new CloudantToDo();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantToDo ctd) {
+      switch(name) {
+        case "_id":
+          ctd.set_id(readString(parser, event));
+          break;
+        case "_rev":
+          ctd.set_rev(readString(parser, event));
+          break;
+        case "_deleted":
+          ctd.set_deleted(readBoolean(parser, event));
+          break;
+        case "title":
+          ctd.setTitle(readString(parser, event));
+          break;
+        case "completed":
+          ctd.setCompleted(Boolean.TRUE.equals(readBoolean(parser, event)));
+          break;
+        case "order":
+          ctd.setOrder(readInt(parser, event));
+          break;
+        default:
+          skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantToDo ctd) {
+      writeString(gen, "_id", ctd.get_id());
+      writeString(gen, "_rev", ctd.get_rev());
+      if(ctd.get_deleted() != null) {
+        gen.write("_deleted", ctd.get_deleted());
+      }
+      gen.write("completed", ctd.isCompleted());
+      gen.write("order", ctd.getOrder());
+      writeString(gen, "title", ctd.getTitle());
+    }
+  };
+
+  public static final JsonCodec<CloudantPostResponse> CLOUDANT_POST_RESPONSE = 
+          new JsonCodec<CloudantPostResponse>(CloudantPostResponse.class) {
+    @Override
+    protected CloudantPostResponse create() {
+      return new CloudantPostResponse();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantPostResponse post) {
+      switch(name) {
+        case "id":
+          post.setId(readString(parser, event));
+          break;
+        case "ok":
+          post.setOk(Boolean.TRUE.equals(readBoolean(parser, event)));
+          break;
+        case "rev":
+          post.setRev(readString(parser, event));
+          break;
+        default:
+          skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantPostResponse post) {
+      writeString(gen, "id", post.getId());
+      gen.write("ok", post.isOk());
+      writeString(gen, "rev", post.getRev());
+    }
+  };
+
+  public static final JsonCodec<CloudantReducedRow> CLOUDANT_REDUCED_ROW = 
+          new JsonCodec<CloudantReducedRow>(CloudantReducedRow.class) {
+    @Override
+    protected CloudantReducedRow create() {
+      return new CloudantReducedRow();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantReducedRow row) {
+      switch(name) {
+        case "key":
+          if(event == Event.START_OBJECT || event == Event.START_ARRAY) {
+            skip(parser, event);
+          } else {
+            row.setKey(readString(parser, event));
+          }
+          break;
+        case "value":
+          row.setValue(readInt(parser, event));
+          break;
+        default:
+          skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantReducedRow row) {
+      if(row.getKey() == null) {
+        gen.writeNull("key");
+      } else {
+        gen.write("key", row.getKey());
+      }
+      gen.write("value", row.getValue());
+    }
+  };
+
+  public static final JsonCodec<CloudantCount> CLOUDANT_COUNT = new JsonCodec<CloudantCount>(CloudantCount.class) {
+    @Override
+    protected CloudantCount create() {
+      return new CloudantCount();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantCount count) {
+      if("rows".equals(name)) {
+        count.setRows(CLOUDANT_REDUCED_ROW.readList(parser, event));
+      } else {
+        skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantCount count) {
+      CLOUDANT_REDUCED_ROW.writeList(gen, "rows", count.getRows());
+    }
+  };
+
+  public static final JsonCodec<CloudantRow> CLOUDANT_ROW = new JsonCodec<CloudantRow>(CloudantRow.class) {
+    @Override
+    protected CloudantRow create() {
+      return new CloudantRow();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantRow row) {
+      switch(name) {
+        case "id":
+          row.setId(readString(parser, event));
+          break;
+        case "key":
+          //Views are keyed by the order, _all_docs by the document ID
+          if(event == Event.VALUE_NUMBER) {
+            row.setKey(readInt(parser, event));
+          } else {
+            skip(parser, event);
+          }
+          break;
+        case "doc":
+          row.setDoc(CLOUDANT_TODO.read(parser, event));
+          break;
+        case "value":
+          if(event == Event.START_OBJECT) {
+            row.setValue(TODO.read(parser, event));
+          } else {
+            skip(parser, event);
+          }
+          break;
+        default:
+          skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantRow row) {
+      writeString(gen, "id", row.getId());
+      gen.write("key", row.getKey());
+      TODO.write(gen, "value", row.getValue());
+      CLOUDANT_TODO.write(gen, "doc", row.getDoc());
+    }
+  };
+
+  public static final JsonCodec<CloudantAllDocs> CLOUDANT_ALL_DOCS = 
+          new JsonCodec<CloudantAllDocs>(CloudantAllDocs.class) {
+    @Override
+    protected CloudantAllDocs create() {
+      return new CloudantAllDocs();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantAllDocs docs) {
+      if("rows".equals(name)) {
+        docs.setRows(CLOUDANT_ROW.readList(parser, event));
+      } else {
+        skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantAllDocs docs) {
+      CLOUDANT_ROW.writeList(gen, "rows", docs.getRows());
+    }
+  };
+
+  public static final JsonCodec<CloudantKeys> CLOUDANT_KEYS = new JsonCodec<CloudantKeys>(CloudantKeys.class) {
+    @Override
+    protected CloudantKeys create() {
+      return new CloudantKeys();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantKeys keys) {
+      if("keys".equals(name)) {
+        keys.setKeys(readStrings(parser, event));
+      } else {
+        skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantKeys keys) {
+      writeStrings(gen, "keys", keys.getKeys());
+    }
+  };
+
+  public static final JsonCodec<CloudantBulkDocs> CLOUDANT_BULK_DOCS = 
+          new JsonCodec<CloudantBulkDocs>(CloudantBulkDocs.class) {
+    @Override
+    protected CloudantBulkDocs create() {
+      return new CloudantBulkDocs();
+    }
+
+    @Override
+    protected void readField(JsonParser parser, String name, Event event, CloudantBulkDocs docs) {
+      if("docs".equals(name)) {
+        docs.setDocs(CLOUDANT_TODO.readList(parser, event));
+      } else {
+        skip(parser, event);
+      }
+    }
+
+    @Override
+    protected void writeFields(JsonGenerator gen, CloudantBulkDocs docs) {
+      CLOUDANT_TODO.writeList(gen, "docs", docs.getDocs());
+    }
+  };
+
+  private static final Map<Class<?>, JsonCodec<?>> CODECS;
+
+  static {
+    Map<Class<?>, JsonCodec<?>> codecs = new HashMap<Class<?>, JsonCodec<?>>();
+    for(JsonCodec<?> codec : new JsonCodec<?>[] {TODO, TODO_CHANGES, BULK_RESULT, CLOUDANT_TODO,
+            CLOUDANT_POST_RESPONSE, CLOUDANT_REDUCED_ROW, CLOUDANT_COUNT, CLOUDANT_ROW,
+            CLOUDANT_ALL_DOCS, CLOUDANT_KEYS, CLOUDANT_BULK_DOCS}) {
+      codecs.put(codec.getType(), codec);
+    }
+    CODECS = Collections.unmodifiableMap(codecs);
+  }
+
+  private JsonCodecs() {
+  }
+
+  /**
+   * Gets the codec of a type.
+   * @param type The type.
+   * @return The codec, or null if the type has none.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> JsonCodec<T> forType(Class<T> type) {
+    return (JsonCodec<T>)CODECS.get(type);
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Encodes characters as UTF-8 straight onto a stream.
+ *
+ * The JSON generator already buffers the characters it writes, so this only needs a small buffer
+ * of its own instead of the 8 KB one every {@link java.io.OutputStreamWriter} allocates, which
+ * was most of the garbage made writing a single ToDo.  Closing the writer flushes it but leaves
+ * the stream open.
+ */
+class Utf8Writer extends Writer {
+
+  private static final int BUFFER_SIZE = 1024;
+
+  private final OutputStream out;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int count;
+  //The high surrogate of a pair split across writes
+  private char pending;
+
+  /**
+   * Creates a writer.
+   * @param out The stream to write to.
+   */
+  Utf8Writer(OutputStream out) {
+    this.out = out;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    int end = off + len;
+    for(int i = off; i < end; i++) {
+      //The longest encoding of a character is 4 bytes
+      if(count > BUFFER_SIZE - 4) {
+        flushBuffer();
+      }
+      char c = cbuf[i];
+      if(c < 0x80 && pending == 0) {
+        //JSON is mostly ASCII, copy runs of it in a tight loop
+        int limit = Math.min(end, i + BUFFER_SIZE - count);
+        while(true) {
+          buffer[count++] = (byte)c;
+          if(++i == limit || (c = cbuf[i]) >= 0x80) {
+            break;
+          }
+        }
+        i--;
+        continue;
+      }
+      if(pending != 0) {
+        char high = pending;
+        pending = 0;
+        if(Character.isLowSurrogate(c)) {
+          int cp = Character.toCodePoint(high, c);
+          buffer[count++] = (byte)(0xf0 | (cp >> 18));
+          buffer[count++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+          buffer[count++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+          buffer[count++] = (byte)(0x80 | (cp & 0x3f));
+          continue;
+        }
+        buffer[count++] = '?';
+        if(count > BUFFER_SIZE - 4) {
+          flushBuffer();
+        }
+      }
+      if(c < 0x80) {
+        buffer[count++] = (byte)c;
+      } else if(c < 0x800) {
+        buffer[count++] = (byte)(0xc0 | (c >> 6));
+        buffer[count++] = (byte)(0x80 | (c & 0x3f));
+      } else if(Character.isHighSurrogate(c)) {
+        pending = c;
+      } else if(Character.isLowSurrogate(c)) {
+        //A low surrogate on its own is not a character
+        buffer[count++] = '?';
+      } else {
+        buffer[count++] = (byte)(0xe0 | (c >> 12));
+        buffer[count++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+        buffer[count++] = (byte)(0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(pending != 0) {
+      pending = 0;
+      if(count > BUFFER_SIZE - 4) {
+        flushBuffer();
+      }
+      buffer[count++] = '?';
+    }
+    flush();
+  }
+
+  private void flushBuffer() throws IOException {
+    if(count > 0) {
+      out.write(buffer, 0, count);
+      count = 0;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+/**
+ * Represents the result for a single ToDo of a bulk operation.  The fields match the ones
+ * Cloudant returns for each document sent to _bulk_docs.
+ */
+public class BulkResult {
+  
+  private String id;
+  private boolean ok;
+  private String rev;
+  private String error;
+  private String reason;
+  
+  /**
+   * Default constructor.
+   */
+  public BulkResult() {
+  }
+  
+  /**
+   * Creates a successful result.
+   * @param id The ID of the ToDo.
+   * @param rev The new revision of the ToDo, may be null.
+   */
+  public BulkResult(String id, String rev) {
+    this.id = id;
+    this.rev = rev;
+    this.ok = true;
+  }
+  
+  /**
+   * Creates a failed result.
+   * @param id The ID of the ToDo, may be null.
+   * @param error The error, for example "not_found" or "conflict".
+   * @param reason A description of the error.
+   */
+  public BulkResult(String id, String error, String reason) {
+    this.id = id;
+    this.error = error;
+    this.reason = reason;
+  }
+  
+  /**
+   * Gets the ID of the ToDo.
+   * @return The ID of the ToDo.
+   */
+  public String getId() {
+    return id;
+  }
+  
+  /**
+   * Sets the ID.
+   * @param id The ID to set.
+   */
+  public void setId(String id) {
+    this.id = id;
+  }
+  
+  /**
+   * Indicates if the operation succeeded for this ToDo.
+   * @return True if the operation succeeded, false otherwise.
+   */
+  public boolean isOk() {
+    return ok;
+  }
+  
+  /**
+   * Sets the OK field.
+   * @param ok The OK response.
+   */
+  public void setOk(boolean ok) {
+    this.ok = ok;
+  }
+  
+  /**
+   * Gets the new revision of the ToDo.
+   * @return The revision.
+   */
+  public String getRev() {
+    return rev;
+  }
+  
+  /**
+   * Sets the revision.
+   * @param rev The revision to set.
+   */
+  public void setRev(String rev) {
+    this.rev = rev;
+  }
+  
+  /**
+   * Gets the error if the operation failed for this ToDo.
+   * @return The error, or null if the operation succeeded.
+   */
+  public String getError() {
+    return error;
+  }
+  
+  /**
+   * Sets the error.
+   * @param error The error to set.
+   */
+  public void setError(String error) {
+    this.error = error;
+  }
+  
+  /**
+   * Gets the description of the error.
+   * @return The reason the operation failed, or null if it succeeded.
+   */
+  public String getReason() {
+    return reason;
+  }
+  
+  /**
+   * Sets the description of the error.
+   * @param reason The reason to set.
+   */
+  public void setReason(String reason) {
+    this.reason = reason;
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import java.util.List;
+
+/**
+ * Represents the body sent to Cloudant when writing many documents at once with _bulk_docs.
+ */
+public class CloudantBulkDocs {
+  private List<CloudantToDo> docs;
+
+  /**
+   * Default constructor.
+   */
+  public CloudantBulkDocs() {
+  }
+
+  /**
+   * Creates the body for a bulk write.
+   * @param docs The documents to write.
+   */
+  public CloudantBulkDocs(List<CloudantToDo> docs) {
+    this.docs = docs;
+  }
+
+  /**
+   * Gets the documents.
+   * @return The documents.
+   */
+  public List<CloudantToDo> getDocs() {
+    return docs;
+  }
+
+  /**
+   * Sets the documents.
+   * @param docs The documents to set.
+   */
+  public void setDocs(List<CloudantToDo> docs) {
+    this.docs = docs;
+  }
+}
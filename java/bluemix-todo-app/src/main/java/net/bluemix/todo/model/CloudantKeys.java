@@ -0,0 +1,55 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import java.util.List;
+
+/**
+ * Represents the body sent to Cloudant when querying a set of documents by their IDs.
+ */
+public class CloudantKeys {
+  private List<String> keys;
+
+  /**
+   * Default constructor.
+   */
+  public CloudantKeys() {
+  }
+
+  /**
+   * Creates the body for a query.
+   * @param keys The document IDs.
+   */
+  public CloudantKeys(List<String> keys) {
+    this.keys = keys;
+  }
+
+  /**
+   * Gets the keys.
+   * @return The keys.
+   */
+  public List<String> getKeys() {
+    return keys;
+  }
+
+  /**
+   * Sets the keys.
+   * @param keys The keys to set.
+   */
+  public void setKeys(List<String> keys) {
+    this.keys = keys;
+  }
+}
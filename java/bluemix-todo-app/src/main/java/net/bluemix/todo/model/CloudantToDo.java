@@ -27,6 +27,7 @@ public class CloudantToDo {
   private String title;
   private boolean completed;
   private int order;
+  private Boolean _deleted;
 
   /**
    * Default constructor, needed 
@@ -120,6 +121,8 @@ public class CloudantToDo {
     td.setId(this.get_id());
     td.setCompleted(this.isCompleted());
     td.setTitle(this.getTitle());
+    td.setOrder(this.getOrder());
+    td.setRev(this.get_rev());
     return td;
   }
   
@@ -139,6 +142,22 @@ public class CloudantToDo {
     this.order = order;
   }
 
+  /**
+   * Indicates if the document is deleted.
+   * @return True if the document is deleted, null or false otherwise.
+   */
+  public Boolean get_deleted() {
+    return _deleted;
+  }
+
+  /**
+   * Marks the document as deleted, used when deleting documents in bulk.
+   * @param _deleted True to delete the document.
+   */
+  public void set_deleted(Boolean _deleted) {
+    this._deleted = _deleted;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if(obj instanceof CloudantToDo) {
@@ -28,6 +28,7 @@ public class ToDo {
   private String title;
   private String id;
   private int order;
+  private String rev;
 
   /**
    * Creates a new ToDo.
@@ -37,6 +38,18 @@ public class ToDo {
     this.completed = false;
   }
 
+  /**
+   * Creates a copy of another ToDo.
+   * @param td The ToDo to copy.
+   */
+  public ToDo(ToDo td) {
+    this.id = td.getId();
+    this.title = td.getTitle();
+    this.completed = td.isCompleted();
+    this.order = td.getOrder();
+    this.rev = td.getRev();
+  }
+
   /**
    * Gets the ToDo ID.
    * @return The ID.
@@ -102,6 +115,22 @@ public class ToDo {
     this.order = order;
   }
   
+  /**
+   * Gets the revision of the ToDo in the store.  Not every store tracks revisions.
+   * @return The revision, or null if it is not known.
+   */
+  public String getRev() {
+    return rev;
+  }
+
+  /**
+   * Sets the revision.  The revision is not considered when comparing ToDos.
+   * @param rev The revision to set.
+   */
+  public void setRev(String rev) {
+    this.rev = rev;
+  }
+  
   @Override
   public boolean equals(Object obj) {
     if(obj instanceof ToDo) {
@@ -0,0 +1,152 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * What changed in a store since a sequence: the ToDos added or changed since then and the IDs
+ * of the ToDos deleted since then, along with the sequence to ask for the next changes from.
+ *
+ * When the store cannot tell what changed, for example because the sequence is too old, the
+ * changes are empty and {@link #isResync()} is true.  The client must then read all the ToDos
+ * again and ask for the changes since the sequence given here.
+ */
+@XmlRootElement
+public class ToDoChanges {
+
+  private List<ToDo> upserts = new ArrayList<ToDo>();
+  private List<String> deleted = new ArrayList<String>();
+  private String seq;
+  private boolean resync;
+  private boolean more;
+
+  /**
+   * Default constructor.
+   */
+  public ToDoChanges() {
+  }
+
+  /**
+   * Creates changes.
+   * @param upserts The ToDos added or changed, as they are now.
+   * @param deleted The IDs of the ToDos deleted.
+   * @param seq The sequence to ask for the next changes from.
+   * @param more Whether there are more changes than were returned.
+   */
+  public ToDoChanges(List<ToDo> upserts, List<String> deleted, String seq, boolean more) {
+    this.upserts = upserts;
+    this.deleted = deleted;
+    this.seq = seq;
+    this.more = more;
+  }
+
+  /**
+   * Creates the answer for a client that must read all the ToDos again.
+   * @param seq The current sequence, to ask for the changes after reading all the ToDos from.
+   * @return The changes.
+   */
+  public static ToDoChanges resync(String seq) {
+    ToDoChanges changes = new ToDoChanges();
+    changes.setSeq(seq);
+    changes.setResync(true);
+    return changes;
+  }
+
+  /**
+   * Gets the ToDos added or changed, as they are now.
+   * @return The ToDos.
+   */
+  public List<ToDo> getUpserts() {
+    return upserts;
+  }
+
+  /**
+   * Sets the ToDos added or changed.
+   * @param upserts The ToDos.
+   */
+  public void setUpserts(List<ToDo> upserts) {
+    this.upserts = upserts;
+  }
+
+  /**
+   * Gets the IDs of the ToDos deleted.
+   * @return The IDs.
+   */
+  public List<String> getDeleted() {
+    return deleted;
+  }
+
+  /**
+   * Sets the IDs of the ToDos deleted.
+   * @param deleted The IDs.
+   */
+  public void setDeleted(List<String> deleted) {
+    this.deleted = deleted;
+  }
+
+  /**
+   * Gets the opaque sequence to ask for the next changes from.
+   * @return The sequence.
+   */
+  public String getSeq() {
+    return seq;
+  }
+
+  /**
+   * Sets the sequence to ask for the next changes from.
+   * @param seq The sequence.
+   */
+  public void setSeq(String seq) {
+    this.seq = seq;
+  }
+
+  /**
+   * Whether the client must read all the ToDos again because the store cannot tell what
+   * changed.
+   * @return True if the client must resync.
+   */
+  public boolean isResync() {
+    return resync;
+  }
+
+  /**
+   * Sets whether the client must read all the ToDos again.
+   * @param resync True if the client must resync.
+   */
+  public void setResync(boolean resync) {
+    this.resync = resync;
+  }
+
+  /**
+   * Whether there are more changes than were returned, which can be asked for straight away.
+   * @return True if there are more changes.
+   */
+  public boolean isMore() {
+    return more;
+  }
+
+  /**
+   * Sets whether there are more changes than were returned.
+   * @param more True if there are more changes.
+   */
+  public void setMore(boolean more) {
+    this.more = more;
+  }
+}
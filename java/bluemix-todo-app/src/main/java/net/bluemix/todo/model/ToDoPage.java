@@ -0,0 +1,53 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import java.util.List;
+
+/**
+ * A page of ToDos along with the cursor to get the page that follows it.
+ */
+public class ToDoPage {
+
+  private final List<ToDo> todos;
+  private final String next;
+
+  /**
+   * Creates a page.
+   * @param todos The ToDos on the page.
+   * @param next The cursor for the next page, or null if this is the last page.
+   */
+  public ToDoPage(List<ToDo> todos, String next) {
+    this.todos = todos;
+    this.next = next;
+  }
+
+  /**
+   * Gets the ToDos on this page, in order.
+   * @return The ToDos.
+   */
+  public List<ToDo> getToDos() {
+    return todos;
+  }
+
+  /**
+   * Gets the opaque cursor for the next page.
+   * @return The cursor, or null if this is the last page.
+   */
+  public String getNext() {
+    return next;
+  }
+}
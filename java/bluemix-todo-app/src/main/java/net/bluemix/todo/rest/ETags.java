@@ -0,0 +1,174 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.rest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.EntityTag;
+
+import net.bluemix.todo.model.ToDo;
+
+/**
+ * Builds the entity tags of ToDos and collections of ToDos, and matches them against the
+ * entity tags sent in conditional request headers.
+ *
+ * A ToDo is tagged with its revision.  Stores that do not keep revisions get a tag made from a
+ * digest of the ToDo instead, which still changes whenever the ToDo does.  Collections are
+ * tagged with the version of the store.
+ */
+final class ETags {
+
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+  private static final String FORMAT_SEPARATOR = "--";
+
+  private ETags() {
+  }
+
+  /**
+   * Gets the entity tag of a ToDo.
+   * @param td The ToDo.
+   * @return A strong entity tag for the ToDo.
+   */
+  static EntityTag of(ToDo td) {
+    return new EntityTag(td.getRev() != null ? td.getRev() : digest(td));
+  }
+
+  /**
+   * Gets the entity tag of ToDos read at a version of the store.
+   * @param version The version of the store, from the store.
+   * @return A strong entity tag for the ToDos.
+   */
+  static EntityTag ofVersion(String version) {
+    return new EntityTag(version);
+  }
+
+  /**
+   * Gets the entity tag of another representation of the same content, <code>"abc"</code>
+   * becomes <code>"abc--cbor"</code> for example.
+   * @param tag The entity tag of the JSON representation.
+   * @param format The name of the other representation's format.
+   * @return The entity tag of the other representation, as weak or strong as the given one.
+   */
+  static EntityTag forFormat(EntityTag tag, String format) {
+    return new EntityTag(tag.getValue() + FORMAT_SEPARATOR + format, tag.isWeak());
+  }
+
+  /**
+   * Takes the format added by {@link #forFormat(EntityTag, String)} off the entity tags in a
+   * conditional request header.
+   * @param header The value of the header, may be null.
+   * @param format The name of the format.
+   * @return The header with the format taken off its tags, or null if there is no header.
+   */
+  static String withoutFormat(String header, String format) {
+    return header == null ? null : header.replace(FORMAT_SEPARATOR + format + '"', "\"");
+  }
+
+  /**
+   * Checks whether an entity tag is one of those in an If-None-Match header.  Tags are compared
+   * by their value only, weak tags in the header match strong ones.
+   * @param header The value of the header, may be null.
+   * @param tag The entity tag of the current representation.
+   * @return True if the header is <code>*</code> or lists the tag, false otherwise or if there
+   * is no header.
+   */
+  static boolean matches(String header, EntityTag tag) {
+    if(isAny(header)) {
+      return true;
+    }
+    for(EntityTag listed : parse(header)) {
+      if(listed.getValue().equals(tag.getValue())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks whether a header matches any representation.
+   * @param header The value of the header, may be null.
+   * @return True if the header is <code>*</code>.
+   */
+  static boolean isAny(String header) {
+    return header != null && header.trim().equals("*");
+  }
+
+  /**
+   * Gets the values of the strong entity tags in an If-Match header.  Weak tags never match
+   * for an If-Match, so they are left out.
+   * @param header The value of the header, may be null.
+   * @return The values of the strong tags in the order they are listed.
+   */
+  static List<String> strongValues(String header) {
+    List<String> values = new ArrayList<String>();
+    for(EntityTag tag : parse(header)) {
+      if(!tag.isWeak()) {
+        values.add(tag.getValue());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Parses a comma separated list of entity tags.  Anything that is not a quoted tag is
+   * skipped.
+   * @param header The value of the header, may be null.
+   * @return The entity tags.
+   */
+  private static List<EntityTag> parse(String header) {
+    List<EntityTag> tags = new ArrayList<EntityTag>();
+    if(header == null) {
+      return tags;
+    }
+    int i = 0;
+    int length = header.length();
+    while(i < length) {
+      if(header.charAt(i) == '"') {
+        int end = header.indexOf('"', i + 1);
+        if(end < 0) {
+          break;
+        }
+        boolean weak = i >= 2 && header.regionMatches(true, i - 2, "W/", 0, 2);
+        tags.add(new EntityTag(header.substring(i + 1, end), weak));
+        i = end;
+      }
+      i++;
+    }
+    return tags;
+  }
+
+  private static String digest(ToDo td) {
+    MessageDigest sha;
+    try {
+      sha = MessageDigest.getInstance("SHA-1");
+    } catch(NoSuchAlgorithmException e) {
+      //Every Java runtime has SHA-1
+      throw new IllegalStateException(e);
+    }
+    String content = td.getId() + '\n' + td.getOrder() + '\n' + td.isCompleted() + '\n' + td.getTitle();
+    byte[] hash = sha.digest(content.getBytes(StandardCharsets.UTF_8));
+    char[] hex = new char[hash.length * 2];
+    for(int i = 0; i < hash.length; i++) {
+      hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+      hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+    }
+    return new String(hex);
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.rest;
+
+import java.io.IOException;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.Provider;
+
+import net.bluemix.todo.json.CborCodecProvider;
+
+/**
+ * Gives the CBOR representation of a resource its own entity tag.
+ *
+ * The API tags resources by their content, but the JSON and CBOR representations are different
+ * bytes, so a cache must not answer a request for one with the other.  This filter adds
+ * <code>--cbor</code> to the tags of CBOR responses and takes it off the tags in conditional
+ * requests that ask for CBOR, so the API only ever sees the tags it made.  Tags sent with a
+ * request for JSON are left alone, so a CBOR tag never matches JSON.  Every response that could
+ * have been either representation varies by Accept.
+ */
+@Provider
+public class FormatTagFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+  static final String CBOR = "cbor";
+  private static final MediaType APPLICATION_CBOR_TYPE =
+          MediaType.valueOf(CborCodecProvider.APPLICATION_CBOR);
+  private static final String WANTS_CBOR = FormatTagFilter.class.getName() + ".cbor";
+
+  @Override
+  public void filter(ContainerRequestContext request) throws IOException {
+    if(!wantsCbor(request)) {
+      return;
+    }
+    request.setProperty(WANTS_CBOR, Boolean.TRUE);
+    MultivaluedMap<String, String> headers = request.getHeaders();
+    for(String name : new String[] {HttpHeaders.IF_MATCH, HttpHeaders.IF_NONE_MATCH}) {
+      String header = headers.getFirst(name);
+      if(header != null) {
+        headers.putSingle(name, ETags.withoutFormat(header, CBOR));
+      }
+    }
+  }
+
+  @Override
+  public void filter(ContainerRequestContext request, ContainerResponseContext response)
+          throws IOException {
+    MediaType type = response.getMediaType();
+    boolean cbor;
+    if(type != null) {
+      if(!type.isCompatible(MediaType.APPLICATION_JSON_TYPE) 
+              && !type.isCompatible(APPLICATION_CBOR_TYPE)) {
+        return;
+      }
+      cbor = type.isCompatible(APPLICATION_CBOR_TYPE);
+    } else {
+      //Not modified and precondition failed responses have no entity to tell the format by
+      cbor = request.getProperty(WANTS_CBOR) != null;
+    }
+    MultivaluedMap<String, Object> headers = response.getHeaders();
+    if(type != null || headers.containsKey(HttpHeaders.ETAG)) {
+      addVary(headers);
+    }
+    Object tag = headers.getFirst(HttpHeaders.ETAG);
+    if(cbor && tag != null) {
+      EntityTag jsonTag = tag instanceof EntityTag ? (EntityTag) tag 
+              : EntityTag.valueOf(tag.toString());
+      headers.putSingle(HttpHeaders.ETAG, ETags.forFormat(jsonTag, CBOR));
+    }
+  }
+
+  /**
+   * Checks whether CBOR is the representation a request would get.  JSON is the default, so
+   * CBOR is only chosen when the client prefers it over JSON.
+   * @param request The request.
+   * @return True if the response will be CBOR.
+   */
+  static boolean wantsCbor(ContainerRequestContext request) {
+    for(MediaType accepted : request.getAcceptableMediaTypes()) {
+      if(accepted.isCompatible(MediaType.APPLICATION_JSON_TYPE)) {
+        return false;
+      }
+      if(accepted.isCompatible(APPLICATION_CBOR_TYPE)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void addVary(MultivaluedMap<String, Object> headers) {
+    Object vary = headers.getFirst(HttpHeaders.VARY);
+    if(vary == null) {
+      headers.putSingle(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+      return;
+    }
+    for(String name : vary.toString().split(",")) {
+      if(name.trim().equalsIgnoreCase(HttpHeaders.ACCEPT) || name.trim().equals("*")) {
+        return;
+      }
+    }
+    headers.putSingle(HttpHeaders.VARY, vary + ", " + HttpHeaders.ACCEPT);
+  }
+}
@@ -15,38 +15,96 @@
  */
 package net.bluemix.todo.rest;
 
-import java.util.Collection;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericEntity;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.UriInfo;
 
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+import net.bluemix.todo.store.AsyncToDoStore;
+import net.bluemix.todo.store.RevisionMismatchException;
 import net.bluemix.todo.store.ToDoStore;
 import net.bluemix.todo.store.ToDoStoreException;
 import net.bluemix.todo.store.ToDoStoreFactory;
 
 /**
  * REST API for performing basic CRUD operations on TODOs.
+ *
+ * Requests are suspended while the store does its work so no request thread waits on the
+ * database.  Requests the store does not answer within <code>todo.api.timeout</code>
+ * milliseconds get a 503.
+ *
+ * Reads are tagged with an ETag, the revision of a ToDo or the version of the store for
+ * collections, and must be revalidated by caches.  A read whose If-None-Match header lists the
+ * current tag gets a 304 without a body, and for collections without the ToDos being read.
+ * Updates and deletes with an If-Match header only happen if the ToDo is still at one of the
+ * listed tags, otherwise they get a 412.
+ *
+ * ToDos are read and written as JSON, or as CBOR for clients that prefer it.  The tags of CBOR
+ * responses are told apart from those of JSON ones by {@link FormatTagFilter}.
+ *
+ * All the ToDos are streamed from the store as they are written to the client, so they are never
+ * all held in memory and a slow client slows the reads down rather than filling the heap.
  */
 @Path("todos")
 public class ToDoAPI {
 
-  private ToDoStore store;
+  private static final int DEFAULT_PAGE_LIMIT = 100;
+  private static final int MAX_PAGE_LIMIT = 1000;
+  private static final long TIMEOUT = Long.getLong("todo.api.timeout", 30000); //in milliseconds
+  private static final CacheControl REVALIDATE = new CacheControl();
+  static {
+    //Caches may keep responses but must check they are current before using them
+    REVALIDATE.setNoCache(true);
+    REVALIDATE.setNoTransform(false);
+  }
+  private static final TimeoutHandler TIMEOUT_HANDLER = new TimeoutHandler() {
+    @Override
+    public void handleTimeout(AsyncResponse resp) {
+      resp.resume(new WebApplicationException("Timed out waiting for the ToDo store.", 
+              Response.Status.SERVICE_UNAVAILABLE));
+    }
+  };
+
+  private AsyncToDoStore store;
 
   /**
    * Default constructor.  This is used by the Jersey framework.
    * @throws ToDoStoreException Thrown if a store cannot be retrieved.
    */
   public ToDoAPI() throws ToDoStoreException {
-    this.store = ToDoStoreFactory.getInstance();
+    this.store = ToDoStoreFactory.getAsyncInstance();
   }
 
   /**
@@ -54,7 +112,7 @@ public class ToDoAPI {
    * @param store The ToDo store to use.
    */
   public ToDoAPI(ToDoStore store) {
-    this.store = store;
+    this.store = ToDoStoreFactory.async(store);
   }
 
   /**
@@ -73,32 +131,39 @@ public class ToDoAPI {
    * }
    * </code>
    * @param id The ID of the ToDo.
-   * @return The ToDo for the given ID.
+   * @param ifNoneMatch The If-None-Match header, may be null.
+   * @param resp Resumed with the ToDo for the given ID, or with a 304 if it still has one of
+   * the given ETags.
    */
   @GET @Path("/{id}")
-  @Produces("application/json")
-  public ToDo getToDo(@PathParam("id") String id) {
+  @Produces({"application/json", "application/cbor"})
+  public void getToDo(@PathParam("id") String id, 
+          @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, @Suspended AsyncResponse resp) {
+    suspend(resp);
     if(id == null) {
-      throw new WebApplicationException("Must supply an ID, for example /api/todos/123.", 
-              Response.Status.BAD_REQUEST);
+      resp.resume(new WebApplicationException("Must supply an ID, for example /api/todos/123.", 
+              Response.Status.BAD_REQUEST));
+      return;
     }
-    try {
-      ToDo td = store.get(id);
+    //Read even for a 304, no store knows the current revision of a ToDo without reading it
+    resume(resp, store.getAsync(id), "Error getting ToDo.", td -> {
       if(td == null) {
         throw new WebApplicationException("ToDo with the ID " + id + " does not exist.",
                 Response.Status.BAD_REQUEST);
       }
-      return td;
-    } catch (ToDoStoreException e) {
-      throw new WebApplicationException("Error getting ToDo.", Response.Status.INTERNAL_SERVER_ERROR);
-    }
+      return tagged(Response.ok(td), ETags.of(td), ifNoneMatch);
+    });
   }
 
   /**
-   * Gets all ToDos.
+   * Gets all ToDos, or a page of ToDos when a limit or cursor is given.  Pages are sorted by the
+   * order of the ToDos.  When there are more ToDos the response has a Link header with
+   * rel="next" pointing at the next page.
    * REST API example:
    * <code>
    * GET http://localhost:8080/api/todos
+   * GET http://localhost:8080/api/todos?limit=2
+   * GET http://localhost:8080/api/todos?limit=2&cursor=MTpjZWY
    * </code>
    * 
    * Response:
@@ -116,16 +181,90 @@ public class ToDoAPI {
    *   }
    * ]
    * </code>
-   * @return A collection of all the ToDos
+   * @param limit The maximum number of ToDos to return, may be null.
+   * @param cursor The cursor of the page to return, may be null.
+   * @param uriInfo Information about the request, used to build the link to the next page.
+   * @param ifNoneMatch The If-None-Match header, may be null.
+   * @param resp Resumed with a collection of all the ToDos, or of the ToDos on the page, or with
+   * a 304 if the store is still at one of the given ETags.
    */
   @GET
-  @Produces("application/json")
-  public Collection<ToDo> getToDos() {
-    try {
-      return store.getAll();
-    } catch (ToDoStoreException e) {
-      throw new WebApplicationException("Error getting all ToDos.", Response.Status.INTERNAL_SERVER_ERROR);
+  @Produces({"application/json", "application/cbor"})
+  public void getToDos(@QueryParam("limit") Integer limit, @QueryParam("cursor") String cursor,
+          @Context UriInfo uriInfo, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, 
+          @Suspended AsyncResponse resp) {
+    suspend(resp);
+    boolean paged = limit != null || cursor != null;
+    int pageLimit = limit == null ? DEFAULT_PAGE_LIMIT : limit;
+    if(paged && (pageLimit < 1 || pageLimit > MAX_PAGE_LIMIT)) {
+      resp.resume(new WebApplicationException("The limit must be between 1 and " + MAX_PAGE_LIMIT + ".",
+              Response.Status.BAD_REQUEST));
+      return;
+    }
+    //The version is read before the ToDos, so the tag can only be older than what is sent
+    resume(resp, store.getVersionAsync().thenCompose(version -> {
+      EntityTag tag = ETags.ofVersion(version);
+      if(ETags.matches(ifNoneMatch, tag)) {
+        return CompletableFuture.completedFuture(notModified(tag));
+      }
+      if(!paged) {
+        //Written as they are read from the store, the cursor is closed once they have been
+        return store.streamAllAsync().thenApply(todos -> 
+            tagged(Response.ok(new GenericEntity<Iterator<ToDo>>(todos){}), tag, null));
+      }
+      return store.getPageAsync(cursor, pageLimit).thenApply(page -> 
+          tagged(page(page, pageLimit, uriInfo), tag, null));
+    }), "Error getting all ToDos.", response -> response);
+  }
+
+  /**
+   * Gets what changed since an earlier call, so clients can keep a copy of the ToDos current
+   * without reading them all again.  Without <code>since</code>, or when the changes since then
+   * can no longer be told, the response has <code>resync</code> set and the client must read
+   * all the ToDos again, then ask for the changes since the <code>seq</code> it was given.  When
+   * <code>more</code> is set there are more changes to ask for straight away.
+   * REST API example:
+   * <code>
+   * GET http://localhost:8080/api/todos/changes?since=12
+   * </code>
+   * 
+   * Response:
+   * <code>
+   * {
+   *   "upserts":[{"completed":false,"id":"123","title":"pick up milk"}],
+   *   "deleted":["456"],
+   *   "seq":"14",
+   *   "resync":false,
+   *   "more":false
+   * }
+   * </code>
+   * @param since The <code>seq</code> from the last call, may be null.
+   * @param limit The maximum number of changed ToDos to return, may be null.
+   * @param resp Resumed with the changes.
+   */
+  @GET @Path("/changes")
+  @Produces({"application/json", "application/cbor"})
+  public void getChanges(@QueryParam("since") String since, @QueryParam("limit") Integer limit,
+          @Suspended AsyncResponse resp) {
+    suspend(resp);
+    int changesLimit = limit == null ? MAX_PAGE_LIMIT : limit;
+    if(changesLimit < 1 || changesLimit > MAX_PAGE_LIMIT) {
+      resp.resume(new WebApplicationException("The limit must be between 1 and " + MAX_PAGE_LIMIT + ".",
+              Response.Status.BAD_REQUEST));
+      return;
+    }
+    resume(resp, store.getChangesAsync(since, changesLimit), "Error getting the changes.", 
+        changes -> Response.ok(changes).cacheControl(REVALIDATE).build());
+  }
+
+  private static ResponseBuilder page(ToDoPage page, int limit, UriInfo uriInfo) {
+    ResponseBuilder builder = Response.ok(new GenericEntity<List<ToDo>>(page.getToDos()){});
+    if(page.getNext() != null) {
+      URI next = uriInfo.getRequestUriBuilder().replaceQueryParam("limit", limit).
+              replaceQueryParam("cursor", page.getNext()).build();
+      builder.link(next, "next");
     }
+    return builder;
   }
 
   /**
@@ -150,21 +289,19 @@ public class ToDoAPI {
    * }
    * </code>
    * @param td The new ToDo to create.
-   * @return The ToDo after it has been stored.  This will include a unique ID for the ToDO.
+   * @param resp Resumed with the ToDo after it has been stored.  This will include a unique ID for the ToDO.
    */
   @POST
-  @Consumes("application/json")
-  @Produces("application/json")
-  public ToDo newToDo(ToDo td) {
+  @Consumes({"application/json", "application/cbor"})
+  @Produces({"application/json", "application/cbor"})
+  public void newToDo(ToDo td, @Suspended AsyncResponse resp) {
+    suspend(resp);
     if(td == null) {
-      throw new WebApplicationException("Must supply a ToDo in the POST body.", 
-              Response.Status.BAD_REQUEST);
-    }
-    try {
-      return store.persist(td);
-    } catch (ToDoStoreException e) {
-      throw new WebApplicationException("Error saving ToDo.", Response.Status.INTERNAL_SERVER_ERROR);
+      resp.resume(new WebApplicationException("Must supply a ToDo in the POST body.", 
+              Response.Status.BAD_REQUEST));
+      return;
     }
+    resume(resp, store.persistAsync(td), "Error saving ToDo.", saved -> saved);
   }
 
   /**
@@ -191,31 +328,35 @@ public class ToDoAPI {
    * }
    * </code>
    * @param id The ID of the ToDo to update.
+   * @param ifMatch The If-Match header, may be null.
    * @param td The data for the ToDo to be updated with.
-   * @return The updated ToDo.
+   * @param resp Resumed with the updated ToDo and its new ETag.
    */
   @PUT @Path("/{id}")
-  @Produces("application/json")
-  @Consumes("application/json")
-  public ToDo updateToDo(@PathParam("id") String id, ToDo td) {
+  @Produces({"application/json", "application/cbor"})
+  @Consumes({"application/json", "application/cbor"})
+  public void updateToDo(@PathParam("id") String id, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+          ToDo td, @Suspended AsyncResponse resp) {
+    suspend(resp);
     if(id == null) {
-      throw new WebApplicationException("Must supply an ID, for example /api/todos/123.", 
-              Response.Status.BAD_REQUEST);
+      resp.resume(new WebApplicationException("Must supply an ID, for example /api/todos/123.", 
+              Response.Status.BAD_REQUEST));
+      return;
     }
     if(td == null) {
-      throw new WebApplicationException("Must supply a ToDo in the PUT body.", 
-              Response.Status.BAD_REQUEST);
+      resp.resume(new WebApplicationException("Must supply a ToDo in the PUT body.", 
+              Response.Status.BAD_REQUEST));
+      return;
     }
-    try {
-      ToDo updatedTd = store.update(id, td);
+    CompletionStage<ToDo> update = revision(id, ifMatch).thenCompose(rev -> 
+        rev == null ? store.updateAsync(id, td) : store.updateAsync(id, td, rev));
+    resume(resp, update, "Error updating ToDo.", updatedTd -> {
       if(updatedTd == null) {
         throw new WebApplicationException("The ToDo with the ID " + id + " does not exist.",
                 Response.Status.BAD_REQUEST);
       }
-      return updatedTd;
-    } catch (ToDoStoreException e) {
-      throw new WebApplicationException("Error updating ToDo.", Response.Status.INTERNAL_SERVER_ERROR);
-    }
+      return Response.ok(updatedTd).tag(ETags.of(updatedTd)).build();
+    });
   }
 
   /**
@@ -226,17 +367,132 @@ public class ToDoAPI {
    * DELETE http://localhost:8080/api/todos/456
    * </code>
    * @param id The ID of the ToDo to delete.
+   * @param ifMatch The If-Match header, may be null.
+   * @param resp Resumed once the ToDo has been deleted.
    */
   @DELETE @Path("/{id}")
-  public void deleteToDo(@PathParam("id") String id) {
+  public void deleteToDo(@PathParam("id") String id, @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch,
+          @Suspended AsyncResponse resp) {
+    suspend(resp);
     if(id == null) {
-      throw new WebApplicationException("Must supply an ID, for example /api/todos/123,",
-              Response.Status.BAD_REQUEST);
+      resp.resume(new WebApplicationException("Must supply an ID, for example /api/todos/123,",
+              Response.Status.BAD_REQUEST));
+      return;
     }
-    try {
-      store.delete(id);
-    } catch (ToDoStoreException e) {
-      throw new WebApplicationException("Error deleting ToDo.", Response.Status.INTERNAL_SERVER_ERROR);
+    //Deleting a ToDo that is already gone still succeeds
+    CompletionStage<Void> delete = revision(id, ifMatch).thenCompose(rev -> 
+        rev == null ? store.deleteAsync(id).thenAccept(deleted -> {}) : store.deleteAsync(id, rev));
+    resume(resp, delete, "Error deleting ToDo.", v -> Response.noContent().build());
+  }
+
+  /**
+   * Works out the revision a write must be made at from its If-Match header.  The store checks
+   * the revision as it writes, so a single tag needs no read.  Only the current revision can
+   * match several tags, so then the ToDo is read to find out which one it is.
+   * @param id The ID of the ToDo being written.
+   * @param ifMatch The If-Match header, may be null.
+   * @return The revision, null if the write is not conditional.  Fails with a
+   * {@link RevisionMismatchException} if the header cannot match.
+   */
+  private CompletionStage<String> revision(String id, String ifMatch) {
+    if(ifMatch == null || ETags.isAny(ifMatch)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    List<String> revs = ETags.strongValues(ifMatch);
+    if(revs.size() == 1) {
+      return CompletableFuture.completedFuture(revs.get(0));
+    }
+    if(revs.isEmpty()) {
+      CompletableFuture<String> mismatch = new CompletableFuture<String>();
+      mismatch.completeExceptionally(new RevisionMismatchException(id, ifMatch));
+      return mismatch;
+    }
+    return store.getAsync(id).thenApply(current -> {
+      if(current == null || !revs.contains(ETags.of(current).getValue())) {
+        throw new CompletionException(new RevisionMismatchException(id, ifMatch));
+      }
+      return current.getRev();
+    });
+  }
+
+  /**
+   * Tags a response, or answers with a 304 instead if the tag is in the If-None-Match header.
+   * @param ok The response to send if the tag does not match.
+   * @param tag The entity tag of the response.
+   * @param ifNoneMatch The If-None-Match header, may be null.
+   * @return The response to send.
+   */
+  private static Response tagged(ResponseBuilder ok, EntityTag tag, String ifNoneMatch) {
+    if(ETags.matches(ifNoneMatch, tag)) {
+      return notModified(tag);
+    }
+    return ok.tag(tag).cacheControl(REVALIDATE).build();
+  }
+
+  private static Response notModified(EntityTag tag) {
+    return Response.notModified(tag).cacheControl(REVALIDATE).build();
+  }
+
+  private static void suspend(AsyncResponse resp) {
+    resp.setTimeoutHandler(TIMEOUT_HANDLER);
+    resp.setTimeout(TIMEOUT, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Resumes a suspended request once the store has finished.
+   * @param resp The suspended request.
+   * @param stage The work being done by the store.
+   * @param error The message to use if the store fails.
+   * @param result Turns the result of the store into the entity or response to send, may throw
+   * a {@link WebApplicationException}.  Any other exception it throws is answered with the error.
+   */
+  private static <T> void resume(AsyncResponse resp, CompletionStage<T> stage, String error, 
+          Function<? super T, ?> result) {
+    stage.whenComplete((value, t) -> {
+      if(t == null) {
+        try {
+          Object entity = result.apply(value);
+          if(!resp.resume(entity)) {
+            //The request timed out or was cancelled, so the entity will never be written
+            release(entity);
+          }
+        } catch (WebApplicationException e) {
+          resp.resume(e);
+        } catch (RuntimeException e) {
+          //Answer now rather than leave the client waiting for the timeout
+          release(value);
+          resp.resume(new WebApplicationException(error, Response.Status.INTERNAL_SERVER_ERROR));
+        }
+        return;
+      }
+      Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+      if(cause instanceof IllegalArgumentException) {
+        resp.resume(new WebApplicationException(cause.getMessage(), Response.Status.BAD_REQUEST));
+      } else if(cause instanceof RevisionMismatchException) {
+        resp.resume(new WebApplicationException(cause.getMessage(), Response.Status.PRECONDITION_FAILED));
+      } else {
+        resp.resume(new WebApplicationException(error, Response.Status.INTERNAL_SERVER_ERROR));
+      }
+    });
+  }
+
+  /**
+   * Releases an entity that holds something open, such as a cursor, if it will not be written.
+   * @param entity The entity or response.
+   */
+  private static void release(Object entity) {
+    if(entity instanceof Response) {
+      entity = ((Response)entity).getEntity();
+    }
+    if(entity instanceof GenericEntity) {
+      entity = ((GenericEntity<?>)entity).getEntity();
+    }
+    if(entity instanceof Closeable) {
+      try {
+        ((Closeable)entity).close();
+      } catch (IOException e) {
+        //Nothing more can be done with it
+      }
     }
   }
-}
\ No newline at end of file
+}
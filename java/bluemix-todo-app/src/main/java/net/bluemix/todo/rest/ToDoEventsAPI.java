@@ -0,0 +1,149 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.rest;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.ToDoEvent;
+import net.bluemix.todo.store.ToDoEventLog;
+import net.bluemix.todo.store.ToDoStoreFactory;
+
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseFeature;
+
+/**
+ * REST API streaming the changes made to TODOs as server-sent events.
+ *
+ * Every change is an event named <code>created</code>, <code>updated</code> or
+ * <code>deleted</code> whose data is the ToDo as JSON, only the ID for deleted ToDos.  A client
+ * that reconnects with the Last-Event-ID header gets the events it missed.  If they can no longer
+ * be replayed it gets a <code>resync</code> event instead and should read all the ToDos again.
+ * Clients that fall too far behind are disconnected, and reconnect the same way.
+ */
+@Path("todos/events")
+public class ToDoEventsAPI {
+
+  private static final Logger LOG = Logger.getLogger(ToDoEventsAPI.class.getName());
+
+  private ToDoEventLog log;
+
+  /**
+   * Default constructor.  This is used by the Jersey framework.
+   */
+  public ToDoEventsAPI() {
+    this(ToDoStoreFactory.getEventLog());
+  }
+
+  /**
+   * Constructor.  Used mainly for testing purposes.
+   * @param log The log to stream the events of.
+   */
+  public ToDoEventsAPI(ToDoEventLog log) {
+    this.log = log;
+  }
+
+  /**
+   * Streams the changes made to ToDos.
+   * REST API example: 
+   * <code>
+   * GET http://localhost:8080/api/todos/events
+   * </code>
+   * 
+   * Response:
+   * <code>
+   * event: created
+   * id: 5f1c2a9e0b3d4c71-0
+   * data: {"completed":false,"id":"1393339172666","title":"get the kids"}
+   * </code>
+   * @param lastEventId The Last-Event-ID header, may be null.
+   * @return The stream of events.
+   */
+  @GET
+  @Produces(SseFeature.SERVER_SENT_EVENTS)
+  public EventOutput getEvents(@HeaderParam(SseFeature.LAST_EVENT_ID_HEADER) String lastEventId) {
+    EventOutput output = new EventOutput();
+    log.subscribe(lastEventId, new EventOutputSubscriber(output));
+    return output;
+  }
+
+  /**
+   * Builds the server-sent event for a change.
+   * @param event The change.
+   * @return The server-sent event.
+   */
+  static OutboundEvent toOutboundEvent(ToDoEvent event) {
+    return new OutboundEvent.Builder().id(event.getId()).
+            name(event.getType().name().toLowerCase(Locale.ENGLISH)).
+            mediaType(MediaType.APPLICATION_JSON_TYPE).data(ToDo.class, event.getToDo()).build();
+  }
+
+  /**
+   * Writes the events handed to it by the log to the stream of a client.
+   */
+  static class EventOutputSubscriber implements ToDoEventLog.Subscriber {
+    private static final OutboundEvent RESYNC = new OutboundEvent.Builder().name("resync").
+            data(String.class, "").build();
+    private static final OutboundEvent PING = new OutboundEvent.Builder().comment("ping").build();
+
+    private final EventOutput output;
+
+    EventOutputSubscriber(EventOutput output) {
+      this.output = output;
+    }
+
+    @Override
+    public void send(ToDoEvent event) throws IOException {
+      write(toOutboundEvent(event));
+    }
+
+    @Override
+    public void resync() throws IOException {
+      write(RESYNC);
+    }
+
+    @Override
+    public void ping() throws IOException {
+      write(PING);
+    }
+
+    private void write(OutboundEvent event) throws IOException {
+      if(output.isClosed()) {
+        throw new IOException("The client has gone away.");
+      }
+      output.write(event);
+    }
+
+    @Override
+    public void close() {
+      try {
+        output.close();
+      } catch(IOException e) {
+        LOG.log(Level.FINE, "Error closing an event stream.", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+
+/**
+ * Defines the asynchronous API for a ToDo store.  Each operation matches the operation of the
+ * same name in {@link ToDoStore}, but returns straight away with a stage that completes when the
+ * operation does.  Errors that would be thrown by {@link ToDoStore} complete the stage
+ * exceptionally instead.
+ */
+public interface AsyncToDoStore {
+
+  /**
+   * Gets all ToDos from the store.
+   * @return All ToDos.
+   * @see ToDoStore#getAll()
+   */
+  public CompletionStage<Collection<ToDo>> getAllAsync();
+
+  /**
+   * Streams all ToDos from the store.
+   * @return A cursor over all ToDos, which must be closed.
+   * @see ToDoStore#streamAll()
+   */
+  public CompletionStage<ToDoCursor> streamAllAsync();
+
+  /**
+   * Gets a page of ToDos from the store.
+   * @param cursor The cursor of the page to get, or null to get the first page.
+   * @param limit The maximum number of ToDos to get.
+   * @return The page of ToDos.
+   * @see ToDoStore#getPage(String, int)
+   */
+  public CompletionStage<ToDoPage> getPageAsync(String cursor, int limit);
+
+  /**
+   * Gets an individual ToDo from the store.
+   * @param id The ID of the ToDo to get.
+   * @return The ToDo, or null if it does not exist.
+   * @see ToDoStore#get(String)
+   */
+  public CompletionStage<ToDo> getAsync(String id);
+
+  /**
+   * Persists a ToDo to the store.
+   * @param td The ToDo to persist.
+   * @return The persisted ToDo.
+   * @see ToDoStore#persist(ToDo)
+   */
+  public CompletionStage<ToDo> persistAsync(ToDo td);
+
+  /**
+   * Updates a ToDo in the store.
+   * @param id The ID of the ToDo to update.
+   * @param td The ToDo with updated information.
+   * @return The updated ToDo.
+   * @see ToDoStore#update(String, ToDo)
+   */
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td);
+
+  /**
+   * Deletes a ToDo from the store.
+   * @param id The ID of the ToDo to delete.
+   * @return A stage that completes with whether the ToDo was deleted.
+   * @see ToDoStore#delete(String)
+   */
+  public CompletionStage<Boolean> deleteAsync(String id);
+
+  /**
+   * Updates a ToDo in the store only if it is still at the given revision.
+   * @param id The ID of the ToDo to update.
+   * @param td The ToDo with updated information.
+   * @param rev The revision the ToDo must be at.
+   * @return The updated ToDo, completes with a {@link RevisionMismatchException} if the ToDo is
+   * at another revision or does not exist.
+   * @see ToDoStore#update(String, ToDo, String)
+   */
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td, String rev);
+
+  /**
+   * Deletes a ToDo from the store only if it is still at the given revision.
+   * @param id The ID of the ToDo to delete.
+   * @param rev The revision the ToDo must be at.
+   * @return A stage that completes when the ToDo is deleted, or with a
+   * {@link RevisionMismatchException} if the ToDo is at another revision or does not exist.
+   * @see ToDoStore#delete(String, String)
+   */
+  public CompletionStage<Void> deleteAsync(String id, String rev);
+
+  /**
+   * Counts the number of ToDos.
+   * @return The total number of ToDos.
+   * @see ToDoStore#count()
+   */
+  public CompletionStage<Integer> countAsync();
+
+  /**
+   * Gets the version of the store's ToDos.
+   * @return The current version.
+   * @see ToDoStore#getVersion()
+   */
+  public CompletionStage<String> getVersionAsync();
+
+  /**
+   * Gets what changed since a sequence.
+   * @param since The sequence to get the changes since, or null to only get the current sequence.
+   * @param limit The maximum number of changed ToDos to get.
+   * @return The changes.
+   * @see ToDoStore#getChanges(String, int)
+   */
+  public CompletionStage<ToDoChanges> getChangesAsync(String since, int limit);
+
+  /**
+   * Persists many ToDos to the store at once.
+   * @param todos The ToDos to persist.
+   * @return A result for each ToDo.
+   * @see ToDoStore#persistAll(Collection)
+   */
+  public CompletionStage<List<BulkResult>> persistAllAsync(Collection<ToDo> todos);
+
+  /**
+   * Updates many ToDos in the store at once.
+   * @param todos The ToDos with updated information.
+   * @return A result for each ToDo.
+   * @see ToDoStore#updateAll(Collection)
+   */
+  public CompletionStage<List<BulkResult>> updateAllAsync(Collection<ToDo> todos);
+
+  /**
+   * Deletes many ToDos from the store at once.
+   * @param ids The IDs of the ToDos to delete.
+   * @return A result for each ID.
+   * @see ToDoStore#deleteAll(Collection)
+   */
+  public CompletionStage<List<BulkResult>> deleteAllAsync(Collection<String> ids);
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+
+/**
+ * A {@link ToDoStore} that caches reads from another {@link ToDoStore}.
+ *
+ * Individual ToDos are kept in a bounded, least recently used cache and the result of
+ * {@link #getAll()} is kept as a single snapshot.  Entries expire after a fixed time to live and
+ * any write through this store invalidates the affected entries.  Writes made to the backing
+ * store by someone else (another app instance for example) are only seen once entries expire.
+ *
+ * The snapshot remembers the version of the backing store read just before the ToDos, and
+ * {@link #getVersion()} answers with it while the snapshot is fresh, so the version never claims
+ * ToDos that {@link #getAll()} does not return.
+ *
+ * Every write moves a generation on before it invalidates anything.  Cached values remember the
+ * generation they were read in and are only used while it is still current, so a read that
+ * raced with a write is never served, even when it is cached after the write invalidated.
+ */
+public class CachingToDoStore implements ToDoStore {
+
+  private final ToDoStore store;
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final Map<String, CacheEntry> entries;
+  private volatile Snapshot snapshot;
+  //Bumped on every write so a read that raced with a write is not served from the cache
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * Creates a caching store.
+   * @param store The store to cache reads from.
+   * @param maxEntries The maximum number of individual ToDos to cache.
+   * @param ttl How long a cached value may be used.
+   * @param unit The unit of the ttl.
+   */
+  public CachingToDoStore(ToDoStore store, final int maxEntries, long ttl, TimeUnit unit) {
+    if(maxEntries < 1) {
+      throw new IllegalArgumentException("The cache must hold at least one entry.");
+    }
+    this.store = store;
+    this.maxEntries = maxEntries;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+      private static final long serialVersionUID = -2305498374653839215L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+        if(size() > maxEntries) {
+          evictions.incrementAndGet();
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Gets the store whose reads are being cached.
+   * @return The backing store.
+   */
+  public ToDoStore getStore() {
+    return store;
+  }
+
+  @Override
+  public Collection<ToDo> getAll() throws ToDoStoreException {
+    Snapshot current = snapshot;
+    if(current != null && current.generation == generation.get()) {
+      if(!isExpired(current.created)) {
+        hits.incrementAndGet();
+        return copy(current.todos);
+      }
+      evictions.incrementAndGet();
+    }
+    misses.incrementAndGet();
+    long gen = generation.get();
+    String version = store.getVersion();
+    List<ToDo> todos = copy(store.getAll());
+    //Never used if a write moved the generation on since it was read
+    snapshot = new Snapshot(todos, version, gen, now());
+    return copy(todos);
+  }
+
+  @Override
+  public ToDoCursor streamAll() throws ToDoStoreException {
+    //Served from the snapshot, streaming from the backing store would leave the cache out
+    return new CollectionCursor(getAll());
+  }
+
+  @Override
+  public ToDoPage getPage(String cursor, int limit) throws ToDoStoreException {
+    //Pages are not cached, there are too many ways to slice the ToDos for it to pay off
+    return store.getPage(cursor, limit);
+  }
+
+  @Override
+  public ToDo get(String id) throws ToDoStoreException {
+    synchronized(entries) {
+      CacheEntry entry = entries.get(id);
+      if(entry != null) {
+        if(!isExpired(entry.created)) {
+          hits.incrementAndGet();
+          return new ToDo(entry.todo);
+        }
+        entries.remove(id);
+        evictions.incrementAndGet();
+      }
+    }
+    misses.incrementAndGet();
+    long gen = generation.get();
+    ToDo td = store.get(id);
+    if(td != null) {
+      ToDo cached = new ToDo(td);
+      synchronized(entries) {
+        if(gen == generation.get()) {
+          entries.put(id, new CacheEntry(cached, now()));
+        }
+      }
+    }
+    return td;
+  }
+
+  @Override
+  public ToDo persist(ToDo td) throws ToDoStoreException {
+    try {
+      return store.persist(td);
+    } finally {
+      invalidate(null);
+    }
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td) throws ToDoStoreException {
+    try {
+      return store.update(id, td);
+    } finally {
+      invalidate(id);
+    }
+  }
+
+  @Override
+  public boolean delete(String id) throws ToDoStoreException {
+    try {
+      return store.delete(id);
+    } finally {
+      invalidate(id);
+    }
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td, String rev) throws ToDoStoreException {
+    try {
+      return store.update(id, td, rev);
+    } finally {
+      invalidate(id);
+    }
+  }
+
+  @Override
+  public void delete(String id, String rev) throws ToDoStoreException {
+    try {
+      store.delete(id, rev);
+    } finally {
+      invalidate(id);
+    }
+  }
+
+  @Override
+  public int count() throws ToDoStoreException {
+    Snapshot current = freshSnapshot();
+    if(current != null) {
+      hits.incrementAndGet();
+      return current.todos.size();
+    }
+    misses.incrementAndGet();
+    return store.count();
+  }
+
+  @Override
+  public String getVersion() throws ToDoStoreException {
+    Snapshot current = freshSnapshot();
+    if(current != null) {
+      hits.incrementAndGet();
+      return current.version;
+    }
+    misses.incrementAndGet();
+    return store.getVersion();
+  }
+
+  @Override
+  public ToDoChanges getChanges(String since, int limit) throws ToDoStoreException {
+    //Changes are not cached, they are only worth asking for when they are current
+    return store.getChanges(since, limit);
+  }
+
+  @Override
+  public List<BulkResult> persistAll(Collection<ToDo> todos) throws ToDoStoreException {
+    try {
+      return store.persistAll(todos);
+    } finally {
+      invalidate(null);
+    }
+  }
+
+  @Override
+  public List<BulkResult> updateAll(Collection<ToDo> todos) throws ToDoStoreException {
+    try {
+      return store.updateAll(todos);
+    } finally {
+      for(ToDo td : todos) {
+        invalidate(td.getId());
+      }
+    }
+  }
+
+  @Override
+  public List<BulkResult> deleteAll(Collection<String> ids) throws ToDoStoreException {
+    try {
+      return store.deleteAll(ids);
+    } finally {
+      for(String id : ids) {
+        invalidate(id);
+      }
+    }
+  }
+
+  /**
+   * Removes everything from the cache.
+   */
+  public void clear() {
+    invalidate(null);
+    synchronized(entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Gets the number of reads that were answered from the cache.
+   * @return The number of cache hits.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of reads that had to go to the backing store.
+   * @return The number of cache misses.
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  /**
+   * Gets the number of entries dropped because the cache was full or the entry expired.
+   * @return The number of evictions.
+   */
+  public long getEvictionCount() {
+    return evictions.get();
+  }
+
+  /**
+   * Gets the number of individual ToDos currently cached.
+   * @return The number of cached ToDos.
+   */
+  public int size() {
+    synchronized(entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * Gets the maximum number of individual ToDos this cache holds.
+   * @return The maximum number of cached ToDos.
+   */
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  /**
+   * The current time in nanoseconds, used to expire entries.
+   * @return The current time.
+   */
+  protected long now() {
+    return System.nanoTime();
+  }
+
+  private Snapshot freshSnapshot() {
+    Snapshot current = snapshot;
+    return current != null && current.generation == generation.get() && !isExpired(current.created) ? 
+            current : null;
+  }
+
+  private boolean isExpired(long created) {
+    return now() - created >= ttlNanos;
+  }
+
+  private void invalidate(String id) {
+    generation.incrementAndGet();
+    snapshot = null;
+    if(id != null) {
+      synchronized(entries) {
+        entries.remove(id);
+      }
+    }
+  }
+
+  private static List<ToDo> copy(Collection<ToDo> todos) {
+    List<ToDo> copies = new ArrayList<ToDo>(todos.size());
+    for(ToDo td : todos) {
+      copies.add(new ToDo(td));
+    }
+    return copies;
+  }
+
+  private static class CacheEntry {
+    private final ToDo todo;
+    private final long created;
+
+    private CacheEntry(ToDo todo, long created) {
+      this.todo = todo;
+      this.created = created;
+    }
+  }
+
+  private static class Snapshot {
+    private final List<ToDo> todos;
+    private final String version;
+    private final long generation;
+    private final long created;
+
+    private Snapshot(List<ToDo> todos, String version, long generation, long created) {
+      this.todos = todos;
+      this.version = version;
+      this.generation = generation;
+      this.created = created;
+    }
+  }
+}
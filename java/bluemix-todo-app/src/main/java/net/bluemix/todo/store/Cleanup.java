@@ -15,35 +15,194 @@
  */
 package net.bluemix.todo.store;
 
-import java.util.Collection;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.ToDo;
 
 /**
- * Handles deleting ToDos from the DB after they get over a certain number.
+ * Handles deleting ToDos from the DB after they get over a certain number, so no one can fill
+ * the DB.  The oldest ToDos, those with the lowest order, are deleted first.  Clients order ToDos
+ * as they create them, and every store keeps its ToDos in order, so finding the oldest is a read
+ * of the first page rather than of every ToDo.
+ *
+ * The number of ToDos is counted once and then kept up to date from the writes published to a
+ * {@link ToDoEventLog}, so writes cost no extra requests.  When a write takes the number over the
+ * maximum an eviction is handed to an executor: the store is counted again and everything over
+ * the maximum is deleted with a single {@link ToDoStore#deleteAll(java.util.Collection)}.  A
+ * burst of writes hands over one eviction, and evictions never overlap.
+ *
+ * The count is only an estimate that decides when to look.  Writes made to the store by someone
+ * else, another app instance for example, are not published, so {@link #run()} is also meant to
+ * be scheduled every so often to count and evict regardless.
+ *
+ * When many app instances share the store a {@link LeaderElection} makes sure only one of them
+ * counts and evicts at a time, rather than all of them deleting the same ToDos at once.  The
+ * others do nothing until they are elected, and the one elected counts and evicts straight away.
  */
-public class Cleanup implements Runnable {
-  
-  private static final int MAX_TODOS = 30;
+public class Cleanup implements Runnable, ToDoEventLog.Subscriber, LeaderElection.Listener {
+
   private static final Logger LOG = Logger.getLogger(Cleanup.class.getName());
 
+  private final ToDoStore store;
+  private final ToDoEventLog log;
+  private final int maxToDos;
+  private final Executor executor;
+  private final LeaderElection election;
+  private final AtomicInteger count = new AtomicInteger();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+  private final AtomicLong evicted = new AtomicLong();
+  //Null until subscribed, and again once the log drops this subscriber
+  private volatile Closeable subscription;
+
+  /**
+   * Creates a cleanup.  Nothing happens until it is started or run.
+   * @param store The store to delete ToDos from.  Deletes should be published to the log.
+   * @param log The log the writes to the store are published to.
+   * @param maxToDos The maximum number of ToDos to keep.
+   * @param executor Runs the evictions.
+   */
+  public Cleanup(ToDoStore store, ToDoEventLog log, int maxToDos, Executor executor) {
+    this(store, log, maxToDos, executor, null);
+  }
+
+  /**
+   * Creates a cleanup that only counts and evicts while this app instance is the leader.
+   * Nothing happens until it is started or run.
+   * @param store The store to delete ToDos from.  Deletes should be published to the log.
+   * @param log The log the writes to the store are published to.
+   * @param maxToDos The maximum number of ToDos to keep.
+   * @param executor Runs the evictions.
+   * @param election Elects the app instance that cleans up, or null if this one always does.
+   */
+  public Cleanup(ToDoStore store, ToDoEventLog log, int maxToDos, Executor executor, 
+          LeaderElection election) {
+    if(maxToDos < 0) {
+      throw new IllegalArgumentException("The maximum number of ToDos must not be negative.");
+    }
+    this.store = store;
+    this.log = log;
+    this.maxToDos = maxToDos;
+    this.executor = executor;
+    this.election = election;
+  }
+
+  /**
+   * Starts following the writes to the store and the election, and counts the store straight
+   * away on the executor.
+   */
+  public void start() {
+    if(election != null) {
+      election.setListener(this);
+    }
+    schedule();
+  }
+
+  /**
+   * Counts the store and deletes the oldest ToDos if there are too many.
+   */
   @Override
-  public void run() {
+  public synchronized void run() {
+    scheduled.set(false);
+    if(election != null && !election.isLeader()) {
+      return;
+    }
     try {
-      //This code is very much not safe from underlying changes in the DB.
-      //All we are trying to do here is to make sure no one is being mean an DOSing the DB
-      ToDoStore store = ToDoStoreFactory.getInstance();
-      if(store.count() >= MAX_TODOS) {
-        Collection<ToDo> todos = store.getAll();
-        if(todos.size() > 0) {
-          store.delete(todos.iterator().next().getId());
+      if(subscription == null) {
+        //Follow the writes before counting so none are missed
+        subscription = log.subscribe(null, this);
+      }
+      int current = store.count();
+      count.set(current);
+      if(current > maxToDos) {
+        //The deletes are published, so the count drops back to the maximum as they are seen
+        List<String> ids = new ArrayList<String>(current - maxToDos);
+        for(ToDo td : store.getPage(null, current - maxToDos).getToDos()) {
+          ids.add(td.getId());
+        }
+        //The lease may have run out while the store was read, and another instance been elected
+        if(election != null && !election.isLeader()) {
+          return;
+        }
+        for(BulkResult result : store.deleteAll(ids)) {
+          if(result.isOk()) {
+            evicted.incrementAndGet();
+          }
         }
       }
-    } catch (ToDoStoreException e) {
+    } catch (ToDoStoreException | RuntimeException e) {
       LOG.logp(Level.WARNING, Cleanup.class.getName(), "run", "Error running cleanup.", e);
-    } 
+    }
+  }
+
+  @Override
+  public void send(ToDoEvent event) {
+    if(event.getType() == ToDoEvent.Type.CREATED) {
+      if(count.incrementAndGet() > maxToDos) {
+        schedule();
+      }
+    } else if(event.getType() == ToDoEvent.Type.DELETED) {
+      count.decrementAndGet();
+    }
   }
-}
 
+  @Override
+  public void elected() {
+    //Whoever cleaned up before may have stopped a while ago
+    schedule();
+  }
+
+  @Override
+  public void resync() {
+    //Writes were missed, so the count is off
+    schedule();
+  }
+
+  @Override
+  public void ping() {
+    //Always there
+  }
+
+  @Override
+  public void close() {
+    //Dropped by the log, probably after falling behind, subscribe again and recount
+    subscription = null;
+    schedule();
+  }
+
+  /**
+   * Gets the estimated number of ToDos in the store.
+   * @return The number of ToDos.
+   */
+  public int getCount() {
+    return count.get();
+  }
+
+  /**
+   * Gets the number of ToDos deleted because there were too many.
+   * @return The number of ToDos deleted.
+   */
+  public long getEvictedCount() {
+    return evicted.get();
+  }
+
+  private void schedule() {
+    if(scheduled.compareAndSet(false, true)) {
+      try {
+        executor.execute(this);
+      } catch (RejectedExecutionException e) {
+        scheduled.set(false);
+        LOG.logp(Level.WARNING, Cleanup.class.getName(), "schedule", "Could not schedule cleanup.", e);
+      }
+    }
+  }
+}
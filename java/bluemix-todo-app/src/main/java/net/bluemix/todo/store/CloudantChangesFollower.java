@@ -0,0 +1,195 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import net.bluemix.todo.store.CloudantChangesReader.Change;
+
+/**
+ * Follows the <code>_changes</code> feed of a Cloudant database on a background thread and hands
+ * every change to a {@link Listener}.
+ *
+ * The first request reads the whole feed, after that long polls continue from the sequence the
+ * previous response ended at, so changes are seen as soon as they happen.  Any error throws the
+ * sequence away, the next successful request reads the whole feed again and the listener is
+ * told to start over.  Failed requests are retried with an exponential back off.
+ */
+class CloudantChangesFollower implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(CloudantChangesFollower.class.getName());
+  private static final long MIN_RETRY = 500; //in milliseconds
+
+  /**
+   * Receives the changes read from the feed, always on the follower's thread.
+   */
+  interface Listener {
+
+    /**
+     * Called before the whole feed is read again, everything seen so far may be out of date.
+     */
+    void resync();
+
+    /**
+     * Called for each change in the feed.
+     * @param change The change.
+     */
+    void changed(Change change);
+  }
+
+  private final WebTarget db;
+  private final Listener listener;
+  private final long pollTimeout;
+  private final long maxRetry;
+  private final ExecutorService exec;
+  private volatile String seq;
+  private volatile long lastSync;
+  private volatile boolean closed;
+
+  /**
+   * Creates a follower.  Nothing is read until the follower is started.
+   * @param db The database to follow.
+   * @param listener The listener to give the changes to.
+   * @param pollTimeout How long, in milliseconds, Cloudant waits for a change before answering a
+   * long poll, must be less than the read timeout of the client.
+   * @param maxRetry The longest time, in milliseconds, to wait before retrying after an error.
+   */
+  CloudantChangesFollower(WebTarget db, Listener listener, long pollTimeout, long maxRetry) {
+    this.db = db;
+    this.listener = listener;
+    this.pollTimeout = pollTimeout;
+    this.maxRetry = maxRetry;
+    this.exec = Threads.newExecutor("todo-changes", 1, 1);
+  }
+
+  /**
+   * Starts following the feed.
+   */
+  void start() {
+    exec.execute(new Runnable() {
+      @Override
+      public void run() {
+        follow();
+      }
+    });
+  }
+
+  /**
+   * Gets the sequence the next request continues from.
+   * @return The sequence, or null if the whole feed has to be read.
+   */
+  String getSeq() {
+    return seq;
+  }
+
+  /**
+   * Whether the listener has seen every change up to the last successful request.
+   * @return True if the feed has been read since the last resync.
+   */
+  boolean isSynced() {
+    return seq != null;
+  }
+
+  /**
+   * Gets when the last successful request was sent.  The listener has seen every change made
+   * before then.
+   * @return The time from {@link System#nanoTime()}.
+   */
+  long getLastSync() {
+    return lastSync;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    exec.shutdownNow();
+  }
+
+  private void follow() {
+    int failures = 0;
+    while(!closed) {
+      try {
+        poll();
+        failures = 0;
+      } catch(ToDoStoreException | ProcessingException e) {
+        if(closed) {
+          return;
+        }
+        seq = null;
+        long wait = Math.min(MIN_RETRY << Math.min(failures++, 16), maxRetry);
+        LOG.log(Level.WARNING, "Error following the Cloudant changes feed, resyncing in " + wait 
+                + "ms.", e);
+        try {
+          TimeUnit.MILLISECONDS.sleep(wait);
+        } catch (InterruptedException ie) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Makes a single request to the feed and hands its changes to the listener.
+   * @throws ToDoStoreException Thrown if the feed cannot be read.
+   */
+  void poll() throws ToDoStoreException {
+    long started = System.nanoTime();
+    String since = seq;
+    WebTarget changes = db.path("_changes").queryParam("include_docs", true);
+    if(since != null) {
+      changes = changes.queryParam("feed", "longpoll").queryParam("since", since).
+              queryParam("timeout", pollTimeout);
+    }
+    Response resp = changes.request(MediaType.APPLICATION_JSON).get();
+    try {
+      int status = resp.getStatus();
+      if(status != HttpURLConnection.HTTP_OK) {
+        throw new ToDoStoreException("There was an error reading the changes from Cloudant. Error " 
+                + status);
+      }
+      CloudantChangesReader reader = new CloudantChangesReader(resp.readEntity(InputStream.class));
+      try {
+        if(since == null) {
+          listener.resync();
+        }
+        Change change;
+        while((change = reader.next()) != null) {
+          listener.changed(change);
+        }
+        if(reader.getLastSeq() == null) {
+          throw new ToDoStoreException("The changes from Cloudant did not have a last sequence.");
+        }
+        seq = reader.getLastSeq();
+      } finally {
+        reader.close();
+      }
+    } finally {
+      resp.close();
+    }
+    lastSync = started;
+  }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+import net.bluemix.todo.model.ToDo;
+
+/**
+ * Reads the results of a Cloudant <code>_changes</code> response one at a time, straight from
+ * the response stream.  The response must have been requested with <code>include_docs=true</code>
+ * so each change carries the document.  Changes to design documents are skipped, as are fields
+ * that are not understood.  Documents that are not ToDos are reported as deleted.
+ *
+ * The sequence to continue the feed from comes after the results, so it is only available once
+ * {@link #next()} has returned null.
+ */
+class CloudantChangesReader implements Closeable {
+
+  //Looking up the JSON provider is expensive so only do it once
+  private static final JsonParserFactory FACTORY = Json.createParserFactory(null);
+  private static final String DESIGN_PREFIX = "_design/";
+
+  private final JsonParser parser;
+  private boolean inResults;
+  private boolean done;
+  private String lastSeq;
+
+  /**
+   * A change to a ToDo.
+   */
+  static class Change {
+    private final String id;
+    private final String rev;
+    private final ToDo todo;
+
+    private Change(String id, String rev, ToDo todo) {
+      this.id = id;
+      this.rev = rev;
+      this.todo = todo;
+    }
+
+    /**
+     * Gets the ID of the changed ToDo.
+     * @return The ID.
+     */
+    String getId() {
+      return id;
+    }
+
+    /**
+     * Gets the revision the ToDo was changed to.
+     * @return The revision.
+     */
+    String getRev() {
+      return rev;
+    }
+
+    /**
+     * Gets the ToDo as it is after the change.
+     * @return The ToDo, or null if it was deleted.
+     */
+    ToDo getToDo() {
+      return todo;
+    }
+
+    /**
+     * Whether the ToDo was deleted.
+     * @return True if the ToDo was deleted.
+     */
+    boolean isDeleted() {
+      return todo == null;
+    }
+  }
+
+  /**
+   * Creates a reader.
+   * @param in The <code>_changes</code> response.
+   */
+  CloudantChangesReader(InputStream in) {
+    this.parser = FACTORY.createParser(in);
+  }
+
+  /**
+   * Reads the next change.
+   * @return The next change, or null if there are no more changes.
+   * @throws ToDoStoreException Thrown if the response is not a valid changes response.
+   */
+  Change next() throws ToDoStoreException {
+    try {
+      if(done || (!inResults && !findResults())) {
+        return null;
+      }
+      while(true) {
+        Event event = parser.next();
+        if(event == Event.END_ARRAY) {
+          readTrailer();
+          return null;
+        }
+        if(event != Event.START_OBJECT) {
+          throw new ToDoStoreException("Unexpected " + event + " in the results of the changes.");
+        }
+        Change change = readResult();
+        if(change.getId() != null && !change.getId().startsWith(DESIGN_PREFIX)) {
+          return change;
+        }
+      }
+    } catch(JsonException e) {
+      throw new ToDoStoreException("There was an error reading the changes from Cloudant.", e);
+    } catch(NoSuchElementException e) {
+      throw new ToDoStoreException("There was an error reading the changes from Cloudant.", e);
+    }
+  }
+
+  /**
+   * Gets the sequence to continue the feed from.
+   * @return The sequence, or null if the response has not been read to the end or did not
+   * have one.
+   */
+  String getLastSeq() {
+    return lastSeq;
+  }
+
+  @Override
+  public void close() {
+    parser.close();
+  }
+
+  /**
+   * Moves the parser to the start of the results array.
+   * @return True if the results were found, false if the response has no results.
+   * @throws ToDoStoreException Thrown if the response is not an object.
+   */
+  private boolean findResults() throws ToDoStoreException {
+    if(!parser.hasNext() || parser.next() != Event.START_OBJECT) {
+      throw new ToDoStoreException("The changes response is not a JSON object.");
+    }
+    while(parser.hasNext()) {
+      Event event = parser.next();
+      if(event == Event.END_OBJECT) {
+        break;
+      }
+      String name = parser.getString();
+      Event value = parser.next();
+      if("results".equals(name) && value == Event.START_ARRAY) {
+        inResults = true;
+        return true;
+      }
+      readField(name, value);
+    }
+    done = true;
+    return false;
+  }
+
+  /**
+   * Reads the fields after the results, which include the last sequence.
+   */
+  private void readTrailer() {
+    while(parser.hasNext()) {
+      Event event = parser.next();
+      if(event == Event.END_OBJECT) {
+        break;
+      }
+      readField(parser.getString(), parser.next());
+    }
+    //Read the rest of the response so the connection can be reused
+    while(parser.hasNext()) {
+      parser.next();
+    }
+    done = true;
+  }
+
+  private void readField(String name, Event value) {
+    if("last_seq".equals(name) && (value == Event.VALUE_STRING || value == Event.VALUE_NUMBER)) {
+      //Cloudant sequences are opaque strings, CouchDB 1.x ones are numbers
+      lastSeq = parser.getString();
+    } else {
+      skip(value);
+    }
+  }
+
+  private Change readResult() {
+    String id = null;
+    String rev = null;
+    boolean deleted = false;
+    ToDo td = null;
+    while(parser.next() != Event.END_OBJECT) {
+      String name = parser.getString();
+      Event value = parser.next();
+      if("id".equals(name) && value == Event.VALUE_STRING) {
+        id = parser.getString();
+      } else if("deleted".equals(name) && value == Event.VALUE_TRUE) {
+        deleted = true;
+      } else if("changes".equals(name) && value == Event.START_ARRAY) {
+        rev = readRev();
+      } else if("doc".equals(name) && value == Event.START_OBJECT) {
+        td = readDoc();
+      } else {
+        skip(value);
+      }
+    }
+    if(deleted || td == null) {
+      return new Change(id, rev, null);
+    }
+    td.setId(id);
+    if(td.getRev() == null) {
+      td.setRev(rev);
+    }
+    return new Change(id, td.getRev(), td);
+  }
+
+  /**
+   * Reads the winning revision from the changes array, which is the first one.
+   */
+  private String readRev() {
+    String rev = null;
+    Event event;
+    while((event = parser.next()) != Event.END_ARRAY) {
+      if(event == Event.START_OBJECT) {
+        while(parser.next() != Event.END_OBJECT) {
+          String name = parser.getString();
+          Event value = parser.next();
+          if(rev == null && "rev".equals(name) && value == Event.VALUE_STRING) {
+            rev = parser.getString();
+          } else {
+            skip(value);
+          }
+        }
+      } else {
+        skip(event);
+      }
+    }
+    return rev;
+  }
+
+  /**
+   * Reads a document.
+   * @return The ToDo, or null if the document is not a ToDo.
+   */
+  private ToDo readDoc() {
+    ToDo td = new ToDo();
+    boolean hasCompleted = false;
+    while(parser.next() != Event.END_OBJECT) {
+      String name = parser.getString();
+      Event value = parser.next();
+      if("title".equals(name) && value == Event.VALUE_STRING) {
+        td.setTitle(parser.getString());
+      } else if("completed".equals(name) && (value == Event.VALUE_TRUE || value == Event.VALUE_FALSE)) {
+        td.setCompleted(value == Event.VALUE_TRUE);
+        hasCompleted = true;
+      } else if("order".equals(name) && value == Event.VALUE_NUMBER) {
+        td.setOrder(parser.getInt());
+      } else if("_rev".equals(name) && value == Event.VALUE_STRING) {
+        td.setRev(parser.getString());
+      } else {
+        skip(value);
+      }
+    }
+    //The same documents the allTodos view treats as ToDos
+    return td.getTitle() != null && !td.getTitle().isEmpty() && hasCompleted ? td : null;
+  }
+
+  /**
+   * Skips over a value, including everything nested in it.
+   * @param event The event that started the value.
+   */
+  private void skip(Event event) {
+    if(event != Event.START_OBJECT && event != Event.START_ARRAY) {
+      return;
+    }
+    int depth = 1;
+    while(depth > 0) {
+      event = parser.next();
+      if(event == Event.START_OBJECT || event == Event.START_ARRAY) {
+        depth++;
+      } else if(event == Event.END_OBJECT || event == Event.END_ARRAY) {
+        depth--;
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import net.bluemix.todo.json.JsonCodecProvider;
+
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.glassfish.jersey.apache.connector.ApacheClientProperties;
+import org.glassfish.jersey.apache.connector.ApacheConnectorProvider;
+import org.glassfish.jersey.client.ClientAsyncExecutor;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
+import org.glassfish.jersey.spi.ExecutorServiceProvider;
+
+/**
+ * A pool of persistent HTTP connections to Cloudant.
+ *
+ * Clients created by the pool reuse kept alive connections instead of opening a new TCP (and TLS)
+ * connection for every request.  A connection only goes back to the pool once the response
+ * using it has been read or closed, so callers must always close their responses.
+ */
+public class CloudantConnectionPool implements Closeable {
+
+  //Pooled connections are revalidated if they have been idle for this long
+  private static final int VALIDATE_AFTER_INACTIVITY = 2000; //in milliseconds
+
+  private final PoolingHttpClientConnectionManager manager;
+  private final int connectTimeout;
+  private final int readTimeout;
+
+  /**
+   * Creates a connection pool.
+   * @param maxTotal The maximum number of open connections.
+   * @param maxPerRoute The maximum number of open connections to a single host.
+   * @param connectTimeout The connect timeout in milliseconds, 0 waits forever.
+   * @param readTimeout The read timeout in milliseconds, 0 waits forever.
+   * @param keepAlive How long in milliseconds a connection may be reused for, 0 or less for no limit.
+   */
+  public CloudantConnectionPool(int maxTotal, int maxPerRoute, int connectTimeout, int readTimeout,
+          long keepAlive) {
+    this.manager = new PoolingHttpClientConnectionManager(keepAlive, TimeUnit.MILLISECONDS);
+    this.manager.setMaxTotal(maxTotal);
+    this.manager.setDefaultMaxPerRoute(maxPerRoute);
+    this.manager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+    this.connectTimeout = connectTimeout;
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Creates a JAX-RS client that sends its requests over connections from this pool and reads
+   * and writes JSON with the {@link JsonCodecProvider}.
+   * @param username The Cloudant username.
+   * @param password The Cloudant password.
+   * @return The client.
+   */
+  public Client createClient(String username, String password) {
+    ClientConfig config = new ClientConfig();
+    config.connectorProvider(new ApacheConnectorProvider());
+    config.property(ApacheClientProperties.CONNECTION_MANAGER, manager);
+    config.property(ClientProperties.CONNECT_TIMEOUT, connectTimeout);
+    config.property(ClientProperties.READ_TIMEOUT, readTimeout);
+    config.register(JsonCodecProvider.class);
+    if(Threads.isVirtual()) {
+      //Virtual threads waiting for a connection are cheap, so there is no need to bound them
+      config.register(new VirtualThreadExecutorProvider());
+    } else {
+      //The connector does blocking I/O on Jersey's async threads, more threads than connections
+      //would only wait for a connection
+      config.property(ClientProperties.ASYNC_THREADPOOL_SIZE, manager.getMaxTotal());
+    }
+    return ClientBuilder.newClient(config).register(HttpAuthenticationFeature.basic(username, password));
+  }
+
+  /**
+   * Gets the number of connections currently in use.
+   * @return The number of leased connections.
+   */
+  public int getLeased() {
+    return stats().getLeased();
+  }
+
+  /**
+   * Gets the number of idle connections kept alive for reuse.
+   * @return The number of available connections.
+   */
+  public int getAvailable() {
+    return stats().getAvailable();
+  }
+
+  /**
+   * Gets the number of requests waiting for a connection.
+   * @return The number of pending requests.
+   */
+  public int getPending() {
+    return stats().getPending();
+  }
+
+  /**
+   * Gets the maximum number of open connections.
+   * @return The maximum number of connections.
+   */
+  public int getMax() {
+    return stats().getMax();
+  }
+
+  /**
+   * Closes connections that have been idle for longer than the given time.
+   * @param idle The idle time.
+   * @param unit The unit of the idle time.
+   */
+  public void closeIdle(long idle, TimeUnit unit) {
+    manager.closeExpiredConnections();
+    manager.closeIdleConnections(idle, unit);
+  }
+
+  @Override
+  public void close() {
+    manager.shutdown();
+  }
+
+  @Override
+  public String toString() {
+    return "CloudantConnectionPool " + stats();
+  }
+
+  private PoolStats stats() {
+    return manager.getTotalStats();
+  }
+
+  /**
+   * Runs the asynchronous requests of a client on virtual threads.
+   */
+  @ClientAsyncExecutor
+  static class VirtualThreadExecutorProvider implements ExecutorServiceProvider {
+
+    @Override
+    public ExecutorService getExecutorService() {
+      return Threads.newVirtualExecutor("todo-cloudant");
+    }
+
+    @Override
+    public void dispose(ExecutorService executorService) {
+      executorService.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * A {@link Lease} stored as a document in Cloudant, shared by every app instance using the
+ * account.  The document has the name of the lease as its ID, the holder and when the lease
+ * expires, in milliseconds since the epoch.
+ *
+ * Cloudant only takes a write of a document that names its current revision, so when two app
+ * instances try to take the lease at once one of them gets a conflict and does not get it.  The
+ * revision of the last write is remembered, so renewing the lease is a single PUT.
+ *
+ * Leases are kept in their own database rather than with the ToDos, where they would show up
+ * in the changes feed.
+ */
+public class CloudantLease implements Lease {
+
+  private static final String DB_NAME = "bluemix-todo-leases";
+
+  private final WebTarget doc;
+  //The holder and revision of the last write, null if someone else may have written since
+  private String holder;
+  private String rev;
+
+  /**
+   * Creates a lease, and the database leases are kept in if it does not exist.
+   * @param target The target (URL) for Cloudant.
+   * @param name The name of the lease, its document ID.
+   * @throws ToDoStoreException Thrown if there is an error creating the database.
+   */
+  public CloudantLease(WebTarget target, String name) throws ToDoStoreException {
+    WebTarget db = target.path(DB_NAME);
+    int status = close(db.request(MediaType.APPLICATION_JSON).get());
+    if(status == HttpURLConnection.HTTP_NOT_FOUND) {
+      status = close(db.request(MediaType.APPLICATION_JSON).put(Entity.text("")));
+      //Another app instance may have created it in the meantime
+      if(status != HttpURLConnection.HTTP_CREATED && status != HttpURLConnection.HTTP_ACCEPTED &&
+              status != HttpURLConnection.HTTP_PRECON_FAILED) {
+        throw new ToDoStoreException("Error creating the lease database.");
+      }
+    }
+    this.doc = db.path(name);
+  }
+
+  @Override
+  public synchronized boolean acquire(String holder, long duration, TimeUnit unit) 
+          throws ToDoStoreException {
+    long now = now();
+    long expires = now + unit.toMillis(duration);
+    if(holder.equals(this.holder) && write(this.rev, holder, expires)) {
+      return true;
+    }
+    //Someone else wrote the lease since, see whether it has expired
+    String current = null;
+    Response resp = doc.request(MediaType.APPLICATION_JSON).get();
+    try {
+      int status = resp.getStatus();
+      if(status == HttpURLConnection.HTTP_OK) {
+        JsonObject lease = read(resp);
+        current = lease.getString("_rev", null);
+        JsonNumber until = lease.getJsonNumber("expires");
+        if(!holder.equals(lease.getString("holder", null)) && until != null && until.longValue() > now) {
+          return false;
+        }
+      } else if(status != HttpURLConnection.HTTP_NOT_FOUND) {
+        throw new ToDoStoreException("There was an error getting the lease from Cloudant. Error "
+                + status);
+      }
+    } finally {
+      resp.close();
+    }
+    return write(current, holder, expires);
+  }
+
+  @Override
+  public synchronized void release(String holder) throws ToDoStoreException {
+    if(!holder.equals(this.holder)) {
+      return;
+    }
+    int status = close(doc.queryParam("rev", rev).request(MediaType.APPLICATION_JSON).delete());
+    this.holder = null;
+    this.rev = null;
+    //A conflict means someone else took the lease after it expired
+    if(status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_ACCEPTED &&
+            status != HttpURLConnection.HTTP_CONFLICT && status != HttpURLConnection.HTTP_NOT_FOUND) {
+      throw new ToDoStoreException("There was an error deleting the lease from Cloudant. Error "
+              + status);
+    }
+  }
+
+  /**
+   * Writes the lease.
+   * @param rev The revision the lease document must be at, or null if it does not exist.
+   * @param holder The holder to write.
+   * @param expires When the lease expires, in milliseconds since the epoch.
+   * @return True if the lease was written, false if the document was at another revision.
+   * @throws ToDoStoreException Thrown if there is an error writing the lease.
+   */
+  private boolean write(String rev, String holder, long expires) throws ToDoStoreException {
+    JsonObjectBuilder lease = Json.createObjectBuilder();
+    if(rev != null) {
+      lease.add("_rev", rev);
+    }
+    lease.add("holder", holder).add("expires", expires);
+    Response resp = doc.request(MediaType.APPLICATION_JSON).put(Entity.json(lease.build().toString()));
+    try {
+      int status = resp.getStatus();
+      this.holder = null;
+      this.rev = null;
+      if(status == HttpURLConnection.HTTP_CREATED || status == HttpURLConnection.HTTP_ACCEPTED) {
+        this.rev = read(resp).getString("rev", null);
+        this.holder = holder;
+        return true;
+      } else if(status == HttpURLConnection.HTTP_CONFLICT) {
+        return false;
+      }
+      throw new ToDoStoreException("There was an error writing the lease to Cloudant. Error "
+              + status);
+    } finally {
+      resp.close();
+    }
+  }
+
+  private static JsonObject read(Response resp) throws ToDoStoreException {
+    try {
+      JsonReader reader = Json.createReader(new StringReader(resp.readEntity(String.class)));
+      try {
+        return reader.readObject();
+      } finally {
+        reader.close();
+      }
+    } catch(JsonException e) {
+      throw new ToDoStoreException("There was an error reading the lease from Cloudant.", e);
+    }
+  }
+
+  private static int close(Response resp) {
+    try {
+      int status = resp.getStatus();
+      resp.bufferEntity();
+      return status;
+    } finally {
+      resp.close();
+    }
+  }
+
+  /**
+   * The current time in milliseconds, compared with the expiry other app instances wrote.
+   * @return The current time.
+   */
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+}
@@ -15,28 +15,48 @@
  */
 package net.bluemix.todo.store;
 
+import java.io.InputStream;
+import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Logger;
 
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.CloudantAllDocs;
+import net.bluemix.todo.model.CloudantBulkDocs;
 import net.bluemix.todo.model.CloudantCount;
+import net.bluemix.todo.model.CloudantKeys;
 import net.bluemix.todo.model.CloudantPostResponse;
 import net.bluemix.todo.model.CloudantRow;
 import net.bluemix.todo.model.CloudantToDo;
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+import net.bluemix.todo.store.CloudantChangesReader.Change;
 
 /**
  * A {@link ToDoStore} using Cloudant.
  */
-public class CloudantStore implements ToDoStore {
+public class CloudantStore implements ToDoStore, AsyncToDoStore {
 
   private static final String REVISION_PARAM = "rev";
   private static final String DESIGN_DOC_NAME = "todos";
@@ -47,14 +67,23 @@ public class CloudantStore implements ToDoStore {
             "\"views\": {" +
               "\"allTodos\": {" +
                 "\"reduce\": \"_count\"," +
-                "\"map\": \"function(doc){if(doc.title && doc.completed != null){emit(doc.order,{title: doc.title,completed: doc.completed})}}\"" +
+                "\"map\": \"function(doc){if(doc.title && doc.completed != null){emit(doc.order,{title: doc.title,completed: doc.completed,rev: doc._rev})}}\"" +
               "}" +
             "}" +
            "}";
+  //The views as stored, to tell whether the design document in the database is out of date
+  private static final JsonObject DESIGN_VIEWS = 
+          Json.createReader(new StringReader(DESIGN_DOC)).readObject().getJsonObject("views");
   
+  private static final int DEFAULT_REVISION_CACHE_SIZE = 10000;
+  private static final int DEFAULT_BULK_CHUNK_SIZE = 500;
+  private static final String CONFLICT = "conflict";
+  private static final GenericType<List<BulkResult>> BULK_RESULTS = new GenericType<List<BulkResult>>() {};
   private static final Logger LOG = Logger.getLogger(CloudantStore.class.getName());
   
   private WebTarget target;
+  private RevisionCache revisions;
+  private int bulkChunkSize;
   
   /**
    * Creates a CloudantStore.
@@ -62,24 +91,61 @@ public class CloudantStore implements ToDoStore {
    * @throws ToDoStoreException 
    */
   public CloudantStore(WebTarget target) throws ToDoStoreException {
+    this(target, DEFAULT_REVISION_CACHE_SIZE);
+  }
+  
+  /**
+   * Creates a CloudantStore.
+   * @param target The target (URL) for the CloudantStore.
+   * @param revisionCacheSize The number of document revisions to remember.  Updates and deletes
+   * of documents whose revision is remembered do not need to fetch the document first.
+   * @throws ToDoStoreException 
+   */
+  public CloudantStore(WebTarget target, int revisionCacheSize) throws ToDoStoreException {
+    this(target, revisionCacheSize, DEFAULT_BULK_CHUNK_SIZE);
+  }
+  
+  /**
+   * Creates a CloudantStore.
+   * @param target The target (URL) for the CloudantStore.
+   * @param revisionCacheSize The number of document revisions to remember.  Updates and deletes
+   * of documents whose revision is remembered do not need to fetch the document first.
+   * @param bulkChunkSize The maximum number of documents sent to Cloudant in one bulk request.
+   * @throws ToDoStoreException 
+   */
+  public CloudantStore(WebTarget target, int revisionCacheSize, int bulkChunkSize) 
+          throws ToDoStoreException {
+    if(bulkChunkSize < 1) {
+      throw new IllegalArgumentException("The bulk chunk size must be at least 1.");
+    }
+    this.bulkChunkSize = bulkChunkSize;
     //Uncomment to enable HTTP logging in Jersey
     //target = target.register(new LoggingFilter(LOG, true));
+    this.revisions = new RevisionCache(revisionCacheSize);
     createDB(target);
     this.target = target.path("bluemix-todo");
     createDesignDoc(this.target);
   }
   
+  /**
+   * Gets the target of the database the ToDos are stored in.
+   * @return The database target.
+   */
+  public WebTarget getDatabase() {
+    return target;
+  }
+  
   /**
    * Will create a database named "todos" if one does not exist.
    * @param target The base URL for Cloudant.
    * @throws ToDoStoreException Thrown if there is an error creating the DB.
    */
   private void createDB(WebTarget target) throws ToDoStoreException {
-    Response resp = target.path("bluemix-todo").request(MediaType.APPLICATION_JSON).get();;
-    int status = resp.getStatus();
+    Response resp = target.path("bluemix-todo").request(MediaType.APPLICATION_JSON).get();
+    int status = close(resp);
     if(status == HttpURLConnection.HTTP_NOT_FOUND) {
       resp = target.path("bluemix-todo").request(MediaType.APPLICATION_JSON).put(Entity.text(""));
-      status = resp.getStatus();
+      status = close(resp);
       if(status != HttpURLConnection.HTTP_CREATED && status != HttpURLConnection.HTTP_ACCEPTED) {
         throw new ToDoStoreException("Error creating the ToDo database.");
       }
@@ -87,134 +153,1012 @@ public class CloudantStore implements ToDoStore {
   }
   
   /**
-   * Will create a design document called "todos" if one does not exist.
+   * Will create a design document called "todos" if one does not exist, or update it if its views
+   * are not the ones this store reads.  Databases created by earlier versions of the app have a
+   * view that does not emit revisions, so reading all ToDos would not remember them.
    * @param target The base URL for Cloudant.
-   * @throws ToDoStoreException Thrown if there is an error creating the design document.
+   * @throws ToDoStoreException Thrown if there is an error creating or updating the design
+   * document.
    */
   private static void createDesignDoc(WebTarget target) throws ToDoStoreException {
-    WebTarget design = target.path("_design").path("todos");
+    WebTarget design = target.path("_design").path(DESIGN_DOC_NAME);
     Response resp = design.request(MediaType.APPLICATION_JSON).get();
-    int status = resp.getStatus();
-    if(status == HttpURLConnection.HTTP_NOT_FOUND) {
-      resp = design.request(MediaType.APPLICATION_JSON).put(Entity.json(DESIGN_DOC));
-      status = resp.getStatus();
-      if(status != HttpURLConnection.HTTP_CREATED) {
-        throw new ToDoStoreException("Error creating the ToDo design document.");
+    String doc;
+    if(resp.getStatus() == HttpURLConnection.HTTP_OK) {
+      JsonObject stored;
+      try {
+        stored = Json.createReader(new StringReader(resp.readEntity(String.class))).readObject();
+      } catch(JsonException e) {
+        throw new ToDoStoreException("Error reading the ToDo design document.", e);
+      } finally {
+        resp.close();
       }
+      if(DESIGN_VIEWS.equals(stored.get("views"))) {
+        return;
+      }
+      //Updating needs the current revision
+      doc = Json.createObjectBuilder().add("_id", "_design/" + DESIGN_DOC_NAME).
+              add("_rev", stored.getString("_rev")).add("views", DESIGN_VIEWS).build().toString();
+    } else if(close(resp) == HttpURLConnection.HTTP_NOT_FOUND) {
+      doc = DESIGN_DOC;
+    } else {
+      return;
+    }
+    int status = close(design.request(MediaType.APPLICATION_JSON).put(Entity.json(doc)));
+    //A conflict means another app instance wrote it since we read it
+    if(status != HttpURLConnection.HTTP_CREATED && status != HttpURLConnection.HTTP_ACCEPTED
+            && status != HttpURLConnection.HTTP_CONFLICT) {
+      throw new ToDoStoreException("Error creating the ToDo design document.");
     }
   }
 
   @Override
   public Collection<ToDo> getAll() throws ToDoStoreException {
-    Response allDocsResp = target.queryParam("reduce", false).
-            path("_design").path(DESIGN_DOC_NAME).path("_view").path(VIEW_NAME).
-            request(MediaType.APPLICATION_JSON).get();
-    int status = allDocsResp.getStatus();
-    if(status == HttpURLConnection.HTTP_OK) {
-      List<ToDo> todos = new ArrayList<ToDo>();
-      CloudantAllDocs all = allDocsResp.readEntity(CloudantAllDocs.class);
-      for(CloudantRow row : all.getRows()) {
-        ToDo td = row.getValue();
-        td.setId(row.getId());
-        td.setOrder(row.getKey());
-        todos.add(td);
-      }
-      return todos;
-    } else {
-      throw new ToDoStoreException("There was an error retrieving the tasks from Cloudant. Error "
-              + status);
-    } 
+    return readView(viewRequest(target.queryParam("reduce", false)).get());
   }
 
   @Override
-  public ToDo get(String id) throws ToDoStoreException {
-    Response docResp = getRequest(id);
-    int status = docResp.getStatus();
-    if(status == HttpURLConnection.HTTP_OK) {
-      CloudantToDo td = docResp.readEntity(CloudantToDo.class);      
-      return td.getToDo();
-    } else {
-      throw new ToDoStoreException("There was an error retrieving the doc with id " + id 
-              + "from Cloudant. Error " + status);
+  public ToDoCursor streamAll() throws ToDoStoreException {
+    //The view is read whole, so there is nothing to gain from streaming it
+    return new CollectionCursor(getAll());
+  }
+
+  @Override
+  public CompletionStage<Collection<ToDo>> getAllAsync() {
+    return ResponseFuture.get(viewRequest(target.queryParam("reduce", false))).
+            thenApply(Stages.step(this::readView));
+  }
+
+  @Override
+  public CompletionStage<ToDoCursor> streamAllAsync() {
+    return getAllAsync().thenApply(CollectionCursor::new);
+  }
+
+  @Override
+  public ToDoPage getPage(String cursor, int limit) throws ToDoStoreException {
+    return OrderKey.toPage(readView(viewRequest(pageTarget(cursor, limit)).get()), limit);
+  }
+
+  @Override
+  public CompletionStage<ToDoPage> getPageAsync(String cursor, int limit) {
+    WebTarget page;
+    try {
+      page = pageTarget(cursor, limit);
+    } catch(IllegalArgumentException e) {
+      return Stages.failed(e);
     }
+    return ResponseFuture.get(viewRequest(page)).
+            thenApply(Stages.step(resp -> OrderKey.toPage(readView(resp), limit)));
+  }
+
+  /**
+   * Adds the query parameters for a page to the view.
+   * @param cursor The cursor of the page, may be null.
+   * @param limit The maximum number of ToDos on the page.
+   * @return The target with the query parameters.
+   */
+  private WebTarget pageTarget(String cursor, int limit) {
+    OrderKey.checkLimit(limit);
+    //The view is keyed on the order and sorts rows with the same key by ID, fetch one extra
+    //row so we know where the next page starts
+    WebTarget view = target.queryParam("reduce", false).queryParam("limit", limit + 1);
+    if(cursor != null) {
+      OrderKey start = OrderKey.decode(cursor);
+      view = view.queryParam("startkey", start.getOrder()).queryParam("startkey_docid", start.getId());
+    }
+    return view;
+  }
+
+  private Invocation.Builder viewRequest(WebTarget view) {
+    return view.path("_design").path(DESIGN_DOC_NAME).path("_view").path(VIEW_NAME).
+            request(MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Reads the rows of the allTodos view.
+   * @param allDocsResp The response to a request for the view, closed once read.
+   * @return The ToDos in the rows.
+   * @throws ToDoStoreException Thrown if the view cannot be read.
+   */
+  private List<ToDo> readView(Response allDocsResp) throws ToDoStoreException {
+    try {
+      int status = allDocsResp.getStatus();
+      if(status == HttpURLConnection.HTTP_OK) {
+        List<ToDo> todos = new ArrayList<ToDo>();
+        CloudantViewReader reader = new CloudantViewReader(allDocsResp.readEntity(InputStream.class));
+        try {
+          ToDo td;
+          while((td = reader.next()) != null) {
+            //Views created before revisions were added to them will not include one
+            revisions.put(td.getId(), td.getRev());
+            todos.add(td);
+          }
+        } finally {
+          reader.close();
+        }
+        return todos;
+      } else {
+        throw new ToDoStoreException("There was an error retrieving the tasks from Cloudant. Error "
+                + status);
+      }
+    } finally {
+      allDocsResp.close();
+    }
+  }
+
+  @Override
+  public ToDo get(String id) throws ToDoStoreException {
+    return getDoc(id).getToDo();
+  }
+
+  @Override
+  public CompletionStage<ToDo> getAsync(String id) {
+    return getDocAsync(id).thenApply(CloudantToDo::getToDo);
   }
   
-  private Response getRequest(String id) {
-    return target.path(id).request(MediaType.APPLICATION_JSON).get();
+  private Invocation.Builder getRequest(String id) {
+    return target.path(id).request(MediaType.APPLICATION_JSON);
   }
 
   @Override
   public ToDo persist(ToDo td) throws ToDoStoreException {
-    Response newdoc = target.request(MediaType.APPLICATION_JSON).post(Entity.entity(td, MediaType.APPLICATION_JSON));
-    int status = newdoc.getStatus();
-    if(status == HttpURLConnection.HTTP_CREATED) {
-      CloudantPostResponse post = newdoc.readEntity(CloudantPostResponse.class);
-      td.setId(post.getId());
-      return td;
-    } else {
-      throw new ToDoStoreException("There was an error POSTing the ToDo to Cloudant. Error " 
-              + status);
-    }
+    return readSaved(td, persistRequest().post(persistEntity(td)));
   }
 
   @Override
-  public ToDo update(String id, ToDo td) throws ToDoStoreException {
-    Response docResp = getRequest(id);
-    int status = docResp.getStatus();
-    if(status == HttpURLConnection.HTTP_OK) {
-      CloudantToDo ctd = docResp.readEntity(CloudantToDo.class);
-      CloudantToDo updatedCtd = new CloudantToDo(td);
-      updatedCtd.set_rev(ctd.get_rev());
-      Response updateReq = target.queryParam(REVISION_PARAM, ctd.get_rev()).path(id).
-              request(MediaType.APPLICATION_JSON).put(Entity.entity(updatedCtd, MediaType.APPLICATION_JSON));
-      status = updateReq.getStatus();
+  public CompletionStage<ToDo> persistAsync(ToDo td) {
+    return ResponseFuture.post(persistRequest(), persistEntity(td)).
+            thenApply(Stages.step(resp -> readSaved(td, resp)));
+  }
+
+  private Invocation.Builder persistRequest() {
+    return target.request(MediaType.APPLICATION_JSON);
+  }
+
+  private static Entity<ToDo> persistEntity(ToDo td) {
+    return Entity.entity(td, MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Reads the response to saving a ToDo and remembers the new revision.
+   * @param td The ToDo that was saved, its ID and revision are updated.
+   * @param resp The response, closed once read.
+   * @return The ToDo.
+   * @throws ToDoStoreException Thrown if the ToDo was not saved.
+   */
+  private ToDo readSaved(ToDo td, Response resp) throws ToDoStoreException {
+    try {
+      int status = resp.getStatus();
       if(status == HttpURLConnection.HTTP_CREATED) {
-        CloudantPostResponse post = updateReq.readEntity(CloudantPostResponse.class);
+        CloudantPostResponse post = resp.readEntity(CloudantPostResponse.class);
         td.setId(post.getId());
+        td.setRev(post.getRev());
+        revisions.put(post.getId(), post.getRev());
         return td;
       } else {
         throw new ToDoStoreException("There was an error POSTing the ToDo to Cloudant. Error "
                 + status);
       }
-    } else {
-      throw new ToDoStoreException("there was an error fetching the ToDo from Cloudant. Error " + status);
+    } finally {
+      resp.close();
     }
   }
 
   @Override
-  public void delete(String id) throws ToDoStoreException {
-    Response docResp = getRequest(id);
-    int status = docResp.getStatus();
-    if(status == HttpURLConnection.HTTP_OK) {
-      CloudantToDo ctd = docResp.readEntity(CloudantToDo.class);
-      Response updateReq = target.queryParam(REVISION_PARAM, ctd.get_rev()).path(id).
-              request(MediaType.APPLICATION_JSON).delete();
-      status = updateReq.getStatus();
-      if(status != HttpURLConnection.HTTP_OK) {
-        throw new ToDoStoreException("There was an error deleting the ToDo from Cloudant. Error "
-                + status);
+  public ToDo update(String id, ToDo td) throws ToDoStoreException {
+    String rev = revisions.get(id);
+    Response updateReq = putRequest(id, rev != null ? rev : getDoc(id).get_rev(), td);
+    if(rev != null && updateReq.getStatus() == HttpURLConnection.HTTP_CONFLICT) {
+      //The remembered revision is out of date, fetch the current one and try again
+      close(updateReq);
+      revisions.remove(id);
+      updateReq = putRequest(id, getDoc(id).get_rev(), td);
+    }
+    return readSaved(td, updateReq);
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td) {
+    String rev = revisions.get(id);
+    CompletableFuture<Response> updateReq = rev != null ? putRequestAsync(id, rev, td) :
+      getDocAsync(id).thenCompose(ctd -> putRequestAsync(id, ctd.get_rev(), td));
+    return updateReq.thenCompose(resp -> {
+      if(rev != null && resp.getStatus() == HttpURLConnection.HTTP_CONFLICT) {
+        //The remembered revision is out of date, fetch the current one and try again
+        close(resp);
+        revisions.remove(id);
+        return getDocAsync(id).thenCompose(ctd -> putRequestAsync(id, ctd.get_rev(), td));
       }
-    } else {
-      throw new ToDoStoreException("There was an error getting the ToDo from Cloudant. Error " + status);
+      return CompletableFuture.completedFuture(resp);
+    }).thenApply(Stages.step(resp -> readSaved(td, resp)));
+  }
+
+  @Override
+  public boolean delete(String id) throws ToDoStoreException {
+    String rev = revisions.get(id);
+    String current = rev != null ? rev : getRev(id);
+    if(current == null) {
+      return false;
+    }
+    int status = close(deleteRequest(id, current).delete());
+    if(rev != null && status == HttpURLConnection.HTTP_CONFLICT) {
+      //The remembered revision is out of date, fetch the current one and try again
+      revisions.remove(id);
+      current = getRev(id);
+      if(current == null) {
+        return false;
+      }
+      status = close(deleteRequest(id, current).delete());
+    }
+    return readDeleted(id, status);
+  }
+
+  @Override
+  public CompletionStage<Boolean> deleteAsync(String id) {
+    String rev = revisions.get(id);
+    CompletableFuture<Integer> deleteReq = rev != null ? deleteRequestAsync(id, rev) :
+      deleteCurrentAsync(id);
+    return deleteReq.thenCompose(status -> {
+      if(rev != null && status == HttpURLConnection.HTTP_CONFLICT) {
+        //The remembered revision is out of date, fetch the current one and try again
+        revisions.remove(id);
+        return deleteCurrentAsync(id);
+      }
+      return CompletableFuture.completedFuture(status);
+    }).thenApply(Stages.step(status -> readDeleted(id, status)));
+  }
+
+  /**
+   * Deletes the current revision of a document.
+   * @param id The ID of the document.
+   * @return The status of the response to the delete, or 404 if there is no document to delete.
+   */
+  private CompletableFuture<Integer> deleteCurrentAsync(String id) {
+    return ResponseFuture.get(getRequest(id)).thenApply(Stages.step(resp -> readRev(id, resp))).
+            thenCompose(current -> current == null ?
+                    CompletableFuture.completedFuture(HttpURLConnection.HTTP_NOT_FOUND) :
+                    deleteRequestAsync(id, current));
+  }
+
+  /**
+   * Checks the status of deleting a document and forgets its revision.
+   * @param id The ID of the document.
+   * @param status The status of the response to the delete.
+   * @return True if the document was deleted, false if it did not exist.
+   * @throws ToDoStoreException Thrown if the document could not be deleted.
+   */
+  private boolean readDeleted(String id, int status) throws ToDoStoreException {
+    revisions.remove(id);
+    if(status == HttpURLConnection.HTTP_NOT_FOUND) {
+      return false;
+    }
+    checkDeleted(status);
+    return true;
+  }
+  
+  /**
+   * The client's revision goes straight into the PUT, Cloudant does the check.
+   */
+  @Override
+  public ToDo update(String id, ToDo td, String rev) throws ToDoStoreException {
+    if(rev == null) {
+      //Without a revision Cloudant would create the document if it does not exist
+      throw new RevisionMismatchException(id, rev);
+    }
+    Response updateReq = putRequest(id, rev, td);
+    checkRevision(id, rev, updateReq);
+    return readSaved(td, updateReq);
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td, String rev) {
+    if(rev == null) {
+      return Stages.failed(new RevisionMismatchException(id, rev));
+    }
+    return putRequestAsync(id, rev, td).thenApply(Stages.step(resp -> {
+      checkRevision(id, rev, resp);
+      return readSaved(td, resp);
+    }));
+  }
+
+  /**
+   * The client's revision goes straight into the DELETE, Cloudant does the check.
+   */
+  @Override
+  public void delete(String id, String rev) throws ToDoStoreException {
+    if(rev == null) {
+      throw new RevisionMismatchException(id, rev);
+    }
+    int status = close(deleteRequest(id, rev).delete());
+    checkRevision(id, rev, status);
+    checkDeleted(status);
+    revisions.remove(id);
+  }
+
+  @Override
+  public CompletionStage<Void> deleteAsync(String id, String rev) {
+    if(rev == null) {
+      return Stages.failed(new RevisionMismatchException(id, rev));
+    }
+    return deleteRequestAsync(id, rev).thenApply(Stages.step(status -> {
+      checkRevision(id, rev, status);
+      checkDeleted(status);
+      revisions.remove(id);
+      return null;
+    }));
+  }
+
+  private void checkRevision(String id, String rev, Response resp) throws RevisionMismatchException {
+    int status = resp.getStatus();
+    if(status == HttpURLConnection.HTTP_CONFLICT || status == HttpURLConnection.HTTP_NOT_FOUND) {
+      close(resp);
+      checkRevision(id, rev, status);
+    }
+  }
+
+  /**
+   * Checks the status of a write made at a given revision.
+   * @param id The ID of the document written.
+   * @param rev The revision the write was made at.
+   * @param status The status of the response to the write.
+   * @throws RevisionMismatchException Thrown if the document is at another revision or does not
+   * exist.
+   */
+  private void checkRevision(String id, String rev, int status) throws RevisionMismatchException {
+    if(status == HttpURLConnection.HTTP_CONFLICT || status == HttpURLConnection.HTTP_NOT_FOUND) {
+      //Whatever revision we remember is no better than the one we were given
+      revisions.remove(id);
+      throw new RevisionMismatchException(id, rev);
+    }
+  }
+
+  private static void checkDeleted(int status) throws ToDoStoreException {
+    if(status != HttpURLConnection.HTTP_OK) {
+      throw new ToDoStoreException("There was an error deleting the ToDo from Cloudant. Error "
+              + status);
+    }
+  }
+  
+  private Response putRequest(String id, String rev, ToDo td) {
+    return deleteRequest(id, rev).put(putEntity(rev, td));
+  }
+
+  private CompletableFuture<Response> putRequestAsync(String id, String rev, ToDo td) {
+    return ResponseFuture.put(deleteRequest(id, rev), putEntity(rev, td));
+  }
+
+  private static Entity<CloudantToDo> putEntity(String rev, ToDo td) {
+    CloudantToDo updatedCtd = new CloudantToDo(td);
+    updatedCtd.set_rev(rev);
+    return Entity.entity(updatedCtd, MediaType.APPLICATION_JSON);
+  }
+  
+  /**
+   * Creates a request for a specific revision of a document.
+   * @param id The ID of the document.
+   * @param rev The revision of the document.
+   * @return The request.
+   */
+  private Invocation.Builder deleteRequest(String id, String rev) {
+    return target.queryParam(REVISION_PARAM, rev).path(id).request(MediaType.APPLICATION_JSON);
+  }
+
+  private CompletableFuture<Integer> deleteRequestAsync(String id, String rev) {
+    return ResponseFuture.delete(deleteRequest(id, rev)).thenApply(CloudantStore::close);
+  }
+  
+  /**
+   * Fetches the current version of a document and remembers its revision.
+   * @param id The ID of the document.
+   * @return The document.
+   * @throws ToDoStoreException Thrown if the document cannot be fetched.
+   */
+  private CloudantToDo getDoc(String id) throws ToDoStoreException {
+    return readDoc(id, getRequest(id).get());
+  }
+
+  private CompletableFuture<CloudantToDo> getDocAsync(String id) {
+    return ResponseFuture.get(getRequest(id)).thenApply(Stages.step(resp -> readDoc(id, resp)));
+  }
+  /**
+   * Fetches the current revision of a document and remembers it.
+   * @param id The ID of the document.
+   * @return The revision, or null if there is no document with the ID.
+   * @throws ToDoStoreException Thrown if the document cannot be fetched.
+   */
+  private String getRev(String id) throws ToDoStoreException {
+    return readRev(id, getRequest(id).get());
+  }
+
+  /**
+   * Reads the revision of a document and remembers it.
+   * @param id The ID of the document.
+   * @param docResp The response to a request for the document, closed once read.
+   * @return The revision, or null if there is no document with the ID.
+   * @throws ToDoStoreException Thrown if the document could not be fetched.
+   */
+  private String readRev(String id, Response docResp) throws ToDoStoreException {
+    if(docResp.getStatus() == HttpURLConnection.HTTP_NOT_FOUND) {
+      close(docResp);
+      revisions.remove(id);
+      return null;
+    }
+    return readDoc(id, docResp).get_rev();
+  }
+
+
+  /**
+   * Reads a document and remembers its revision.
+   * @param id The ID of the document.
+   * @param docResp The response to a request for the document, closed once read.
+   * @return The document.
+   * @throws ToDoStoreException Thrown if the document could not be fetched.
+   */
+  private CloudantToDo readDoc(String id, Response docResp) throws ToDoStoreException {
+    try {
+      int status = docResp.getStatus();
+      if(status == HttpURLConnection.HTTP_OK) {
+        CloudantToDo ctd = docResp.readEntity(CloudantToDo.class);
+        revisions.put(ctd.get_id(), ctd.get_rev());
+        return ctd;
+      } else {
+        throw new ToDoStoreException("There was an error retrieving the doc with id " + id 
+                + " from Cloudant. Error " + status);
+      }
+    } finally {
+      docResp.close();
     }
   }
   
   @Override
   public int count() throws ToDoStoreException {
-    Response allDocsResp = target.path("_design").path(DESIGN_DOC_NAME).path("_view").path(VIEW_NAME).
-            request(MediaType.APPLICATION_JSON).get();
-    int status = allDocsResp.getStatus();
-    if(status == HttpURLConnection.HTTP_OK) {
-      CloudantCount count = allDocsResp.readEntity(CloudantCount.class);
-      if(count.getRows().size() > 0) {
-        return count.getRows().get(0).getValue();
+    return readCount(viewRequest(target).get());
+  }
+
+  @Override
+  public CompletionStage<Integer> countAsync() {
+    return ResponseFuture.get(viewRequest(target)).thenApply(Stages.step(CloudantStore::readCount));
+  }
+
+  private static int readCount(Response allDocsResp) throws ToDoStoreException {
+    try {
+      int status = allDocsResp.getStatus();
+      if(status == HttpURLConnection.HTTP_OK) {
+        CloudantCount count = allDocsResp.readEntity(CloudantCount.class);
+        if(count.getRows().size() > 0) {
+          return count.getRows().get(0).getValue();
+        } else {
+          //No rows means there are no documents in the view.
+          return 0;
+        }
       } else {
-        //No rows means there are no documents in the view.
-        return 0;
+        throw new ToDoStoreException("There was an error retrieving the tasks from Cloudant. Error "
+                + status);
       }
-    } else {
-      throw new ToDoStoreException("There was an error retrieving the tasks from Cloudant. Error "
-              + status);
-    } 
+    } finally {
+      allDocsResp.close();
+    }
+  }
+  
+  /**
+   * The version is the update sequence of the database, which Cloudant moves on with every
+   * document written.  Getting it is a small request for the database information.
+   */
+  @Override
+  public String getVersion() throws ToDoStoreException {
+    return readVersion(target.request(MediaType.APPLICATION_JSON).get());
+  }
+
+  @Override
+  public CompletionStage<String> getVersionAsync() {
+    return ResponseFuture.get(target.request(MediaType.APPLICATION_JSON)).
+            thenApply(Stages.step(CloudantStore::readVersion));
+  }
+
+  private static String readVersion(Response dbResp) throws ToDoStoreException {
+    try {
+      int status = dbResp.getStatus();
+      if(status != HttpURLConnection.HTTP_OK) {
+        throw new ToDoStoreException("There was an error retrieving the database from Cloudant. Error "
+                + status);
+      }
+      JsonParser parser = Json.createParser(new StringReader(dbResp.readEntity(String.class)));
+      try {
+        int depth = 0;
+        String name = null;
+        while(parser.hasNext()) {
+          Event event = parser.next();
+          if(event == Event.START_OBJECT || event == Event.START_ARRAY) {
+            depth++;
+          } else if(event == Event.END_OBJECT || event == Event.END_ARRAY) {
+            depth--;
+          } else if(depth == 1 && event == Event.KEY_NAME) {
+            name = parser.getString();
+          } else if(depth == 1 && "update_seq".equals(name) &&
+                  (event == Event.VALUE_STRING || event == Event.VALUE_NUMBER)) {
+            //Cloudant sequences are opaque strings, CouchDB 1.x ones are numbers
+            return parser.getString();
+          }
+        }
+      } finally {
+        parser.close();
+      }
+      throw new ToDoStoreException("The database information from Cloudant has no update sequence.");
+    } catch(JsonException e) {
+      throw new ToDoStoreException("There was an error reading the database information from Cloudant.", e);
+    } finally {
+      dbResp.close();
+    }
+  }
+
+  /**
+   * The changes are read from the <code>_changes</code> feed of the database, whose sequences
+   * are the versions.  Cloudant keeps the whole feed, so only a sequence it does not know, such as
+   * one from another database, needs a resync.
+   */
+  @Override
+  public ToDoChanges getChanges(String since, int limit) throws ToDoStoreException {
+    OrderKey.checkLimit(limit);
+    if(since == null) {
+      return ToDoChanges.resync(getVersion());
+    }
+    ToDoChanges changes = readChanges(changesRequest(since, limit).get(), limit);
+    return changes == null ? ToDoChanges.resync(getVersion()) : changes;
+  }
+
+  @Override
+  public CompletionStage<ToDoChanges> getChangesAsync(String since, int limit) {
+    try {
+      OrderKey.checkLimit(limit);
+    } catch(IllegalArgumentException e) {
+      return Stages.failed(e);
+    }
+    if(since == null) {
+      return getVersionAsync().thenApply(ToDoChanges::resync);
+    }
+    return ResponseFuture.get(changesRequest(since, limit)).
+            thenApply(Stages.step(resp -> readChanges(resp, limit))).
+            thenCompose(changes -> changes == null ? 
+                getVersionAsync().thenApply(ToDoChanges::resync) : CompletableFuture.completedFuture(changes));
+  }
+
+  private Invocation.Builder changesRequest(String since, int limit) {
+    return target.path("_changes").queryParam("include_docs", true).queryParam("since", since).
+            queryParam("limit", limit).request(MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Reads a response from the <code>_changes</code> feed.
+   * @param changesResp The response, closed once read.
+   * @param limit The limit the changes were requested with.
+   * @return The changes, or null if Cloudant does not know the sequence they were requested since.
+   * @throws ToDoStoreException Thrown if the changes cannot be read.
+   */
+  private ToDoChanges readChanges(Response changesResp, int limit) throws ToDoStoreException {
+    try {
+      int status = changesResp.getStatus();
+      if(status == HttpURLConnection.HTTP_BAD_REQUEST) {
+        return null;
+      }
+      if(status != HttpURLConnection.HTTP_OK) {
+        throw new ToDoStoreException("There was an error reading the changes from Cloudant. Error " 
+                + status);
+      }
+      List<ToDo> upserts = new ArrayList<ToDo>();
+      List<String> deleted = new ArrayList<String>();
+      CloudantChangesReader reader = new CloudantChangesReader(changesResp.readEntity(InputStream.class));
+      try {
+        Change change;
+        while((change = reader.next()) != null) {
+          if(change.isDeleted()) {
+            revisions.remove(change.getId());
+            deleted.add(change.getId());
+          } else {
+            revisions.put(change.getId(), change.getRev());
+            upserts.add(change.getToDo());
+          }
+        }
+      } finally {
+        reader.close();
+      }
+      if(reader.getLastSeq() == null) {
+        throw new ToDoStoreException("The changes from Cloudant did not have a last sequence.");
+      }
+      //Changes to design documents count towards the limit but are skipped, so this can miss
+      //that there are more, which the next call finds
+      boolean more = upserts.size() + deleted.size() >= limit;
+      return new ToDoChanges(upserts, deleted, reader.getLastSeq(), more);
+    } finally {
+      changesResp.close();
+    }
+  }
+
+  @Override
+  public List<BulkResult> persistAll(Collection<ToDo> todos) throws ToDoStoreException {
+    List<ToDo> tds = new ArrayList<ToDo>(todos);
+    return setIds(tds, bulkWrite(persistDocs(tds), new BulkResult[tds.size()]));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> persistAllAsync(Collection<ToDo> todos) {
+    List<ToDo> tds = new ArrayList<ToDo>(todos);
+    return bulkWriteAsync(persistDocs(tds), new BulkResult[tds.size()]).
+            thenApply(results -> setIds(tds, results));
+  }
+
+  private static List<CloudantToDo> persistDocs(List<ToDo> tds) {
+    List<CloudantToDo> docs = new ArrayList<CloudantToDo>(tds.size());
+    for(ToDo td : tds) {
+      CloudantToDo ctd = new CloudantToDo(td);
+      //Let Cloudant assign the IDs, just like persist
+      ctd.set_id(null);
+      docs.add(ctd);
+    }
+    return docs;
+  }
+
+  private static List<BulkResult> setIds(List<ToDo> tds, List<BulkResult> results) {
+    for(int i = 0; i < tds.size(); i++) {
+      BulkResult result = results.get(i);
+      if(result.isOk()) {
+        tds.get(i).setId(result.getId());
+        tds.get(i).setRev(result.getRev());
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public List<BulkResult> updateAll(Collection<ToDo> todos) throws ToDoStoreException {
+    List<CloudantToDo> docs = updateDocs(todos);
+    return bulkWrite(docs, missingIds(docs));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> updateAllAsync(Collection<ToDo> todos) {
+    List<CloudantToDo> docs = updateDocs(todos);
+    return bulkWriteAsync(docs, missingIds(docs));
+  }
+
+  private static List<CloudantToDo> updateDocs(Collection<ToDo> todos) {
+    List<CloudantToDo> docs = new ArrayList<CloudantToDo>(todos.size());
+    for(ToDo td : todos) {
+      docs.add(new CloudantToDo(td));
+    }
+    return docs;
+  }
+
+  @Override
+  public List<BulkResult> deleteAll(Collection<String> ids) throws ToDoStoreException {
+    List<CloudantToDo> docs = deleteDocs(ids);
+    return bulkWrite(docs, missingIds(docs));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> deleteAllAsync(Collection<String> ids) {
+    List<CloudantToDo> docs = deleteDocs(ids);
+    return bulkWriteAsync(docs, missingIds(docs));
+  }
+
+  private static List<CloudantToDo> deleteDocs(Collection<String> ids) {
+    List<CloudantToDo> docs = new ArrayList<CloudantToDo>(ids.size());
+    for(String id : ids) {
+      CloudantToDo ctd = new CloudantToDo();
+      ctd.set_id(id);
+      ctd.set_deleted(true);
+      docs.add(ctd);
+    }
+    return docs;
+  }
+
+  /**
+   * Gives documents that are meant to change existing ones but have no ID a not found result.
+   * Sent without an ID Cloudant would create a new document rather than change one.
+   * @param docs The documents to write.
+   * @return The results, with a result for each document that has no ID.
+   */
+  private static BulkResult[] missingIds(List<CloudantToDo> docs) {
+    BulkResult[] results = new BulkResult[docs.size()];
+    for(int i = 0; i < docs.size(); i++) {
+      if(docs.get(i).get_id() == null) {
+        results[i] = new BulkResult(null, "not_found", "missing");
+      }
+    }
+    return results;
+  }
+  
+  /**
+   * Writes documents using _bulk_docs.  Documents with an ID are sent with their remembered
+   * revision, revisions that are not remembered are fetched with a single request first.  Documents
+   * that conflict are retried once with their current revision.
+   * @param docs The documents to write.
+   * @param results The result for each document, documents that already have one are not sent.
+   * @return The result for each document.
+   * @throws ToDoStoreException Thrown if there is an error talking to Cloudant.
+   */
+  private List<BulkResult> bulkWrite(List<CloudantToDo> docs, BulkResult[] results) 
+          throws ToDoStoreException {
+    List<Integer> pending = pending(results);
+    sendBulk(docs, setRevisions(docs, pending, results), results);
+    List<Integer> conflicts = conflicts(docs, pending, results);
+    if(!conflicts.isEmpty()) {
+      sendBulk(docs, setRevisions(docs, conflicts, results), results);
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Writes documents using _bulk_docs without blocking.
+   * @param docs The documents to write.
+   * @param results The result for each document, documents that already have one are not sent.
+   * @return The result for each document.
+   * @see #bulkWrite(List, BulkResult[])
+   */
+  private CompletableFuture<List<BulkResult>> bulkWriteAsync(List<CloudantToDo> docs, 
+          BulkResult[] results) {
+    List<Integer> pending = pending(results);
+    return setRevisionsAsync(docs, pending, results).
+            thenCompose(toSend -> sendBulkAsync(docs, toSend, results)).
+            thenCompose(sent -> {
+              List<Integer> conflicts = conflicts(docs, pending, results);
+              if(conflicts.isEmpty()) {
+                return CompletableFuture.<Void>completedFuture(null);
+              }
+              return setRevisionsAsync(docs, conflicts, results).
+                      thenCompose(toSend -> sendBulkAsync(docs, toSend, results));
+            }).thenApply(sent -> Arrays.asList(results));
+  }
+
+  private static List<Integer> pending(BulkResult[] results) {
+    List<Integer> indices = new ArrayList<Integer>(results.length);
+    for(int i = 0; i < results.length; i++) {
+      if(results[i] == null) {
+        indices.add(i);
+      }
+    }
+    return indices;
+  }
+
+  /**
+   * Finds the documents that conflicted and forgets their revisions so they can be retried.
+   * @param docs All the documents being written.
+   * @param indices The indices of the documents that were sent.
+   * @param results The results of sending the documents.
+   * @return The indices of the documents that conflicted.
+   */
+  private List<Integer> conflicts(List<CloudantToDo> docs, List<Integer> indices, BulkResult[] results) {
+    List<Integer> conflicts = new ArrayList<Integer>();
+    for(Integer i : indices) {
+      if(results[i] != null && CONFLICT.equals(results[i].getError())) {
+        revisions.remove(docs.get(i).get_id());
+        docs.get(i).set_rev(null);
+        conflicts.add(i);
+      }
+    }
+    return conflicts;
+  }
+  
+  /**
+   * Sets the revision of documents that are being changed.
+   * @param docs All the documents being written.
+   * @param indices The indices of the documents to set the revisions of.
+   * @param results The results, documents that do not exist get a not found result.
+   * @return The indices of the documents that should be sent to Cloudant.
+   * @throws ToDoStoreException Thrown if the revisions cannot be fetched.
+   */
+  private List<Integer> setRevisions(List<CloudantToDo> docs, List<Integer> indices, 
+          BulkResult[] results) throws ToDoStoreException {
+    List<String> unknown = setKnownRevisions(docs, indices);
+    Map<String, String> fetched = unknown.isEmpty() ? new HashMap<String, String>() : 
+      fetchRevisions(unknown);
+    return setFetchedRevisions(docs, indices, fetched, results);
+  }
+
+  private CompletableFuture<List<Integer>> setRevisionsAsync(List<CloudantToDo> docs, 
+          List<Integer> indices, BulkResult[] results) {
+    List<String> unknown = setKnownRevisions(docs, indices);
+    CompletableFuture<Map<String, String>> fetched = unknown.isEmpty() ? 
+            CompletableFuture.completedFuture(new HashMap<String, String>()) : fetchRevisionsAsync(unknown);
+    return fetched.thenApply(revs -> setFetchedRevisions(docs, indices, revs, results));
+  }
+
+  /**
+   * Sets the remembered revision of documents that are being changed.
+   * @param docs All the documents being written.
+   * @param indices The indices of the documents to set the revisions of.
+   * @return The IDs of the documents whose revisions are not remembered.
+   */
+  private List<String> setKnownRevisions(List<CloudantToDo> docs, List<Integer> indices) {
+    List<String> unknown = new ArrayList<String>();
+    for(Integer i : indices) {
+      CloudantToDo ctd = docs.get(i);
+      if(ctd.get_id() != null && ctd.get_rev() == null) {
+        ctd.set_rev(revisions.get(ctd.get_id()));
+        if(ctd.get_rev() == null) {
+          unknown.add(ctd.get_id());
+        }
+      }
+    }
+    return unknown;
+  }
+
+  /**
+   * Sets the fetched revision of documents whose revision was not remembered.
+   * @param docs All the documents being written.
+   * @param indices The indices of the documents to set the revisions of.
+   * @param fetched The fetched revisions keyed by document ID.
+   * @param results The results, documents that do not exist get a not found result.
+   * @return The indices of the documents that should be sent to Cloudant.
+   */
+  private static List<Integer> setFetchedRevisions(List<CloudantToDo> docs, List<Integer> indices, 
+          Map<String, String> fetched, BulkResult[] results) {
+    List<Integer> toSend = new ArrayList<Integer>(indices.size());
+    for(Integer i : indices) {
+      CloudantToDo ctd = docs.get(i);
+      if(ctd.get_id() != null && ctd.get_rev() == null) {
+        ctd.set_rev(fetched.get(ctd.get_id()));
+        if(ctd.get_rev() == null) {
+          results[i] = new BulkResult(ctd.get_id(), "not_found", "missing");
+          continue;
+        }
+      }
+      toSend.add(i);
+    }
+    return toSend;
+  }
+  
+  /**
+   * Fetches the current revisions of documents.
+   * @param ids The IDs of the documents.
+   * @return The revision of each document that exists keyed by the ID of the document.
+   * @throws ToDoStoreException Thrown if the revisions cannot be fetched.
+   */
+  private Map<String, String> fetchRevisions(List<String> ids) throws ToDoStoreException {
+    Map<String, String> revs = new HashMap<String, String>();
+    for(int start = 0; start < ids.size(); start += bulkChunkSize) {
+      List<String> chunk = ids.subList(start, Math.min(start + bulkChunkSize, ids.size()));
+      readRevisions(revisionsRequest().post(keysEntity(chunk)), revs);
+    }
+    return revs;
+  }
+
+  private CompletableFuture<Map<String, String>> fetchRevisionsAsync(List<String> ids) {
+    Map<String, String> revs = new HashMap<String, String>();
+    //One chunk at a time, like the blocking version
+    CompletableFuture<Void> fetched = CompletableFuture.completedFuture(null);
+    for(int start = 0; start < ids.size(); start += bulkChunkSize) {
+      List<String> chunk = ids.subList(start, Math.min(start + bulkChunkSize, ids.size()));
+      fetched = fetched.thenCompose(v -> ResponseFuture.post(revisionsRequest(), keysEntity(chunk))).
+              thenApply(Stages.step(resp -> {
+                readRevisions(resp, revs);
+                return null;
+              }));
+    }
+    return fetched.thenApply(v -> revs);
+  }
+
+  private Invocation.Builder revisionsRequest() {
+    //Deleted documents are returned without a doc, so we only use the revisions of live ones
+    return target.queryParam("include_docs", true).path("_all_docs").request(MediaType.APPLICATION_JSON);
+  }
+
+  private static Entity<CloudantKeys> keysEntity(List<String> ids) {
+    return Entity.entity(new CloudantKeys(ids), MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Reads the revisions of documents and remembers them.
+   * @param resp The response to a request for the documents, closed once read.
+   * @param revs The revisions keyed by document ID, the revisions read are added to it.
+   * @throws ToDoStoreException Thrown if the revisions could not be fetched.
+   */
+  private void readRevisions(Response resp, Map<String, String> revs) throws ToDoStoreException {
+    try {
+      int status = resp.getStatus();
+      if(status != HttpURLConnection.HTTP_OK) {
+        throw new ToDoStoreException("There was an error fetching revisions from Cloudant. Error " 
+                + status);
+      }
+      for(CloudantRow row : resp.readEntity(CloudantAllDocs.class).getRows()) {
+        if(row.getDoc() != null) {
+          revs.put(row.getDoc().get_id(), row.getDoc().get_rev());
+          revisions.put(row.getDoc().get_id(), row.getDoc().get_rev());
+        }
+      }
+    } finally {
+      resp.close();
+    }
+  }
+  
+  /**
+   * Sends documents to _bulk_docs in chunks.
+   * @param docs All the documents being written.
+   * @param indices The indices of the documents to send.
+   * @param results The results, updated with the result of each document sent.
+   * @throws ToDoStoreException Thrown if there is an error sending the documents.
+   */
+  private void sendBulk(List<CloudantToDo> docs, List<Integer> indices, BulkResult[] results) 
+          throws ToDoStoreException {
+    for(int start = 0; start < indices.size(); start += bulkChunkSize) {
+      List<Integer> chunk = indices.subList(start, Math.min(start + bulkChunkSize, indices.size()));
+      readBulkResults(bulkRequest().post(bulkEntity(docs, chunk)), docs, chunk, results);
+    }
+  }
+
+  private CompletableFuture<Void> sendBulkAsync(List<CloudantToDo> docs, List<Integer> indices, 
+          BulkResult[] results) {
+    CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+    for(int start = 0; start < indices.size(); start += bulkChunkSize) {
+      List<Integer> chunk = indices.subList(start, Math.min(start + bulkChunkSize, indices.size()));
+      sent = sent.thenCompose(v -> ResponseFuture.post(bulkRequest(), bulkEntity(docs, chunk))).
+              thenApply(Stages.step(resp -> {
+                readBulkResults(resp, docs, chunk, results);
+                return null;
+              }));
+    }
+    return sent;
+  }
+
+  private Invocation.Builder bulkRequest() {
+    return target.path("_bulk_docs").request(MediaType.APPLICATION_JSON);
+  }
+
+  private static Entity<CloudantBulkDocs> bulkEntity(List<CloudantToDo> docs, List<Integer> chunk) {
+    List<CloudantToDo> chunkDocs = new ArrayList<CloudantToDo>(chunk.size());
+    for(Integer i : chunk) {
+      chunkDocs.add(docs.get(i));
+    }
+    return Entity.entity(new CloudantBulkDocs(chunkDocs), MediaType.APPLICATION_JSON);
+  }
+
+  /**
+   * Reads the results of a _bulk_docs request and updates the remembered revisions.
+   * @param resp The response to the request, closed once read.
+   * @param docs All the documents being written.
+   * @param chunk The indices of the documents that were sent.
+   * @param results The results, updated with the result of each document sent.
+   * @throws ToDoStoreException Thrown if the documents were not written.
+   */
+  private void readBulkResults(Response resp, List<CloudantToDo> docs, List<Integer> chunk, 
+          BulkResult[] results) throws ToDoStoreException {
+    try {
+      int status = resp.getStatus();
+      if(status != HttpURLConnection.HTTP_CREATED && status != HttpURLConnection.HTTP_ACCEPTED) {
+        throw new ToDoStoreException("There was an error writing ToDos to Cloudant. Error " + status);
+      }
+      List<BulkResult> chunkResults = resp.readEntity(BULK_RESULTS);
+      for(int j = 0; j < chunk.size(); j++) {
+        CloudantToDo ctd = docs.get(chunk.get(j));
+        BulkResult result = chunkResults.get(j);
+        result.setOk(result.getError() == null);
+        if(!result.isOk()) {
+          revisions.remove(result.getId());
+        } else if(Boolean.TRUE.equals(ctd.get_deleted())) {
+          revisions.remove(result.getId());
+        } else {
+          revisions.put(result.getId(), result.getRev());
+        }
+        results[chunk.get(j)] = result;
+      }
+    } finally {
+      resp.close();
+    }
+  }
+  
+  /**
+   * Closes a response whose body we do not need.  The connection used by the response is
+   * not returned to the connection pool until the response is closed, and it is only kept alive
+   * for reuse if the body was read first.
+   * @param resp The response to close.
+   * @return The status of the response.
+   */
+  private static int close(Response resp) {
+    try {
+      int status = resp.getStatus();
+      resp.bufferEntity();
+      return status;
+    } finally {
+      resp.close();
+    }
   }
 }
\ No newline at end of file
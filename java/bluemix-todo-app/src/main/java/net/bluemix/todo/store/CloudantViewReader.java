@@ -0,0 +1,168 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.NoSuchElementException;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParserFactory;
+
+import net.bluemix.todo.model.ToDo;
+
+/**
+ * Reads the rows of a Cloudant view response one at a time, straight from the response stream.
+ *
+ * Unlike reading the whole response into a {@link net.bluemix.todo.model.CloudantAllDocs} this
+ * never holds more than the current row in memory and does not build an intermediate object
+ * per row.  Each row is expected to have the ToDo order as its key and an object with the title,
+ * completed state and revision as its value.  Fields that are not understood are skipped.
+ */
+class CloudantViewReader implements Closeable {
+
+  //Looking up the JSON provider is expensive so only do it once
+  private static final JsonParserFactory FACTORY = Json.createParserFactory(null);
+
+  private final JsonParser parser;
+  private boolean inRows;
+  private boolean done;
+
+  /**
+   * Creates a reader.
+   * @param in The view response.
+   */
+  CloudantViewReader(InputStream in) {
+    this.parser = FACTORY.createParser(in);
+  }
+
+  /**
+   * Reads the next row of the view.
+   * @return The ToDo in the next row, or null if there are no more rows.
+   * @throws ToDoStoreException Thrown if the response is not a valid view response.
+   */
+  ToDo next() throws ToDoStoreException {
+    try {
+      if(done || (!inRows && !findRows())) {
+        return null;
+      }
+      Event event = parser.next();
+      if(event == Event.END_ARRAY) {
+        //Read the rest of the response so the connection can be reused
+        while(parser.hasNext()) {
+          parser.next();
+        }
+        done = true;
+        return null;
+      }
+      if(event != Event.START_OBJECT) {
+        throw new ToDoStoreException("Unexpected " + event + " in the rows of the view.");
+      }
+      return readRow();
+    } catch(JsonException e) {
+      throw new ToDoStoreException("There was an error reading the view from Cloudant.", e);
+    } catch(NoSuchElementException e) {
+      throw new ToDoStoreException("There was an error reading the view from Cloudant.", e);
+    }
+  }
+
+  @Override
+  public void close() {
+    parser.close();
+  }
+
+  /**
+   * Moves the parser to the start of the rows array.
+   * @return True if the rows were found, false if the response has no rows.
+   * @throws ToDoStoreException Thrown if the response is not an object.
+   */
+  private boolean findRows() throws ToDoStoreException {
+    if(!parser.hasNext() || parser.next() != Event.START_OBJECT) {
+      throw new ToDoStoreException("The view response is not a JSON object.");
+    }
+    while(parser.hasNext()) {
+      Event event = parser.next();
+      if(event == Event.END_OBJECT) {
+        break;
+      }
+      String name = parser.getString();
+      Event value = parser.next();
+      if("rows".equals(name) && value == Event.START_ARRAY) {
+        inRows = true;
+        return true;
+      }
+      skip(value);
+    }
+    done = true;
+    return false;
+  }
+
+  private ToDo readRow() {
+    ToDo td = new ToDo();
+    while(parser.next() != Event.END_OBJECT) {
+      String name = parser.getString();
+      Event value = parser.next();
+      if("id".equals(name) && value == Event.VALUE_STRING) {
+        td.setId(parser.getString());
+      } else if("key".equals(name) && value == Event.VALUE_NUMBER) {
+        td.setOrder(parser.getInt());
+      } else if("value".equals(name) && value == Event.START_OBJECT) {
+        readValue(td);
+      } else {
+        skip(value);
+      }
+    }
+    return td;
+  }
+
+  private void readValue(ToDo td) {
+    while(parser.next() != Event.END_OBJECT) {
+      String name = parser.getString();
+      Event value = parser.next();
+      if("title".equals(name) && value == Event.VALUE_STRING) {
+        td.setTitle(parser.getString());
+      } else if("completed".equals(name) && (value == Event.VALUE_TRUE || value == Event.VALUE_FALSE)) {
+        td.setCompleted(value == Event.VALUE_TRUE);
+      } else if("rev".equals(name) && value == Event.VALUE_STRING) {
+        td.setRev(parser.getString());
+      } else {
+        skip(value);
+      }
+    }
+  }
+
+  /**
+   * Skips over a value, including everything nested in it.
+   * @param event The event that started the value.
+   */
+  private void skip(Event event) {
+    if(event != Event.START_OBJECT && event != Event.START_ARRAY) {
+      return;
+    }
+    int depth = 1;
+    while(depth > 0) {
+      event = parser.next();
+      if(event == Event.START_OBJECT || event == Event.START_ARRAY) {
+        depth++;
+      } else if(event == Event.END_OBJECT || event == Event.END_ARRAY) {
+        depth--;
+      }
+    }
+  }
+}
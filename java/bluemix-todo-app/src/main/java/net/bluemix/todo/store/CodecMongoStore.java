@@ -0,0 +1,419 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.or;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+/**
+ * An implementation of {@link ToDoStore} backed by Mongo DB through the driver's collection API.
+ * ToDos are read and written with a {@link ToDoCodec}, so documents are decoded straight into
+ * ToDos and encoded straight from them, without building a generic document in between.
+ *
+ * It keeps the same documents, version and changes as {@link MongoStore}, so the two can share a
+ * database, see there for how versions, revisions and changes work.  Both keep the version and
+ * changes through {@link MongoChangeLog}.  The connection pool, read preference and write concern
+ * are the ones of the database it is given.
+ */
+public class CodecMongoStore implements ToDoStore {
+
+  private static final Bson ORDER_SORT = Sorts.ascending("order", "_id");
+  private static final Bson VERSION_QUERY = eq("_id", MongoChangeLog.VERSION_ID);
+  private static final Bson VERSION_INC = Updates.inc(MongoChangeLog.VERSION, 1L);
+  private static final Bson ID_PROJECTION = Projections.include("_id");
+  private static final int STREAM_BATCH_SIZE = 100;
+
+  private final MongoCollection<ToDo> coll;
+  private final MongoChangeLog log;
+
+  /**
+   * Creates a ToDo store backed by Mongo DB that keeps its recent changes, in the
+   * <code>todos</code>, <code>todos_versions</code> and <code>todos_changes</code> collections
+   * {@link ToDoStoreFactory} uses.
+   * @param db The database.
+   * @param history The number of recent changes to keep.
+   */
+  public CodecMongoStore(MongoDatabase db, int history) {
+    this(db.getCollection("todos", ToDo.class), db.getCollection("todos_versions"), 
+            db.getCollection("todos_changes"), history);
+  }
+
+  /**
+   * Creates a ToDo store backed by Mongo DB.
+   * @param coll The collection of ToDos, it is given a {@link ToDoCodec}.
+   * @param versions The collection to keep the version of the ToDos in.
+   * @param changes The collection to keep the recent changes in, or null to not keep them.
+   * @param history The number of recent changes to keep.
+   */
+  public CodecMongoStore(MongoCollection<ToDo> coll, MongoCollection<Document> versions, 
+          MongoCollection<Document> changes, int history) {
+    if(versions == null || changes != null && history < 1) {
+      throw new IllegalArgumentException("A versions collection is needed, and keeping changes needs a history.");
+    }
+    this.coll = coll.withCodecRegistry(registry(coll.getCodecRegistry()));
+    this.log = new Log(versions, changes, history);
+  }
+
+  /**
+   * Gets a registry that reads and writes ToDos with a {@link ToDoCodec}.
+   * @param registry The registry for everything else.
+   * @return The registry.
+   */
+  static CodecRegistry registry(CodecRegistry registry) {
+    return CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(new ToDoCodec()), 
+            registry == null ? MongoClient.getDefaultCodecRegistry() : registry);
+  }
+
+  /**
+   * Creates the indexes the store's queries use, unless they exist already.
+   */
+  public void ensureIndexes() {
+    //Paging sorts and starts from the order and ID
+    coll.createIndex(ORDER_SORT);
+    coll.createIndex(Indexes.ascending("completed"));
+  }
+
+  @Override
+  public Collection<ToDo> getAll() {
+    return coll.find().into(new ArrayList<ToDo>());
+  }
+
+  @Override
+  public ToDoCursor streamAll() {
+    //Only a batch of documents is fetched from the server at a time
+    final MongoCursor<ToDo> cursor = coll.find().batchSize(STREAM_BATCH_SIZE).iterator();
+    return new ToDoCursor() {
+      @Override
+      public boolean hasNext() {
+        return cursor.hasNext();
+      }
+
+      @Override
+      public ToDo next() {
+        return cursor.next();
+      }
+
+      @Override
+      public void close() {
+        cursor.close();
+      }
+    };
+  }
+
+  @Override
+  public ToDoPage getPage(String cursor, int limit) {
+    OrderKey.checkLimit(limit);
+    Bson query = new Document();
+    if(cursor != null) {
+      OrderKey start = OrderKey.decode(cursor);
+      if(!ObjectId.isValid(start.getId())) {
+        throw new IllegalArgumentException("The cursor " + cursor + " is not valid.");
+      }
+      //Everything after the start order, or with the start order and an ID from the start ID on
+      query = or(gt("order", start.getOrder()), 
+              and(eq("order", start.getOrder()), gte("_id", new ObjectId(start.getId()))));
+    }
+    List<ToDo> todos = coll.find(query).sort(ORDER_SORT).limit(limit + 1).into(new ArrayList<ToDo>());
+    return OrderKey.toPage(todos, limit);
+  }
+
+  @Override
+  public ToDo get(String id) {
+    return isObjectId(id) ? coll.find(idQuery(id)).first() : null;
+  }
+
+  @Override
+  public ToDo persist(ToDo td) {
+    ToDo saved = revised(td);
+    //The codec gives the ToDo an ID before it is sent, unless it has one
+    coll.insertOne(saved);
+    changed(saved.getId());
+    return saved;
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td) {
+    if(!isObjectId(id)) {
+      return null;
+    }
+    ToDo updated = coll.findOneAndReplace(idQuery(id), revised(td, id), 
+            new FindOneAndReplaceOptions().returnDocument(ReturnDocument.AFTER));
+    if(updated != null) {
+      changed(id);
+    }
+    return updated;
+  }
+
+  @Override
+  public boolean delete(String id) {
+    if(!isObjectId(id) || coll.deleteOne(idQuery(id)).getDeletedCount() == 0) {
+      //Nothing was deleted, so nothing changed
+      return false;
+    }
+    changed(id);
+    return true;
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td, String rev) throws RevisionMismatchException {
+    ToDo updated = revised(td, id);
+    if(coll.replaceOne(revisionQuery(id, rev), updated).getMatchedCount() == 0) {
+      throw new RevisionMismatchException(id, rev);
+    }
+    changed(id);
+    //Everything in the updated document is known, there is no need to read it back
+    return updated;
+  }
+
+  @Override
+  public void delete(String id, String rev) throws RevisionMismatchException {
+    if(coll.deleteOne(revisionQuery(id, rev)).getDeletedCount() == 0) {
+      throw new RevisionMismatchException(id, rev);
+    }
+    changed(id);
+  }
+
+  @Override
+  public int count() {
+    //Exact, the cleanup evicts ToDos by this count
+    return (int)coll.countDocuments();
+  }
+
+  @Override
+  public String getVersion() {
+    return log.getVersion();
+  }
+
+  @Override
+  public ToDoChanges getChanges(String since, int limit) {
+    return log.getChanges(since, limit);
+  }
+
+  @Override
+  public List<BulkResult> persistAll(Collection<ToDo> todos) {
+    List<ToDo> saved = new ArrayList<ToDo>(todos.size());
+    for(ToDo td : todos) {
+      saved.add(revised(td));
+    }
+    List<BulkResult> results = new ArrayList<BulkResult>(todos.size());
+    if(saved.isEmpty()) {
+      return results;
+    }
+    //A single insert of all the documents, the codec gives them their IDs
+    coll.insertMany(saved);
+    List<String> ids = new ArrayList<String>(todos.size());
+    int i = 0;
+    for(ToDo td : todos) {
+      ToDo copy = saved.get(i++);
+      td.setId(copy.getId());
+      td.setRev(copy.getRev());
+      ids.add(td.getId());
+      results.add(new BulkResult(td.getId(), null));
+    }
+    changed(ids);
+    return results;
+  }
+
+  @Override
+  public List<BulkResult> updateAll(Collection<ToDo> todos) {
+    List<BulkResult> results = new ArrayList<BulkResult>(todos.size());
+    List<String> ids = new ArrayList<String>(todos.size());
+    for(ToDo td : todos) {
+      if(!isObjectId(td.getId()) 
+              || coll.replaceOne(idQuery(td.getId()), revised(td, td.getId())).getMatchedCount() == 0) {
+        results.add(new BulkResult(td.getId(), "not_found", "missing"));
+      } else {
+        ids.add(td.getId());
+        results.add(new BulkResult(td.getId(), null));
+      }
+    }
+    if(!ids.isEmpty()) {
+      changed(ids);
+    }
+    return results;
+  }
+
+  @Override
+  public List<BulkResult> deleteAll(Collection<String> ids) {
+    List<String> valid = new ArrayList<String>(ids.size());
+    for(String id : ids) {
+      if(isObjectId(id)) {
+        valid.add(id);
+      }
+    }
+    //A delete only tells how many documents it removed, so find which exist first.  One removed
+    //by someone else in between is reported as removed by both.
+    Set<String> removed = new LinkedHashSet<String>();
+    if(!valid.isEmpty()) {
+      List<Document> found = coll.find(in("_id", objectIds(valid)), Document.class).
+              projection(ID_PROJECTION).into(new ArrayList<Document>(valid.size()));
+      for(Document doc : found) {
+        removed.add(doc.getObjectId("_id").toHexString());
+      }
+    }
+    if(!removed.isEmpty()) {
+      //A single delete of all the documents that exist
+      coll.deleteMany(in("_id", objectIds(removed)));
+      changed(new ArrayList<String>(removed));
+    }
+    List<BulkResult> results = new ArrayList<BulkResult>(ids.size());
+    for(String id : ids) {
+      if(removed.contains(id)) {
+        results.add(new BulkResult(id, null));
+      } else {
+        results.add(new BulkResult(id, "not_found", "missing"));
+      }
+    }
+    return results;
+  }
+
+  private static boolean isObjectId(String id) {
+    return MongoChangeLog.isObjectId(id);
+  }
+
+  private static Bson idQuery(String id) {
+    return eq("_id", new ObjectId(id));
+  }
+
+  private static Bson revisionQuery(String id, String rev) throws RevisionMismatchException {
+    MongoChangeLog.checkRevision(id, rev);
+    return and(idQuery(id), MongoChangeLog.isStored(rev) ? eq("rev", rev) : exists("rev", false));
+  }
+
+  private static List<ObjectId> objectIds(Collection<String> ids) {
+    return MongoChangeLog.objectIds(ids);
+  }
+
+  /**
+   * Copies a ToDo to write, with a new revision.
+   */
+  private static ToDo revised(ToDo td) {
+    ToDo copy = new ToDo(td);
+    copy.setRev(new ObjectId().toHexString());
+    return copy;
+  }
+
+  private static ToDo revised(ToDo td, String id) {
+    ToDo copy = revised(td);
+    copy.setId(id);
+    return copy;
+  }
+
+  private void changed(String id) {
+    changed(Collections.singletonList(id));
+  }
+
+  private void changed(List<String> ids) {
+    log.changed(ids);
+  }
+
+  /**
+   * Keeps the version and changes in collections read and written as {@link Document}s.
+   */
+  private class Log extends MongoChangeLog {
+
+    private final MongoCollection<Document> versions;
+    private final MongoCollection<Document> changes;
+
+    private Log(MongoCollection<Document> versions, MongoCollection<Document> changes, int history) {
+      super(changes != null, history);
+      this.versions = versions;
+      this.changes = changes;
+    }
+
+    @Override
+    protected Map<String, Object> findVersion() {
+      return versions.find(VERSION_QUERY).first();
+    }
+
+    @Override
+    protected void incrementVersion() {
+      versions.updateOne(VERSION_QUERY, VERSION_INC, new UpdateOptions().upsert(true));
+    }
+
+    @Override
+    protected Map<String, Object> incrementAndFindVersion(Date at) {
+      return versions.findOneAndUpdate(VERSION_QUERY, Updates.combine(VERSION_INC, Updates.set(AT, at)), 
+              new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+    }
+
+    @Override
+    protected void insertChange(long seq, List<String> ids, Date at) {
+      changes.insertOne(new Document("_id", seq).append(IDS, ids).append(AT, at));
+    }
+
+    @Override
+    protected void removeChanges(long seq) {
+      changes.deleteMany(lte("_id", seq));
+    }
+
+    @Override
+    protected List<? extends Map<String, Object>> findChanges(long seq, int max) {
+      List<Document> found = new ArrayList<Document>();
+      Bson query = gt("_id", seq);
+      try(MongoCursor<Document> cursor = changes.find(query).sort(Sorts.ascending("_id")).iterator()) {
+        while(found.size() < max && cursor.hasNext()) {
+          found.add(cursor.next());
+        }
+      }
+      return found;
+    }
+
+    @Override
+    protected Collection<ToDo> findToDos(List<ObjectId> ids) {
+      return coll.find(in("_id", ids)).into(new ArrayList<ToDo>(ids.size()));
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import net.bluemix.todo.model.ToDo;
+
+/**
+ * A {@link ToDoCursor} over ToDos that have already been read, for stores that cannot stream.
+ */
+class CollectionCursor implements ToDoCursor {
+
+  private final Iterator<ToDo> todos;
+
+  /**
+   * Creates a cursor.
+   * @param todos The ToDos to iterate over.
+   */
+  CollectionCursor(Collection<ToDo> todos) {
+    this.todos = todos.iterator();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return todos.hasNext();
+  }
+
+  @Override
+  public ToDo next() {
+    return todos.next();
+  }
+
+  @Override
+  public void close() {
+    //Nothing is held open
+  }
+}
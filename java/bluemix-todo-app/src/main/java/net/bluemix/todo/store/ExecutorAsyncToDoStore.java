@@ -0,0 +1,132 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+
+/**
+ * An {@link AsyncToDoStore} for a {@link ToDoStore} that only has a blocking API.  Each operation
+ * runs on an executor, so the caller's thread is not blocked, but a thread of the executor is.
+ */
+public class ExecutorAsyncToDoStore implements AsyncToDoStore {
+
+  private final ToDoStore store;
+  private final Executor executor;
+
+  /**
+   * Creates an asynchronous store.
+   * @param store The blocking store.
+   * @param executor The executor to run the blocking operations on.
+   */
+  public ExecutorAsyncToDoStore(ToDoStore store, Executor executor) {
+    this.store = store;
+    this.executor = executor;
+  }
+
+  /**
+   * Gets the blocking store.
+   * @return The blocking store.
+   */
+  public ToDoStore getStore() {
+    return store;
+  }
+
+  @Override
+  public CompletionStage<Collection<ToDo>> getAllAsync() {
+    return Stages.supply(() -> store.getAll(), executor);
+  }
+
+  @Override
+  public CompletionStage<ToDoCursor> streamAllAsync() {
+    return Stages.supply(() -> store.streamAll(), executor);
+  }
+
+  @Override
+  public CompletionStage<ToDoPage> getPageAsync(String cursor, int limit) {
+    return Stages.supply(() -> store.getPage(cursor, limit), executor);
+  }
+
+  @Override
+  public CompletionStage<ToDo> getAsync(String id) {
+    return Stages.supply(() -> store.get(id), executor);
+  }
+
+  @Override
+  public CompletionStage<ToDo> persistAsync(ToDo td) {
+    return Stages.supply(() -> store.persist(td), executor);
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td) {
+    return Stages.supply(() -> store.update(id, td), executor);
+  }
+
+  @Override
+  public CompletionStage<Boolean> deleteAsync(String id) {
+    return Stages.supply(() -> store.delete(id), executor);
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td, String rev) {
+    return Stages.supply(() -> store.update(id, td, rev), executor);
+  }
+
+  @Override
+  public CompletionStage<Void> deleteAsync(String id, String rev) {
+    return Stages.supply(() -> {
+      store.delete(id, rev);
+      return null;
+    }, executor);
+  }
+
+  @Override
+  public CompletionStage<Integer> countAsync() {
+    return Stages.supply(() -> store.count(), executor);
+  }
+
+  @Override
+  public CompletionStage<String> getVersionAsync() {
+    return Stages.supply(() -> store.getVersion(), executor);
+  }
+
+  @Override
+  public CompletionStage<ToDoChanges> getChangesAsync(String since, int limit) {
+    return Stages.supply(() -> store.getChanges(since, limit), executor);
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> persistAllAsync(Collection<ToDo> todos) {
+    return Stages.supply(() -> store.persistAll(todos), executor);
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> updateAllAsync(Collection<ToDo> todos) {
+    return Stages.supply(() -> store.updateAll(todos), executor);
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> deleteAllAsync(Collection<String> ids) {
+    return Stages.supply(() -> store.deleteAll(ids), executor);
+  }
+}
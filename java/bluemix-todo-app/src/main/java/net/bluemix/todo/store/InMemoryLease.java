@@ -0,0 +1,62 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Lease} held in memory, for when there is only one app instance or in tests.  Every
+ * holder sharing the lease must share the same object.
+ */
+public class InMemoryLease implements Lease {
+
+  private String holder;
+  private long expires;
+
+  @Override
+  public synchronized boolean acquire(String holder, long duration, TimeUnit unit) {
+    long now = now();
+    if(this.holder == null || this.holder.equals(holder) || now - expires >= 0) {
+      this.holder = holder;
+      this.expires = now + unit.toNanos(duration);
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  public synchronized void release(String holder) {
+    if(holder.equals(this.holder)) {
+      this.holder = null;
+    }
+  }
+
+  /**
+   * Gets the current holder of the lease.
+   * @return The holder, or null if no one holds the lease or it has expired.
+   */
+  public synchronized String getHolder() {
+    return holder != null && now() - expires < 0 ? holder : null;
+  }
+
+  /**
+   * The current time in nanoseconds, used to expire the lease.
+   * @return The current time.
+   */
+  protected long now() {
+    return System.nanoTime();
+  }
+}
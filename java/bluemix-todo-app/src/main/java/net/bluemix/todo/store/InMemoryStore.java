@@ -15,72 +15,565 @@
  */
 package net.bluemix.todo.store;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
 
 /**
  * An implementation of {@link ToDoStore} that stores ToDos in memory.
  *
+ * No locks are taken.  Each ToDo lives in an entry that is found by ID through a concurrent map
+ * and in order through a concurrent skip list sorted by order and ID.  Stored ToDos are never
+ * changed, an update atomically swaps a changed copy into the entry, so readers always see whole
+ * ToDos and writes to different ToDos do not get in each other's way.  The store hands out
+ * copies, so callers may change what they get back without affecting the store.  Each write gives
+ * the ToDo a new revision, the number of times it has been written, and the swap only succeeds
+ * from the revision a conditional update or delete expects.
+ *
+ * {@link #getAll()} and {@link #getPage(String, int)} walk the skip list, so they are always in
+ * order, and they pay for a consistent snapshot themselves: every write is counted when it starts
+ * and when it finishes, and a walk that overlapped a write is thrown away and made again.  If
+ * writes keep overlapping, the walk asks writers to hold off until it is done, so it always ends.
+ *
+ * Nothing here blocks, so the asynchronous operations run straight away and return completed
+ * stages.
+ *
+ * The version is a counter bumped after every write, prefixed with a random epoch so versions
+ * handed out before a restart are never mistaken for current ones.  The version is also the
+ * sequence of {@link #getChanges(String, int)}: the ID written at each version is kept in a ring
+ * buffer, so the changes since any of the most recent versions can be told.
  */
-public class InMemoryStore implements ToDoStore {
+public class InMemoryStore implements ToDoStore, AsyncToDoStore {
 
-  private Map<String, ToDo> store;
+  private static final int DEFAULT_CHANGES = 1000;
+  //How many times a walk is made before writers are held off
+  private static final int OPTIMISTIC_WALKS = 4;
+
+  private final ConcurrentMap<String, Entry> entries;
+  private final ConcurrentNavigableMap<OrderKey, Entry> index;
+  private final String epoch = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+  private final AtomicLong version = new AtomicLong();
+  //The change made at each of the most recent versions, by version modulo its length
+  private final AtomicReferenceArray<Change> changes;
+  //Writes that have started and finished, a write is under way while they differ
+  private final AtomicLong started = new AtomicLong();
+  private final AtomicLong finished = new AtomicLong();
+  //Walks that writers must wait for
+  private final AtomicInteger holding = new AtomicInteger();
 
   /**
-   * Creates a new ToDo store.
+   * Creates a new ToDo store that can tell the last 1000 changes.
    */
   public InMemoryStore() {
-    this.store = Collections.synchronizedMap(new HashMap<String, ToDo>());
+    this(DEFAULT_CHANGES);
+  }
+
+  /**
+   * Creates a new ToDo store.
+   * @param changes The number of recent changes kept for {@link #getChanges(String, int)}.
+   */
+  public InMemoryStore(int changes) {
+    if(changes < 1) {
+      throw new IllegalArgumentException("At least one change must be kept.");
+    }
+    this.entries = new ConcurrentHashMap<String, Entry>();
+    this.index = new ConcurrentSkipListMap<OrderKey, Entry>();
+    this.changes = new AtomicReferenceArray<Change>(changes);
   }
 
   @Override
   public Collection<ToDo> getAll() {
-    return store.values();
+    return snapshot(() -> copy(index, Integer.MAX_VALUE));
+  }
+
+  @Override
+  public ToDoCursor streamAll() {
+    return new CollectionCursor(getAll());
+  }
+
+  @Override
+  public ToDoPage getPage(String cursor, int limit) {
+    OrderKey.checkLimit(limit);
+    Map<OrderKey, Entry> tail = cursor == null ? index : index.tailMap(OrderKey.decode(cursor), true);
+    return OrderKey.toPage(snapshot(() -> copy(tail, limit + 1)), limit);
   }
 
   @Override
   public ToDo get(String id) {
-    return store.get(id);
+    Entry entry = entries.get(id);
+    ToDo td = entry == null ? null : entry.todo.get();
+    return td == null ? null : new ToDo(td);
   }
 
   @Override
   public ToDo persist(ToDo td) {
     td.setId(UUID.randomUUID().toString());
-    synchronized(td) {
-      store.put(td.getId(), td);
-    }
+    td.setRev(nextRevision(null));
+    put(td);
     return td;
   }
 
   @Override
   public ToDo update(String id, ToDo td) {
-    synchronized(store) {
-      ToDo old = store.get(id);
-      if(old == null) {
-        return null;
+    return replace(id, td, null);
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td, String rev) throws RevisionMismatchException {
+    ToDo updated = rev == null ? null : replace(id, td, rev);
+    if(updated == null) {
+      throw new RevisionMismatchException(id, rev);
+    }
+    return updated;
+  }
+
+  @Override
+  public boolean delete(String id) {
+    return remove(id, null) != null;
+  }
+
+  @Override
+  public void delete(String id, String rev) throws RevisionMismatchException {
+    if(rev == null || remove(id, rev) == null) {
+      throw new RevisionMismatchException(id, rev);
+    }
+  }
+
+  /**
+   * Swaps an updated copy of a ToDo into its entry.
+   * @param id The ID of the ToDo.
+   * @param td The ToDo with updated information.
+   * @param rev The revision the ToDo must be at, or null to update any revision.
+   * @return The updated ToDo, or null if there is no ToDo with the ID at the revision.
+   */
+  private ToDo replace(String id, ToDo td, String rev) {
+    if(id == null) {
+      return null;
+    }
+    startWrite();
+    try {
+      Entry entry = entries.get(id);
+      while(entry != null) {
+        ToDo old = entry.todo.get();
+        if(old == null) {
+          entry = replaced(id, entry);
+          continue;
+        }
+        if(rev != null && !rev.equals(old.getRev())) {
+          return null;
+        }
+        ToDo updated = new ToDo(old);
+        updated.setCompleted(td.isCompleted());
+        updated.setTitle(td.getTitle());
+        updated.setRev(nextRevision(old.getRev()));
+        //Fails if another thread updated the ToDo since we read it, then we try again
+        if(entry.todo.compareAndSet(old, updated)) {
+          changed(id);
+          return new ToDo(updated);
+        }
+      }
+      return null;
+    } finally {
+      finished.incrementAndGet();
+    }
+  }
+
+  /**
+   * Stores a ToDo as it is, keeping its ID, order and revision and replacing any ToDo with the
+   * same ID.
+   * @param td The ToDo to store.
+   */
+  void put(ToDo td) {
+    Entry entry = new Entry(OrderKey.of(td), new ToDo(td));
+    startWrite();
+    try {
+      Entry old = entries.put(td.getId(), entry);
+      if(old != null) {
+        //Emptied first, so an update racing with the replacement fails rather than being lost
+        old.todo.set(null);
+        index.remove(old.key, old);
+      }
+      index.put(entry.key, entry);
+      changed(td.getId());
+    } finally {
+      finished.incrementAndGet();
+    }
+  }
+
+  /**
+   * Removes all ToDos.
+   */
+  void clear() {
+    startWrite();
+    try {
+      for(Entry entry : entries.values()) {
+        entry.todo.set(null);
+      }
+      entries.clear();
+      index.clear();
+      //Which ToDos went is not known, so everyone must resync
+      changed(null);
+    } finally {
+      finished.incrementAndGet();
+    }
+  }
+
+  /**
+   * Removes a ToDo.  The entry is emptied first, so an update racing with the removal either
+   * happens before it or fails.
+   * @param id The ID of the ToDo.
+   * @param rev The revision the ToDo must be at, or null to remove any revision.
+   * @return The removed ToDo, or null if there is no ToDo with the ID at the revision.
+   */
+  private ToDo remove(String id, String rev) {
+    if(id == null) {
+      return null;
+    }
+    startWrite();
+    try {
+      Entry entry = entries.get(id);
+      while(entry != null) {
+        ToDo old = entry.todo.get();
+        if(old == null) {
+          entry = replaced(id, entry);
+          continue;
+        }
+        if(rev != null && !rev.equals(old.getRev())) {
+          return null;
+        }
+        if(entry.todo.compareAndSet(old, null)) {
+          entries.remove(id, entry);
+          index.remove(entry.key, entry);
+          changed(id);
+          return old;
+        }
+      }
+      return null;
+    } finally {
+      finished.incrementAndGet();
+    }
+  }
+
+  /**
+   * Finds the entry that took the place of an emptied entry.
+   * @param id The ID of the ToDo.
+   * @param emptied The emptied entry.
+   * @return The entry {@link #put(ToDo)} stored in its place, or null if the ToDo was removed.
+   */
+  private Entry replaced(String id, Entry emptied) {
+    //Put stores the new entry before emptying the old one, removal empties it first
+    Entry entry = entries.get(id);
+    return entry == emptied ? null : entry;
+  }
+
+  /**
+   * Counts a write as started, first waiting for any walk that is holding writers off.  Every
+   * call must be followed by counting the write as finished.
+   */
+  private void startWrite() {
+    while(true) {
+      started.incrementAndGet();
+      if(holding.get() == 0) {
+        return;
+      }
+      //A walk is waiting for writes to stop, back off until it is done
+      finished.incrementAndGet();
+      while(holding.get() != 0) {
+        Thread.yield();
+      }
+    }
+  }
+
+  /**
+   * Walks the ToDos so that the walk sees all of every write or none of it.  The walk is made
+   * again if a write was under way before it finished, and after a few tries writers are held
+   * off while it is made.
+   * @param walk The walk.
+   * @return What the walk returned.
+   */
+  private <T> T snapshot(Supplier<T> walk) {
+    for(int i = 0; i < OPTIMISTIC_WALKS; i++) {
+      //Finished is read first, so if they match no write was under way when started was read
+      long before = finished.get();
+      if(started.get() == before) {
+        T result = walk.get();
+        if(started.get() == before) {
+          return result;
+        }
+      }
+      Thread.yield();
+    }
+    holding.incrementAndGet();
+    try {
+      //Writes that started before we held writers off are let finish
+      while(finished.get() != started.get()) {
+        Thread.yield();
+      }
+      return walk.get();
+    } finally {
+      holding.decrementAndGet();
+    }
+  }
+
+  /**
+   * Gets the revision after a revision.  Revisions count the writes to a ToDo.
+   * @param rev The current revision, or null for a new ToDo.
+   * @return The next revision.
+   */
+  private static String nextRevision(String rev) {
+    long generation = 0;
+    if(rev != null) {
+      try {
+        generation = Long.parseLong(rev);
+      } catch(NumberFormatException e) {
+        //Stored with a revision from somewhere else, start counting again
+      }
+    }
+    return Long.toString(generation + 1);
+  }
+
+  private static List<ToDo> copy(Map<OrderKey, Entry> todos, int max) {
+    List<ToDo> copies = new ArrayList<ToDo>();
+    for(Entry entry : todos.values()) {
+      if(copies.size() == max) {
+        break;
+      }
+      ToDo td = entry.todo.get();
+      //Empty if the ToDo is being removed
+      if(td != null) {
+        copies.add(new ToDo(td));
+      }
+    }
+    return copies;
+  }
+
+  @Override
+  public int count() throws ToDoStoreException {
+    //Sizing the skip list means walking it, the map knows its size
+    return entries.size();
+  }
+
+  @Override
+  public String getVersion() {
+    return epoch + "-" + version.get();
+  }
+
+  @Override
+  public ToDoChanges getChanges(String since, int limit) {
+    OrderKey.checkLimit(limit);
+    long current = version.get();
+    long seq = since == null ? -1 : sequence(since);
+    if(seq < 0 || seq > current || current - seq > changes.length()) {
+      return ToDoChanges.resync(epoch + "-" + current);
+    }
+    Set<String> ids = new LinkedHashSet<String>();
+    while(seq < current && ids.size() < limit) {
+      Change change = changes.get((int)((seq + 1) % changes.length()));
+      if(change == null || change.version <= seq) {
+        //The write at the next version has not been recorded yet, it will be next time
+        break;
+      }
+      if(change.version > seq + 1 || change.id == null) {
+        //Overwritten by a later change, or everything was removed
+        return ToDoChanges.resync(epoch + "-" + current);
+      }
+      ids.add(change.id);
+      seq++;
+    }
+    //The ToDos are read after the changes, so they are at least as new as the sequence
+    List<ToDo> upserts = new ArrayList<ToDo>();
+    List<String> deleted = new ArrayList<String>();
+    for(String id : ids) {
+      ToDo td = get(id);
+      if(td == null) {
+        deleted.add(id);
       } else {
-        old.setCompleted(td.isCompleted());
-        old.setTitle(td.getTitle());
+        upserts.add(td);
       }
-      store.put(id, old);
-      return old;
     }
+    return new ToDoChanges(upserts, deleted, epoch + "-" + seq, seq < current);
+  }
+
+  /**
+   * Parses a sequence handed out by this store.
+   * @param seq The sequence.
+   * @return The version in it, or -1 if it is not from this store.
+   */
+  private long sequence(String seq) {
+    int dash = seq.lastIndexOf('-');
+    if(dash < 0 || !seq.substring(0, dash).equals(epoch)) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(seq.substring(dash + 1));
+    } catch(NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Moves the version on after a write and records what was written at the new version.  A
+   * write is recorded after it is made, so anyone reading the change reads the written ToDo.
+   * @param id The ID of the ToDo written, or null if all of them were.
+   */
+  private void changed(String id) {
+    long current = version.incrementAndGet();
+    changes.set((int)(current % changes.length()), new Change(current, id));
   }
 
   @Override
-  public void delete(String id) {
-    synchronized(store) {
-      store.remove(id);
+  public List<BulkResult> persistAll(Collection<ToDo> todos) {
+    List<BulkResult> results = new ArrayList<BulkResult>(todos.size());
+    for(ToDo td : todos) {
+      persist(td);
+      results.add(new BulkResult(td.getId(), null));
     }
+    return results;
   }
 
   @Override
-  public int count() throws ToDoStoreException {
-    return store.size();
+  public List<BulkResult> updateAll(Collection<ToDo> todos) {
+    List<BulkResult> results = new ArrayList<BulkResult>(todos.size());
+    for(ToDo td : todos) {
+      if(td.getId() != null && update(td.getId(), td) != null) {
+        results.add(new BulkResult(td.getId(), null));
+      } else {
+        results.add(new BulkResult(td.getId(), "not_found", "missing"));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public List<BulkResult> deleteAll(Collection<String> ids) {
+    List<BulkResult> results = new ArrayList<BulkResult>(ids.size());
+    for(String id : ids) {
+      if(remove(id, null) != null) {
+        results.add(new BulkResult(id, null));
+      } else {
+        results.add(new BulkResult(id, "not_found", "missing"));
+      }
+    }
+    return results;
+  }
+
+  @Override
+  public CompletionStage<Collection<ToDo>> getAllAsync() {
+    return Stages.now(() -> getAll());
+  }
+
+  @Override
+  public CompletionStage<ToDoCursor> streamAllAsync() {
+    return Stages.now(() -> streamAll());
+  }
+
+  @Override
+  public CompletionStage<ToDoPage> getPageAsync(String cursor, int limit) {
+    return Stages.now(() -> getPage(cursor, limit));
+  }
+
+  @Override
+  public CompletionStage<ToDo> getAsync(String id) {
+    return Stages.now(() -> get(id));
+  }
+
+  @Override
+  public CompletionStage<ToDo> persistAsync(ToDo td) {
+    return Stages.now(() -> persist(td));
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td) {
+    return Stages.now(() -> update(id, td));
+  }
+
+  @Override
+  public CompletionStage<Boolean> deleteAsync(String id) {
+    return Stages.now(() -> delete(id));
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td, String rev) {
+    return Stages.now(() -> update(id, td, rev));
+  }
+
+  @Override
+  public CompletionStage<Void> deleteAsync(String id, String rev) {
+    return Stages.now(() -> {
+      delete(id, rev);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletionStage<Integer> countAsync() {
+    return Stages.now(() -> count());
+  }
+
+  @Override
+  public CompletionStage<String> getVersionAsync() {
+    return Stages.now(() -> getVersion());
+  }
+
+  @Override
+  public CompletionStage<ToDoChanges> getChangesAsync(String since, int limit) {
+    return Stages.now(() -> getChanges(since, limit));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> persistAllAsync(Collection<ToDo> todos) {
+    return Stages.now(() -> persistAll(todos));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> updateAllAsync(Collection<ToDo> todos) {
+    return Stages.now(() -> updateAll(todos));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> deleteAllAsync(Collection<String> ids) {
+    return Stages.now(() -> deleteAll(ids));
+  }
+
+  private static class Change {
+    private final long version;
+    //Null if all the ToDos were removed
+    private final String id;
+
+    private Change(long version, String id) {
+      this.version = version;
+      this.id = id;
+    }
+  }
+
+  private static class Entry {
+    //The key never changes, update does not change the order
+    private final OrderKey key;
+    //Null once the ToDo is removed
+    private final AtomicReference<ToDo> todo;
+
+    private Entry(OrderKey key, ToDo todo) {
+      this.key = key;
+      this.todo = new AtomicReference<ToDo>(todo);
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Elects one app instance out of many as the leader, by having every instance try to take the
+ * same {@link Lease}.  {@link #run()} is meant to be scheduled a few times per lease duration:
+ * the leader renews the lease well before it expires, and the others take it over within a
+ * fraction of the duration of it expiring or being released.
+ *
+ * An instance only thinks it is the leader until the lease it last took expires, counted from
+ * before it asked for the lease, so it stops before anyone else can take over even when it
+ * cannot reach the lease to find out it lost it.
+ */
+public class LeaderElection implements Runnable {
+
+  private static final Logger LOG = Logger.getLogger(LeaderElection.class.getName());
+
+  private final Lease lease;
+  private final String holder;
+  private final long duration;
+  private volatile long leaderUntil;
+  private volatile boolean leader;
+  private volatile Listener listener;
+
+  /**
+   * Told when the app instance becomes the leader.
+   */
+  public interface Listener {
+
+    /**
+     * Called when the app instance becomes the leader, on the thread running the election.
+     */
+    public void elected();
+  }
+
+  /**
+   * Creates an election.  Nothing happens until it is run.
+   * @param lease The lease every app instance tries to take.
+   * @param holder Identifies this app instance, must be unique to it.
+   * @param duration How long the lease is taken for each time.
+   * @param unit The unit of the duration.
+   */
+  public LeaderElection(Lease lease, String holder, long duration, TimeUnit unit) {
+    if(duration <= 0) {
+      throw new IllegalArgumentException("The lease duration must be positive.");
+    }
+    this.lease = lease;
+    this.holder = holder;
+    this.duration = unit.toNanos(duration);
+  }
+
+  /**
+   * Sets who to tell when the app instance becomes the leader.
+   * @param listener The listener, or null.
+   */
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Takes or renews the lease.
+   */
+  @Override
+  public synchronized void run() {
+    boolean wasLeader = isLeader();
+    long start = now();
+    try {
+      if(lease.acquire(holder, duration, TimeUnit.NANOSECONDS)) {
+        leaderUntil = start + duration;
+        leader = true;
+        if(!wasLeader) {
+          LOG.logp(Level.INFO, LeaderElection.class.getName(), "run", "{0} is the leader.", holder);
+          Listener listener = this.listener;
+          if(listener != null) {
+            listener.elected();
+          }
+        }
+      } else {
+        leader = false;
+      }
+    } catch (ToDoStoreException | RuntimeException e) {
+      //Whatever happened, the lease is not held for longer than it was taken for
+      LOG.logp(Level.WARNING, LeaderElection.class.getName(), "run", "Error taking the lease.", e);
+    }
+  }
+
+  /**
+   * Whether this app instance is the leader.
+   * @return True if this instance holds the lease.
+   */
+  public boolean isLeader() {
+    return leader && now() - leaderUntil < 0;
+  }
+
+  /**
+   * Gives up the lease, if it is held, so another app instance can take over straight away.
+   */
+  public synchronized void resign() {
+    if(leader) {
+      leader = false;
+      try {
+        lease.release(holder);
+      } catch (ToDoStoreException | RuntimeException e) {
+        LOG.logp(Level.WARNING, LeaderElection.class.getName(), "resign", "Error releasing the lease.", e);
+      }
+    }
+  }
+
+  /**
+   * Gets what identifies this app instance.
+   * @return The holder of the lease.
+   */
+  public String getHolder() {
+    return holder;
+  }
+
+  /**
+   * The current time in nanoseconds, used to expire the leadership.
+   * @return The current time.
+   */
+  protected long now() {
+    return System.nanoTime();
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A named lease held by at most one holder at a time, used to elect the app instance that does
+ * work which only one instance should do.  A lease is held until it expires unless its holder
+ * renews it first, so a holder that goes away without releasing it only blocks the others until
+ * then.  Expiry is measured with the clocks of the app instances, which are assumed to be within
+ * a small part of the lease duration of each other.
+ */
+public interface Lease {
+
+  /**
+   * Takes the lease if no one holds it or it has expired, or renews it if the holder already
+   * holds it.
+   * @param holder Identifies the holder, unique to each app instance.
+   * @param duration How long the lease is held for, from before the call.
+   * @param unit The unit of the duration.
+   * @return True if the holder now holds the lease, false if someone else does.
+   * @throws ToDoStoreException Thrown if the lease could not be read or written.
+   */
+  public boolean acquire(String holder, long duration, TimeUnit unit) throws ToDoStoreException;
+
+  /**
+   * Gives up the lease so someone else can take it straight away.  Does nothing if the holder
+   * does not hold the lease.
+   * @param holder Identifies the holder.
+   * @throws ToDoStoreException Thrown if the lease could not be written.
+   */
+  public void release(String holder) throws ToDoStoreException;
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+
+import org.bson.types.ObjectId;
+
+/**
+ * The version of the ToDos and the log of their recent changes, as kept in Mongo DB by both
+ * {@link MongoStore} and {@link CodecMongoStore}.  The two stores share a database, so what is
+ * kept, and how it is read back, lives here once and the stores only do the reading and writing
+ * with their driver's API.
+ *
+ * The version is the <code>version</code> field of the <code>todos</code> document of the
+ * versions collection.  When changes are kept, a change is a document of the changes collection
+ * with the version a write moved to as its <code>_id</code>, the IDs written in <code>ids</code>
+ * and the time in <code>at</code>, and the versions document has the time of the latest write in
+ * its own <code>at</code>.  See {@link MongoStore} for how they are used.
+ */
+abstract class MongoChangeLog {
+
+  static final String VERSION_ID = "todos";
+  static final String VERSION = "version";
+  static final String IDS = "ids";
+  static final String AT = "at";
+  static final long GAP_TIMEOUT = 30000; //in milliseconds
+
+  private final boolean keepChanges;
+  private final int history;
+
+  /**
+   * Creates a log.
+   * @param keepChanges Whether the changes are kept, or only the version.
+   * @param history The number of recent changes to keep.
+   */
+  MongoChangeLog(boolean keepChanges, int history) {
+    if(keepChanges && history < 1) {
+      throw new IllegalArgumentException("Keeping changes needs a history.");
+    }
+    this.keepChanges = keepChanges;
+    this.history = history;
+  }
+
+  /**
+   * Finds the versions document.
+   * @return The document, or null if nothing has been written yet.
+   */
+  protected abstract Map<String, Object> findVersion();
+
+  /**
+   * Moves the version on by one, creating the versions document if there is none.
+   */
+  protected abstract void incrementVersion();
+
+  /**
+   * Moves the version on by one and sets when it moved, creating the versions document if there
+   * is none.
+   * @param at When the write that moved it was made.
+   * @return The versions document as the increment left it.
+   */
+  protected abstract Map<String, Object> incrementAndFindVersion(Date at);
+
+  /**
+   * Records a change.
+   * @param seq The version the write moved to.
+   * @param ids The IDs of the ToDos written.
+   * @param at When they were written.
+   */
+  protected abstract void insertChange(long seq, List<String> ids, Date at);
+
+  /**
+   * Removes the changes up to and including a version.
+   * @param seq The version.
+   */
+  protected abstract void removeChanges(long seq);
+
+  /**
+   * Finds the changes after a version, in the order of their versions.
+   * @param seq The version.
+   * @param max The most changes to read.
+   * @return The change documents.
+   */
+  protected abstract List<? extends Map<String, Object>> findChanges(long seq, int max);
+
+  /**
+   * Finds ToDos.
+   * @param ids The IDs of the ToDos.
+   * @return The ToDos that exist, in any order.
+   */
+  protected abstract Collection<ToDo> findToDos(List<ObjectId> ids);
+
+  /**
+   * Gets the version of the ToDos.
+   * @return The version, "0" if nothing has been written yet.
+   */
+  String getVersion() {
+    return version(findVersion());
+  }
+
+  private static String version(Map<String, Object> doc) {
+    Object current = doc == null ? null : doc.get(VERSION);
+    return current instanceof Number ? Long.toString(((Number)current).longValue()) : "0";
+  }
+
+  /**
+   * Gets the changes since a sequence.  Changes are only handed out up to the first version not
+   * recorded yet, and a version still not recorded after {@value #GAP_TIMEOUT} milliseconds means
+   * the changes cannot be told.  That is known from the time of a later change, or, when no later
+   * change was recorded, from the time the version last moved.  While a version is still being
+   * recorded there are no more changes to ask for straight away.
+   * @param since The sequence, may be null.
+   * @param limit The most ToDos to return.
+   * @return The changes.
+   */
+  ToDoChanges getChanges(String since, int limit) {
+    OrderKey.checkLimit(limit);
+    if(!keepChanges) {
+      //Nothing is recorded, so the changes can never be told
+      return ToDoChanges.resync(getVersion());
+    }
+    Map<String, Object> doc = findVersion();
+    String version = version(doc);
+    long current = Long.parseLong(version);
+    long seq = sequence(since);
+    if(seq < 0 || seq > current || current - seq > history) {
+      return ToDoChanges.resync(version);
+    }
+    Set<String> ids = new LinkedHashSet<String>();
+    //Each change has at least one ID, so no more than the limit are needed
+    int wanted = (int)Math.min(limit, current - seq);
+    List<? extends Map<String, Object>> recorded = seq == current ?
+      new ArrayList<Map<String, Object>>() : findChanges(seq, wanted);
+    Date gapAt = null;
+    boolean pending = false;
+    for(Map<String, Object> change : recorded) {
+      if(ids.size() >= limit) {
+        break;
+      }
+      long changeSeq = ((Number)change.get("_id")).longValue();
+      if(changeSeq != seq + 1) {
+        gapAt = (Date)change.get(AT);
+        pending = true;
+        break;
+      }
+      for(Object id : (List<?>)change.get(IDS)) {
+        ids.add(id.toString());
+      }
+      seq = changeSeq;
+    }
+    if(!pending && seq < current && ids.size() < limit && recorded.size() < wanted) {
+      //Nothing is recorded after the next version, the version moved past it no later than this
+      gapAt = (Date)doc.get(AT);
+      pending = true;
+    }
+    if(gapAt != null && System.currentTimeMillis() - gapAt.getTime() > GAP_TIMEOUT) {
+      //The write at the next version was never recorded
+      return ToDoChanges.resync(version);
+    }
+    //The ToDos are read after the changes, so they are at least as new as the sequence
+    Map<String, ToDo> found = new HashMap<String, ToDo>();
+    if(!ids.isEmpty()) {
+      for(ToDo td : findToDos(objectIds(ids))) {
+        found.put(td.getId(), td);
+      }
+    }
+    List<ToDo> upserts = new ArrayList<ToDo>();
+    List<String> deleted = new ArrayList<String>();
+    for(String id : ids) {
+      ToDo td = found.get(id);
+      if(td == null) {
+        deleted.add(id);
+      } else {
+        upserts.add(td);
+      }
+    }
+    //A write at the next version that is still being recorded will be there next time
+    return new ToDoChanges(upserts, deleted, Long.toString(seq), seq < current && !pending);
+  }
+
+  /**
+   * Moves the version on after a write, and records the write when changes are kept.  Does
+   * nothing when no ToDos were written, so every change has at least one ID.
+   * @param ids The IDs of the ToDos written.
+   */
+  void changed(List<String> ids) {
+    if(ids.isEmpty()) {
+      return;
+    }
+    if(!keepChanges) {
+      incrementVersion();
+      return;
+    }
+    Date at = new Date();
+    long current = ((Number)incrementAndFindVersion(at).get(VERSION)).longValue();
+    insertChange(current, ids, at);
+    //Trim the history every so often rather than on every write
+    if(current % Math.max(1, history / 10) == 0) {
+      removeChanges(current - history);
+    }
+  }
+
+  /**
+   * Checks that a conditional write can match a document at all.
+   * @param id The ID of the ToDo.
+   * @param rev The revision it must be at.
+   * @throws RevisionMismatchException If no document can have the ID and revision.
+   */
+  static void checkRevision(String id, String rev) throws RevisionMismatchException {
+    if(rev == null || !isObjectId(id)) {
+      //Every document has a revision and an ObjectId, so none can match
+      throw new RevisionMismatchException(id, rev);
+    }
+  }
+
+  /**
+   * Checks whether documents at a revision have it in their <code>rev</code> field.  Documents
+   * written before revisions were kept have none, and are at revision
+   * {@value ToDoCodec#NO_REVISION}.
+   * @param rev The revision.
+   * @return False if the documents have no <code>rev</code> field.
+   */
+  static boolean isStored(String rev) {
+    return !ToDoCodec.NO_REVISION.equals(rev);
+  }
+
+  static boolean isObjectId(String id) {
+    return id != null && ObjectId.isValid(id);
+  }
+
+  static List<ObjectId> objectIds(Collection<String> ids) {
+    List<ObjectId> objectIds = new ArrayList<ObjectId>(ids.size());
+    for(String id : ids) {
+      objectIds.add(new ObjectId(id));
+    }
+    return objectIds;
+  }
+
+  /**
+   * Parses a sequence handed out by the stores.
+   * @param seq The sequence, may be null.
+   * @return The version in it, or -1 if it is not a sequence from the stores.
+   */
+  private static long sequence(String seq) {
+    if(seq == null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(seq);
+    } catch(NumberFormatException e) {
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.or;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+/**
+ * A {@link Lease} stored as a document in Mongo DB, shared by every app instance using the
+ * database.  The document has the name of the lease as its ID, the holder and when the lease
+ * expires.
+ *
+ * Taking or renewing the lease is a single upsert that only matches the document when it is
+ * the holder's or has expired.  When someone else holds it the upsert tries to insert a second
+ * document with the same ID, which the unique ID index rejects, so there is no window between
+ * reading the lease and writing it.
+ */
+public class MongoLease implements Lease {
+
+  private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+  private final MongoCollection<Document> coll;
+  private final String name;
+
+  /**
+   * Creates a lease.
+   * @param coll The collection the lease is stored in.
+   * @param name The name of the lease, its document ID.
+   */
+  public MongoLease(MongoCollection<Document> coll, String name) {
+    this.coll = coll;
+    this.name = name;
+  }
+
+  @Override
+  public boolean acquire(String holder, long duration, TimeUnit unit) {
+    long now = now();
+    Bson free = or(eq("holder", holder), lte("expires", new Date(now)));
+    Bson take = Updates.combine(Updates.set("holder", holder), 
+            Updates.set("expires", new Date(now + unit.toMillis(duration))));
+    try {
+      coll.updateOne(and(eq("_id", name), free), take, UPSERT);
+      return true;
+    } catch(MongoWriteException e) {
+      if(e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+        //Someone else holds the lease
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void release(String holder) {
+    //Without the document the next upsert takes the lease straight away
+    coll.deleteOne(and(eq("_id", name), eq("holder", holder)));
+  }
+
+  /**
+   * The current time in milliseconds, compared with the expiry other app instances wrote.
+   * @return The current time.
+   */
+  protected long now() {
+    return System.currentTimeMillis();
+  }
+}
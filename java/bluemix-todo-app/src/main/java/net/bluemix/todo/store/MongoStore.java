@@ -16,31 +16,128 @@
 package net.bluemix.todo.store;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
 
 import org.bson.types.ObjectId;
 
+import com.mongodb.AggregationOptions;
 import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.WriteResult;
 
 /**
  * An implementation of {@link ToDoStore} backed by Mongo DB.
+ *
+ * The version of the ToDos is a counter in a document of its own collection, incremented after
+ * every write so that all app instances sharing the database see the same version.
+ *
+ * Every write gives the document a new, unique revision in its <code>rev</code> field.  A
+ * conditional update or delete puts the expected revision in its query, so the check and the
+ * write are one atomic operation.  Documents written before revisions were kept are at revision
+ * {@value #NO_REVISION}.
+ *
+ * When given a changes collection, every write also records the IDs it wrote in a document of
+ * that collection keyed by the version it moved to, like an oplog, and the most recent ones are
+ * kept for {@link #getChanges(String, int)}.  Writes are recorded after they are made, so writes
+ * racing each other may be recorded out of order.  Changes are only handed out up to the first
+ * version not recorded yet, and a version still not recorded after
+ * {@value MongoChangeLog#GAP_TIMEOUT} milliseconds, because the app instance writing it went away,
+ * means the changes cannot be told.  That holds even when no later write was recorded, since the
+ * versions document has the time the version last moved.  {@link MongoChangeLog} keeps the
+ * version and changes the same way for this store and {@link CodecMongoStore}.  A bulk write that
+ * wrote nothing does not move the version.
+ *
+ * Reading and counting ToDos take a single request to Mongo DB, and the write of a ToDo is a
+ * single request too, updates return the document as the update left it.  Keeping the version
+ * makes each write two requests: the write, then the one that moves the version on.  Keeping
+ * changes as well makes it three, since the version is read back and the change recorded under
+ * it, and every tenth of the history another request removes the oldest changes.  These are
+ * separate operations on separate collections, not one atomic one: if the app fails after the
+ * write, the version is not moved on and the change is not recorded until the next write, so
+ * clients comparing versions see nothing change until then.  {@link #ensureIndexes()} creates
+ * the indexes paging through the ToDos in order relies on.
  */
 public class MongoStore implements ToDoStore {
 
+  private static final DBObject ORDER_SORT = new BasicDBObject("order", 1).append("_id", 1);
+  private static final DBObject COMPLETED_INDEX = new BasicDBObject("completed", 1);
+  private static final String NO_REVISION = ToDoCodec.NO_REVISION;
+  private static final DBObject VERSION_QUERY = new BasicDBObject("_id", MongoChangeLog.VERSION_ID);
+  private static final DBObject VERSION_INC =
+          new BasicDBObject("$inc", new BasicDBObject(MongoChangeLog.VERSION, 1L));
+  private static final DBObject ID_SORT = new BasicDBObject("_id", 1);
+  private static final DBObject ID_PROJECTION = new BasicDBObject("_id", 1);
+  private static final List<DBObject> COUNT_PIPELINE = Arrays.<DBObject>asList(
+          new BasicDBObject("$match", new BasicDBObject()),
+          new BasicDBObject("$group", new BasicDBObject("_id", 1).append("n", new BasicDBObject("$sum", 1))));
+  private static final int STREAM_BATCH_SIZE = 100;
+
   private DBCollection coll;
+  //Null when there is no versions collection
+  private final MongoChangeLog log;
+  //Only used when there is no versions collection
+  private final String epoch = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+  private final AtomicLong version = new AtomicLong();
 
   /**
-   * Creates a ToDo store backed by Mongo DB.
+   * Creates a ToDo store backed by Mongo DB.  The version of the ToDos is kept in memory, so it
+   * only follows writes made through this store.
    * @param coll The collection from the Mongo DB to use.
    */
   public MongoStore(DBCollection coll) {
+    this(coll, null);
+  }
+
+  /**
+   * Creates a ToDo store backed by Mongo DB.
+   * @param coll The collection from the Mongo DB to use.
+   * @param versions The collection to keep the version of the ToDos in, or null to keep it in
+   * memory.
+   */
+  public MongoStore(DBCollection coll, DBCollection versions) {
+    this(coll, versions, null, 0);
+  }
+
+  /**
+   * Creates a ToDo store backed by Mongo DB that keeps its recent changes.
+   * @param coll The collection from the Mongo DB to use.
+   * @param versions The collection to keep the version of the ToDos in.
+   * @param changes The collection to keep the recent changes in, or null to not keep them.
+   * @param history The number of recent changes to keep.
+   */
+  public MongoStore(DBCollection coll, DBCollection versions, DBCollection changes, int history) {
+    if(changes != null && (versions == null || history < 1)) {
+      throw new IllegalArgumentException("Keeping changes needs a versions collection and a history.");
+    }
     this.coll = coll;
+    this.log = versions == null ? null : new Log(versions, changes, history);
+  }
+
+  /**
+   * Creates the indexes the store's queries use, unless they exist already.  Paging sorts and
+   * starts from the order and ID, so without an index on them every page scans and sorts the
+   * whole collection.
+   */
+  public void ensureIndexes() {
+    coll.createIndex(ORDER_SORT);
+    coll.createIndex(COMPLETED_INDEX);
   }
 
   @Override
@@ -54,41 +151,125 @@ public class MongoStore implements ToDoStore {
     return todos;
   }
 
+  @Override
+  public ToDoCursor streamAll() {
+    //Only a batch of documents is fetched from the server at a time
+    final DBCursor cursor = coll.find().batchSize(STREAM_BATCH_SIZE);
+    return new ToDoCursor() {
+      @Override
+      public boolean hasNext() {
+        return cursor.hasNext();
+      }
+
+      @Override
+      public ToDo next() {
+        return createToDo(cursor.next());
+      }
+
+      @Override
+      public void close() {
+        cursor.close();
+      }
+    };
+  }
+
+  @Override
+  public ToDoPage getPage(String cursor, int limit) {
+    OrderKey.checkLimit(limit);
+    DBObject query = new BasicDBObject();
+    if(cursor != null) {
+      OrderKey start = OrderKey.decode(cursor);
+      if(!ObjectId.isValid(start.getId())) {
+        throw new IllegalArgumentException("The cursor " + cursor + " is not valid.");
+      }
+      //Everything after the start order, or with the start order and an ID from the start ID on
+      query.put("$or", Arrays.asList(
+              new BasicDBObject("order", new BasicDBObject("$gt", start.getOrder())),
+              new BasicDBObject("order", start.getOrder()).
+                append("_id", new BasicDBObject("$gte", new ObjectId(start.getId())))));
+    }
+    List<ToDo> todos = new ArrayList<ToDo>();
+    DBCursor dbCursor = coll.find(query).sort(ORDER_SORT).limit(limit + 1);
+    try {
+      while(dbCursor.hasNext()) {
+        todos.add(createToDo(dbCursor.next()));
+      }
+    } finally {
+      dbCursor.close();
+    }
+    return OrderKey.toPage(todos, limit);
+  }
+
   @Override
   public ToDo get(String id) {
-    BasicDBObject query = new BasicDBObject("_id", id);
-    DBCursor cursor = coll.find(query);
-    if(cursor.hasNext()) {
-      ToDo td = createToDo(cursor.next());
-      cursor.close();
-      return td;
-    } else {
+    if(id == null || !ObjectId.isValid(id)) {
+      //Documents are keyed by their ObjectId, nothing else can match
       return null;
     }
+    DBObject dbObj = coll.findOne(new BasicDBObject("_id", new ObjectId(id)));
+    return dbObj == null ? null : createToDo(dbObj);
   }
 
   @Override
   public ToDo persist(ToDo td) {
     DBObject dbObj = convertToDbObject(td);
     coll.insert(dbObj);
-    return createToDo(dbObj);
+    ToDo saved = createToDo(dbObj);
+    changed(saved.getId());
+    return saved;
   }
 
   @Override
   public ToDo update(String id, ToDo td) {
     DBObject query = new BasicDBObject("_id", new ObjectId(id));
+    //Replaces the document and hands back the new one in the same request
+    DBObject updated = coll.findAndModify(query, null, null, false, convertToDbObject(td), true, false);
+    if(updated == null) {
+      return null;
+    }
+    changed(id);
+    return createToDo(updated);
+  }
+
+  @Override
+  public boolean delete(String id) {
+    DBObject query = new BasicDBObject("_id", new ObjectId(id));
+    WriteResult result = coll.remove(query);
+    if(result != null && result.getN() == 0) {
+      //Nothing was removed, so nothing changed
+      return false;
+    }
+    changed(id);
+    return true;
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td, String rev) throws RevisionMismatchException {
     DBObject update = convertToDbObject(td);
-    coll.update(query, update);
-    DBCursor cursor = coll.find(query);
-    ToDo newTd = createToDo(cursor.next());
-    cursor.close();
-    return newTd;
+    update.put("_id", new ObjectId(id));
+    WriteResult result = coll.update(revisionQuery(id, rev), update);
+    if(result != null && result.getN() == 0) {
+      throw new RevisionMismatchException(id, rev);
+    }
+    changed(id);
+    //Everything in the updated document is known, there is no need to read it back
+    return createToDo(update);
   }
 
   @Override
-  public void delete(String id) {
+  public void delete(String id, String rev) throws RevisionMismatchException {
+    WriteResult result = coll.remove(revisionQuery(id, rev));
+    if(result != null && result.getN() == 0) {
+      throw new RevisionMismatchException(id, rev);
+    }
+    changed(id);
+  }
+
+  private static DBObject revisionQuery(String id, String rev) throws RevisionMismatchException {
+    MongoChangeLog.checkRevision(id, rev);
     DBObject query = new BasicDBObject("_id", new ObjectId(id));
-    coll.remove(query);
+    query.put("rev", MongoChangeLog.isStored(rev) ? rev : new BasicDBObject("$exists", false));
+    return query;
   }
 
   private ToDo createToDo(DBObject dbObj) {
@@ -97,20 +278,230 @@ public class MongoStore implements ToDoStore {
     td.setCompleted((Boolean)dbObj.get("completed"));
     td.setId(((ObjectId)dbObj.get("_id")).toString());
     td.setOrder((Integer)dbObj.get("order"));
+    Object rev = dbObj.get("rev");
+    td.setRev(rev == null ? NO_REVISION : rev.toString());
     return td;
   }
 
   private DBObject convertToDbObject(ToDo td) {
     DBObject dbObj = new BasicDBObject("title", td.getTitle()).
-            append("completed", td.isCompleted()).append("order", td.getOrder());
+            append("completed", td.isCompleted()).append("order", td.getOrder()).
+            append("rev", new ObjectId().toString());
     if(td.getId() != null) {
       dbObj.put("_id", new ObjectId(td.getId()));
     }
     return dbObj;
   }
 
+  /**
+   * Counts the ToDos with an aggregation that goes through every document, the way
+   * <code>countDocuments</code> does on the collection API.  A plain count command without a query
+   * answers from the collection's metadata, which can be off after an unclean shutdown or on a
+   * sharded cluster, and the cleanup evicts ToDos by this count.
+   */
   @Override
   public int count() throws ToDoStoreException {
-    return getAll().size();
+    Cursor cursor = coll.aggregate(COUNT_PIPELINE, AggregationOptions.builder().build());
+    try {
+      return cursor.hasNext() ? ((Number)cursor.next().get("n")).intValue() : 0;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public String getVersion() {
+    return log == null ? epoch + "-" + version.get() : log.getVersion();
+  }
+
+  @Override
+  public ToDoChanges getChanges(String since, int limit) {
+    if(log == null) {
+      OrderKey.checkLimit(limit);
+      //Nothing is recorded, so the changes can never be told
+      return ToDoChanges.resync(getVersion());
+    }
+    return log.getChanges(since, limit);
+  }
+
+  private void changed(String id) {
+    changed(Collections.singletonList(id));
+  }
+
+  /**
+   * Moves the version on after a write, and records the write when changes are kept.
+   * @param ids The IDs of the ToDos written.
+   */
+  private void changed(List<String> ids) {
+    if(log == null) {
+      version.incrementAndGet();
+    } else {
+      log.changed(ids);
+    }
+  }
+
+  @Override
+  public List<BulkResult> persistAll(Collection<ToDo> todos) {
+    List<DBObject> dbObjs = new ArrayList<DBObject>(todos.size());
+    for(ToDo td : todos) {
+      dbObjs.add(convertToDbObject(td));
+    }
+    List<BulkResult> results = new ArrayList<BulkResult>(todos.size());
+    if(dbObjs.isEmpty()) {
+      return results;
+    }
+    //A single insert of all the documents, the driver assigns their IDs
+    coll.insert(dbObjs);
+    List<String> ids = new ArrayList<String>(todos.size());
+    int i = 0;
+    for(ToDo td : todos) {
+      DBObject dbObj = dbObjs.get(i++);
+      td.setId(((ObjectId)dbObj.get("_id")).toString());
+      td.setRev((String)dbObj.get("rev"));
+      ids.add(td.getId());
+      results.add(new BulkResult(td.getId(), null));
+    }
+    changed(ids);
+    return results;
+  }
+
+  @Override
+  public List<BulkResult> updateAll(Collection<ToDo> todos) {
+    List<BulkResult> results = new ArrayList<BulkResult>(todos.size());
+    List<String> ids = new ArrayList<String>(todos.size());
+    for(ToDo td : todos) {
+      if(td.getId() == null || !ObjectId.isValid(td.getId())) {
+        results.add(new BulkResult(td.getId(), "not_found", "missing"));
+        continue;
+      }
+      DBObject query = new BasicDBObject("_id", new ObjectId(td.getId()));
+      WriteResult result = coll.update(query, convertToDbObject(td));
+      if(result != null && result.getN() == 0) {
+        results.add(new BulkResult(td.getId(), "not_found", "missing"));
+      } else {
+        ids.add(td.getId());
+        results.add(new BulkResult(td.getId(), null));
+      }
+    }
+    if(!ids.isEmpty()) {
+      changed(ids);
+    }
+    return results;
+  }
+
+  @Override
+  public List<BulkResult> deleteAll(Collection<String> ids) {
+    List<ObjectId> objectIds = new ArrayList<ObjectId>(ids.size());
+    for(String id : ids) {
+      if(id != null && ObjectId.isValid(id)) {
+        objectIds.add(new ObjectId(id));
+      }
+    }
+    //A remove only tells how many documents it removed, so find which exist first.  One removed
+    //by someone else in between is reported as removed by both.
+    Set<String> removed = new LinkedHashSet<String>();
+    if(!objectIds.isEmpty()) {
+      DBCursor cursor = coll.find(new BasicDBObject("_id", new BasicDBObject("$in", objectIds)), 
+              ID_PROJECTION);
+      try {
+        while(cursor.hasNext()) {
+          removed.add(cursor.next().get("_id").toString());
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+    if(!removed.isEmpty()) {
+      //A single remove of all the documents that exist
+      coll.remove(new BasicDBObject("_id", new BasicDBObject("$in", objectIds(removed))));
+      changed(new ArrayList<String>(removed));
+    }
+    List<BulkResult> results = new ArrayList<BulkResult>(ids.size());
+    for(String id : ids) {
+      if(removed.contains(id)) {
+        results.add(new BulkResult(id, null));
+      } else {
+        results.add(new BulkResult(id, "not_found", "missing"));
+      }
+    }
+    return results;
+  }
+
+  private static List<ObjectId> objectIds(Collection<String> ids) {
+    return MongoChangeLog.objectIds(ids);
+  }
+
+  /**
+   * Keeps the version and changes in collections read and written as {@link DBObject}s.
+   */
+  private class Log extends MongoChangeLog {
+
+    private final DBCollection versions;
+    private final DBCollection changes;
+
+    private Log(DBCollection versions, DBCollection changes, int history) {
+      super(changes != null, history);
+      this.versions = versions;
+      this.changes = changes;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Map<String, Object> findVersion() {
+      DBObject doc = versions.findOne(VERSION_QUERY);
+      return doc == null ? null : doc.toMap();
+    }
+
+    @Override
+    protected void incrementVersion() {
+      versions.update(VERSION_QUERY, VERSION_INC, true, false);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected Map<String, Object> incrementAndFindVersion(Date at) {
+      DBObject update = new BasicDBObject("$inc", new BasicDBObject(VERSION, 1L)).
+              append("$set", new BasicDBObject(AT, at));
+      return versions.findAndModify(VERSION_QUERY, null, null, false, update, true, true).toMap();
+    }
+
+    @Override
+    protected void insertChange(long seq, List<String> ids, Date at) {
+      changes.insert(new BasicDBObject("_id", seq).append(IDS, ids).append(AT, at));
+    }
+
+    @Override
+    protected void removeChanges(long seq) {
+      changes.remove(new BasicDBObject("_id", new BasicDBObject("$lte", seq)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected List<? extends Map<String, Object>> findChanges(long seq, int max) {
+      List<Map<String, Object>> found = new ArrayList<Map<String, Object>>();
+      DBCursor cursor = changes.find(new BasicDBObject("_id", new BasicDBObject("$gt", seq))).sort(ID_SORT);
+      try {
+        while(found.size() < max && cursor.hasNext()) {
+          found.add(cursor.next().toMap());
+        }
+      } finally {
+        cursor.close();
+      }
+      return found;
+    }
+
+    @Override
+    protected Collection<ToDo> findToDos(List<ObjectId> ids) {
+      List<ToDo> todos = new ArrayList<ToDo>(ids.size());
+      DBCursor cursor = coll.find(new BasicDBObject("_id", new BasicDBObject("$in", ids)));
+      try {
+        while(cursor.hasNext()) {
+          todos.add(createToDo(cursor.next()));
+        }
+      } finally {
+        cursor.close();
+      }
+      return todos;
+    }
   }
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.nio.charset.Charset;
+import java.util.Base64;
+import java.util.List;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoPage;
+
+/**
+ * The position of a ToDo when ToDos are listed in order.  ToDos are sorted by their order and
+ * then by their ID so that ToDos with the same order still have a stable position.
+ *
+ * A key is handed to clients as an opaque page cursor pointing at the first ToDo of the next page.
+ */
+class OrderKey implements Comparable<OrderKey> {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final char SEPARATOR = ':';
+
+  private final int order;
+  private final String id;
+
+  /**
+   * Creates a key.
+   * @param order The order of the ToDo.
+   * @param id The ID of the ToDo.
+   */
+  OrderKey(int order, String id) {
+    if(id == null) {
+      throw new IllegalArgumentException("The ID must not be null.");
+    }
+    this.order = order;
+    this.id = id;
+  }
+
+  /**
+   * Creates the key for a ToDo.
+   * @param td The ToDo.
+   * @return The key.
+   */
+  static OrderKey of(ToDo td) {
+    return new OrderKey(td.getOrder(), td.getId());
+  }
+
+  /**
+   * Gets the order.
+   * @return The order.
+   */
+  int getOrder() {
+    return order;
+  }
+
+  /**
+   * Gets the ID.
+   * @return The ID.
+   */
+  String getId() {
+    return id;
+  }
+
+  /**
+   * Encodes this key as a page cursor.
+   * @return The cursor.
+   */
+  String encode() {
+    byte[] bytes = (order + String.valueOf(SEPARATOR) + id).getBytes(UTF_8);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+  }
+
+  /**
+   * Decodes a page cursor.
+   * @param cursor The cursor.
+   * @return The key the cursor points at.
+   * @throws IllegalArgumentException Thrown if the cursor is not valid.
+   */
+  static OrderKey decode(String cursor) {
+    String value = new String(Base64.getUrlDecoder().decode(cursor), UTF_8);
+    int separator = value.indexOf(SEPARATOR);
+    if(separator < 1 || separator == value.length() - 1) {
+      throw new IllegalArgumentException("The cursor " + cursor + " is not valid.");
+    }
+    return new OrderKey(Integer.parseInt(value.substring(0, separator)), value.substring(separator + 1));
+  }
+
+  /**
+   * Checks the number of ToDos asked for on a page.
+   * @param limit The maximum number of ToDos on the page.
+   * @throws IllegalArgumentException Thrown if the limit is less than 1.
+   */
+  static void checkLimit(int limit) {
+    if(limit < 1) {
+      throw new IllegalArgumentException("The page limit must be at least 1.");
+    }
+  }
+
+  /**
+   * Creates a page from ToDos fetched in order.  Stores fetch one more ToDo than the limit, if it
+   * is there it becomes the start of the next page.
+   * @param todos Up to limit + 1 ToDos in order.
+   * @param limit The maximum number of ToDos on the page.
+   * @return The page.
+   */
+  static ToDoPage toPage(List<ToDo> todos, int limit) {
+    if(todos.size() <= limit) {
+      return new ToDoPage(todos, null);
+    }
+    String next = of(todos.get(limit)).encode();
+    return new ToDoPage(todos.subList(0, limit), next);
+  }
+
+  @Override
+  public int compareTo(OrderKey other) {
+    int result = Integer.compare(order, other.order);
+    return result != 0 ? result : id.compareTo(other.id);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if(obj instanceof OrderKey) {
+      OrderKey test = (OrderKey)obj;
+      return order == test.order && id.equals(test.id);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * order + id.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return order + String.valueOf(SEPARATOR) + id;
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+
+/**
+ * A {@link ToDoStore} that publishes every successful write to another {@link ToDoStore} to a
+ * {@link ToDoEventLog}.  Reads go straight to the backing store.
+ *
+ * Only writes made through this store are published, writes made to the backing store by
+ * someone else (another app instance for example) are not.
+ */
+public class PublishingToDoStore implements ToDoStore, AsyncToDoStore {
+
+  private final ToDoStore store;
+  private final AsyncToDoStore async;
+  private final ToDoEventLog log;
+
+  /**
+   * Creates a publishing store.
+   * @param store The store to write to.
+   * @param log The log to publish the writes to.
+   */
+  public PublishingToDoStore(ToDoStore store, ToDoEventLog log) {
+    this.store = store;
+    this.async = ToDoStoreFactory.async(store);
+    this.log = log;
+  }
+
+  /**
+   * Gets the store the writes go to.
+   * @return The backing store.
+   */
+  public ToDoStore getStore() {
+    return store;
+  }
+
+  /**
+   * Gets the log the writes are published to.
+   * @return The event log.
+   */
+  public ToDoEventLog getEventLog() {
+    return log;
+  }
+
+  @Override
+  public Collection<ToDo> getAll() throws ToDoStoreException {
+    return store.getAll();
+  }
+
+  @Override
+  public ToDoCursor streamAll() throws ToDoStoreException {
+    return store.streamAll();
+  }
+
+  @Override
+  public ToDoPage getPage(String cursor, int limit) throws ToDoStoreException {
+    return store.getPage(cursor, limit);
+  }
+
+  @Override
+  public ToDo get(String id) throws ToDoStoreException {
+    return store.get(id);
+  }
+
+  @Override
+  public int count() throws ToDoStoreException {
+    return store.count();
+  }
+
+  @Override
+  public String getVersion() throws ToDoStoreException {
+    return store.getVersion();
+  }
+
+  @Override
+  public ToDoChanges getChanges(String since, int limit) throws ToDoStoreException {
+    return store.getChanges(since, limit);
+  }
+
+  @Override
+  public ToDo persist(ToDo td) throws ToDoStoreException {
+    return created(store.persist(td));
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td) throws ToDoStoreException {
+    return updated(store.update(id, td));
+  }
+
+  @Override
+  public boolean delete(String id) throws ToDoStoreException {
+    return deleted(id, store.delete(id));
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td, String rev) throws ToDoStoreException {
+    return updated(store.update(id, td, rev));
+  }
+
+  @Override
+  public void delete(String id, String rev) throws ToDoStoreException {
+    store.delete(id, rev);
+    deleted(id);
+  }
+
+  @Override
+  public List<BulkResult> persistAll(Collection<ToDo> todos) throws ToDoStoreException {
+    return written(ToDoEvent.Type.CREATED, todos, store.persistAll(todos));
+  }
+
+  @Override
+  public List<BulkResult> updateAll(Collection<ToDo> todos) throws ToDoStoreException {
+    return written(ToDoEvent.Type.UPDATED, todos, store.updateAll(todos));
+  }
+
+  @Override
+  public List<BulkResult> deleteAll(Collection<String> ids) throws ToDoStoreException {
+    return deleted(store.deleteAll(ids));
+  }
+
+  @Override
+  public CompletionStage<Collection<ToDo>> getAllAsync() {
+    return async.getAllAsync();
+  }
+
+  @Override
+  public CompletionStage<ToDoCursor> streamAllAsync() {
+    return async.streamAllAsync();
+  }
+
+  @Override
+  public CompletionStage<ToDoPage> getPageAsync(String cursor, int limit) {
+    return async.getPageAsync(cursor, limit);
+  }
+
+  @Override
+  public CompletionStage<ToDo> getAsync(String id) {
+    return async.getAsync(id);
+  }
+
+  @Override
+  public CompletionStage<Integer> countAsync() {
+    return async.countAsync();
+  }
+
+  @Override
+  public CompletionStage<String> getVersionAsync() {
+    return async.getVersionAsync();
+  }
+
+  @Override
+  public CompletionStage<ToDoChanges> getChangesAsync(String since, int limit) {
+    return async.getChangesAsync(since, limit);
+  }
+
+  @Override
+  public CompletionStage<ToDo> persistAsync(ToDo td) {
+    return async.persistAsync(td).thenApply(this::created);
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td) {
+    return async.updateAsync(id, td).thenApply(this::updated);
+  }
+
+  @Override
+  public CompletionStage<Boolean> deleteAsync(String id) {
+    return async.deleteAsync(id).thenApply(deleted -> deleted(id, deleted));
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td, String rev) {
+    return async.updateAsync(id, td, rev).thenApply(this::updated);
+  }
+
+  @Override
+  public CompletionStage<Void> deleteAsync(String id, String rev) {
+    return async.deleteAsync(id, rev).thenRun(() -> deleted(id));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> persistAllAsync(Collection<ToDo> todos) {
+    return async.persistAllAsync(todos).
+            thenApply(results -> written(ToDoEvent.Type.CREATED, todos, results));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> updateAllAsync(Collection<ToDo> todos) {
+    return async.updateAllAsync(todos).
+            thenApply(results -> written(ToDoEvent.Type.UPDATED, todos, results));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> deleteAllAsync(Collection<String> ids) {
+    return async.deleteAllAsync(ids).thenApply(this::deleted);
+  }
+
+  private ToDo created(ToDo td) {
+    if(td != null && td.getId() != null) {
+      log.publish(ToDoEvent.Type.CREATED, td);
+    }
+    return td;
+  }
+
+  private ToDo updated(ToDo td) {
+    //Stores answer null when there was nothing to update
+    if(td != null && td.getId() != null) {
+      log.publish(ToDoEvent.Type.UPDATED, td);
+    }
+    return td;
+  }
+
+  private void deleted(String id) {
+    ToDo td = new ToDo();
+    td.setId(id);
+    log.publish(ToDoEvent.Type.DELETED, td);
+  }
+
+  private boolean deleted(String id, boolean deleted) {
+    //Stores answer false when there was nothing to delete
+    if(deleted) {
+      deleted(id);
+    }
+    return deleted;
+  }
+
+  private List<BulkResult> written(ToDoEvent.Type type, Collection<ToDo> todos, 
+          List<BulkResult> results) {
+    Iterator<BulkResult> result = results.iterator();
+    for(ToDo td : todos) {
+      BulkResult r = result.next();
+      if(r.isOk()) {
+        ToDo written = new ToDo(td);
+        written.setId(r.getId());
+        if(r.getRev() != null) {
+          written.setRev(r.getRev());
+        }
+        log.publish(type, written);
+      }
+    }
+    return results;
+  }
+
+  private List<BulkResult> deleted(List<BulkResult> results) {
+    for(BulkResult result : results) {
+      if(result.isOk()) {
+        deleted(result.getId());
+      }
+    }
+    return results;
+  }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.ws.rs.client.WebTarget;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+import net.bluemix.todo.store.CloudantChangesReader.Change;
+
+/**
+ * A {@link ToDoStore} that answers reads from an in-memory replica of a Cloudant database.  The
+ * replica is kept current by following the <code>_changes</code> feed of the database.
+ *
+ * {@link #get(String)}, {@link #getAll()}, {@link #count()} and {@link #getVersion()} are
+ * answered from the replica as long as the feed was read successfully within the maximum
+ * staleness, otherwise they go to the backing store.  After a feed error the replica is rebuilt from the whole feed.  Pages are
+ * always read from the backing store so their order matches the Cloudant view.
+ *
+ * Writes go to the backing store and are applied to the replica as soon as they succeed, so
+ * clients read their own writes without waiting for the feed.  Until the feed catches up with
+ * such a write, older revisions of the ToDo in the feed are ignored.
+ */
+public class ReplicatedToDoStore implements ToDoStore, AsyncToDoStore, Closeable {
+
+  private static final long MAX_RETRY = 30000; //in milliseconds
+
+  private final ToDoStore store;
+  private final AsyncToDoStore async;
+  private final InMemoryStore replica = new InMemoryStore();
+  private final CloudantChangesFollower follower;
+  private final long maxStalenessNanos;
+  //The revision generation of writes made through this store that the feed has not caught up
+  //with yet, by ID.  Guards all changes to the replica.
+  private final Map<String, Integer> pending = new HashMap<String, Integer>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a store replicating a Cloudant store.
+   * @param store The Cloudant store.
+   * @param maxStaleness How out of date the replica may be and still be used.
+   * @param unit The unit of the maximum staleness.
+   */
+  public ReplicatedToDoStore(CloudantStore store, long maxStaleness, TimeUnit unit) {
+    this(store, store.getDatabase(), maxStaleness, unit);
+  }
+
+  /**
+   * Creates a store replicating a Cloudant database.
+   * @param store The store writes and reads that cannot be answered by the replica go to.
+   * @param db The database to follow the changes of, the one the store keeps its ToDos in.
+   * @param maxStaleness How out of date the replica may be and still be used.
+   * @param unit The unit of the maximum staleness.
+   */
+  public ReplicatedToDoStore(ToDoStore store, WebTarget db, long maxStaleness, TimeUnit unit) {
+    this.store = store;
+    this.async = ToDoStoreFactory.async(store);
+    this.maxStalenessNanos = unit.toNanos(maxStaleness);
+    //Long polls return at least twice per staleness window when nothing changes
+    this.follower = new CloudantChangesFollower(db, new Replicator(), 
+            Math.max(1, unit.toMillis(maxStaleness) / 2), MAX_RETRY);
+  }
+
+  /**
+   * Starts following the changes.  Until the whole feed has been read, reads go to the backing
+   * store.
+   */
+  public void start() {
+    follower.start();
+  }
+
+  /**
+   * Stops following the changes.
+   */
+  @Override
+  public void close() {
+    follower.close();
+  }
+
+  /**
+   * Gets the store the ToDos are replicated from.
+   * @return The backing store.
+   */
+  public ToDoStore getStore() {
+    return store;
+  }
+
+  /**
+   * Whether reads are answered from the replica.
+   * @return True if the feed was read within the maximum staleness.
+   */
+  public boolean isFresh() {
+    return follower.isSynced() && System.nanoTime() - follower.getLastSync() <= maxStalenessNanos;
+  }
+
+  /**
+   * Gets the number of reads answered from the replica.
+   * @return The number of replica reads.
+   */
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  /**
+   * Gets the number of reads that had to go to the backing store because the replica was stale.
+   * @return The number of backing store reads.
+   */
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private boolean useReplica() {
+    if(isFresh()) {
+      hits.incrementAndGet();
+      return true;
+    }
+    misses.incrementAndGet();
+    return false;
+  }
+
+  @Override
+  public Collection<ToDo> getAll() throws ToDoStoreException {
+    return useReplica() ? replica.getAll() : store.getAll();
+  }
+
+  @Override
+  public ToDoCursor streamAll() throws ToDoStoreException {
+    return useReplica() ? replica.streamAll() : store.streamAll();
+  }
+
+  @Override
+  public ToDoPage getPage(String cursor, int limit) throws ToDoStoreException {
+    return store.getPage(cursor, limit);
+  }
+
+  @Override
+  public ToDo get(String id) throws ToDoStoreException {
+    return useReplica() ? replica.get(id) : store.get(id);
+  }
+
+  @Override
+  public int count() throws ToDoStoreException {
+    return useReplica() ? replica.count() : store.count();
+  }
+
+  @Override
+  public String getVersion() throws ToDoStoreException {
+    return useReplica() ? replica.getVersion() : store.getVersion();
+  }
+
+  @Override
+  public ToDoChanges getChanges(String since, int limit) throws ToDoStoreException {
+    //The replica's sequences are its own, only the backing store's match the versions it gives
+    return store.getChanges(since, limit);
+  }
+
+  @Override
+  public ToDo persist(ToDo td) throws ToDoStoreException {
+    return written(store.persist(td));
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td) throws ToDoStoreException {
+    return written(store.update(id, td));
+  }
+
+  @Override
+  public boolean delete(String id) throws ToDoStoreException {
+    boolean deleted = store.delete(id);
+    //The replica may still have a ToDo the store does not
+    deleted(id, null);
+    return deleted;
+  }
+
+  @Override
+  public ToDo update(String id, ToDo td, String rev) throws ToDoStoreException {
+    return written(store.update(id, td, rev));
+  }
+
+  @Override
+  public void delete(String id, String rev) throws ToDoStoreException {
+    store.delete(id, rev);
+    deleted(id, rev);
+  }
+
+  @Override
+  public List<BulkResult> persistAll(Collection<ToDo> todos) throws ToDoStoreException {
+    return written(todos, store.persistAll(todos));
+  }
+
+  @Override
+  public List<BulkResult> updateAll(Collection<ToDo> todos) throws ToDoStoreException {
+    return written(todos, store.updateAll(todos));
+  }
+
+  @Override
+  public List<BulkResult> deleteAll(Collection<String> ids) throws ToDoStoreException {
+    return deleted(store.deleteAll(ids));
+  }
+
+  @Override
+  public CompletionStage<Collection<ToDo>> getAllAsync() {
+    return useReplica() ? replica.getAllAsync() : async.getAllAsync();
+  }
+
+  @Override
+  public CompletionStage<ToDoCursor> streamAllAsync() {
+    return useReplica() ? replica.streamAllAsync() : async.streamAllAsync();
+  }
+
+  @Override
+  public CompletionStage<ToDoPage> getPageAsync(String cursor, int limit) {
+    return async.getPageAsync(cursor, limit);
+  }
+
+  @Override
+  public CompletionStage<ToDo> getAsync(String id) {
+    return useReplica() ? replica.getAsync(id) : async.getAsync(id);
+  }
+
+  @Override
+  public CompletionStage<Integer> countAsync() {
+    return useReplica() ? replica.countAsync() : async.countAsync();
+  }
+
+  @Override
+  public CompletionStage<String> getVersionAsync() {
+    return useReplica() ? replica.getVersionAsync() : async.getVersionAsync();
+  }
+
+  @Override
+  public CompletionStage<ToDoChanges> getChangesAsync(String since, int limit) {
+    return async.getChangesAsync(since, limit);
+  }
+
+  @Override
+  public CompletionStage<ToDo> persistAsync(ToDo td) {
+    return async.persistAsync(td).thenApply(this::written);
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td) {
+    return async.updateAsync(id, td).thenApply(this::written);
+  }
+
+  @Override
+  public CompletionStage<Boolean> deleteAsync(String id) {
+    return async.deleteAsync(id).thenApply(deleted -> {
+      deleted(id, null);
+      return deleted;
+    });
+  }
+
+  @Override
+  public CompletionStage<ToDo> updateAsync(String id, ToDo td, String rev) {
+    return async.updateAsync(id, td, rev).thenApply(this::written);
+  }
+
+  @Override
+  public CompletionStage<Void> deleteAsync(String id, String rev) {
+    return async.deleteAsync(id, rev).thenRun(() -> deleted(id, rev));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> persistAllAsync(Collection<ToDo> todos) {
+    return async.persistAllAsync(todos).thenApply(results -> written(todos, results));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> updateAllAsync(Collection<ToDo> todos) {
+    return async.updateAllAsync(todos).thenApply(results -> written(todos, results));
+  }
+
+  @Override
+  public CompletionStage<List<BulkResult>> deleteAllAsync(Collection<String> ids) {
+    return async.deleteAllAsync(ids).thenApply(this::deleted);
+  }
+
+  /**
+   * Applies a ToDo written to the backing store to the replica.
+   * @param td The ToDo as written, may be null.
+   * @return The ToDo.
+   */
+  private ToDo written(ToDo td) {
+    if(td == null || td.getId() == null) {
+      return td;
+    }
+    synchronized(pending) {
+      if(!follower.isSynced()) {
+        //The replica is being rebuilt from the feed, which will include this write
+        return td;
+      }
+      if(td.getRev() != null) {
+        ToDo current = replica.get(td.getId());
+        int generation = generation(td.getRev());
+        if(current != null && generation(current.getRev()) >= generation) {
+          //The feed got here first
+          return td;
+        }
+        pending.put(td.getId(), generation);
+      }
+      replica.put(td);
+    }
+    return td;
+  }
+
+  private List<BulkResult> written(Collection<ToDo> todos, List<BulkResult> results) {
+    Iterator<BulkResult> result = results.iterator();
+    for(ToDo td : todos) {
+      BulkResult r = result.next();
+      if(r.isOk()) {
+        ToDo written = new ToDo(td);
+        written.setId(r.getId());
+        if(r.getRev() != null) {
+          written.setRev(r.getRev());
+        }
+        written(written);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Removes a ToDo deleted from the backing store from the replica.
+   * @param id The ID of the ToDo.
+   * @param rev The revision that was deleted, or null if it is not known.
+   */
+  private void deleted(String id, String rev) {
+    synchronized(pending) {
+      if(!follower.isSynced()) {
+        return;
+      }
+      ToDo current = replica.get(id);
+      int generation = Math.max(generation(rev), current == null ? 0 : generation(current.getRev()));
+      if(generation > 0) {
+        //Deleting adds a revision, the tombstone
+        pending.put(id, generation + 1);
+      }
+      if(current != null) {
+        replica.delete(id);
+      }
+    }
+  }
+
+  private List<BulkResult> deleted(List<BulkResult> results) {
+    for(BulkResult result : results) {
+      if(result.isOk()) {
+        deleted(result.getId(), null);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Gets the generation of a revision, the number before the dash.
+   * @param rev The revision.
+   * @return The generation, or 0 if the revision does not have one.
+   */
+  static int generation(String rev) {
+    int dash = rev == null ? -1 : rev.indexOf('-');
+    try {
+      return dash < 1 ? 0 : Integer.parseInt(rev.substring(0, dash));
+    } catch(NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Applies the changes from the feed to the replica.
+   */
+  private class Replicator implements CloudantChangesFollower.Listener {
+
+    @Override
+    public void resync() {
+      synchronized(pending) {
+        pending.clear();
+        replica.clear();
+      }
+    }
+
+    @Override
+    public void changed(Change change) {
+      synchronized(pending) {
+        Integer written = pending.get(change.getId());
+        if(written != null) {
+          if(generation(change.getRev()) < written) {
+            //The feed has not caught up with a write made through this store yet
+            return;
+          }
+          pending.remove(change.getId());
+        }
+        if(change.isDeleted()) {
+          replica.delete(change.getId());
+        } else {
+          replica.put(change.getToDo());
+        }
+      }
+    }
+  }
+}
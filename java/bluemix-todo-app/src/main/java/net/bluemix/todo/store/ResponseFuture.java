@@ -0,0 +1,90 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.concurrent.CompletableFuture;
+
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+
+/**
+ * The response to an asynchronous JAX-RS request as a {@link CompletableFuture}.  A request that
+ * fails completes the future with a {@link ToDoStoreException}.  Whoever consumes the response
+ * is responsible for closing it.
+ */
+class ResponseFuture extends CompletableFuture<Response> implements InvocationCallback<Response> {
+
+  @Override
+  public void completed(Response response) {
+    if(!complete(response)) {
+      //Cancelled before the response arrived, nobody else will close it
+      response.close();
+    }
+  }
+
+  @Override
+  public void failed(Throwable t) {
+    completeExceptionally(new ToDoStoreException("There was an error talking to Cloudant.", t));
+  }
+
+  /**
+   * Sends a GET request.
+   * @param request The request.
+   * @return The response.
+   */
+  static ResponseFuture get(Invocation.Builder request) {
+    ResponseFuture future = new ResponseFuture();
+    request.async().get(future);
+    return future;
+  }
+
+  /**
+   * Sends a POST request.
+   * @param request The request.
+   * @param entity The body of the request.
+   * @return The response.
+   */
+  static ResponseFuture post(Invocation.Builder request, Entity<?> entity) {
+    ResponseFuture future = new ResponseFuture();
+    request.async().post(entity, future);
+    return future;
+  }
+
+  /**
+   * Sends a PUT request.
+   * @param request The request.
+   * @param entity The body of the request.
+   * @return The response.
+   */
+  static ResponseFuture put(Invocation.Builder request, Entity<?> entity) {
+    ResponseFuture future = new ResponseFuture();
+    request.async().put(entity, future);
+    return future;
+  }
+
+  /**
+   * Sends a DELETE request.
+   * @param request The request.
+   * @return The response.
+   */
+  static ResponseFuture delete(Invocation.Builder request) {
+    ResponseFuture future = new ResponseFuture();
+    request.async().delete(future);
+    return future;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the last known revision of documents so they can be updated or deleted without
+ * first fetching them.  The cache is bounded, the least recently used revisions are forgotten first.
+ * A remembered revision may be out of date if someone else changed the document, callers must be
+ * prepared to handle a conflict.
+ */
+class RevisionCache {
+
+  private final Map<String, String> revisions;
+
+  /**
+   * Creates a revision cache.
+   * @param maxEntries The maximum number of revisions to remember.
+   */
+  RevisionCache(final int maxEntries) {
+    this.revisions = new LinkedHashMap<String, String>(16, 0.75f, true) {
+      private static final long serialVersionUID = 4279262733734394719L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Gets the last known revision of a document.
+   * @param id The ID of the document.
+   * @return The revision, or null if it is not known.
+   */
+  synchronized String get(String id) {
+    return revisions.get(id);
+  }
+
+  /**
+   * Remembers the revision of a document.
+   * @param id The ID of the document.
+   * @param rev The revision, if null the document is forgotten.
+   */
+  synchronized void put(String id, String rev) {
+    if(id == null) {
+      return;
+    }
+    if(rev == null) {
+      revisions.remove(id);
+    } else {
+      revisions.put(id, rev);
+    }
+  }
+
+  /**
+   * Forgets the revision of a document.
+   * @param id The ID of the document.
+   */
+  synchronized void remove(String id) {
+    revisions.remove(id);
+  }
+
+  /**
+   * Gets the number of remembered revisions.
+   * @return The number of remembered revisions.
+   */
+  synchronized int size() {
+    return revisions.size();
+  }
+}
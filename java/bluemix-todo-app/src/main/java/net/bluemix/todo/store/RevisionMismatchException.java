@@ -0,0 +1,33 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+/**
+ * Thrown when a ToDo is not at the revision a conditional write expects, either because it was
+ * changed by someone else or because it does not exist.
+ */
+public class RevisionMismatchException extends ToDoStoreException {
+  private static final long serialVersionUID = -4526207818270533491L;
+
+  /**
+   * Creates a new revision mismatch error.
+   * @param id The ID of the ToDo.
+   * @param rev The revision the ToDo was expected to be at.
+   */
+  public RevisionMismatchException(String id, String rev) {
+    super("The ToDo with the ID " + id + " is not at revision " + rev + ".");
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+/**
+ * Helpers for building the stages returned by {@link AsyncToDoStore}s out of code that throws
+ * {@link ToDoStoreException}.
+ */
+final class Stages {
+
+  /**
+   * A step of an asynchronous operation that may fail with a {@link ToDoStoreException}.
+   * @param <T> The type of the input.
+   * @param <R> The type of the result.
+   */
+  interface Step<T, R> {
+    R apply(T t) throws ToDoStoreException;
+  }
+
+  /**
+   * A blocking call that may fail with a {@link ToDoStoreException}.
+   * @param <R> The type of the result.
+   */
+  interface Call<R> {
+    R call() throws ToDoStoreException;
+  }
+
+  private Stages() {
+  }
+
+  /**
+   * Turns a step into a function that can be used with a stage.  A {@link ToDoStoreException}
+   * completes the stage exceptionally.
+   * @param step The step.
+   * @return The function.
+   */
+  static <T, R> Function<T, R> step(Step<T, R> step) {
+    return t -> {
+      try {
+        return step.apply(t);
+      } catch(ToDoStoreException e) {
+        throw new CompletionException(e);
+      }
+    };
+  }
+
+  /**
+   * Runs a call and returns a stage that is already complete with its result.
+   * @param call The call.
+   * @return The completed stage.
+   */
+  static <R> CompletableFuture<R> now(Call<R> call) {
+    try {
+      return CompletableFuture.completedFuture(call.call());
+    } catch(ToDoStoreException e) {
+      return failed(e);
+    } catch(RuntimeException e) {
+      return failed(e);
+    }
+  }
+
+  /**
+   * Runs a call on an executor.
+   * @param call The call.
+   * @param executor The executor to run the call on.
+   * @return A stage that completes with the result of the call.
+   */
+  static <R> CompletableFuture<R> supply(Call<R> call, Executor executor) {
+    CompletableFuture<R> future = new CompletableFuture<R>();
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(call.call());
+        } catch(Throwable t) {
+          future.completeExceptionally(t);
+        }
+      });
+    } catch(RejectedExecutionException e) {
+      future.completeExceptionally(new ToDoStoreException("The store is too busy.", e));
+    }
+    return future;
+  }
+
+  /**
+   * Creates a stage that has failed.
+   * @param t The reason it failed.
+   * @return The failed stage.
+   */
+  static <R> CompletableFuture<R> failed(Throwable t) {
+    CompletableFuture<R> future = new CompletableFuture<R>();
+    future.completeExceptionally(t);
+    return future;
+  }
+}
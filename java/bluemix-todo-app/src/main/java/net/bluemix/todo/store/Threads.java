@@ -0,0 +1,157 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Creates the threads the stores do their blocking work on.
+ *
+ * Setting the <code>todo.virtualThreads.enabled</code> system property to <code>true</code>
+ * uses a virtual thread per task instead of a pool of platform threads.  Virtual threads need
+ * Java 21 or later, they are looked up reflectively so the app still runs on Java 8, and on
+ * older JVMs the property is ignored.  <code>VirtualThreadBenchmark</code> in
+ * bluemix-todo-benchmarks measures how store calls scale on each.
+ */
+final class Threads {
+
+  private static final Logger LOG = Logger.getLogger(Threads.class.getName());
+  private static final boolean VIRTUAL_REQUESTED = Boolean.getBoolean("todo.virtualThreads.enabled");
+  private static final Method OF_VIRTUAL = findOfVirtual();
+  private static final boolean VIRTUAL = VIRTUAL_REQUESTED && OF_VIRTUAL != null;
+
+  static {
+    if(VIRTUAL_REQUESTED && !VIRTUAL) {
+      LOG.warning("Virtual threads are not supported by Java " + System.getProperty("java.version") 
+              + ", using platform threads.");
+    }
+  }
+
+  private Threads() {
+  }
+
+  /**
+   * Whether the stores run their blocking work on virtual threads.
+   * @return True if virtual threads are enabled and supported.
+   */
+  static boolean isVirtual() {
+    return VIRTUAL;
+  }
+
+  /**
+   * Whether the JVM supports virtual threads.
+   * @return True if virtual threads can be created.
+   */
+  static boolean isVirtualSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+  /**
+   * Creates an executor for blocking store calls.  With virtual threads every task gets its own
+   * thread, otherwise a fixed pool of daemon threads with a bounded queue is used and tasks that
+   * do not fit are rejected.
+   * @param name The prefix for the names of the threads.
+   * @param threads The number of platform threads.
+   * @param queue The number of tasks that can wait for a platform thread.
+   * @return The executor.
+   */
+  static ExecutorService newExecutor(String name, int threads, int queue) {
+    return newExecutor(name, threads, queue, VIRTUAL);
+  }
+
+  static ExecutorService newExecutor(String name, int threads, int queue, boolean virtual) {
+    if(virtual) {
+      return newVirtualExecutor(name);
+    }
+    return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, 
+            new ArrayBlockingQueue<Runnable>(queue), platformFactory(name, true));
+  }
+
+  /**
+   * Creates a single threaded executor for scheduled work.
+   * @param name The name of the thread.
+   * @return The executor.
+   */
+  static ScheduledExecutorService newScheduledExecutor(String name) {
+    return Executors.unconfigurableScheduledExecutorService(new ScheduledThreadPoolExecutor(1, 
+            VIRTUAL ? virtualFactory(name) : platformFactory(name, false)));
+  }
+
+  /**
+   * Creates an executor that runs every task on a new virtual thread.
+   * @param name The prefix for the names of the threads.
+   * @return The executor.
+   * @throws UnsupportedOperationException Thrown if the JVM does not support virtual threads.
+   */
+  static ExecutorService newVirtualExecutor(String name) {
+    try {
+      Method perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService)perTask.invoke(null, virtualFactory(name));
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Virtual threads are not supported.", e);
+    }
+  }
+
+  private static ThreadFactory virtualFactory(String name) {
+    if(OF_VIRTUAL == null) {
+      throw new UnsupportedOperationException("Virtual threads are not supported.");
+    }
+    try {
+      //Thread.ofVirtual().name(name, 1).factory()
+      Object builder = OF_VIRTUAL.invoke(null);
+      Class<?> builderClass = OF_VIRTUAL.getReturnType();
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 1L);
+      return (ThreadFactory)builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new UnsupportedOperationException("Virtual threads are not supported.", e);
+    }
+  }
+
+  private static ThreadFactory platformFactory(final String name, final boolean daemon) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(daemon);
+        return t;
+      }
+    };
+  }
+
+  private static Method findOfVirtual() {
+    try {
+      return Thread.class.getMethod("ofVirtual");
+    } catch (NoSuchMethodException e) {
+      return null;
+    } catch (SecurityException e) {
+      LOG.log(Level.FINE, "Cannot look up virtual threads.", e);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.bson.BsonObjectId;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+import org.bson.BsonWriter;
+import org.bson.codecs.CollectibleCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+
+/**
+ * Reads and writes ToDos as Mongo DB documents, straight from and to BSON without going through
+ * a generic document.  Documents have the same fields {@link MongoStore} gives them:
+ * <code>_id</code>, an ObjectId, <code>title</code>, <code>completed</code>, <code>order</code>
+ * and <code>rev</code>, the revision, which documents written before revisions were kept do not
+ * have.  Unknown fields are skipped.
+ */
+public class ToDoCodec implements CollectibleCodec<ToDo> {
+
+  /**
+   * The revision of documents written before revisions were kept.
+   */
+  static final String NO_REVISION = "0";
+
+  @Override
+  public void encode(BsonWriter writer, ToDo td, EncoderContext context) {
+    writer.writeStartDocument();
+    if(td.getId() != null) {
+      writer.writeObjectId("_id", new ObjectId(td.getId()));
+    }
+    if(td.getTitle() == null) {
+      writer.writeNull("title");
+    } else {
+      writer.writeString("title", td.getTitle());
+    }
+    writer.writeBoolean("completed", td.isCompleted());
+    writer.writeInt32("order", td.getOrder());
+    if(td.getRev() != null) {
+      writer.writeString("rev", td.getRev());
+    }
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public ToDo decode(BsonReader reader, DecoderContext context) {
+    ToDo td = new ToDo();
+    td.setRev(NO_REVISION);
+    reader.readStartDocument();
+    BsonType type;
+    while((type = reader.readBsonType()) != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      if(type == BsonType.NULL) {
+        reader.readNull();
+        if(name.equals("title")) {
+          td.setTitle(null);
+        }
+        continue;
+      }
+      switch(name) {
+        case "_id":
+          td.setId(type == BsonType.OBJECT_ID ? reader.readObjectId().toHexString() : readString(reader, type));
+          break;
+        case "title":
+          td.setTitle(readString(reader, type));
+          break;
+        case "completed":
+          td.setCompleted(type == BsonType.BOOLEAN ? reader.readBoolean() : skip(reader, false));
+          break;
+        case "order":
+          td.setOrder(readInt(reader, type));
+          break;
+        case "rev":
+          td.setRev(readString(reader, type));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return td;
+  }
+
+  @Override
+  public Class<ToDo> getEncoderClass() {
+    return ToDo.class;
+  }
+
+  @Override
+  public boolean documentHasId(ToDo td) {
+    return td.getId() != null;
+  }
+
+  @Override
+  public ToDo generateIdIfAbsentFromDocument(ToDo td) {
+    if(td.getId() == null) {
+      td.setId(new ObjectId().toHexString());
+    }
+    return td;
+  }
+
+  @Override
+  public BsonValue getDocumentId(ToDo td) {
+    if(td.getId() == null) {
+      throw new IllegalStateException("The ToDo does not have an ID.");
+    }
+    return new BsonObjectId(new ObjectId(td.getId()));
+  }
+
+  private static String readString(BsonReader reader, BsonType type) {
+    if(type == BsonType.STRING) {
+      return reader.readString();
+    }
+    return type == BsonType.OBJECT_ID ? reader.readObjectId().toHexString() : skip(reader, null);
+  }
+
+  private static int readInt(BsonReader reader, BsonType type) {
+    switch(type) {
+      case INT32:
+        return reader.readInt32();
+      case INT64:
+        return (int)reader.readInt64();
+      case DOUBLE:
+        return (int)reader.readDouble();
+      default:
+        return skip(reader, 0);
+    }
+  }
+
+  private static <T> T skip(BsonReader reader, T value) {
+    reader.skipValue();
+    return value;
+  }
+}
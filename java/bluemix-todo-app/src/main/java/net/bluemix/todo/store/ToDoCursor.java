@@ -0,0 +1,39 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+import net.bluemix.todo.model.ToDo;
+
+/**
+ * Iterates over ToDos as they are read from a store, rather than after they have all been read.
+ * Stores backed by a database cursor fetch the ToDos from it a batch at a time, as they are
+ * asked for, so only a batch is held in memory.
+ *
+ * A cursor must be closed once it is no longer needed, even if it was not read to the end, so
+ * the store can release what it holds open.  Reads may fail with a {@link RuntimeException} if the
+ * store can no longer be reached.
+ */
+public interface ToDoCursor extends Iterator<ToDo>, Closeable {
+
+  /**
+   * Releases the cursor.  Closing a cursor more than once does nothing.
+   */
+  @Override
+  public void close();
+}
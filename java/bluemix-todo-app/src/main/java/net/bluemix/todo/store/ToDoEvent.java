@@ -0,0 +1,71 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import net.bluemix.todo.model.ToDo;
+
+/**
+ * A change made to a ToDo, as recorded by a {@link ToDoEventLog}.
+ */
+public class ToDoEvent {
+
+  /**
+   * The kinds of change.
+   */
+  public enum Type {
+    CREATED, UPDATED, DELETED
+  }
+
+  private final String id;
+  private final Type type;
+  private final ToDo todo;
+
+  /**
+   * Creates an event.
+   * @param id The ID of the event, unique within the log.
+   * @param type The kind of change.
+   * @param todo The ToDo after the change, only the ID is set for a deleted ToDo.
+   */
+  public ToDoEvent(String id, Type type, ToDo todo) {
+    this.id = id;
+    this.type = type;
+    this.todo = todo;
+  }
+
+  /**
+   * Gets the ID of the event, which clients send back to resume after it.
+   * @return The event ID.
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Gets the kind of change.
+   * @return The type.
+   */
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * Gets the ToDo after the change.  Only the ID is set for a deleted ToDo.
+   * @return The ToDo.
+   */
+  public ToDo getToDo() {
+    return todo;
+  }
+}
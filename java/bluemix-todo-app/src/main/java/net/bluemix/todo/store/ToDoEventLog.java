@@ -0,0 +1,307 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.bluemix.todo.model.ToDo;
+
+/**
+ * Records the changes made to ToDos and hands them to subscribers, such as the clients of a
+ * server-sent events stream.
+ *
+ * The most recent events are kept, so a subscriber that reconnects picks up right after the last
+ * event it saw.  Event IDs start with a random epoch, so IDs handed out before a restart are
+ * known to be from another log.  A subscriber that has missed more than can be replayed is told
+ * to resync, that is to read all the ToDos again.
+ *
+ * Every subscriber has a bounded buffer of events waiting to be sent, drained on an executor,
+ * so publishing never waits for a subscriber.  A subscriber whose buffer overflows or that
+ * fails to take an event is dropped and closed.  It can subscribe again from its last event.
+ */
+public class ToDoEventLog implements Closeable {
+
+  private static final Logger LOG = Logger.getLogger(ToDoEventLog.class.getName());
+
+  private final String epoch = Long.toHexString(UUID.randomUUID().getMostSignificantBits());
+  private final ToDoEvent[] history;
+  private final int bufferSize;
+  private final Executor executor;
+  private final List<Sink> sinks = new CopyOnWriteArrayList<Sink>();
+  private final AtomicLong dropped = new AtomicLong();
+  //The sequence number of the next event, guarded by this
+  private long next;
+
+  /**
+   * Creates an event log.
+   * @param historySize The number of recent events kept for subscribers that resume.
+   * @param bufferSize The number of events that may wait to be sent to a subscriber before it
+   * is dropped.
+   * @param executor Runs the sending of events to subscribers.
+   */
+  public ToDoEventLog(int historySize, int bufferSize, Executor executor) {
+    if(historySize < 1 || bufferSize < 1) {
+      throw new IllegalArgumentException("The history and buffer sizes must be at least 1.");
+    }
+    this.history = new ToDoEvent[historySize];
+    this.bufferSize = bufferSize;
+    this.executor = executor;
+  }
+
+  /**
+   * Records a change and hands it to every subscriber.
+   * @param type The kind of change.
+   * @param td The ToDo after the change, only the ID is needed for a deleted ToDo.
+   * @return The event.
+   */
+  public synchronized ToDoEvent publish(ToDoEvent.Type type, ToDo td) {
+    ToDo copy;
+    if(type == ToDoEvent.Type.DELETED) {
+      copy = new ToDo();
+      copy.setId(td.getId());
+    } else {
+      copy = new ToDo(td);
+    }
+    ToDoEvent event = new ToDoEvent(epoch + "-" + next, type, copy);
+    history[(int)(next % history.length)] = event;
+    next++;
+    for(Sink sink : sinks) {
+      sink.offer(event);
+    }
+    return event;
+  }
+
+  /**
+   * Starts handing events to a subscriber.
+   * @param lastEventId The ID of the last event the subscriber saw, or null to only get new
+   * events.
+   * @param subscriber The subscriber.
+   * @return Closed to stop handing events to the subscriber, which closes it.
+   */
+  public synchronized Closeable subscribe(String lastEventId, Subscriber subscriber) {
+    Sink sink = new Sink(subscriber);
+    if(lastEventId != null) {
+      long from = resumeFrom(lastEventId);
+      if(from < 0) {
+        sink.resync = true;
+      } else {
+        for(long seq = from; seq < next; seq++) {
+          sink.queue.add(history[(int)(seq % history.length)]);
+        }
+      }
+      sink.schedule();
+    }
+    sinks.add(sink);
+    return sink;
+  }
+
+  /**
+   * Works out where a subscriber resumes from.
+   * @param lastEventId The ID of the last event the subscriber saw.
+   * @return The sequence number of the first event to replay, or -1 if the events cannot be
+   * replayed.
+   */
+  private long resumeFrom(String lastEventId) {
+    int dash = lastEventId.lastIndexOf('-');
+    if(dash < 0 || !lastEventId.substring(0, dash).equals(epoch)) {
+      return -1;
+    }
+    long seq;
+    try {
+      seq = Long.parseLong(lastEventId.substring(dash + 1));
+    } catch(NumberFormatException e) {
+      return -1;
+    }
+    long missed = next - seq - 1;
+    if(seq < 0 || missed < 0 || missed > history.length || missed > bufferSize) {
+      return -1;
+    }
+    return seq + 1;
+  }
+
+  /**
+   * Sends a keep alive to every subscriber that has nothing else to send, so subscribers that
+   * went away without saying are found and dropped.
+   */
+  public void ping() {
+    for(Sink sink : sinks) {
+      sink.ping = true;
+      sink.schedule();
+    }
+  }
+
+  /**
+   * Gets the number of subscribers.
+   * @return The number of subscribers.
+   */
+  public int getSubscriberCount() {
+    return sinks.size();
+  }
+
+  /**
+   * Gets the number of subscribers that were dropped because they fell behind or failed.
+   * @return The number of dropped subscribers.
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Closes every subscriber.
+   */
+  @Override
+  public void close() {
+    for(Sink sink : sinks) {
+      sink.close();
+    }
+  }
+
+  /**
+   * Something events are handed to.  The methods are never called concurrently.
+   */
+  public interface Subscriber {
+
+    /**
+     * Sends an event.
+     * @param event The event.
+     * @throws IOException Thrown if the event cannot be sent, the subscriber is dropped.
+     */
+    void send(ToDoEvent event) throws IOException;
+
+    /**
+     * Tells the subscriber events were missed and it must read all the ToDos again.
+     * @throws IOException Thrown if the subscriber cannot be told, it is dropped.
+     */
+    void resync() throws IOException;
+
+    /**
+     * Checks the subscriber is still there.
+     * @throws IOException Thrown if it is not, it is dropped.
+     */
+    void ping() throws IOException;
+
+    /**
+     * Called once when no more events will be handed to the subscriber.
+     */
+    void close();
+  }
+
+  /**
+   * The buffer of events waiting to be handed to a subscriber.
+   */
+  private class Sink implements Closeable {
+    private final Subscriber subscriber;
+    private final BlockingQueue<ToDoEvent> queue = new ArrayBlockingQueue<ToDoEvent>(bufferSize);
+    //Set while a drain is scheduled or running, so only one runs at a time
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private volatile boolean resync;
+    private volatile boolean ping;
+    private volatile boolean closed;
+
+    private Sink(Subscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    private void offer(ToDoEvent event) {
+      if(closed) {
+        return;
+      }
+      if(queue.offer(event)) {
+        schedule();
+      } else {
+        LOG.fine("Dropping a subscriber that is more than " + bufferSize + " events behind.");
+        drop();
+      }
+    }
+
+    private void schedule() {
+      if(draining.compareAndSet(false, true)) {
+        try {
+          executor.execute(this::drain);
+        } catch(RejectedExecutionException e) {
+          draining.set(false);
+          drop();
+          finish();
+        }
+      }
+    }
+
+    private void drain() {
+      try {
+        while(!closed) {
+          ToDoEvent event;
+          if(resync) {
+            resync = false;
+            subscriber.resync();
+          } else if((event = queue.poll()) != null) {
+            subscriber.send(event);
+          } else if(ping) {
+            ping = false;
+            subscriber.ping();
+          } else {
+            draining.set(false);
+            //Work may have arrived after we looked and before the flag was cleared
+            if(!hasWork() || !draining.compareAndSet(false, true)) {
+              return;
+            }
+          }
+        }
+      } catch(IOException | RuntimeException e) {
+        LOG.log(Level.FINE, "Dropping a subscriber that failed.", e);
+        drop();
+      }
+      finish();
+    }
+
+    private boolean hasWork() {
+      return closed || resync || ping || !queue.isEmpty();
+    }
+
+    private void drop() {
+      if(!closed) {
+        dropped.incrementAndGet();
+        close();
+      }
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      sinks.remove(this);
+      //Closing the subscriber is left to the drain, unless one cannot be scheduled
+      schedule();
+    }
+
+    private void finish() {
+      if(finished.compareAndSet(false, true)) {
+        subscriber.close();
+      }
+    }
+  }
+}
@@ -16,8 +16,12 @@
 package net.bluemix.todo.store;
 
 import java.util.Collection;
+import java.util.List;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
 
 /**
  * Defines the API for a ToDo store.
@@ -32,6 +36,26 @@ public interface ToDoStore {
    */
   public Collection<ToDo> getAll() throws ToDoStoreException;
 
+  /**
+   * Streams all ToDos from the store.  Unlike {@link #getAll()} the ToDos are not all held in
+   * memory at once when the store can read them a batch at a time.
+   * @return A cursor over all ToDos, which must be closed.
+   * @throws ToDoStoreException Thrown if there is an error starting to read the ToDos.
+   */
+  public ToDoCursor streamAll() throws ToDoStoreException;
+
+  /**
+   * Gets a page of ToDos from the store.  ToDos are sorted by their order and then by their ID,
+   * so paging through the store is stable while ToDos are added and removed.
+   * @param cursor The cursor of the page to get, from {@link ToDoPage#getNext()}, or null to get
+   * the first page.
+   * @param limit The maximum number of ToDos to get, must be at least 1.
+   * @return The page of ToDos.
+   * @throws ToDoStoreException Thrown if there is an error getting the ToDos from the store.
+   * @throws IllegalArgumentException Thrown if the cursor is not valid or the limit is less than 1.
+   */
+  public ToDoPage getPage(String cursor, int limit) throws ToDoStoreException;
+
   /**
    * Gets an individual ToDo from the store.
    * @param id The ID of the ToDo to get.
@@ -60,9 +84,31 @@ public interface ToDoStore {
   /**
    * Deletes a ToDo from the store.
    * @param id The ID of the ToDo to delete.
+   * @return True if the ToDo was deleted, false if there was no ToDo with the ID.
    * @throws ToDoStoreException Thrown if there is an error deleting a ToDo.
    */
-  public void delete(String id) throws ToDoStoreException;
+  public boolean delete(String id) throws ToDoStoreException;
+
+  /**
+   * Updates a ToDo in the store only if it is still at the given revision.  The check and the
+   * update happen atomically in the store, so the ToDo does not have to be read first.
+   * @param id The ID of the ToDo to update.
+   * @param td The ToDo with updated information.
+   * @param rev The revision the ToDo must be at, from {@link ToDo#getRev()}.  Null never matches.
+   * @return The updated ToDo, with its new revision.
+   * @throws RevisionMismatchException Thrown if the ToDo is at another revision or does not exist.
+   * @throws ToDoStoreException Thrown if there is an error updating the ToDo.
+   */
+  public ToDo update(String id, ToDo td, String rev) throws ToDoStoreException;
+
+  /**
+   * Deletes a ToDo from the store only if it is still at the given revision.
+   * @param id The ID of the ToDo to delete.
+   * @param rev The revision the ToDo must be at, from {@link ToDo#getRev()}.  Null never matches.
+   * @throws RevisionMismatchException Thrown if the ToDo is at another revision or does not exist.
+   * @throws ToDoStoreException Thrown if there is an error deleting the ToDo.
+   */
+  public void delete(String id, String rev) throws ToDoStoreException;
   
   /**
    * Counts the number of ToDos
@@ -70,4 +116,54 @@ public interface ToDoStore {
    * @throws ToDoStoreException Thrown if we cannot get a count.
    */
   public int count() throws ToDoStoreException;
+
+  /**
+   * Gets the version of the store's ToDos.  The version changes whenever any ToDo is added,
+   * changed or removed, so two reads that see the same version see the same ToDos.  Versions
+   * are opaque, they are only meant to be compared for equality.
+   * @return The current version.
+   * @throws ToDoStoreException Thrown if we cannot get the version.
+   */
+  public String getVersion() throws ToDoStoreException;
+
+  /**
+   * Gets what changed since a sequence.  Sequences are opaque, they come from
+   * {@link ToDoChanges#getSeq()}.  Each changed ToDo is only listed once, as it is now, and may
+   * be listed again by the next call if it changed while this one ran.
+   * @param since The sequence to get the changes since, or null to only get the current sequence.
+   * @param limit The maximum number of changed ToDos to get, must be at least 1.
+   * @return The changes, or {@link ToDoChanges#isResync()} if the store cannot tell what changed
+   * since the sequence.
+   * @throws ToDoStoreException Thrown if there is an error getting the changes.
+   * @throws IllegalArgumentException Thrown if the limit is less than 1.
+   */
+  public ToDoChanges getChanges(String since, int limit) throws ToDoStoreException;
+  
+  /**
+   * Persists many ToDos to the store at once.
+   * @param todos The ToDos to persist.
+   * @return A result for each ToDo, in the same order as the ToDos.  Successfully persisted ToDos
+   * are given their new ID.
+   * @throws ToDoStoreException Thrown if the store could not be reached.  Failures of
+   * individual ToDos are reported in their result.
+   */
+  public List<BulkResult> persistAll(Collection<ToDo> todos) throws ToDoStoreException;
+  
+  /**
+   * Updates many ToDos in the store at once.
+   * @param todos The ToDos with updated information, each must have the ID of the ToDo to update.
+   * @return A result for each ToDo, in the same order as the ToDos.
+   * @throws ToDoStoreException Thrown if the store could not be reached.  Failures of
+   * individual ToDos are reported in their result.
+   */
+  public List<BulkResult> updateAll(Collection<ToDo> todos) throws ToDoStoreException;
+  
+  /**
+   * Deletes many ToDos from the store at once.
+   * @param ids The IDs of the ToDos to delete.
+   * @return A result for each ID, in the same order as the IDs.
+   * @throws ToDoStoreException Thrown if the store could not be reached.  Failures of
+   * individual ToDos are reported in their result.
+   */
+  public List<BulkResult> deleteAll(Collection<String> ids) throws ToDoStoreException;
 }
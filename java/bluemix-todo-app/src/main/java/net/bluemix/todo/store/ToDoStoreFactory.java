@@ -16,17 +16,16 @@
 package net.bluemix.todo.store;
 
 import java.util.List;
-import java.util.concurrent.Executors;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.client.Client;
-import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.WebTarget;
 
 import net.bluemix.todo.connector.CloudantServiceInfo;
 
-import org.glassfish.jersey.client.authentication.HttpAuthenticationFeature;
 import org.springframework.cloud.Cloud;
 import org.springframework.cloud.CloudException;
 import org.springframework.cloud.CloudFactory;
@@ -34,17 +33,54 @@ import org.springframework.cloud.service.ServiceInfo;
 import org.springframework.cloud.service.common.MongoServiceInfo;
 
 import com.mongodb.DB;
-import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
 
 /**
  * Creates an instance of the a {@link ToDoStore} to use.
  */
 public class ToDoStoreFactory {
   private static final int PERIOD = 30; //in seconds
+  private static final int MAX_TODOS = Integer.getInteger("todo.cleanup.maxToDos", 30);
+  private static final int LEASE_DURATION = Integer.getInteger("todo.cleanup.leaseDuration", 15000); //in milliseconds
+  private static final int CACHE_MAX_ENTRIES = Integer.getInteger("todo.cache.maxEntries", 1000);
+  private static final int CACHE_TTL = Integer.getInteger("todo.cache.ttl", 10); //in seconds
+  private static final int MAX_CONNECTIONS = Integer.getInteger("todo.cloudant.maxConnections", 50);
+  private static final int MAX_CONNECTIONS_PER_ROUTE = 
+          Integer.getInteger("todo.cloudant.maxConnectionsPerRoute", 50);
+  private static final int CONNECT_TIMEOUT = Integer.getInteger("todo.cloudant.connectTimeout", 5000); //in milliseconds
+  private static final int READ_TIMEOUT = Integer.getInteger("todo.cloudant.readTimeout", 30000); //in milliseconds
+  private static final int REVISION_CACHE_SIZE = 
+          Integer.getInteger("todo.cloudant.revisionCacheSize", 10000);
+  private static final int BULK_CHUNK_SIZE = Integer.getInteger("todo.cloudant.bulkChunkSize", 500);
+  private static final int KEEP_ALIVE = Integer.getInteger("todo.cloudant.keepAlive", 60000); //in milliseconds
+  private static final int REPLICA_MAX_STALENESS = 
+          Integer.getInteger("todo.cloudant.replica.maxStaleness", 10000); //in milliseconds
+  private static final int MONGO_MAX_CONNECTIONS = Integer.getInteger("todo.mongo.maxConnections", 100);
+  private static final String MONGO_READ_PREFERENCE = System.getProperty("todo.mongo.readPreference", "primary");
+  private static final String MONGO_WRITE_CONCERN = System.getProperty("todo.mongo.writeConcern", "acknowledged");
+  private static final int STORE_THREADS = Integer.getInteger("todo.store.threads", 50);
+  private static final int STORE_QUEUE = Integer.getInteger("todo.store.queue", 1000);
+  private static final int CHANGES_HISTORY = Integer.getInteger("todo.changes.history", 1000);
+  private static final int EVENT_HISTORY = Integer.getInteger("todo.events.history", 1000);
+  private static final int EVENT_BUFFER = Integer.getInteger("todo.events.buffer", 100);
+  private static final int EVENT_THREADS = Integer.getInteger("todo.events.threads", 10);
+  private static final int EVENT_QUEUE = Integer.getInteger("todo.events.queue", 10000);
+  private static final int EVENT_HEARTBEAT = Integer.getInteger("todo.events.heartbeat", 15000); //in milliseconds
   private static ToDoStore instance;
+  private static AsyncToDoStore asyncInstance;
+  private static ToDoEventLog eventLog;
+  private static ExecutorService storeExec;
+  private static CloudantConnectionPool pool;
+  private static Lease lease;
   private static CloudFactory cloudFactory;
-  private static ScheduledExecutorService exec = Executors.newSingleThreadScheduledExecutor();
+  private static ScheduledExecutorService exec = Threads.newScheduledExecutor("todo-cleanup");
+  //Renewing the lease cannot wait behind a cleanup that is stuck on the database
+  private static ScheduledExecutorService leaseExec = Threads.newScheduledExecutor("todo-lease");
 
   /**
    * Gets an instance of {@link ToDoStore}. 
@@ -69,38 +105,173 @@ public class ToDoStoreFactory {
           }
         }
         if(mongoInfo != null) {
-          instance = new MongoStore(getCollection(mongoInfo));
+          instance = getMongoStore(mongoInfo);
         } else if(cloudantInfo != null) {
-          instance = new CloudantStore(getWebTarget(cloudantInfo));
+          WebTarget target = getWebTarget(cloudantInfo);
+          CloudantStore cloudant = new CloudantStore(target, REVISION_CACHE_SIZE, BULK_CHUNK_SIZE);
+          lease = new CloudantLease(target, "cleanup");
+          instance = Boolean.getBoolean("todo.cloudant.replica.enabled") ? replicated(cloudant) : cloudant;
         } else {
-          instance = new InMemoryStore();
+          instance = new InMemoryStore(CHANGES_HISTORY);
+          lease = new InMemoryLease();
         }
       } catch(CloudException e) {
-        instance = new InMemoryStore();
+        instance = new InMemoryStore(CHANGES_HISTORY);
+        lease = new InMemoryLease();
       }
-      exec.scheduleAtFixedRate(new Cleanup(), PERIOD, PERIOD, TimeUnit.SECONDS);
+      if(Boolean.getBoolean("todo.cache.enabled")) {
+        instance = cached(instance);
+      }
+      instance = new PublishingToDoStore(instance, getEventLog());
+      //Evicts as soon as writes go over the limit, the period catches writes from elsewhere
+      LeaderElection election = new LeaderElection(lease, UUID.randomUUID().toString(), 
+              LEASE_DURATION, TimeUnit.MILLISECONDS);
+      Cleanup cleanup = new Cleanup(instance, getEventLog(), MAX_TODOS, exec, election);
+      cleanup.start();
+      exec.scheduleAtFixedRate(cleanup, PERIOD, PERIOD, TimeUnit.SECONDS);
+      //Only the elected app instance cleans up, it renews its lease three times per duration and
+      //releases it on the way out so another instance takes over straight away
+      leaseExec.scheduleWithFixedDelay(election, 0, Math.max(1, LEASE_DURATION / 3), TimeUnit.MILLISECONDS);
+      Runtime.getRuntime().addShutdownHook(new Thread(election::resign, "todo-resign"));
     }
     return instance;
   }
   
-  private static DBCollection getCollection(MongoServiceInfo info) throws ToDoStoreException {
-    MongoClient client;
+  /**
+   * Gets an instance of {@link AsyncToDoStore} for the {@link ToDoStore} from {@link #getInstance()}.
+   * @return An {@link AsyncToDoStore}.
+   */
+  public static synchronized AsyncToDoStore getAsyncInstance() throws ToDoStoreException {
+    if(asyncInstance == null) {
+      asyncInstance = async(getInstance());
+    }
+    return asyncInstance;
+  }
+  
+  /**
+   * Gets an {@link AsyncToDoStore} for a {@link ToDoStore}.  Stores that do not implement
+   * {@link AsyncToDoStore} themselves run their blocking calls on a shared pool of threads
+   * configured from the <code>todo.store.threads</code> and <code>todo.store.queue</code> system
+   * properties, or on virtual threads when <code>todo.virtualThreads.enabled</code> is set.
+   * @param store The store.
+   * @return The store itself if it is asynchronous, otherwise an {@link ExecutorAsyncToDoStore}.
+   */
+  public static AsyncToDoStore async(ToDoStore store) {
+    if(store instanceof AsyncToDoStore) {
+      return (AsyncToDoStore)store;
+    }
+    return new ExecutorAsyncToDoStore(store, getStoreExecutor());
+  }
+  
+  /**
+   * Gets the log the writes made through the {@link ToDoStore} from {@link #getInstance()} are
+   * published to.  It is configured from the <code>todo.events.history</code>, 
+   * <code>todo.events.buffer</code>, <code>todo.events.threads</code>, 
+   * <code>todo.events.queue</code> and <code>todo.events.heartbeat</code> system properties.
+   * @return The event log.
+   */
+  public static synchronized ToDoEventLog getEventLog() {
+    if(eventLog == null) {
+      final ToDoEventLog log = new ToDoEventLog(EVENT_HISTORY, EVENT_BUFFER, 
+              Threads.newExecutor("todo-events", EVENT_THREADS, EVENT_QUEUE));
+      exec.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          log.ping();
+        }
+      }, EVENT_HEARTBEAT, EVENT_HEARTBEAT, TimeUnit.MILLISECONDS);
+      eventLog = log;
+    }
+    return eventLog;
+  }
+  
+  private static synchronized ExecutorService getStoreExecutor() {
+    if(storeExec == null) {
+      storeExec = Threads.newExecutor("todo-store", STORE_THREADS, STORE_QUEUE);
+    }
+    return storeExec;
+  }
+  
+  /**
+   * Wraps a {@link CloudantStore} in a started {@link ReplicatedToDoStore} configured from the
+   * <code>todo.cloudant.replica.maxStaleness</code> system property.
+   * @param store The store to replicate.
+   * @return The replicating store.
+   */
+  public static ReplicatedToDoStore replicated(CloudantStore store) {
+    //Long polls take up to half the staleness and must finish before the read timeout
+    ReplicatedToDoStore replicated = new ReplicatedToDoStore(store, 
+            Math.min(REPLICA_MAX_STALENESS, READ_TIMEOUT), TimeUnit.MILLISECONDS);
+    replicated.start();
+    return replicated;
+  }
+  
+  /**
+   * Wraps a {@link ToDoStore} in a {@link CachingToDoStore} configured from the
+   * <code>todo.cache.maxEntries</code> and <code>todo.cache.ttl</code> system properties.
+   * @param store The store to cache.
+   * @return The caching store.
+   */
+  public static CachingToDoStore cached(ToDoStore store) {
+    return new CachingToDoStore(store, CACHE_MAX_ENTRIES, CACHE_TTL, TimeUnit.SECONDS);
+  }
+  
+  /**
+   * Creates a store for the ToDos in Mongo DB, on a client configured from the
+   * <code>todo.mongo.maxConnections</code>, <code>todo.mongo.readPreference</code> and
+   * <code>todo.mongo.writeConcern</code> system properties.  The store is a
+   * {@link CodecMongoStore} when <code>todo.mongo.codec.enabled</code> is set, otherwise a
+   * {@link MongoStore}.
+   */
+  private static ToDoStore getMongoStore(MongoServiceInfo info) throws ToDoStoreException {
     try {
-      client = new MongoClient(info.getHost(), info.getPort());
-      DB db = client.getDB(info.getDatabase());
-      boolean auth = db.authenticate(info.getUserName(), info.getPassword().toCharArray());
-      if(!auth) {
-        throw new ToDoStoreException("Could not authenticate to Mongo DB.");
+      MongoClientOptions options = MongoClientOptions.builder()
+              .connectionsPerHost(MONGO_MAX_CONNECTIONS)
+              .readPreference(ReadPreference.valueOf(MONGO_READ_PREFERENCE))
+              .writeConcern(WriteConcern.valueOf(MONGO_WRITE_CONCERN)).build();
+      MongoCredential credential = MongoCredential.createCredential(info.getUserName(), 
+              info.getDatabase(), info.getPassword().toCharArray());
+      MongoClient client = new MongoClient(new ServerAddress(info.getHost(), info.getPort()), 
+              credential, options);
+      lease = new MongoLease(client.getDatabase(info.getDatabase()).getCollection("todos_leases"), 
+              "cleanup");
+      //Creating the indexes is the first request, so it also checks the credentials
+      if(Boolean.getBoolean("todo.mongo.codec.enabled")) {
+        CodecMongoStore store = new CodecMongoStore(client.getDatabase(info.getDatabase()), CHANGES_HISTORY);
+        store.ensureIndexes();
+        return store;
       }
-      return db.getCollection("todos");
+      //MongoStore is written against the legacy DBCollection API, which is only reached through
+      //the deprecated DB; CodecMongoStore above is the store on the current API
+      @SuppressWarnings("deprecation")
+      DB db = client.getDB(info.getDatabase());
+      MongoStore store = new MongoStore(db.getCollection("todos"), db.getCollection("todos_versions"), 
+              db.getCollection("todos_changes"), CHANGES_HISTORY);
+      store.ensureIndexes();
+      return store;
     } catch (Exception e) {
       throw new ToDoStoreException("Error creating Mongo DB client.", e);
     }
   }
   
+  /**
+   * Gets the pool of connections used to talk to Cloudant.
+   * @return The connection pool, or null if the app is not using Cloudant.
+   */
+  public static CloudantConnectionPool getConnectionPool() {
+    return pool;
+  }
+  
   private static WebTarget getWebTarget(CloudantServiceInfo info) {
-    HttpAuthenticationFeature basicAuthFeature = HttpAuthenticationFeature.basic(info.getUsername(), info.getPassword());
-    Client client = ClientBuilder.newClient().register(basicAuthFeature);
+    pool = new CloudantConnectionPool(MAX_CONNECTIONS, MAX_CONNECTIONS_PER_ROUTE, CONNECT_TIMEOUT, 
+            READ_TIMEOUT, KEEP_ALIVE);
+    exec.scheduleAtFixedRate(new Runnable() {
+      @Override
+      public void run() {
+        pool.closeIdle(KEEP_ALIVE, TimeUnit.MILLISECONDS);
+      }
+    }, PERIOD, PERIOD, TimeUnit.SECONDS);
+    Client client = pool.createClient(info.getUsername(), info.getPassword());
     return client.target(info.getUrl());
   }
 }
@@ -0,0 +1,634 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Compresses responses for clients that accept a gzip or deflate content encoding.
+ *
+ * Responses are buffered until they reach a minimum size, so small responses, which do not
+ * shrink enough to be worth the CPU, are sent as they are with their length.  Only text, JSON,
+ * CBOR, JavaScript and XML are compressed, the images are already compressed and event streams
+ * have to be flushed an event at a time.  Responses written with non-blocking I/O are not
+ * compressed either, their writes go straight to the container.
+ *
+ * Static files that have a gzipped copy next to them, named like the file with <code>.gz</code>
+ * added, are answered with the copy so they are not compressed on every request.  The copies are
+ * made when the app is packaged.
+ *
+ * A compressed response is a different representation from the uncompressed one, so the encoding
+ * is added to its entity tag and removed again from the tags clients send back.
+ */
+public class CompressionFilter implements Filter {
+
+  static final String GZIP = "gzip";
+  static final String DEFLATE = "deflate";
+  private static final String GZIP_SUFFIX = ".gz";
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+  private static final String CONTENT_LENGTH = "Content-Length";
+  private static final String ETAG = "ETag";
+  private static final String VARY = "Vary";
+
+  private final boolean enabled;
+  private final int minSize;
+  private final int level;
+  private ServletContext context;
+
+  /**
+   * Creates a filter configured from the <code>todo.compression.*</code> system properties.
+   */
+  public CompressionFilter() {
+    this(Boolean.parseBoolean(System.getProperty("todo.compression.enabled", "true")),
+            Integer.getInteger("todo.compression.minSize", 1024),
+            Integer.getInteger("todo.compression.level", Deflater.DEFAULT_COMPRESSION));
+  }
+
+  /**
+   * Creates a filter.
+   * @param enabled Whether to compress responses at all.
+   * @param minSize The size, in bytes, a response must reach before it is compressed.
+   * @param level The compression level, from 1 (fastest) to 9 (smallest), or -1 for the default.
+   */
+  public CompressionFilter(boolean enabled, int minSize, int level) {
+    if(minSize < 0) {
+      throw new IllegalArgumentException("The minimum size cannot be negative.");
+    }
+    if(level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("The compression level must be between -1 and 9.");
+    }
+    this.enabled = enabled;
+    this.minSize = minSize;
+    this.level = level;
+  }
+
+  @Override
+  public void init(FilterConfig config) throws ServletException {
+    context = config.getServletContext();
+  }
+
+  @Override
+  public void doFilter(ServletRequest req, ServletResponse resp, FilterChain chain)
+          throws IOException, ServletException {
+    HttpServletRequest request = (HttpServletRequest)req;
+    HttpServletResponse response = (HttpServletResponse)resp;
+    String encoding = enabled ? negotiate(request.getHeader(ACCEPT_ENCODING)) : null;
+    //Parts of a response cannot be compressed on their own
+    if(encoding == null || request.getHeader("Range") != null) {
+      chain.doFilter(req, resp);
+      return;
+    }
+    if(GZIP.equals(encoding) && sendPrecompressed(request, response)) {
+      return;
+    }
+    CompressingResponse compressing = new CompressingResponse(response, encoding);
+    chain.doFilter(new EncodedTagsRequest(request), compressing);
+    if(request.isAsyncStarted()) {
+      request.getAsyncContext().addListener(compressing);
+    } else {
+      compressing.finish();
+    }
+  }
+
+  @Override
+  public void destroy() {
+  }
+
+  /**
+   * Picks the content encoding to use from an Accept-Encoding header.  Gzip is preferred over
+   * deflate when the client likes them equally.
+   * @param header The value of the header, may be null.
+   * @return {@link #GZIP}, {@link #DEFLATE} or null if the client accepts neither.
+   */
+  static String negotiate(String header) {
+    if(header == null) {
+      return null;
+    }
+    float gzip = -1;
+    float deflate = -1;
+    float any = -1;
+    for(String part : header.split(",")) {
+      String[] params = part.split(";");
+      String coding = params[0].trim().toLowerCase(Locale.ENGLISH);
+      float q = 1;
+      for(int i = 1; i < params.length; i++) {
+        String param = params[i].trim();
+        if(param.startsWith("q=")) {
+          try {
+            q = Float.parseFloat(param.substring(2));
+          } catch(NumberFormatException e) {
+            q = 0;
+          }
+        }
+      }
+      if(coding.equals(GZIP) || coding.equals("x-gzip")) {
+        gzip = q;
+      } else if(coding.equals(DEFLATE)) {
+        deflate = q;
+      } else if(coding.equals("*")) {
+        any = q;
+      }
+    }
+    gzip = gzip < 0 ? any : gzip;
+    deflate = deflate < 0 ? any : deflate;
+    if(gzip > 0 && gzip >= deflate) {
+      return GZIP;
+    }
+    return deflate > 0 ? DEFLATE : null;
+  }
+
+  /**
+   * Checks whether a content type is worth compressing.
+   * @param contentType The content type of the response, may be null.
+   * @return True if the content is text that is not an event stream.
+   */
+  static boolean isCompressible(String contentType) {
+    if(contentType == null) {
+      return false;
+    }
+    String type = contentType.toLowerCase(Locale.ENGLISH);
+    if(type.startsWith("text/event-stream")) {
+      return false;
+    }
+    return type.startsWith("text/") || type.startsWith("application/json")
+            || type.startsWith("application/javascript") || type.startsWith("application/xml")
+            || type.startsWith("application/cbor") || type.contains("+json") || type.contains("+xml");
+  }
+
+  /**
+   * Answers a request for a static file with its gzipped copy, if it has one.
+   * @param request The request.
+   * @param response The response.
+   * @return True if the copy was sent, false if the request still has to be served.
+   */
+  private boolean sendPrecompressed(HttpServletRequest request, HttpServletResponse response)
+          throws IOException, ServletException {
+    String method = request.getMethod();
+    if(context == null || !("GET".equals(method) || "HEAD".equals(method))) {
+      return false;
+    }
+    String path = request.getServletPath() + (request.getPathInfo() == null ? "" : request.getPathInfo());
+    if(path.isEmpty() || path.endsWith("/") || path.endsWith(GZIP_SUFFIX)) {
+      return false;
+    }
+    try {
+      if(context.getResource(path + GZIP_SUFFIX) == null) {
+        return false;
+      }
+    } catch(MalformedURLException e) {
+      return false;
+    }
+    RequestDispatcher dispatcher = context.getRequestDispatcher(path + GZIP_SUFFIX);
+    if(dispatcher == null) {
+      return false;
+    }
+    dispatcher.forward(request, new PrecompressedResponse(response, context.getMimeType(path)));
+    return true;
+  }
+
+  private static void addVary(HttpServletResponse response) {
+    String vary = response.getHeader(VARY);
+    if(vary == null) {
+      response.setHeader(VARY, ACCEPT_ENCODING);
+    } else if(!vary.toLowerCase(Locale.ENGLISH).contains("accept-encoding")) {
+      response.setHeader(VARY, vary + ", " + ACCEPT_ENCODING);
+    }
+  }
+
+  /**
+   * Adds a content encoding to an entity tag, <code>"abc"</code> becomes
+   * <code>"abc--gzip"</code>.
+   */
+  static String encodeTag(String tag, String encoding) {
+    int end = tag.lastIndexOf('"');
+    if(end <= 0 || tag.indexOf('"') == end) {
+      return tag;
+    }
+    return tag.substring(0, end) + "--" + encoding + tag.substring(end);
+  }
+
+  /**
+   * Removes the content encodings added by {@link #encodeTag(String, String)} from a list of
+   * entity tags.
+   */
+  static String decodeTags(String header) {
+    if(header == null) {
+      return null;
+    }
+    return header.replace("--" + GZIP + "\"", "\"").replace("--" + DEFLATE + "\"", "\"");
+  }
+
+  /**
+   * Hands the entity tags in conditional headers to the app without the content encodings the
+   * filter added to them.
+   */
+  private static class EncodedTagsRequest extends HttpServletRequestWrapper {
+
+    private EncodedTagsRequest(HttpServletRequest request) {
+      super(request);
+    }
+
+    private static boolean isConditional(String name) {
+      return "If-None-Match".equalsIgnoreCase(name) || "If-Match".equalsIgnoreCase(name);
+    }
+
+    @Override
+    public String getHeader(String name) {
+      String value = super.getHeader(name);
+      return isConditional(name) ? decodeTags(value) : value;
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+      Enumeration<String> values = super.getHeaders(name);
+      if(values == null || !isConditional(name)) {
+        return values;
+      }
+      List<String> decoded = new ArrayList<String>();
+      while(values.hasMoreElements()) {
+        decoded.add(decodeTags(values.nextElement()));
+      }
+      return Collections.enumeration(decoded);
+    }
+  }
+
+  /**
+   * Sends a gzipped copy of a file as the file itself.
+   */
+  private static class PrecompressedResponse extends HttpServletResponseWrapper {
+
+    private final String contentType;
+
+    private PrecompressedResponse(HttpServletResponse response, String contentType) {
+      super(response);
+      this.contentType = contentType;
+      response.setHeader(CONTENT_ENCODING, GZIP);
+      addVary(response);
+      if(contentType != null) {
+        response.setContentType(contentType);
+      }
+    }
+
+    @Override
+    public void setContentType(String type) {
+      //The container would give the copy the type of a gzip file
+      if(contentType == null) {
+        super.setContentType(type);
+      }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      if(!"Content-Type".equalsIgnoreCase(name) || contentType == null) {
+        super.setHeader(name, value);
+      }
+    }
+  }
+
+  /**
+   * Buffers a response until it is known whether it is worth compressing, and then compresses
+   * it or sends it as it is.
+   */
+  private class CompressingResponse extends HttpServletResponseWrapper implements AsyncListener {
+
+    private final String encoding;
+    private CompressingStream stream;
+    private PrintWriter writer;
+    private long contentLength = -1;
+
+    private CompressingResponse(HttpServletResponse response, String encoding) {
+      super(response);
+      this.encoding = encoding;
+    }
+
+    private HttpServletResponse getHttpResponse() {
+      return (HttpServletResponse)getResponse();
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if(writer != null) {
+        throw new IllegalStateException("getWriter() has already been called.");
+      }
+      if(stream == null) {
+        stream = new CompressingStream(this);
+      }
+      return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+      if(writer == null) {
+        if(stream != null) {
+          throw new IllegalStateException("getOutputStream() has already been called.");
+        }
+        stream = new CompressingStream(this);
+        writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+      }
+      return writer;
+    }
+
+    //The length of the content is only known once it is decided whether to compress it
+
+    @Override
+    public void setContentLength(int len) {
+      setContentLengthLong(len);
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+      if(stream != null && stream.decided) {
+        if(!stream.compressing) {
+          super.setContentLengthLong(len);
+        }
+      } else {
+        contentLength = len;
+      }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+      if(CONTENT_LENGTH.equalsIgnoreCase(name)) {
+        setContentLengthLong(value == null ? -1 : Long.parseLong(value));
+      } else {
+        super.setHeader(name, value);
+      }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+      if(CONTENT_LENGTH.equalsIgnoreCase(name)) {
+        setContentLengthLong(Long.parseLong(value));
+      } else {
+        super.addHeader(name, value);
+      }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+      if(CONTENT_LENGTH.equalsIgnoreCase(name)) {
+        setContentLengthLong(value);
+      } else {
+        super.setIntHeader(name, value);
+      }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+      if(CONTENT_LENGTH.equalsIgnoreCase(name)) {
+        setContentLengthLong(value);
+      } else {
+        super.addIntHeader(name, value);
+      }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+      if(writer != null) {
+        writer.flush();
+      } else if(stream != null) {
+        stream.flush();
+      }
+      super.flushBuffer();
+    }
+
+    @Override
+    public void resetBuffer() {
+      if(stream != null && !stream.decided) {
+        stream.count = 0;
+      }
+      super.resetBuffer();
+    }
+
+    @Override
+    public void reset() {
+      resetBuffer();
+      contentLength = -1;
+      super.reset();
+    }
+
+    /**
+     * Decides whether to compress the response, before anything is sent.
+     * @param large Whether the response has reached the minimum size.
+     * @return True if the response is to be compressed.
+     */
+    private boolean decide(boolean large) {
+      HttpServletResponse response = getHttpResponse();
+      boolean compressible = isCompressible(getContentType());
+      int status = getStatus();
+      boolean compress = large && compressible && status >= 200
+              && status != HttpServletResponse.SC_NO_CONTENT
+              && status != HttpServletResponse.SC_PARTIAL_CONTENT
+              && status != HttpServletResponse.SC_NOT_MODIFIED
+              && response.getHeader(CONTENT_ENCODING) == null;
+      if(compressible) {
+        addVary(response);
+      }
+      if(compress) {
+        response.setHeader(CONTENT_ENCODING, encoding);
+        String tag = response.getHeader(ETAG);
+        if(tag != null) {
+          response.setHeader(ETAG, encodeTag(tag, encoding));
+        }
+      } else if(contentLength >= 0) {
+        response.setContentLengthLong(contentLength);
+      }
+      return compress;
+    }
+
+    /**
+     * Sends what is left of the response.
+     */
+    private void finish() throws IOException {
+      if(writer != null) {
+        writer.close();
+      } else if(stream != null) {
+        stream.close();
+      } else if(contentLength >= 0) {
+        getHttpResponse().setContentLengthLong(contentLength);
+      }
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) throws IOException {
+      finish();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) throws IOException {
+    }
+
+    @Override
+    public void onError(AsyncEvent event) throws IOException {
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) throws IOException {
+    }
+  }
+
+  private class CompressingStream extends ServletOutputStream {
+
+    private final CompressingResponse response;
+    private final byte[] buffer = new byte[Math.max(minSize, 1)];
+    private int count;
+    private boolean decided;
+    private boolean compressing;
+    private boolean closed;
+    //The wrapped response's stream, once it is decided whether to compress
+    private ServletOutputStream raw;
+    private OutputStream out;
+    private Deflater deflater;
+
+    private CompressingStream(CompressingResponse response) {
+      this.response = response;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if(closed) {
+        throw new IOException("The response has been closed.");
+      }
+      if(!decided) {
+        if(count + len < buffer.length) {
+          System.arraycopy(b, off, buffer, count, len);
+          count += len;
+          return;
+        }
+        start(true);
+      }
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if(closed) {
+        return;
+      }
+      if(!decided) {
+        //Keep buffering what may still be compressed, event streams have to go out now
+        if(isCompressible(response.getContentType())) {
+          return;
+        }
+        start(false);
+      }
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if(closed) {
+        return;
+      }
+      if(!decided) {
+        if(response.contentLength < 0 && count > 0) {
+          response.contentLength = count;
+        }
+        start(false);
+      }
+      closed = true;
+      try {
+        out.close();
+      } finally {
+        if(deflater != null) {
+          deflater.end();
+        }
+      }
+    }
+
+    private void start(boolean large) throws IOException {
+      decided = true;
+      compressing = response.decide(large);
+      raw = response.getHttpResponse().getOutputStream();
+      if(!compressing) {
+        out = raw;
+      } else if(GZIP.equals(response.encoding)) {
+        out = new GZIPOutputStream(raw, 8192, true) {
+          {
+            def.setLevel(level);
+          }
+        };
+      } else {
+        deflater = new Deflater(level);
+        out = new DeflaterOutputStream(raw, deflater, 8192, true);
+      }
+      if(count > 0) {
+        out.write(buffer, 0, count);
+        count = 0;
+      }
+    }
+
+    @Override
+    public boolean isReady() {
+      //Until then writes only fill the buffer
+      return raw == null || raw.isReady();
+    }
+
+    /**
+     * Switches to non-blocking writes.  A compressed write can take several writes to the wrapped
+     * stream, which a non-blocking stream does not allow, so the response is sent as it is and
+     * the listener is handed to the wrapped stream.
+     */
+    @Override
+    public void setWriteListener(WriteListener listener) {
+      if(!decided) {
+        try {
+          start(false);
+        } catch(IOException e) {
+          throw new IllegalStateException(e);
+        }
+      } else if(compressing) {
+        throw new IllegalStateException("Non-blocking writes cannot follow compressed writes.");
+      }
+      raw.setWriteListener(listener);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a gzipped copy of each static text file of the app next to the file, so the
+ * {@link CompressionFilter} can send the copy instead of compressing the file on every request.
+ * Run when the app is packaged.  Copies that would not be smaller than the file are not kept.
+ */
+public final class GzipAssets {
+
+  private static final List<String> EXTENSIONS = Arrays.asList(
+          ".html", ".js", ".css", ".json", ".svg", ".txt", ".xml");
+
+  private GzipAssets() {
+  }
+
+  /**
+   * Gzips the static files under a directory.
+   * @param args The directory and, optionally, the size in bytes below which files are left
+   * alone.
+   */
+  public static void main(String[] args) throws IOException {
+    if(args.length < 1) {
+      throw new IllegalArgumentException("Usage: GzipAssets <directory> [minSize]");
+    }
+    int minSize = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+    List<Path> gzipped = gzip(Paths.get(args[0]), minSize);
+    System.out.println("Gzipped " + gzipped.size() + " static files under " + args[0]);
+  }
+
+  /**
+   * Gzips the static files under a directory.  WEB-INF and META-INF are skipped, the container
+   * does not serve them.
+   * @param root The directory.
+   * @param minSize The size in bytes below which files are left alone.
+   * @return The gzipped copies that were written.
+   * @throws IOException Thrown if a file cannot be read or its copy written.
+   */
+  public static List<Path> gzip(Path root, final int minSize) throws IOException {
+    final List<Path> gzipped = new ArrayList<Path>();
+    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        String name = dir.getFileName() == null ? "" : dir.getFileName().toString();
+        return name.equals("WEB-INF") || name.equals("META-INF") ?
+                FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+        if(attrs.size() >= minSize && isText(file)) {
+          Path copy = gzip(file);
+          if(copy != null) {
+            gzipped.add(copy);
+          }
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return gzipped;
+  }
+
+  private static boolean isText(Path file) {
+    String name = file.getFileName().toString().toLowerCase(Locale.ENGLISH);
+    for(String extension : EXTENSIONS) {
+      if(name.endsWith(extension)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Path gzip(Path file) throws IOException {
+    byte[] content = Files.readAllBytes(file);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length);
+    //Compressed once, so spend the time to make it as small as possible
+    GZIPOutputStream out = new GZIPOutputStream(bytes) {
+      {
+        def.setLevel(Deflater.BEST_COMPRESSION);
+      }
+    };
+    out.write(content);
+    out.close();
+    Path copy = file.resolveSibling(file.getFileName() + ".gz");
+    if(bytes.size() >= content.length) {
+      Files.deleteIfExists(copy);
+      return null;
+    }
+    Files.write(copy, bytes.toByteArray());
+    //The copy is the same content, it must not look newer to caches
+    Files.setLastModifiedTime(copy, Files.getLastModifiedTime(file));
+    return copy;
+  }
+}
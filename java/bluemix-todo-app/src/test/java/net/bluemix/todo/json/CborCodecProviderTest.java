@@ -0,0 +1,119 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.Test;
+
+public class CborCodecProviderTest {
+
+  private static final Annotation[] NONE = new Annotation[0];
+  private static final MediaType CBOR = MediaType.valueOf(CborCodecProvider.APPLICATION_CBOR);
+  private static final Type TODO_LIST = new GenericType<List<ToDo>>(){}.getType();
+
+  private final CborCodecProvider provider = new CborCodecProvider();
+
+  private static ToDo todo(String id) {
+    ToDo td = new ToDo();
+    td.setId(id);
+    td.setTitle("pick up kids ✓");
+    td.setOrder(-3);
+    td.setCompleted(true);
+    td.setRev("1-abc");
+    return td;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Object read(Class type, Type genericType, byte[] cbor) throws IOException {
+    return provider.readFrom(type, genericType, NONE, CBOR, null, new ByteArrayInputStream(cbor));
+  }
+
+  private byte[] write(Object value, Class<?> type, Type genericType) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public void close() {
+        fail("The entity stream should not be closed.");
+      }
+    };
+    provider.writeTo(value, type, genericType, NONE, CBOR, null, out);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testSupportedTypes() {
+    assertTrue(provider.isReadable(ToDo.class, ToDo.class, NONE, CBOR));
+    assertTrue(provider.isWriteable(ArrayList.class, TODO_LIST, NONE, CBOR));
+  }
+
+  @Test
+  public void testReadWrite() throws Exception {
+    byte[] cbor = write(todo("1"), ToDo.class, ToDo.class);
+    assertEquals(todo("1"), read(ToDo.class, ToDo.class, cbor));
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    new JsonCodecProvider().writeTo(todo("1"), ToDo.class, ToDo.class, NONE, 
+            MediaType.APPLICATION_JSON_TYPE, null, json);
+    assertTrue(cbor.length < json.size());
+  }
+
+  @Test
+  public void testReadWriteList() throws Exception {
+    List<ToDo> todos = Arrays.asList(todo("1"), todo("2"));
+    byte[] cbor = write(new ArrayList<ToDo>(todos), ArrayList.class, TODO_LIST);
+    assertEquals(todos, read(List.class, TODO_LIST, cbor));
+    List<BulkResult> results = Arrays.asList(new BulkResult("1", "1-abc"), new BulkResult("2", 
+            "conflict", "Document update conflict."));
+    Type resultList = new GenericType<List<BulkResult>>(){}.getType();
+    @SuppressWarnings("unchecked")
+    List<BulkResult> read = (List<BulkResult>)read(List.class, resultList, 
+            write(results, List.class, resultList));
+    assertEquals("1-abc", read.get(0).getRev());
+    assertEquals("conflict", read.get(1).getError());
+    assertEquals("Document update conflict.", read.get(1).getReason());
+  }
+
+  @Test
+  public void testReadInvalid() throws Exception {
+    byte[][] invalid = {{}, {(byte)0xbf, 0x65}, {(byte)0xa1, 0x65, 't', 'i', 't', 'l', 'e'}, 
+      {(byte)0x80}, {0x40}};
+    for(byte[] cbor : invalid) {
+      try {
+        read(ToDo.class, ToDo.class, cbor);
+        fail("Expected exception to be thrown for " + Arrays.toString(cbor));
+      } catch(BadRequestException e) {
+        //expected
+      }
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+
+import javax.json.stream.JsonGenerationException;
+import javax.json.stream.JsonGenerator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CborGeneratorTest {
+
+  private ByteArrayOutputStream out;
+  private JsonGenerator gen;
+
+  @Before
+  public void setUp() {
+    out = new ByteArrayOutputStream();
+    gen = new CborGenerator(out);
+  }
+
+  private String hex() {
+    gen.flush();
+    StringBuilder sb = new StringBuilder();
+    for(byte b : out.toByteArray()) {
+      sb.append(String.format("%02x", b & 0xff));
+    }
+    out.reset();
+    return sb.toString();
+  }
+
+  @Test
+  public void testIntegers() {
+    //The examples from appendix A of RFC 7049
+    long[] values = {0, 23, 24, 100, 1000, 1000000, 1000000000000L, -1, -100, -1000};
+    String[] encoded = {"00", "17", "1818", "1864", "1903e8", "1a000f4240", "1b000000e8d4a51000", 
+      "20", "3863", "3903e7"};
+    for(int i = 0; i < values.length; i++) {
+      gen.write(values[i]);
+      assertEquals(encoded[i], hex());
+    }
+    gen.write(Long.MIN_VALUE);
+    assertEquals("3b7fffffffffffffff", hex());
+    gen.write(new BigDecimal("10.0"));
+    assertEquals("0a", hex());
+  }
+
+  @Test
+  public void testSimpleValues() {
+    gen.write(1.1);
+    assertEquals("fb3ff199999999999a", hex());
+    gen.write(false).write(true).writeNull();
+    assertEquals("f4f5f6", hex());
+  }
+
+  @Test
+  public void testText() {
+    String[] values = {"", "a", "IETF", "ü", "水", "𐅑", "\ud800"};
+    String[] encoded = {"60", "6161", "6449455446", "62c3bc", "63e6b0b4", "64f0908591", "613f"};
+    for(int i = 0; i < values.length; i++) {
+      gen.write(values[i]);
+      assertEquals(encoded[i], hex());
+    }
+  }
+
+  @Test
+  public void testContainers() {
+    gen.writeStartObject().write("a", 1).writeStartArray("b").write(2).write(3).writeEnd()
+            .writeEnd();
+    assertEquals("bf61610161629f0203ffff", hex());
+    gen = new CborGenerator(out);
+    gen.writeStartArray().writeStartObject().writeEnd().writeStartArray().writeEnd().writeEnd();
+    assertEquals("9fbfff9fffff", hex());
+  }
+
+  @Test(expected = JsonGenerationException.class)
+  public void testNameOutsideObject() {
+    gen.writeStartArray().write("a", 1);
+  }
+
+  @Test(expected = JsonGenerationException.class)
+  public void testValueWithoutName() {
+    gen.writeStartObject().write(1);
+  }
+
+  @Test(expected = JsonGenerationException.class)
+  public void testSecondTopLevelContainer() {
+    gen.writeStartArray().writeEnd().writeStartArray();
+  }
+
+  @Test(expected = JsonGenerationException.class)
+  public void testUnbalancedEnd() {
+    gen.writeEnd();
+  }
+
+  @Test(expected = JsonGenerationException.class)
+  public void testCloseUnended() {
+    gen.writeStartArray().close();
+  }
+}
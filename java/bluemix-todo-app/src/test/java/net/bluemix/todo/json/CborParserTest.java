@@ -0,0 +1,167 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParser.Event;
+import javax.json.stream.JsonParsingException;
+
+import org.junit.Test;
+
+public class CborParserTest {
+
+  private static JsonParser parser(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for(int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte)Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+    }
+    return new CborParser(new ByteArrayInputStream(bytes));
+  }
+
+  /**
+   * Writes out the events of a parser the way they would look in JSON, without separators.
+   */
+  private static String events(String hex) {
+    JsonParser parser = parser(hex);
+    List<String> events = new ArrayList<String>();
+    while(parser.hasNext()) {
+      Event event = parser.next();
+      switch(event) {
+        case START_OBJECT: events.add("{"); break;
+        case END_OBJECT: events.add("}"); break;
+        case START_ARRAY: events.add("["); break;
+        case END_ARRAY: events.add("]"); break;
+        case KEY_NAME: events.add(parser.getString() + ":"); break;
+        case VALUE_STRING: events.add("'" + parser.getString() + "'"); break;
+        case VALUE_NUMBER: events.add(parser.getString()); break;
+        default: events.add(event.name());
+      }
+    }
+    return String.join(" ", events);
+  }
+
+  @Test
+  public void testNumbers() {
+    assertEquals("0", events("00"));
+    assertEquals("1000000000000", events("1b000000e8d4a51000"));
+    assertEquals("-1000", events("3903e7"));
+    assertEquals("18446744073709551615", events("1bffffffffffffffff"));
+    assertEquals("-18446744073709551616", events("3bffffffffffffffff"));
+    JsonParser parser = parser("1903e8");
+    assertEquals(Event.VALUE_NUMBER, parser.next());
+    assertTrue(parser.isIntegralNumber());
+    assertEquals(1000, parser.getInt());
+    assertFalse(parser.hasNext());
+  }
+
+  @Test
+  public void testFloats() {
+    String[] encoded = {"f93c00", "f97bff", "f93e00", "fa47c35000", "fb3ff199999999999a"};
+    double[] values = {1.0, 65504.0, 1.5, 100000.0, 1.1};
+    for(int i = 0; i < encoded.length; i++) {
+      JsonParser parser = parser(encoded[i]);
+      assertEquals(Event.VALUE_NUMBER, parser.next());
+      assertEquals(new BigDecimal(values[i]).doubleValue(), 
+              parser.getBigDecimal().doubleValue(), 0);
+    }
+    //JSON has no infinity or NaN
+    assertEquals("VALUE_NULL", events("f97c00"));
+    assertEquals("VALUE_NULL", events("f97e00"));
+  }
+
+  @Test
+  public void testSimpleValues() {
+    assertEquals("VALUE_FALSE", events("f4"));
+    assertEquals("VALUE_TRUE", events("f5"));
+    assertEquals("VALUE_NULL", events("f6"));
+    assertEquals("VALUE_NULL", events("f7"));
+  }
+
+  @Test
+  public void testText() {
+    assertEquals("''", events("60"));
+    assertEquals("'IETF'", events("6449455446"));
+    assertEquals("'ü'", events("62c3bc"));
+    assertEquals("'𐅑'", events("64f0908591"));
+  }
+
+  @Test
+  public void testContainers() {
+    assertEquals("[ 1 [ 2 3 ] [ 4 5 ] ]", events("8301820203820405"));
+    assertEquals("{ a: 1 b: [ 2 3 ] }", events("a26161016162820203"));
+    assertEquals("{ a: 1 b: [ 2 3 ] }", events("bf61610161629f0203ffff"));
+    assertEquals("[ 1 [ 2 3 ] [ 4 5 ] ]", events("9f018202039f0405ffff"));
+    assertEquals("[ ] { }", events("80").concat(" ").concat(events("a0")));
+  }
+
+  @Test
+  public void testKeysAreReused() {
+    //[{"a": 1, "ü": 2}, {"a": 3, "ü": 4}]
+    JsonParser parser = parser("82a2616101 62c3bc02 a2616103 62c3bc04".replace(" ", ""));
+    List<String> keys = new ArrayList<String>();
+    while(parser.hasNext()) {
+      if(parser.next() == Event.KEY_NAME) {
+        keys.add(parser.getString());
+      }
+    }
+    assertEquals(Arrays.asList("a", "ü", "a", "ü"), keys);
+    assertSame(keys.get(0), keys.get(2));
+  }
+
+  @Test
+  public void testTagsAreSkipped() {
+    assertEquals("1363896240", events("c11a514b67b0"));
+    assertEquals("'2013-03-21T20:04:00Z'", 
+            events("c074323031332d30332d32315432303a30343a30305a"));
+  }
+
+  @Test
+  public void testInvalid() {
+    String[] invalid = {
+      "40", //byte string
+      "ff", //break outside an indefinite container
+      "1903", //ends too soon
+      "a10101", //a key that is not text
+      "bf6161ff", //a key without a value
+      "7f6161ff", //text of indefinite length
+      "c24101", //big number
+      "fc" //reserved additional information
+    };
+    for(String hex : invalid) {
+      JsonParser parser = parser(hex);
+      try {
+        while(parser.hasNext()) {
+          parser.next();
+        }
+        fail("Expected exception to be thrown for " + hex);
+      } catch(JsonParsingException e) {
+        //expected
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.Test;
+
+public class JsonCodecProviderTest {
+
+  private static final Annotation[] NONE = new Annotation[0];
+  private static final Type TODO_LIST = new GenericType<List<ToDo>>(){}.getType();
+  private static final Type TODO_COLLECTION = new GenericType<Collection<ToDo>>(){}.getType();
+  private static final Type STRING_LIST = new GenericType<List<String>>(){}.getType();
+  private static final Type TODO_ITERATOR = new GenericType<Iterator<ToDo>>(){}.getType();
+
+  private final JsonCodecProvider provider = new JsonCodecProvider();
+
+  private static ToDo todo(String id) {
+    ToDo td = new ToDo();
+    td.setId(id);
+    td.setTitle("pick up kids");
+    return td;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Object read(Class type, Type genericType, String json) throws IOException {
+    return provider.readFrom(type, genericType, NONE, MediaType.APPLICATION_JSON_TYPE, null,
+            new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private String write(Object value, Class<?> type, Type genericType) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public void close() {
+        fail("The entity stream should not be closed.");
+      }
+    };
+    provider.writeTo(value, type, genericType, NONE, MediaType.APPLICATION_JSON_TYPE, null, out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testSupportedTypes() {
+    MediaType json = MediaType.APPLICATION_JSON_TYPE;
+    assertTrue(provider.isReadable(ToDo.class, ToDo.class, NONE, json));
+    assertTrue(provider.isReadable(List.class, TODO_LIST, NONE, json));
+    assertTrue(provider.isReadable(Collection.class, TODO_COLLECTION, NONE, json));
+    assertTrue(provider.isReadable(List.class, new GenericType<List<BulkResult>>(){}.getType(), NONE, json));
+    assertFalse(provider.isReadable(ArrayList.class, TODO_LIST, NONE, json));
+    assertFalse(provider.isReadable(List.class, List.class, NONE, json));
+    assertFalse(provider.isReadable(List.class, STRING_LIST, NONE, json));
+    assertFalse(provider.isReadable(String.class, String.class, NONE, json));
+    assertTrue(provider.isWriteable(ToDo.class, ToDo.class, NONE, json));
+    assertTrue(provider.isWriteable(ArrayList.class, TODO_LIST, NONE, json));
+    assertTrue(provider.isWriteable(Collection.class, TODO_COLLECTION, NONE, json));
+    assertFalse(provider.isWriteable(ArrayList.class, STRING_LIST, NONE, json));
+    assertTrue(provider.isWriteable(Cursor.class, TODO_ITERATOR, NONE, json));
+    assertFalse(provider.isReadable(Iterator.class, TODO_ITERATOR, NONE, json));
+    assertFalse(provider.isWriteable(String.class, String.class, NONE, json));
+    assertEquals(-1, provider.getSize(todo("1"), ToDo.class, ToDo.class, NONE, json));
+  }
+
+  @Test
+  public void testReadWrite() throws Exception {
+    String json = write(todo("1"), ToDo.class, ToDo.class);
+    assertEquals("{\"completed\":false,\"id\":\"1\",\"order\":0,\"title\":\"pick up kids\"}", json);
+    assertEquals(todo("1"), read(ToDo.class, ToDo.class, json));
+  }
+
+  @Test
+  public void testReadWriteList() throws Exception {
+    List<ToDo> todos = Arrays.asList(todo("1"), todo("2"));
+    String json = write(new ArrayList<ToDo>(todos), ArrayList.class, TODO_COLLECTION);
+    assertEquals(todos, read(List.class, TODO_LIST, json));
+    assertEquals("[]", write(new ArrayList<ToDo>(), ArrayList.class, TODO_LIST));
+  }
+
+  @Test
+  public void testReadInvalid() throws Exception {
+    for(String json : new String[] {"", "{\"title\":", "{\"title\":\"a\"", "{\"order\":\"first\"}", "[]"}) {
+      try {
+        read(ToDo.class, ToDo.class, json);
+        fail("Expected exception to be thrown for " + json);
+      } catch(BadRequestException e) {
+        //expected
+      }
+    }
+  }
+
+  @Test
+  public void testWriteIterator() throws Exception {
+    Cursor cursor = new Cursor(Arrays.asList(todo("1"), todo("2")));
+    String json = write(cursor, Cursor.class, TODO_ITERATOR);
+    assertEquals(Arrays.asList(todo("1"), todo("2")), read(List.class, TODO_LIST, json));
+    assertTrue(cursor.closed);
+    assertEquals("[]", write(new Cursor(new ArrayList<ToDo>()), Cursor.class, TODO_ITERATOR));
+  }
+
+  @Test
+  public void testWriteIteratorClientGone() throws Exception {
+    List<ToDo> todos = new ArrayList<ToDo>();
+    for(int i = 0; i < 1000; i++) {
+      todos.add(todo(Integer.toString(i)));
+    }
+    Cursor cursor = new Cursor(todos);
+    OutputStream out = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Connection reset");
+      }
+    };
+    try {
+      provider.writeTo(cursor, Cursor.class, TODO_ITERATOR, NONE, MediaType.APPLICATION_JSON_TYPE, null, out);
+      fail("Expected exception to be thrown.");
+    } catch(IOException e) {
+      //expected
+    }
+    //Writing stopped at the first failed write rather than reading everything
+    assertTrue(cursor.read < todos.size());
+    assertTrue(cursor.closed);
+  }
+
+  private static class Cursor implements Iterator<ToDo>, Closeable {
+    private final Iterator<ToDo> todos;
+    private int read;
+    private boolean closed;
+
+    private Cursor(List<ToDo> todos) {
+      this.todos = todos.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return todos.hasNext();
+    }
+
+    @Override
+    public ToDo next() {
+      read++;
+      return todos.next();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonParser;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.CloudantAllDocs;
+import net.bluemix.todo.model.CloudantBulkDocs;
+import net.bluemix.todo.model.CloudantCount;
+import net.bluemix.todo.model.CloudantKeys;
+import net.bluemix.todo.model.CloudantPostResponse;
+import net.bluemix.todo.model.CloudantToDo;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+
+import org.junit.Test;
+
+public class JsonCodecsTest {
+
+  private static <T> String write(JsonCodec<T> codec, T value) {
+    StringWriter out = new StringWriter();
+    JsonGenerator gen = Json.createGenerator(out);
+    codec.write(gen, value);
+    gen.close();
+    return out.toString();
+  }
+
+  private static <T> T read(JsonCodec<T> codec, String json) {
+    JsonParser parser = Json.createParser(new StringReader(json));
+    return codec.read(parser, parser.next());
+  }
+
+  private static ToDo todo() {
+    ToDo td = new ToDo();
+    td.setId("123");
+    td.setTitle("pick up \"kids\"");
+    td.setCompleted(true);
+    td.setOrder(3);
+    td.setRev("1-abc");
+    return td;
+  }
+
+  @Test
+  public void testToDo() {
+    String json = write(JsonCodecs.TODO, todo());
+    assertEquals("{\"completed\":true,\"id\":\"123\",\"order\":3,\"rev\":\"1-abc\",\"title\":\"pick up \\\"kids\\\"\"}", json);
+    ToDo td = read(JsonCodecs.TODO, json);
+    assertEquals(todo(), td);
+    assertEquals("1-abc", td.getRev());
+    assertEquals("{\"completed\":false,\"order\":0,\"title\":\"\"}", write(JsonCodecs.TODO, new ToDo()));
+  }
+
+  @Test
+  public void testToDoLenient() {
+    ToDo td = read(JsonCodecs.TODO, "{\"title\":\"a\",\"order\":\"7\",\"completed\":\"true\","
+            + "\"extra\":{\"nested\":[1,{\"a\":2}]},\"id\":null}");
+    assertEquals("a", td.getTitle());
+    assertEquals(7, td.getOrder());
+    assertTrue(td.isCompleted());
+    assertNull(td.getId());
+    assertEquals(2, read(JsonCodecs.TODO, "{\"order\":2.0}").getOrder());
+    assertNull(read(JsonCodecs.CLOUDANT_ALL_DOCS, "{\"rows\":[{\"doc\":null}]}").getRows().get(0).getDoc());
+  }
+
+  @Test(expected = JsonException.class)
+  public void testToDoBadOrder() {
+    read(JsonCodecs.TODO, "{\"order\":\"first\"}");
+  }
+
+  @Test(expected = JsonException.class)
+  public void testToDoNotAnObject() {
+    read(JsonCodecs.TODO, "[]");
+  }
+
+  @Test
+  public void testToDoChanges() {
+    ToDoChanges changes = new ToDoChanges(Arrays.asList(todo()), Arrays.asList("456"), "abc-3", true);
+    String json = write(JsonCodecs.TODO_CHANGES, changes);
+    ToDoChanges read = read(JsonCodecs.TODO_CHANGES, json);
+    assertEquals(Arrays.asList(todo()), read.getUpserts());
+    assertEquals(Arrays.asList("456"), read.getDeleted());
+    assertEquals("abc-3", read.getSeq());
+    assertTrue(read.isMore());
+    assertFalse(read.isResync());
+    assertTrue(read(JsonCodecs.TODO_CHANGES, write(JsonCodecs.TODO_CHANGES, ToDoChanges.resync("abc-4"))).isResync());
+  }
+
+  @Test
+  public void testCloudantToDo() {
+    CloudantToDo ctd = new CloudantToDo(todo());
+    ctd.set_rev("2-def");
+    String json = write(JsonCodecs.CLOUDANT_TODO, ctd);
+    assertEquals("{\"_id\":\"123\",\"_rev\":\"2-def\",\"completed\":true,\"order\":3,\"title\":\"pick up \\\"kids\\\"\"}", json);
+    assertEquals(ctd, read(JsonCodecs.CLOUDANT_TODO, json));
+    ctd.set_deleted(true);
+    assertEquals(Boolean.TRUE, read(JsonCodecs.CLOUDANT_TODO, write(JsonCodecs.CLOUDANT_TODO, ctd)).get_deleted());
+  }
+
+  @Test
+  public void testCloudantPostResponse() {
+    CloudantPostResponse post = read(JsonCodecs.CLOUDANT_POST_RESPONSE,
+            "{\"ok\":true,\"id\":\"123\",\"rev\":\"1-abc\"}");
+    assertTrue(post.isOk());
+    assertEquals("123", post.getId());
+    assertEquals("1-abc", post.getRev());
+    assertEquals("{\"id\":\"123\",\"ok\":true,\"rev\":\"1-abc\"}", write(JsonCodecs.CLOUDANT_POST_RESPONSE, post));
+  }
+
+  @Test
+  public void testCloudantCount() {
+    CloudantCount count = read(JsonCodecs.CLOUDANT_COUNT, "{\"rows\":[{\"key\":null,\"value\":42}]}");
+    assertEquals(1, count.getRows().size());
+    assertNull(count.getRows().get(0).getKey());
+    assertEquals(42, count.getRows().get(0).getValue());
+    assertEquals("{\"rows\":[{\"key\":null,\"value\":42}]}", write(JsonCodecs.CLOUDANT_COUNT, count));
+    assertNull(read(JsonCodecs.CLOUDANT_COUNT, "{}").getRows());
+  }
+
+  @Test
+  public void testCloudantAllDocs() {
+    CloudantAllDocs docs = read(JsonCodecs.CLOUDANT_ALL_DOCS, "{\"total_rows\":2,\"offset\":0,\"rows\":["
+            + "{\"id\":\"123\",\"key\":\"123\",\"value\":{\"rev\":\"1-abc\"},"
+            + "\"doc\":{\"_id\":\"123\",\"_rev\":\"1-abc\",\"title\":\"a\",\"completed\":false,\"order\":1}},"
+            + "{\"key\":\"456\",\"error\":\"not_found\"},"
+            + "{\"id\":\"789\",\"key\":5,\"value\":{\"title\":\"b\"}}]}");
+    assertEquals(3, docs.getRows().size());
+    assertEquals("1-abc", docs.getRows().get(0).getDoc().get_rev());
+    assertEquals("1-abc", docs.getRows().get(0).getValue().getRev());
+    assertNull(docs.getRows().get(1).getDoc());
+    assertEquals(5, docs.getRows().get(2).getKey());
+    assertEquals("b", docs.getRows().get(2).getValue().getTitle());
+    CloudantAllDocs copy = read(JsonCodecs.CLOUDANT_ALL_DOCS, write(JsonCodecs.CLOUDANT_ALL_DOCS, docs));
+    assertEquals(docs.getRows().get(0).getDoc(), copy.getRows().get(0).getDoc());
+  }
+
+  @Test
+  public void testCloudantKeysAndBulkDocs() {
+    assertEquals("{\"keys\":[\"1\",\"2\"]}", write(JsonCodecs.CLOUDANT_KEYS, new CloudantKeys(Arrays.asList("1", "2"))));
+    assertEquals(Arrays.asList("1", "2"), read(JsonCodecs.CLOUDANT_KEYS, "{\"keys\":[\"1\",\"2\"]}").getKeys());
+    CloudantBulkDocs docs = new CloudantBulkDocs(Arrays.asList(new CloudantToDo(todo())));
+    CloudantBulkDocs copy = read(JsonCodecs.CLOUDANT_BULK_DOCS, write(JsonCodecs.CLOUDANT_BULK_DOCS, docs));
+    assertEquals(docs.getDocs(), copy.getDocs());
+  }
+
+  @Test
+  public void testBulkResult() {
+    BulkResult result = read(JsonCodecs.BULK_RESULT, "{\"id\":\"123\",\"error\":\"conflict\",\"reason\":\"Document update conflict.\"}");
+    assertFalse(result.isOk());
+    assertEquals("conflict", result.getError());
+    assertEquals("Document update conflict.", result.getReason());
+    BulkResult ok = read(JsonCodecs.BULK_RESULT, write(JsonCodecs.BULK_RESULT, new BulkResult("123", "1-abc")));
+    assertTrue(ok.isOk());
+    assertEquals("1-abc", ok.getRev());
+  }
+
+  @Test
+  public void testForType() {
+    assertSame(JsonCodecs.TODO, JsonCodecs.forType(ToDo.class));
+    assertSame(JsonCodecs.CLOUDANT_TODO, JsonCodecs.forType(CloudantToDo.class));
+    assertNull(JsonCodecs.forType(String.class));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class Utf8WriterTest {
+
+  private static byte[] encode(String... parts) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream() {
+      @Override
+      public void close() {
+        fail("The stream should not be closed.");
+      }
+    };
+    Utf8Writer writer = new Utf8Writer(out);
+    for(String part : parts) {
+      writer.write(part);
+    }
+    writer.close();
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testEncode() throws Exception {
+    String text = "pick up kids, café, €5, 😀 done";
+    assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), encode(text));
+  }
+
+  @Test
+  public void testLongText() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 1000; i++) {
+      sb.append("é€😀a");
+    }
+    String text = sb.toString();
+    assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), encode(text));
+  }
+
+  @Test
+  public void testSurrogatePairSplitAcrossWrites() throws Exception {
+    assertArrayEquals("😀".getBytes(StandardCharsets.UTF_8), encode("\ud83d", "\ude00"));
+  }
+
+  @Test
+  public void testUnpairedSurrogates() throws Exception {
+    assertEquals("?a?", new String(encode("\ude00a\ud83d"), StandardCharsets.UTF_8));
+    assertEquals("?a", new String(encode("\ud83da"), StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class BulkResultTest {
+
+  @Test
+  public void testOk() {
+    BulkResult result = new BulkResult("123", "1-abc");
+    assertEquals("123", result.getId());
+    assertEquals("1-abc", result.getRev());
+    assertTrue(result.isOk());
+    assertNull(result.getError());
+  }
+
+  @Test
+  public void testError() {
+    BulkResult result = new BulkResult("123", "conflict", "Document update conflict.");
+    assertEquals("123", result.getId());
+    assertFalse(result.isOk());
+    assertEquals("conflict", result.getError());
+    assertEquals("Document update conflict.", result.getReason());
+  }
+
+  @Test
+  public void testSetters() {
+    BulkResult result = new BulkResult();
+    assertFalse(result.isOk());
+    result.setId("123");
+    result.setRev("1-abc");
+    assertEquals("123", result.getId());
+    assertEquals("1-abc", result.getRev());
+    result.setOk(true);
+    assertTrue(result.isOk());
+    result.setError("forbidden");
+    result.setReason("No.");
+    assertEquals("forbidden", result.getError());
+    assertEquals("No.", result.getReason());
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CloudantBulkDocsTest {
+
+  @Test
+  public void testGetDocs() {
+    List<CloudantToDo> docs = new ArrayList<CloudantToDo>();
+    docs.add(new CloudantToDo());
+    assertEquals(docs, new CloudantBulkDocs(docs).getDocs());
+    CloudantBulkDocs bulk = new CloudantBulkDocs();
+    assertNull(bulk.getDocs());
+    bulk.setDocs(docs);
+    assertEquals(docs, bulk.getDocs());
+  }
+}
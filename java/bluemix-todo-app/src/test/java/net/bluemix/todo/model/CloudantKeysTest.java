@@ -0,0 +1,37 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CloudantKeysTest {
+
+  @Test
+  public void testGetKeys() {
+    List<String> keys = Arrays.asList("123", "456");
+    assertEquals(keys, new CloudantKeys(keys).getKeys());
+    CloudantKeys query = new CloudantKeys();
+    assertNull(query.getKeys());
+    query.setKeys(keys);
+    assertEquals(keys, query.getKeys());
+  }
+}
@@ -85,6 +85,9 @@ public class CloudantToDoTest {
     testTd.setId("456");
     testTd.setTitle("Another test");
     assertEquals(testTd, ctd.getToDo());
+    assertEquals("def", ctd.getToDo().getRev());
+    ctd.setOrder(3);
+    assertEquals(3, ctd.getToDo().getOrder());
   }
   
   @Test
@@ -94,6 +97,14 @@ public class CloudantToDoTest {
     assertEquals(1, ctd.getOrder());
   }
   
+  @Test
+  public void testGet_deleted() {
+    CloudantToDo ctd = new CloudantToDo();
+    assertNull(ctd.get_deleted());
+    ctd.set_deleted(true);
+    assertTrue(ctd.get_deleted());
+  }
+  
   @Test
   public void testEquals() {
     CloudantToDo ctd = new CloudantToDo(td);
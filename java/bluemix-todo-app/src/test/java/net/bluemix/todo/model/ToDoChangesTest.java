@@ -0,0 +1,50 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.model;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ToDoChangesTest {
+
+  @Test
+  public void testChanges() {
+    ToDo td = new ToDo();
+    td.setId("123");
+    List<ToDo> upserts = Arrays.asList(td);
+    List<String> deleted = Arrays.asList("456");
+    ToDoChanges changes = new ToDoChanges(upserts, deleted, "7", true);
+    assertEquals(upserts, changes.getUpserts());
+    assertEquals(deleted, changes.getDeleted());
+    assertEquals("7", changes.getSeq());
+    assertTrue(changes.isMore());
+    assertFalse(changes.isResync());
+  }
+
+  @Test
+  public void testResync() {
+    ToDoChanges changes = ToDoChanges.resync("7");
+    assertTrue(changes.isResync());
+    assertEquals("7", changes.getSeq());
+    assertTrue(changes.getUpserts().isEmpty());
+    assertTrue(changes.getDeleted().isEmpty());
+    assertFalse(changes.isMore());
+  }
+}
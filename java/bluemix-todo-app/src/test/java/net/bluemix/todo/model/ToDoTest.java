@@ -65,6 +65,32 @@ public class ToDoTest {
 	  assertEquals(1, td.getOrder());
 	}
 	
+	@Test
+	public void testGetRev() {
+		ToDo td = new ToDo();
+		assertNull(td.getRev());
+		td.setRev("1-abc");
+		assertEquals("1-abc", td.getRev());
+		ToDo td2 = new ToDo();
+		td2.setRev("2-def");
+		assertTrue(td.equals(td2));
+	}
+
+	@Test
+	public void testCopy() {
+		ToDo td = new ToDo();
+		td.setId("123abc");
+		td.setTitle("Pick up kids at 3");
+		td.setCompleted(true);
+		td.setOrder(2);
+		td.setRev("1-abc");
+		ToDo copy = new ToDo(td);
+		assertEquals(td, copy);
+		assertEquals("1-abc", copy.getRev());
+		copy.setTitle("Pick up kids at 4");
+		assertEquals("Pick up kids at 3", td.getTitle());
+	}
+
 	@Test
 	public void testEquals() {
 		ToDo td = new ToDo();
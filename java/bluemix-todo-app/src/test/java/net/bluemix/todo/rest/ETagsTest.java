@@ -0,0 +1,95 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import javax.ws.rs.core.EntityTag;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.Test;
+
+public class ETagsTest {
+
+  @Test
+  public void testOf() {
+    ToDo td = new ToDo();
+    td.setId("123");
+    td.setTitle("pick up kids");
+    td.setRev("1-abc");
+    assertEquals(new EntityTag("1-abc"), ETags.of(td));
+    assertFalse(ETags.of(td).isWeak());
+    assertEquals(new EntityTag("7"), ETags.ofVersion("7"));
+  }
+
+  @Test
+  public void testOfWithoutRevision() {
+    ToDo td = new ToDo();
+    td.setId("123");
+    td.setTitle("pick up kids");
+    EntityTag tag = ETags.of(td);
+    assertEquals(tag, ETags.of(new ToDo(td)));
+    td.setCompleted(true);
+    assertFalse(tag.equals(ETags.of(td)));
+    td.setCompleted(false);
+    td.setOrder(2);
+    assertFalse(tag.equals(ETags.of(td)));
+  }
+
+  @Test
+  public void testFormat() {
+    assertEquals(new EntityTag("1-abc--cbor"), ETags.forFormat(new EntityTag("1-abc"), "cbor"));
+    assertTrue(ETags.forFormat(new EntityTag("1-abc", true), "cbor").isWeak());
+    assertEquals("\"1-abc\", W/\"2-def\"", 
+            ETags.withoutFormat("\"1-abc--cbor\", W/\"2-def--cbor\"", "cbor"));
+    assertEquals("\"1-abc--gzip\"", ETags.withoutFormat("\"1-abc--gzip\"", "cbor"));
+    assertEquals("*", ETags.withoutFormat("*", "cbor"));
+    assertEquals(null, ETags.withoutFormat(null, "cbor"));
+  }
+
+  @Test
+  public void testMatches() {
+    EntityTag tag = new EntityTag("1-abc");
+    assertTrue(ETags.matches("\"1-abc\"", tag));
+    assertTrue(ETags.matches("W/\"1-abc\"", tag));
+    assertTrue(ETags.matches("\"2-def\", \"1-abc\"", tag));
+    assertTrue(ETags.matches("\"2-def\",W/\"1-abc\"", tag));
+    assertTrue(ETags.matches("*", tag));
+    assertFalse(ETags.matches(null, tag));
+    assertFalse(ETags.matches("", tag));
+    assertFalse(ETags.matches("\"2-def\"", tag));
+    assertFalse(ETags.matches("\"1-ab\"", tag));
+    assertFalse(ETags.matches("\"1-abcd\"", tag));
+    assertFalse(ETags.matches("\"1-abc", tag));
+    assertFalse(ETags.matches("1-abc", tag));
+  }
+
+  @Test
+  public void testStrongValues() {
+    assertEquals(Arrays.asList("1-abc"), ETags.strongValues("\"1-abc\""));
+    assertEquals(Arrays.asList("1-abc", "3-ghi"), 
+            ETags.strongValues("\"1-abc\", W/\"2-def\", \"3-ghi\""));
+    assertTrue(ETags.strongValues(null).isEmpty());
+    assertTrue(ETags.strongValues("W/\"1-abc\"").isEmpty());
+    assertTrue(ETags.isAny(" * "));
+    assertFalse(ETags.isAny("\"*\""));
+  }
+}
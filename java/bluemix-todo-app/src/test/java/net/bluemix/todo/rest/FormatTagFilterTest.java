@@ -0,0 +1,151 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.rest;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+
+import net.bluemix.todo.json.CborCodecProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FormatTagFilterTest {
+
+  private static final MediaType CBOR = MediaType.valueOf(CborCodecProvider.APPLICATION_CBOR);
+
+  private MultivaluedMap<String, String> requestHeaders;
+  private MultivaluedMap<String, Object> responseHeaders;
+  private Map<String, Object> properties;
+  private FormatTagFilter filter;
+
+  @Before
+  public void setUp() throws Exception {
+    requestHeaders = new MultivaluedHashMap<String, String>();
+    responseHeaders = new MultivaluedHashMap<String, Object>();
+    properties = new HashMap<String, Object>();
+    filter = new FormatTagFilter();
+  }
+
+  private ContainerRequestContext createRequest(MediaType... accepted) {
+    List<MediaType> types = new ArrayList<MediaType>();
+    for(MediaType type : accepted) {
+      types.add(type);
+    }
+    if(types.isEmpty()) {
+      types.add(MediaType.WILDCARD_TYPE);
+    }
+    ContainerRequestContext request = createNiceMock(ContainerRequestContext.class);
+    expect(request.getAcceptableMediaTypes()).andReturn(types).anyTimes();
+    expect(request.getHeaders()).andReturn(requestHeaders).anyTimes();
+    request.setProperty(anyString(), anyObject());
+    expectLastCall().andAnswer(() -> {
+      properties.put((String)getCurrentArguments()[0], getCurrentArguments()[1]);
+      return null;
+    }).anyTimes();
+    expect(request.getProperty(anyString())).andAnswer(
+            () -> properties.get(getCurrentArguments()[0])).anyTimes();
+    replay(request);
+    return request;
+  }
+
+  private ContainerResponseContext createResponse(MediaType type) {
+    ContainerResponseContext response = createNiceMock(ContainerResponseContext.class);
+    expect(response.getMediaType()).andReturn(type).anyTimes();
+    expect(response.getHeaders()).andReturn(responseHeaders).anyTimes();
+    replay(response);
+    return response;
+  }
+
+  @Test
+  public void testWantsCbor() {
+    assertFalse(FormatTagFilter.wantsCbor(createRequest()));
+    assertFalse(FormatTagFilter.wantsCbor(createRequest(MediaType.APPLICATION_JSON_TYPE)));
+    assertFalse(FormatTagFilter.wantsCbor(createRequest(MediaType.valueOf("application/*"))));
+    assertFalse(FormatTagFilter.wantsCbor(createRequest(MediaType.APPLICATION_JSON_TYPE, CBOR)));
+    assertTrue(FormatTagFilter.wantsCbor(createRequest(CBOR)));
+    assertTrue(FormatTagFilter.wantsCbor(createRequest(CBOR, MediaType.APPLICATION_JSON_TYPE)));
+    assertTrue(FormatTagFilter.wantsCbor(createRequest(MediaType.TEXT_HTML_TYPE, CBOR)));
+  }
+
+  @Test
+  public void testCborTags() throws Exception {
+    ContainerRequestContext request = createRequest(CBOR);
+    requestHeaders.putSingle("If-None-Match", "\"1-abc--cbor\", W/\"2-def--cbor\"");
+    requestHeaders.putSingle("If-Match", "\"1-abc--cbor\"");
+    filter.filter(request);
+    assertEquals("\"1-abc\", W/\"2-def\"", requestHeaders.getFirst("If-None-Match"));
+    assertEquals("\"1-abc\"", requestHeaders.getFirst("If-Match"));
+    responseHeaders.putSingle("ETag", new EntityTag("1-abc"));
+    filter.filter(request, createResponse(CBOR));
+    assertEquals(new EntityTag("1-abc--cbor"), responseHeaders.getFirst("ETag"));
+    assertEquals("Accept", responseHeaders.getFirst("Vary"));
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    ContainerRequestContext request = createRequest(CBOR);
+    requestHeaders.putSingle("If-None-Match", "\"1-abc--cbor\"");
+    filter.filter(request);
+    responseHeaders.putSingle("ETag", "\"1-abc\"");
+    filter.filter(request, createResponse(null));
+    assertEquals(new EntityTag("1-abc--cbor"), responseHeaders.getFirst("ETag"));
+    assertEquals("Accept", responseHeaders.getFirst("Vary"));
+  }
+
+  @Test
+  public void testJsonTags() throws Exception {
+    ContainerRequestContext request = createRequest(MediaType.APPLICATION_JSON_TYPE);
+    requestHeaders.putSingle("If-None-Match", "\"1-abc--cbor\"");
+    filter.filter(request);
+    //A CBOR tag must not match the JSON representation
+    assertEquals("\"1-abc--cbor\"", requestHeaders.getFirst("If-None-Match"));
+    responseHeaders.putSingle("ETag", new EntityTag("1-abc"));
+    responseHeaders.putSingle("Vary", "Accept-Encoding");
+    filter.filter(request, createResponse(MediaType.APPLICATION_JSON_TYPE));
+    assertEquals(new EntityTag("1-abc"), responseHeaders.getFirst("ETag"));
+    assertEquals("Accept-Encoding, Accept", responseHeaders.getFirst("Vary"));
+  }
+
+  @Test
+  public void testOtherTypes() throws Exception {
+    ContainerRequestContext request = createRequest();
+    filter.filter(request);
+    filter.filter(request, createResponse(MediaType.TEXT_PLAIN_TYPE));
+    assertNull(responseHeaders.getFirst("Vary"));
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.rest;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.TimeoutHandler;
+
+/**
+ * An {@link AsyncResponse} for calling suspended resource methods outside of a container.
+ */
+public class TestAsyncResponse implements AsyncResponse {
+  
+  private final CountDownLatch resumed = new CountDownLatch(1);
+  private volatile Object response;
+  private volatile Throwable error;
+  private volatile TimeoutHandler timeoutHandler;
+  private volatile long timeoutMillis;
+
+  /**
+   * Waits for the response to be resumed.
+   * @return The response, or null if there was no response entity.
+   * @throws WebApplicationException The error the response was resumed with.
+   */
+  public Object get() {
+    try {
+      if(!resumed.await(10, TimeUnit.SECONDS)) {
+        throw new AssertionError("The response was not resumed.");
+      }
+    } catch (InterruptedException e) {
+      throw new AssertionError(e);
+    }
+    if(error instanceof WebApplicationException) {
+      throw (WebApplicationException)error;
+    } else if(error != null) {
+      throw new AssertionError(error);
+    }
+    return response;
+  }
+
+  /**
+   * Gets the timeout that was set.
+   * @return The timeout in milliseconds.
+   */
+  public long getTimeoutMillis() {
+    return timeoutMillis;
+  }
+
+  /**
+   * Times out the response like a container would.
+   */
+  public void timeout() {
+    timeoutHandler.handleTimeout(this);
+  }
+
+  @Override
+  public synchronized boolean resume(Object response) {
+    if(isDone()) {
+      return false;
+    }
+    this.response = response;
+    resumed.countDown();
+    return true;
+  }
+
+  @Override
+  public synchronized boolean resume(Throwable response) {
+    if(isDone()) {
+      return false;
+    }
+    this.error = response;
+    resumed.countDown();
+    return true;
+  }
+
+  @Override
+  public boolean cancel() {
+    return resume(new WebApplicationException(503));
+  }
+
+  @Override
+  public boolean cancel(int retryAfter) {
+    return cancel();
+  }
+
+  @Override
+  public boolean cancel(Date retryAfter) {
+    return cancel();
+  }
+
+  @Override
+  public boolean isSuspended() {
+    return !isDone();
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return resumed.getCount() == 0;
+  }
+
+  @Override
+  public boolean setTimeout(long time, TimeUnit unit) {
+    timeoutMillis = unit.toMillis(time);
+    return true;
+  }
+
+  @Override
+  public void setTimeoutHandler(TimeoutHandler handler) {
+    timeoutHandler = handler;
+  }
+
+  @Override
+  public Collection<Class<?>> register(Class<?> callback) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks) {
+    return Collections.emptyMap();
+  }
+
+  @Override
+  public Collection<Class<?>> register(Object callback) {
+    return Collections.emptyList();
+  }
+
+  @Override
+  public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks) {
+    return Collections.emptyMap();
+  }
+}
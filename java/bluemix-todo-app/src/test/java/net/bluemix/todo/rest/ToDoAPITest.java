@@ -15,18 +15,36 @@
  */
 package net.bluemix.todo.rest;
 
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+import javax.ws.rs.core.UriInfo;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
 import net.bluemix.todo.store.InMemoryStore;
+import net.bluemix.todo.store.ToDoCursor;
 import net.bluemix.todo.store.ToDoStore;
 import net.bluemix.todo.store.ToDoStoreException;
 
@@ -46,6 +64,11 @@ public class ToDoAPITest {
 			throw new ToDoStoreException("Error");
 		}
 
+		@Override
+		public ToDoCursor streamAll() throws ToDoStoreException {
+			throw new ToDoStoreException("Error");
+		}
+
 		@Override
 		public ToDo get(String id) throws ToDoStoreException {
 			throw new ToDoStoreException("Error");
@@ -62,14 +85,54 @@ public class ToDoAPITest {
 		}
 
 		@Override
-		public void delete(String id) throws ToDoStoreException {
+		public boolean delete(String id) throws ToDoStoreException {
+			throw new ToDoStoreException("Error");
+		}
+
+		@Override
+		public ToDo update(String id, ToDo td, String rev) throws ToDoStoreException {
+			throw new ToDoStoreException("Error");
+		}
+
+		@Override
+		public void delete(String id, String rev) throws ToDoStoreException {
 			throw new ToDoStoreException("Error");
 		}
 
+    @Override
+    public ToDoPage getPage(String cursor, int limit) throws ToDoStoreException {
+      throw new ToDoStoreException("Error");
+    }
+
     @Override
     public int count() throws ToDoStoreException {
       throw new ToDoStoreException("Error");
     }
+
+    @Override
+    public String getVersion() throws ToDoStoreException {
+      throw new ToDoStoreException("Error");
+    }
+
+    @Override
+    public ToDoChanges getChanges(String since, int limit) throws ToDoStoreException {
+      throw new ToDoStoreException("Error");
+    }
+
+    @Override
+    public List<BulkResult> persistAll(Collection<ToDo> todos) throws ToDoStoreException {
+      throw new ToDoStoreException("Error");
+    }
+
+    @Override
+    public List<BulkResult> updateAll(Collection<ToDo> todos) throws ToDoStoreException {
+      throw new ToDoStoreException("Error");
+    }
+
+    @Override
+    public List<BulkResult> deleteAll(Collection<String> ids) throws ToDoStoreException {
+      throw new ToDoStoreException("Error");
+    }
 	};
 	private ToDoAPI errorApi;
 	
@@ -100,13 +163,13 @@ public class ToDoAPITest {
 
 	@Test
 	public void testGetToDo() {
-		assertEquals(td1, api.getToDo(td1.getId()));
+		assertEquals(td1, getToDo(api, td1.getId()));
 	}
 	
 	@Test
 	public void testGetToDoBadRequest() {
 		try {
-			api.getToDo(null);
+			getToDo(api, null);
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
@@ -116,48 +179,304 @@ public class ToDoAPITest {
 	@Test
 	public void testGetToDoException() {
 		try {
-			errorApi.getToDo("123");
+			getToDo(errorApi, "123");
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
 		}
 	}
 	
+	@Test
+	public void testGetToDoResponseException() {
+		ToDoStore broken = new InMemoryStore() {
+			@Override
+			public ToDo get(String id) {
+				return new ToDo() {
+					@Override
+					public String getRev() {
+						throw new IllegalStateException("Broken ToDo.");
+					}
+				};
+			}
+		};
+		try {
+			getToDo(new ToDoAPI(broken), "123");
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
+
 	@Test
 	public void testToDoDoesNotExist() {
 		try {
-			api.getToDo("123");
+			getToDo(api, "123");
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
 		}
 	}
 
+	private static ToDo getToDo(ToDoAPI api, String id) {
+		return (ToDo)getToDo(api, id, null).getEntity();
+	}
+
+	private static Response getToDo(ToDoAPI api, String id, String ifNoneMatch) {
+		TestAsyncResponse resp = new TestAsyncResponse();
+		api.getToDo(id, ifNoneMatch, resp);
+		return (Response)resp.get();
+	}
+
+	private static Response getToDos(ToDoAPI api, Integer limit, String cursor, UriInfo uriInfo) {
+		return getToDos(api, limit, cursor, uriInfo, null);
+	}
+
+	private static Response getToDos(ToDoAPI api, Integer limit, String cursor, UriInfo uriInfo,
+			String ifNoneMatch) {
+		TestAsyncResponse resp = new TestAsyncResponse();
+		api.getToDos(limit, cursor, uriInfo, ifNoneMatch, resp);
+		return (Response)resp.get();
+	}
+
+	private static ToDoChanges getChanges(ToDoAPI api, String since, Integer limit) {
+		TestAsyncResponse resp = new TestAsyncResponse();
+		api.getChanges(since, limit, resp);
+		return (ToDoChanges)((Response)resp.get()).getEntity();
+	}
+
+	private static ToDo newToDo(ToDoAPI api, ToDo td) {
+		TestAsyncResponse resp = new TestAsyncResponse();
+		api.newToDo(td, resp);
+		return (ToDo)resp.get();
+	}
+
+	private static ToDo updateToDo(ToDoAPI api, String id, ToDo td) {
+		return (ToDo)updateToDo(api, id, null, td).getEntity();
+	}
+
+	private static Response updateToDo(ToDoAPI api, String id, String ifMatch, ToDo td) {
+		TestAsyncResponse resp = new TestAsyncResponse();
+		api.updateToDo(id, ifMatch, td, resp);
+		return (Response)resp.get();
+	}
+
+	private static Response deleteToDo(ToDoAPI api, String id) {
+		return deleteToDo(api, id, null);
+	}
+
+	private static Response deleteToDo(ToDoAPI api, String id, String ifMatch) {
+		TestAsyncResponse resp = new TestAsyncResponse();
+		api.deleteToDo(id, ifMatch, resp);
+		return (Response)resp.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Collection<ToDo> entity(Response resp) {
+		if(resp.getEntity() instanceof Collection) {
+			return (Collection<ToDo>)resp.getEntity();
+		}
+		//All the ToDos are streamed from a cursor
+		List<ToDo> todos = new ArrayList<ToDo>();
+		try(ToDoCursor cursor = (ToDoCursor)resp.getEntity()) {
+			while(cursor.hasNext()) {
+				todos.add(cursor.next());
+			}
+		}
+		return todos;
+	}
+
+	@Test
+	public void testGetToDoNotModified() {
+		Response resp = getToDo(api, td1.getId(), null);
+		EntityTag tag = resp.getEntityTag();
+		assertNotNull(tag);
+		assertTrue(resp.getHeaderString(HttpHeaders.CACHE_CONTROL).contains("no-cache"));
+		resp = getToDo(api, td1.getId(), tag.toString());
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), resp.getStatus());
+		assertNull(resp.getEntity());
+		assertEquals(tag, resp.getEntityTag());
+		resp = getToDo(api, td1.getId(), "\"other\", W/\"" + tag.getValue() + "\"");
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), resp.getStatus());
+		assertEquals(Response.Status.OK.getStatusCode(), getToDo(api, td1.getId(), "\"other\"").getStatus());
+		ToDo td = new ToDo(td1);
+		td.setTitle("pick up the kids");
+		updateToDo(api, td1.getId(), td);
+		resp = getToDo(api, td1.getId(), tag.toString());
+		assertEquals(Response.Status.OK.getStatusCode(), resp.getStatus());
+		assertFalse(tag.equals(resp.getEntityTag()));
+	}
+
+	@Test
+	public void testGetToDosNotModified() {
+		Response resp = getToDos(api, null, null, null);
+		EntityTag tag = resp.getEntityTag();
+		assertNotNull(tag);
+		resp = getToDos(api, null, null, null, tag.toString());
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), resp.getStatus());
+		assertNull(resp.getEntity());
+		ToDo td = new ToDo();
+		td.setTitle("pick up milk");
+		newToDo(api, td);
+		resp = getToDos(api, null, null, null, tag.toString());
+		assertEquals(Response.Status.OK.getStatusCode(), resp.getStatus());
+		assertEquals(3, entity(resp).size());
+		tag = resp.getEntityTag();
+		deleteToDo(api, td.getId());
+		resp = getToDos(api, null, null, null, tag.toString());
+		assertEquals(2, entity(resp).size());
+	}
+
+	@Test
+	public void testGetToDosNotModifiedSkipsRead() {
+		ToDoStore versionOnly = new InMemoryStore() {
+			@Override
+			public Collection<ToDo> getAll() {
+				throw new AssertionError("The ToDos should not be read.");
+			}
+		};
+		Response resp = getToDos(new ToDoAPI(versionOnly), null, null, null, "*");
+		assertEquals(Response.Status.NOT_MODIFIED.getStatusCode(), resp.getStatus());
+	}
+
 	@Test
 	public void testGetToDos() {
-		Collection<ToDo> todos = api.getToDos();
+		Collection<ToDo> todos = entity(getToDos(api, null, null, null));
 		assertTrue(todos.contains(td1));
 		assertTrue(todos.contains(td2));
 		assertEquals(2, todos.size());
 	}
 	
+	@Test
+	public void testGetToDosReleasesCursor() {
+		final AtomicBoolean closed = new AtomicBoolean();
+		ToDoStore streaming = new InMemoryStore() {
+			@Override
+			public ToDoCursor streamAll() {
+				final ToDoCursor cursor = super.streamAll();
+				return new ToDoCursor() {
+					@Override
+					public boolean hasNext() {
+						return cursor.hasNext();
+					}
+
+					@Override
+					public ToDo next() {
+						return cursor.next();
+					}
+
+					@Override
+					public void close() {
+						closed.set(true);
+					}
+				};
+			}
+		};
+		//The request timed out before the store answered, so the ToDos are never written
+		TestAsyncResponse resp = new TestAsyncResponse();
+		resp.cancel();
+		new ToDoAPI(streaming).getToDos(null, null, null, null, resp);
+		assertTrue(closed.get());
+	}
+
 	@Test
 	public void testGetToDosException() {
 		try {
-			errorApi.getToDos();
+			getToDos(errorApi, null, null, null);
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
 		}
 	}
 
+	@Test
+	public void testGetChanges() {
+		ToDoChanges changes = getChanges(api, null, null);
+		assertTrue(changes.isResync());
+		String seq = changes.getSeq();
+		ToDo td = new ToDo();
+		td.setTitle("pick up milk");
+		td = newToDo(api, td);
+		deleteToDo(api, td1.getId());
+		changes = getChanges(api, seq, null);
+		assertFalse(changes.isResync());
+		assertEquals(1, changes.getUpserts().size());
+		assertEquals(td.getId(), changes.getUpserts().get(0).getId());
+		assertEquals(1, changes.getDeleted().size());
+		assertEquals(td1.getId(), changes.getDeleted().get(0));
+		changes = getChanges(api, seq, 1);
+		assertEquals(1, changes.getUpserts().size());
+		assertTrue(changes.isMore());
+	}
+
+	@Test
+	public void testGetChangesBadLimit() {
+		for(int limit : new int[] {0, 1001}) {
+			try {
+				getChanges(api, null, limit);
+				fail("Expected exception to be thrown.");
+			} catch(WebApplicationException e) {
+				assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
+			}
+		}
+	}
+
+	@Test
+	public void testGetChangesException() {
+		try {
+			getChanges(errorApi, "1", null);
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
+
+	@Test
+	public void testGetToDosPaged() {
+		UriInfo uriInfo = createMock(UriInfo.class);
+		expect(uriInfo.getRequestUriBuilder()).andReturn(
+				UriBuilder.fromUri("http://localhost:8080/api/todos?limit=1"));
+		replay(uriInfo);
+		Response resp = getToDos(api, 1, null, uriInfo);
+		Collection<ToDo> todos = entity(resp);
+		assertEquals(1, todos.size());
+		Link next = resp.getLink("next");
+		assertNotNull(next);
+		String cursor = next.getUri().getQuery().replaceFirst(".*cursor=([^&]*).*", "$1");
+		assertTrue(next.getUri().getQuery().contains("limit=1"));
+		resp = getToDos(api, 1, cursor, uriInfo);
+		assertEquals(1, entity(resp).size());
+		assertFalse(todos.containsAll(entity(resp)));
+		assertNull(resp.getLink("next"));
+		verify(uriInfo);
+	}
+
+	@Test
+	public void testGetToDosBadLimit() {
+		try {
+			getToDos(api, 0, null, null);
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
+
+	@Test
+	public void testGetToDosBadCursor() {
+		try {
+			getToDos(api, null, "abc", null);
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
+
 	@Test
 	public void testNewToDo() {
 		ToDo td = new ToDo();
 		td.setTitle("do a test");
-		td = api.newToDo(td);
+		td = newToDo(api, td);
 		assertNotNull(td.getId());
-		Collection<ToDo> todos = api.getToDos();
+		Collection<ToDo> todos = entity(getToDos(api, null, null, null));
 		assertTrue(todos.contains(td1));
 		assertTrue(todos.contains(td2));
 		assertTrue(todos.contains(td));
@@ -167,7 +486,7 @@ public class ToDoAPITest {
 	@Test
 	public void testNewToDoException() {
 		try {
-			api.newToDo(null);
+			newToDo(api, null);
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
@@ -177,7 +496,7 @@ public class ToDoAPITest {
 	@Test
 	public void testNewToDoInternalError() {
 		try {
-			errorApi.newToDo(new ToDo());
+			newToDo(errorApi, new ToDo());
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
@@ -189,8 +508,8 @@ public class ToDoAPITest {
 		ToDo td = new ToDo();
 		td.setTitle("do a test");
 		td.setCompleted(true);
-		api.updateToDo(td1.getId(), td);
-		td = api.getToDo(td1.getId());
+		updateToDo(api, td1.getId(), td);
+		td = getToDo(api, td1.getId());
 		assertEquals("do a test", td.getTitle());
 		assertTrue(td.isCompleted());
 	}
@@ -198,7 +517,7 @@ public class ToDoAPITest {
 	@Test
 	public void testUpdateToDoIdException() {
 		try {
-			api.updateToDo(null, new ToDo());
+			updateToDo(api, null, new ToDo());
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
@@ -208,7 +527,7 @@ public class ToDoAPITest {
 	@Test
 	public void testUpdateToDoException() {
 		try {
-			api.updateToDo("123", null);
+			updateToDo(api, "123", null);
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
@@ -218,7 +537,7 @@ public class ToDoAPITest {
 	@Test
 	public void testUpdateToDoInternalError() {
 		try {
-			errorApi.updateToDo("123", new ToDo());
+			updateToDo(errorApi, "123", new ToDo());
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
@@ -228,7 +547,7 @@ public class ToDoAPITest {
 	@Test
 	public void testUpdateToDoDoesNotExist() {
 		try{
-			api.updateToDo("123", new ToDo());
+			updateToDo(api, "123", new ToDo());
 			fail("Expected exception to be thrown.");
 		} catch(WebApplicationException e) {
 			assertEquals(Response.Status.BAD_REQUEST.getStatusCode(), e.getResponse().getStatus());
@@ -237,8 +556,8 @@ public class ToDoAPITest {
 	
 	@Test
 	public void testDeleteToDo() {
-		api.deleteToDo(td1.getId());
-		Collection<ToDo> todos = api.getToDos();
+		assertEquals(Response.Status.NO_CONTENT.getStatusCode(), deleteToDo(api, td1.getId()).getStatus());
+		Collection<ToDo> todos = entity(getToDos(api, null, null, null));
 		assertTrue(todos.contains(td2));
 		assertEquals(1, todos.size());	
 	}
@@ -246,11 +565,99 @@ public class ToDoAPITest {
 	@Test
 	public void testDeleteToDoException() {
 		try {
-			errorApi.deleteToDo("123");
+			deleteToDo(errorApi, "123");
 			fail("Expected exception to be thrown.");
 		} catch (WebApplicationException e) {
 			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
 		}
 		
 	}
+
+	@Test
+	public void testUpdateIfMatch() {
+		String tag = getToDo(api, td1.getId(), null).getEntityTag().toString();
+		ToDo td = new ToDo(td1);
+		td.setTitle("pick up the kids");
+		Response resp = updateToDo(api, td1.getId(), tag, td);
+		assertEquals("pick up the kids", ((ToDo)resp.getEntity()).getTitle());
+		EntityTag updated = resp.getEntityTag();
+		assertEquals(updated, getToDo(api, td1.getId(), null).getEntityTag());
+		//The old tag no longer matches, weak tags never do
+		for(String ifMatch : new String[] {tag, "W/" + updated, "\"other\", \"another\""}) {
+			try {
+				updateToDo(api, td1.getId(), ifMatch, td);
+				fail("Expected exception to be thrown.");
+			} catch(WebApplicationException e) {
+				assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), e.getResponse().getStatus());
+			}
+		}
+		assertEquals("pick up the kids", getToDo(api, td1.getId()).getTitle());
+		//One of several tags matching is enough
+		td.setTitle("pick up the kids again");
+		resp = updateToDo(api, td1.getId(), tag + ", " + updated, td);
+		assertEquals("pick up the kids again", ((ToDo)resp.getEntity()).getTitle());
+		resp = updateToDo(api, td1.getId(), "*", td);
+		assertEquals(Response.Status.OK.getStatusCode(), resp.getStatus());
+		try {
+			updateToDo(api, "missing", updated.toString(), td);
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
+
+	@Test
+	public void testDeleteIfMatch() {
+		String tag = getToDo(api, td1.getId(), null).getEntityTag().toString();
+		ToDo td = new ToDo(td1);
+		td.setTitle("pick up the kids");
+		updateToDo(api, td1.getId(), td);
+		try {
+			deleteToDo(api, td1.getId(), tag);
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), e.getResponse().getStatus());
+		}
+		assertNotNull(getToDo(api, td1.getId()));
+		tag = getToDo(api, td1.getId(), null).getEntityTag().toString();
+		assertEquals(Response.Status.NO_CONTENT.getStatusCode(), deleteToDo(api, td1.getId(), tag).getStatus());
+		try {
+			deleteToDo(api, td1.getId(), tag);
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.PRECONDITION_FAILED.getStatusCode(), e.getResponse().getStatus());
+		}
+		try {
+			deleteToDo(errorApi, "123", tag);
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
+
+	@Test
+	public void testTimeout() {
+		TestAsyncResponse resp = new TestAsyncResponse();
+		getToDo(api, td1.getId());
+		api.getToDo(td1.getId(), null, resp);
+		assertEquals(30000, resp.getTimeoutMillis());
+		//Already resumed, so the timeout does nothing
+		resp.timeout();
+		assertEquals(td1, ((Response)resp.get()).getEntity());
+		resp = new TestAsyncResponse() {
+			@Override
+			public boolean resume(Object response) {
+				//Never answered by the store
+				return false;
+			}
+		};
+		api.getToDo(td1.getId(), null, resp);
+		resp.timeout();
+		try {
+			resp.get();
+			fail("Expected exception to be thrown.");
+		} catch(WebApplicationException e) {
+			assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), e.getResponse().getStatus());
+		}
+	}
 }
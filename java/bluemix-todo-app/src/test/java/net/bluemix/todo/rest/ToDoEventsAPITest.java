@@ -0,0 +1,101 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.ToDoEvent;
+import net.bluemix.todo.store.ToDoEventLog;
+
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.junit.Test;
+
+public class ToDoEventsAPITest {
+
+  private static ToDoEvent event(ToDoEvent.Type type) {
+    ToDo td = new ToDo();
+    td.setId("123");
+    td.setTitle("pick up kids");
+    return new ToDoEvent("abc-7", type, td);
+  }
+
+  @Test
+  public void testToOutboundEvent() {
+    OutboundEvent event = ToDoEventsAPI.toOutboundEvent(event(ToDoEvent.Type.CREATED));
+    assertEquals("abc-7", event.getId());
+    assertEquals("created", event.getName());
+    assertEquals(MediaType.APPLICATION_JSON_TYPE, event.getMediaType());
+    assertEquals("pick up kids", ((ToDo)event.getData()).getTitle());
+    assertEquals("updated", ToDoEventsAPI.toOutboundEvent(event(ToDoEvent.Type.UPDATED)).getName());
+    assertEquals("deleted", ToDoEventsAPI.toOutboundEvent(event(ToDoEvent.Type.DELETED)).getName());
+  }
+
+  @Test
+  public void testSubscriber() throws Exception {
+    RecordingEventOutput output = new RecordingEventOutput();
+    ToDoEventsAPI.EventOutputSubscriber sub = new ToDoEventsAPI.EventOutputSubscriber(output);
+    sub.send(event(ToDoEvent.Type.CREATED));
+    sub.resync();
+    sub.ping();
+    assertEquals(3, output.events.size());
+    assertEquals("created", output.events.get(0).getName());
+    assertEquals("resync", output.events.get(1).getName());
+    assertNotNull(output.events.get(2).getComment());
+    sub.close();
+    assertTrue(output.isClosed());
+    try {
+      sub.ping();
+      fail("Expected exception to be thrown.");
+    } catch(IOException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void testGetEvents() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, Runnable::run);
+    ToDoEventsAPI api = new ToDoEventsAPI(log);
+    EventOutput output = api.getEvents(null);
+    assertFalse(output.isClosed());
+    assertEquals(1, log.getSubscriberCount());
+    //The client going away is noticed on the next write
+    output.close();
+    log.ping();
+    assertEquals(0, log.getSubscriberCount());
+    assertEquals(1, log.getDroppedCount());
+  }
+
+  private static class RecordingEventOutput extends EventOutput {
+    private final List<OutboundEvent> events = new ArrayList<OutboundEvent>();
+
+    @Override
+    public void write(OutboundEvent event) throws IOException {
+      events.add(event);
+    }
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingToDoStoreTest {
+
+  private ToDo td1;
+  private ToDo td2;
+  private InMemoryStore backing;
+  private CachingToDoStore store;
+  private long time;
+
+  @Before
+  public void setUp() throws Exception {
+    backing = new InMemoryStore();
+    td1 = new ToDo();
+    td1.setTitle("pick up kids");
+    td2 = new ToDo();
+    td2.setTitle("pick up laundry");
+    td2.setCompleted(true);
+    td1 = backing.persist(td1);
+    td2 = backing.persist(td2);
+    time = 0;
+    store = new CachingToDoStore(backing, 2, 10, TimeUnit.SECONDS) {
+      @Override
+      protected long now() {
+        return time;
+      }
+    };
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    td1 = null;
+    td2 = null;
+    backing = null;
+    store = null;
+  }
+
+  @Test
+  public void testGet() throws Exception {
+    assertEquals(td1, store.get(td1.getId()));
+    assertEquals(td1, store.get(td1.getId()));
+    assertEquals(1, store.getMissCount());
+    assertEquals(1, store.getHitCount());
+    assertNull(store.get("123"));
+    assertNull(store.get("123"));
+    assertEquals(3, store.getMissCount());
+  }
+
+  @Test
+  public void testGetReturnsCopies() throws Exception {
+    store.get(td1.getId()).setTitle("changed");
+    assertEquals("pick up kids", store.get(td1.getId()).getTitle());
+  }
+
+  @Test
+  public void testGetAll() throws Exception {
+    Collection<ToDo> todos = store.getAll();
+    assertTrue(todos.contains(td1));
+    assertTrue(todos.contains(td2));
+    ToDo td = new ToDo();
+    td.setTitle("not seen by the cache");
+    backing.persist(td);
+    assertEquals(2, store.getAll().size());
+    assertEquals(2, store.count());
+    assertEquals(2, store.getHitCount());
+    assertEquals(1, store.getMissCount());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    store.get(td1.getId());
+    store.getAll();
+    ToDo td = new ToDo();
+    td.setTitle("not seen by the cache");
+    backing.persist(td);
+    backing.update(td1.getId(), td);
+    time += TimeUnit.SECONDS.toNanos(10);
+    assertEquals("not seen by the cache", store.get(td1.getId()).getTitle());
+    assertEquals(3, store.getAll().size());
+    assertEquals(2, store.getEvictionCount());
+    assertEquals(4, store.getMissCount());
+  }
+
+  @Test
+  public void testVersionFollowsSnapshot() throws Exception {
+    String version = store.getVersion();
+    assertEquals(backing.getVersion(), version);
+    store.getAll();
+    ToDo td = new ToDo();
+    td.setTitle("not seen by the cache");
+    backing.persist(td);
+    //The snapshot does not have the new ToDo, so neither does its version
+    assertEquals(version, store.getVersion());
+    time += TimeUnit.SECONDS.toNanos(10);
+    assertEquals(backing.getVersion(), store.getVersion());
+    store.getAll();
+    store.persist(new ToDo());
+    assertEquals(backing.getVersion(), store.getVersion());
+  }
+
+  @Test
+  public void testWriteWhileCachingIsNotServed() throws Exception {
+    final boolean[] writing = {true};
+    store = new CachingToDoStore(backing, 2, 10, TimeUnit.SECONDS) {
+      @Override
+      protected long now() {
+        //The snapshot is timed just before it is cached, write through the store right then
+        if(writing[0]) {
+          writing[0] = false;
+          ToDo td = new ToDo();
+          td.setTitle("written while caching");
+          try {
+            persist(td);
+          } catch (ToDoStoreException e) {
+            throw new IllegalStateException(e);
+          }
+        }
+        return time;
+      }
+    };
+    assertEquals(2, store.getAll().size());
+    assertEquals(3, store.getAll().size());
+    assertEquals(backing.getVersion(), store.getVersion());
+    assertEquals(3, store.count());
+    assertEquals(2, store.getHitCount());
+    assertEquals(2, store.getMissCount());
+  }
+
+  @Test
+  public void testCountMisses() throws Exception {
+    assertEquals(2, store.count());
+    assertEquals(backing.getVersion(), store.getVersion());
+    assertEquals(0, store.getHitCount());
+    assertEquals(2, store.getMissCount());
+  }
+
+  @Test
+  public void testSizeBound() throws Exception {
+    ToDo td3 = new ToDo();
+    td3.setTitle("pick up milk");
+    td3 = backing.persist(td3);
+    store.get(td1.getId());
+    store.get(td2.getId());
+    store.get(td1.getId());
+    store.get(td3.getId());
+    assertEquals(2, store.size());
+    assertEquals(1, store.getEvictionCount());
+    //td2 was the least recently used so it was evicted
+    store.get(td1.getId());
+    store.get(td2.getId());
+    assertEquals(2, store.getHitCount());
+    assertEquals(4, store.getMissCount());
+  }
+
+  @Test
+  public void testPersistInvalidates() throws Exception {
+    store.getAll();
+    ToDo td = new ToDo();
+    td.setTitle("do a test");
+    td = store.persist(td);
+    Collection<ToDo> todos = store.getAll();
+    assertEquals(3, todos.size());
+    assertTrue(todos.contains(td));
+  }
+
+  @Test
+  public void testUpdateInvalidates() throws Exception {
+    store.get(td1.getId());
+    store.getAll();
+    ToDo td = new ToDo();
+    td.setTitle("do a test");
+    store.update(td1.getId(), td);
+    assertEquals("do a test", store.get(td1.getId()).getTitle());
+    for(ToDo cached : store.getAll()) {
+      if(cached.getId().equals(td1.getId())) {
+        assertEquals("do a test", cached.getTitle());
+      }
+    }
+  }
+
+  @Test
+  public void testDeleteInvalidates() throws Exception {
+    store.get(td1.getId());
+    store.getAll();
+    store.delete(td1.getId());
+    assertNull(store.get(td1.getId()));
+    assertEquals(1, store.getAll().size());
+    assertEquals(1, store.count());
+  }
+
+  @Test
+  public void testConditionalWritesInvalidate() throws Exception {
+    store.get(td1.getId());
+    store.getAll();
+    ToDo td = new ToDo();
+    td.setTitle("do a test");
+    td = store.update(td1.getId(), td, td1.getRev());
+    assertEquals("do a test", store.get(td1.getId()).getTitle());
+    try {
+      store.delete(td1.getId(), td1.getRev());
+      fail("Expected exception to be thrown.");
+    } catch(RevisionMismatchException e) {
+      //expected
+    }
+    store.delete(td1.getId(), td.getRev());
+    assertNull(store.get(td1.getId()));
+    assertEquals(1, store.getAll().size());
+  }
+
+  @Test
+  public void testBulkInvalidates() throws Exception {
+    store.get(td1.getId());
+    store.getAll();
+    ToDo td = new ToDo();
+    td.setTitle("do a test");
+    store.persistAll(Arrays.asList(td));
+    assertEquals(3, store.getAll().size());
+    ToDo updated = new ToDo(td1);
+    updated.setTitle("updated");
+    store.updateAll(Arrays.asList(updated));
+    assertEquals("updated", store.get(td1.getId()).getTitle());
+    store.deleteAll(Arrays.asList(td1.getId()));
+    assertNull(store.get(td1.getId()));
+    assertEquals(2, store.getAll().size());
+  }
+
+  @Test
+  public void testGetPage() throws Exception {
+    ToDoPage page = store.getPage(null, 1);
+    assertEquals(1, page.getToDos().size());
+    assertEquals(1, store.getPage(page.getNext(), 1).getToDos().size());
+    assertEquals(0, store.getHitCount());
+  }
+
+  @Test
+  public void testGetChanges() throws Exception {
+    String seq = store.getChanges(null, 10).getSeq();
+    store.getAll();
+    store.update(td1.getId(), td2);
+    ToDoChanges changes = store.getChanges(seq, 10);
+    assertEquals(1, changes.getUpserts().size());
+    assertEquals("pick up laundry", changes.getUpserts().get(0).getTitle());
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    store.get(td1.getId());
+    store.clear();
+    assertEquals(0, store.size());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new CachingToDoStore(backing, 0, 10, TimeUnit.SECONDS);
+  }
+}
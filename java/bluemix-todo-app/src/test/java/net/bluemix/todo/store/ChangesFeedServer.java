@@ -0,0 +1,173 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.bluemix.todo.model.ToDo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the <code>_changes</code> feed of a Cloudant database.  Sequences are opaque
+ * strings like Cloudant's, long polls wait for a change or the requested timeout.
+ */
+public class ChangesFeedServer implements HttpHandler {
+
+  private final HttpServer server;
+  //The latest change of each document by ID, in sequence order
+  private final Map<String, String> changes = new LinkedHashMap<String, String>();
+  private final AtomicInteger requests = new AtomicInteger();
+  private int seq;
+  private int failures;
+
+  /**
+   * Creates and starts a server on a free port.
+   * @throws IOException Thrown if the server cannot be started.
+   */
+  public ChangesFeedServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", this);
+    //Long polls must not hold up other requests
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+  }
+
+  /**
+   * Gets the URL of the database.
+   * @return The URL.
+   */
+  public URI getUri() {
+    return URI.create("http://localhost:" + server.getAddress().getPort() + "/bluemix-todo");
+  }
+
+  /**
+   * Stops the server.
+   */
+  public void stop() {
+    server.stop(0);
+  }
+
+  /**
+   * Gets the number of requests made to the feed.
+   * @return The number of requests.
+   */
+  public int getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * Adds or changes a document.
+   * @param td The ToDo in the document, with its ID and revision.
+   */
+  public synchronized void put(ToDo td) {
+    String doc = "{\"_id\":\"" + td.getId() + "\",\"_rev\":\"" + td.getRev() + "\",\"title\":\"" 
+            + td.getTitle() + "\",\"completed\":" + td.isCompleted() + ",\"order\":" + td.getOrder() + "}";
+    change(td.getId(), td.getRev(), "\"doc\":" + doc);
+  }
+
+  /**
+   * Deletes a document.
+   * @param id The ID of the document.
+   * @param rev The revision of the deletion.
+   */
+  public synchronized void delete(String id, String rev) {
+    change(id, rev, "\"deleted\":true,\"doc\":{\"_id\":\"" + id + "\",\"_rev\":\"" + rev 
+            + "\",\"_deleted\":true}");
+  }
+
+  /**
+   * Makes the next requests fail.
+   * @param count The number of requests to fail.
+   */
+  public synchronized void fail(int count) {
+    failures = count;
+  }
+
+  private void change(String id, String rev, String body) {
+    seq++;
+    changes.remove(id);
+    changes.put(id, "{\"seq\":\"" + seq + "-g1AAAA\",\"id\":\"" + id + "\",\"changes\":[{\"rev\":\"" 
+            + rev + "\"}]," + body + "}");
+    notifyAll();
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    String body;
+    int status = 200;
+    try {
+      body = respond(exchange.getRequestURI());
+    } catch (InterruptedException e) {
+      body = null;
+    }
+    if(body == null) {
+      status = 500;
+      body = "{\"error\":\"internal_server_error\"}";
+    }
+    byte[] bytes = body.getBytes("UTF-8");
+    exchange.getResponseHeaders().add("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  private synchronized String respond(URI uri) throws InterruptedException {
+    if(failures > 0) {
+      failures--;
+      return null;
+    }
+    int since = 0;
+    long timeout = 0;
+    boolean longpoll = false;
+    String query = uri.getRawQuery() == null ? "" : uri.getRawQuery();
+    for(String param : query.split("&")) {
+      if(param.startsWith("since=")) {
+        since = Integer.parseInt(param.substring(6).replaceFirst("-.*", ""));
+      } else if(param.startsWith("timeout=")) {
+        timeout = Long.parseLong(param.substring(8));
+      } else if(param.equals("feed=longpoll")) {
+        longpoll = true;
+      }
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    while(longpoll && seq <= since && System.nanoTime() < deadline) {
+      TimeUnit.NANOSECONDS.timedWait(this, deadline - System.nanoTime());
+    }
+    StringBuilder json = new StringBuilder("{\"results\":[");
+    boolean first = true;
+    for(String change : changes.values()) {
+      int changeSeq = Integer.parseInt(change.replaceFirst("\\{\"seq\":\"(\\d+)-.*", "$1"));
+      if(changeSeq > since) {
+        json.append(first ? "" : ",").append(change);
+        first = false;
+      }
+    }
+    return json.append("],\"last_seq\":\"").append(seq).append("-g1AAAA\",\"pending\":0}").toString();
+  }
+}
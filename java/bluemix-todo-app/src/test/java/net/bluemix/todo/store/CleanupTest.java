@@ -0,0 +1,229 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoPage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CleanupTest {
+
+  private static final Executor DIRECT = Runnable::run;
+
+  private List<Runnable> pending;
+  private InMemoryStore backing;
+  private ToDoEventLog log;
+  private ToDoStore store;
+  private Cleanup cleanup;
+  private int deleteAlls;
+
+  @Before
+  public void setUp() throws Exception {
+    pending = new ArrayList<Runnable>();
+    backing = new InMemoryStore() {
+      @Override
+      public List<BulkResult> deleteAll(Collection<String> ids) {
+        deleteAlls++;
+        return super.deleteAll(ids);
+      }
+    };
+    log = new ToDoEventLog(10, 100, DIRECT);
+    store = new PublishingToDoStore(backing, log);
+    cleanup = new Cleanup(store, log, 3, pending::add);
+    cleanup.start();
+    runPending();
+  }
+
+  @Test
+  public void testEvictsOldest() throws Exception {
+    for(int order = 1; order <= 5; order++) {
+      persist(order);
+    }
+    //Going over the maximum hands over a single eviction
+    assertEquals(1, pending.size());
+    runPending();
+    assertEquals(3, backing.count());
+    assertEquals(3, cleanup.getCount());
+    assertEquals(2, cleanup.getEvictedCount());
+    assertEquals(1, deleteAlls);
+    int order = 3;
+    for(ToDo td : backing.getAll()) {
+      assertEquals(order++, td.getOrder());
+    }
+  }
+
+  @Test
+  public void testCountFollowsWrites() throws Exception {
+    ToDo td = persist(1);
+    persist(2);
+    persist(3);
+    assertEquals(3, cleanup.getCount());
+    store.update(td.getId(), td);
+    store.delete(td.getId());
+    assertEquals(2, cleanup.getCount());
+    assertTrue(pending.isEmpty());
+    assertEquals(0, deleteAlls);
+  }
+
+  @Test
+  public void testRunCatchesUnpublishedWrites() throws Exception {
+    for(int order = 1; order <= 5; order++) {
+      ToDo td = new ToDo();
+      td.setOrder(order);
+      backing.persist(td);
+    }
+    assertTrue(pending.isEmpty());
+    cleanup.run();
+    assertEquals(3, backing.count());
+    assertEquals(3, cleanup.getCount());
+  }
+
+  @Test
+  public void testSubscribesAgainWhenDropped() throws Exception {
+    //Events are never sent, so the second write overflows the buffer and the log drops it
+    List<Runnable> sends = new ArrayList<Runnable>();
+    log = new ToDoEventLog(10, 1, sends::add);
+    store = new PublishingToDoStore(backing, log);
+    cleanup = new Cleanup(store, log, 3, pending::add);
+    cleanup.start();
+    runPending();
+    assertEquals(1, log.getSubscriberCount());
+    persist(1);
+    persist(2);
+    assertEquals(0, log.getSubscriberCount());
+    for(Runnable send : sends) {
+      send.run();
+    }
+    runPending();
+    assertEquals(1, log.getSubscriberCount());
+    assertEquals(2, cleanup.getCount());
+  }
+
+  @Test
+  public void testOnlyLeaderCleansUp() throws Exception {
+    log = new ToDoEventLog(10, 100, DIRECT);
+    store = new PublishingToDoStore(backing, log);
+    InMemoryLease lease = new InMemoryLease();
+    LeaderElection first = new LeaderElection(lease, "first", 1, TimeUnit.MINUTES);
+    LeaderElection second = new LeaderElection(lease, "second", 1, TimeUnit.MINUTES);
+    Cleanup leader = new Cleanup(store, log, 3, pending::add, first);
+    Cleanup follower = new Cleanup(store, log, 3, pending::add, second);
+    leader.start();
+    follower.start();
+    first.run();
+    second.run();
+    runPending();
+    //The follower does not even follow the writes
+    assertEquals(1, log.getSubscriberCount());
+    for(int order = 1; order <= 5; order++) {
+      persist(order);
+    }
+    runPending();
+    assertEquals(3, backing.count());
+    assertEquals(1, deleteAlls);
+    //Once the leader steps down the next election hands over, and the follower evicts straight away
+    first.resign();
+    persist(6);
+    persist(7);
+    runPending();
+    assertEquals(5, backing.count());
+    second.run();
+    runPending();
+    assertEquals(3, backing.count());
+    assertEquals(2, deleteAlls);
+    assertEquals(2, follower.getEvictedCount());
+  }
+
+  @Test
+  public void testLeaseLapsesDuringRun() throws Exception {
+    final AtomicLong time = new AtomicLong();
+    LeaderElection election = new LeaderElection(new InMemoryLease(), "first", 1, TimeUnit.MINUTES) {
+      @Override
+      protected long now() {
+        return time.get();
+      }
+    };
+    ToDoStore slow = new InMemoryStore() {
+      @Override
+      public ToDoPage getPage(String cursor, int limit) {
+        //Answers so slowly the lease runs out, and another instance may be cleaning up by now
+        time.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        return super.getPage(cursor, limit);
+      }
+
+      @Override
+      public List<BulkResult> deleteAll(Collection<String> ids) {
+        deleteAlls++;
+        return super.deleteAll(ids);
+      }
+    };
+    for(int order = 1; order <= 5; order++) {
+      ToDo td = new ToDo();
+      td.setOrder(order);
+      slow.persist(td);
+    }
+    election.run();
+    cleanup = new Cleanup(slow, log, 3, pending::add, election);
+    cleanup.run();
+    assertEquals(0, deleteAlls);
+    assertEquals(5, slow.count());
+  }
+
+  @Test
+  public void testStoreErrors() throws Exception {
+    ToDoStore failing = new InMemoryStore() {
+      @Override
+      public int count() {
+        throw new IllegalStateException("Error");
+      }
+    };
+    Cleanup broken = new Cleanup(failing, log, 3, pending::add);
+    //Logged, and tried again on the next run
+    broken.run();
+    assertFalse(pending.contains(broken));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMax() {
+    new Cleanup(store, log, -1, DIRECT);
+  }
+
+  private ToDo persist(int order) throws ToDoStoreException {
+    ToDo td = new ToDo();
+    td.setOrder(order);
+    return store.persist(td);
+  }
+
+  private void runPending() {
+    while(!pending.isEmpty()) {
+      pending.remove(0).run();
+    }
+  }
+}
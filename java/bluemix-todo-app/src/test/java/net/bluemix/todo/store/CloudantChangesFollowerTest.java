@@ -0,0 +1,150 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.CloudantChangesReader.Change;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloudantChangesFollowerTest {
+
+  private ChangesFeedServer server;
+  private Client client;
+  private CloudantChangesFollower follower;
+  private List<String> changes;
+  private AtomicInteger resyncs;
+
+  private static ToDo todo(String id, String rev, String title) {
+    ToDo td = new ToDo();
+    td.setId(id);
+    td.setRev(rev);
+    td.setTitle(title);
+    return td;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ChangesFeedServer();
+    client = ClientBuilder.newClient();
+    changes = Collections.synchronizedList(new ArrayList<String>());
+    resyncs = new AtomicInteger();
+    follower = new CloudantChangesFollower(client.target(server.getUri()), 
+            new CloudantChangesFollower.Listener() {
+      @Override
+      public void resync() {
+        resyncs.incrementAndGet();
+        changes.clear();
+      }
+
+      @Override
+      public void changed(Change change) {
+        changes.add(change.getId() + (change.isDeleted() ? " deleted" : " " + change.getToDo().getTitle()));
+      }
+    }, 100, 200);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    follower.close();
+    client.close();
+    server.stop();
+  }
+
+  private void await(String expected) throws InterruptedException {
+    for(int i = 0; i < 500; i++) {
+      synchronized(changes) {
+        if(changes.contains(expected)) {
+          return;
+        }
+      }
+      Thread.sleep(10);
+    }
+    fail("Did not see " + expected + " in " + changes);
+  }
+
+  @Test
+  public void testPoll() throws Exception {
+    server.put(todo("123", "1-a", "pick up kids"));
+    assertFalse(follower.isSynced());
+    follower.poll();
+    assertTrue(follower.isSynced());
+    assertEquals(1, resyncs.get());
+    assertEquals(Collections.singletonList("123 pick up kids"), changes);
+    assertEquals("1-g1AAAA", follower.getSeq());
+    server.delete("123", "2-b");
+    follower.poll();
+    assertEquals(1, resyncs.get());
+    assertEquals("123 deleted", changes.get(1));
+    //Nothing changed, the long poll times out
+    follower.poll();
+    assertEquals(2, changes.size());
+  }
+
+  @Test
+  public void testPollError() throws Exception {
+    server.fail(1);
+    try {
+      follower.poll();
+      fail("Expected exception to be thrown.");
+    } catch(ToDoStoreException e) {
+      assertNull(follower.getSeq());
+    }
+  }
+
+  @Test
+  public void testFollow() throws Exception {
+    server.put(todo("123", "1-a", "pick up kids"));
+    follower.start();
+    await("123 pick up kids");
+    server.put(todo("456", "1-b", "pick up laundry"));
+    await("456 pick up laundry");
+    assertEquals(1, resyncs.get());
+  }
+
+  @Test
+  public void testResyncAfterError() throws Exception {
+    server.put(todo("123", "1-a", "pick up kids"));
+    follower.start();
+    await("123 pick up kids");
+    server.fail(2);
+    for(int i = 0; i < 500 && resyncs.get() < 2; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(2, resyncs.get());
+    //The whole feed was read again after the errors
+    await("123 pick up kids");
+    server.put(todo("456", "1-b", "pick up laundry"));
+    await("456 pick up laundry");
+    assertTrue(follower.isSynced());
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.CloudantChangesReader.Change;
+
+import org.junit.Test;
+
+public class CloudantChangesReaderTest {
+
+  private static CloudantChangesReader reader(String json) throws Exception {
+    return new CloudantChangesReader(new ByteArrayInputStream(json.getBytes("UTF-8")));
+  }
+
+  @Test
+  public void testRead() throws Exception {
+    CloudantChangesReader reader = reader("{\"results\":[" +
+        "{\"seq\":\"1-a\",\"id\":\"123\",\"changes\":[{\"rev\":\"2-abc\"},{\"rev\":\"2-abd\"}]," +
+          "\"doc\":{\"_id\":\"123\",\"_rev\":\"2-abc\",\"title\":\"pick up kids\",\"completed\":true," +
+          "\"order\":3,\"extra\":{\"nested\":[1,2]}}}," +
+        "{\"seq\":\"2-a\",\"id\":\"_design/todos\",\"changes\":[{\"rev\":\"1-x\"}],\"doc\":{\"views\":{}}}," +
+        "{\"seq\":\"3-a\",\"id\":\"456\",\"changes\":[{\"rev\":\"3-def\"}],\"deleted\":true," +
+          "\"doc\":{\"_id\":\"456\",\"_rev\":\"3-def\",\"_deleted\":true}}," +
+        "{\"seq\":\"4-a\",\"id\":\"789\",\"changes\":[{\"rev\":\"1-ghi\"}],\"doc\":{\"_id\":\"789\"}}" +
+        "],\"last_seq\":\"4-a\",\"pending\":0}");
+    Change change = reader.next();
+    assertFalse(change.isDeleted());
+    assertEquals("123", change.getId());
+    assertEquals("2-abc", change.getRev());
+    ToDo td = change.getToDo();
+    assertEquals("123", td.getId());
+    assertEquals("pick up kids", td.getTitle());
+    assertTrue(td.isCompleted());
+    assertEquals(3, td.getOrder());
+    assertEquals("2-abc", td.getRev());
+    assertNull(reader.getLastSeq());
+    change = reader.next();
+    assertEquals("456", change.getId());
+    assertTrue(change.isDeleted());
+    assertEquals("3-def", change.getRev());
+    //Not a ToDo, so it is no longer one as far as the reader is concerned
+    change = reader.next();
+    assertEquals("789", change.getId());
+    assertTrue(change.isDeleted());
+    assertNull(reader.next());
+    assertNull(reader.next());
+    assertEquals("4-a", reader.getLastSeq());
+    reader.close();
+  }
+
+  @Test
+  public void testNumericSeq() throws Exception {
+    CloudantChangesReader reader = reader("{\"results\":[],\"last_seq\":42}");
+    assertNull(reader.next());
+    assertEquals("42", reader.getLastSeq());
+  }
+
+  @Test
+  public void testNoResults() throws Exception {
+    CloudantChangesReader reader = reader("{\"last_seq\":\"1-a\"}");
+    assertNull(reader.next());
+    assertEquals("1-a", reader.getLastSeq());
+  }
+
+  @Test(expected = ToDoStoreException.class)
+  public void testNotAnObject() throws Exception {
+    reader("[]").next();
+  }
+
+  @Test(expected = ToDoStoreException.class)
+  public void testTruncated() throws Exception {
+    CloudantChangesReader reader = reader("{\"results\":[{\"seq\":\"1-a\",\"id\":\"123\"");
+    reader.next();
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+
+import net.bluemix.todo.json.JsonCodecProvider;
+import net.bluemix.todo.model.CloudantPostResponse;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class CloudantConnectionPoolTest {
+
+  private HttpServer server;
+  private Set<Integer> clientPorts;
+  private String authorization;
+  private CloudantConnectionPool pool;
+  private WebTarget target;
+
+  @Before
+  public void setUp() throws Exception {
+    clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if(exchange.getRequestURI().getPath().equals("/slow")) {
+          try {
+            Thread.sleep(1000);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        byte[] body = "{\"ok\":true}".getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    server.start();
+    pool = new CloudantConnectionPool(4, 4, 1000, 200, 60000);
+    Client client = pool.createClient("user", "pass");
+    target = client.target("http://localhost:" + server.getAddress().getPort());
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    pool.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void testJsonCodecs() throws Exception {
+    assertTrue(target.getConfiguration().isRegistered(JsonCodecProvider.class));
+    assertTrue(target.path("bluemix-todo").request().get(CloudantPostResponse.class).isOk());
+  }
+
+  @Test
+  public void testConnectionsAreReused() throws Exception {
+    for(int i = 0; i < 5; i++) {
+      Response resp = target.path("bluemix-todo").request().get();
+      assertEquals(200, resp.getStatus());
+      if(i % 2 == 0) {
+        resp.readEntity(String.class);
+      } else {
+        resp.bufferEntity();
+      }
+      resp.close();
+    }
+    assertEquals(1, clientPorts.size());
+    assertEquals(0, pool.getLeased());
+    assertEquals(1, pool.getAvailable());
+    assertEquals(0, pool.getPending());
+    assertEquals(4, pool.getMax());
+  }
+
+  @Test
+  public void testUnclosedResponseHoldsConnection() throws Exception {
+    Response resp = target.path("bluemix-todo").request().get();
+    assertEquals(1, pool.getLeased());
+    resp.close();
+    assertEquals(0, pool.getLeased());
+    //Closing a response without reading it discards the connection
+    assertEquals(0, pool.getAvailable());
+  }
+
+  @Test
+  public void testBasicAuth() throws Exception {
+    target.path("bluemix-todo").request().get().close();
+    assertEquals("Basic dXNlcjpwYXNz", authorization);
+  }
+
+  @Test
+  public void testReadTimeout() throws Exception {
+    try {
+      target.path("slow").request().get();
+      fail("Expected the request to time out.");
+    } catch(ProcessingException e) {
+      assertTrue(e.getCause() instanceof java.net.SocketTimeoutException);
+    }
+    assertEquals(0, pool.getLeased());
+  }
+}
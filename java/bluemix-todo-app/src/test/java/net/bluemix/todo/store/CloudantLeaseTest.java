@@ -0,0 +1,223 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class CloudantLeaseTest {
+
+  private LeaseServer server;
+  private Client client;
+  private long time;
+  private CloudantLease first;
+  private CloudantLease second;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new LeaseServer();
+    client = ClientBuilder.newClient();
+    time = 1400000000000L;
+    first = lease();
+    second = lease();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.stop();
+  }
+
+  @Test
+  public void testCreatesDB() throws Exception {
+    assertTrue(server.created);
+    assertEquals(3, server.requests);
+  }
+
+  @Test
+  public void testAcquire() throws Exception {
+    assertTrue(first.acquire("first", 10, TimeUnit.SECONDS));
+    assertFalse(second.acquire("second", 10, TimeUnit.SECONDS));
+    assertEquals(time + 10000, server.doc.getJsonNumber("expires").longValue());
+    assertEquals("first", server.doc.getString("holder"));
+  }
+
+  @Test
+  public void testRenewIsOneRequest() throws Exception {
+    first.acquire("first", 10, TimeUnit.SECONDS);
+    time += 5000;
+    int requests = server.requests;
+    assertTrue(first.acquire("first", 10, TimeUnit.SECONDS));
+    assertEquals(requests + 1, server.requests);
+    assertEquals(time + 10000, server.doc.getJsonNumber("expires").longValue());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    first.acquire("first", 10, TimeUnit.SECONDS);
+    time += 10000;
+    assertTrue(second.acquire("second", 10, TimeUnit.SECONDS));
+    //The remembered revision is out of date, so the renewal conflicts and finds the new holder
+    assertFalse(first.acquire("first", 10, TimeUnit.SECONDS));
+    assertEquals("second", server.doc.getString("holder"));
+  }
+
+  @Test
+  public void testRace() throws Exception {
+    //Both see the expired lease, only the first write of its revision wins
+    first.acquire("first", 10, TimeUnit.SECONDS);
+    time += 10000;
+    server.beforeWrite = new Runnable() {
+      @Override
+      public void run() {
+        server.beforeWrite = null;
+        server.write("second", time + 10000);
+      }
+    };
+    CloudantLease third = lease();
+    assertFalse(third.acquire("third", 10, TimeUnit.SECONDS));
+    assertEquals("second", server.doc.getString("holder"));
+  }
+
+  @Test
+  public void testRelease() throws Exception {
+    first.acquire("first", 10, TimeUnit.SECONDS);
+    second.release("second");
+    assertEquals("first", server.doc.getString("holder"));
+    first.release("first");
+    assertEquals(null, server.doc);
+    assertTrue(second.acquire("second", 10, TimeUnit.SECONDS));
+  }
+
+  @Test(expected = ToDoStoreException.class)
+  public void testServerError() throws Exception {
+    server.failing = true;
+    first.acquire("first", 10, TimeUnit.SECONDS);
+  }
+
+  private CloudantLease lease() throws ToDoStoreException {
+    return new CloudantLease(client.target(server.getUri()), "cleanup") {
+      @Override
+      protected long now() {
+        return time;
+      }
+    };
+  }
+
+  /**
+   * A stand-in for a Cloudant database holding one lease document, checking revisions like
+   * Cloudant does.
+   */
+  private static class LeaseServer implements HttpHandler {
+    private final HttpServer server;
+    private boolean created;
+    private JsonObject doc;
+    private int revs;
+    private int requests;
+    private boolean failing;
+    private Runnable beforeWrite;
+
+    public LeaseServer() throws IOException {
+      server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+      server.createContext("/", this);
+      server.start();
+    }
+
+    public String getUri() {
+      return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public void stop() {
+      server.stop(0);
+    }
+
+    public synchronized String write(String holder, long expires) {
+      String rev = ++revs + "-abc";
+      doc = Json.createObjectBuilder().add("_id", "cleanup").add("_rev", rev).add("holder", holder)
+              .add("expires", expires).build();
+      return rev;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      String method = exchange.getRequestMethod();
+      String path = exchange.getRequestURI().getPath();
+      JsonObject body = null;
+      if("PUT".equals(method) && path.endsWith("/cleanup")) {
+        body = Json.createReader(new InputStreamReader(exchange.getRequestBody(), "UTF-8")).readObject();
+        Runnable before = beforeWrite;
+        if(before != null) {
+          before.run();
+        }
+      }
+      int status;
+      String response = "{}";
+      synchronized(this) {
+        requests++;
+        if(failing) {
+          status = 500;
+        } else if(path.equals("/bluemix-todo-leases")) {
+          status = created ? ("PUT".equals(method) ? 412 : 200) : ("PUT".equals(method) ? 201 : 404);
+          created |= "PUT".equals(method);
+        } else if("GET".equals(method)) {
+          status = doc == null ? 404 : 200;
+          response = doc == null ? "{\"error\":\"not_found\"}" : doc.toString();
+        } else {
+          String rev = body != null ? body.getString("_rev", null) : 
+            exchange.getRequestURI().getQuery().replaceFirst("rev=", "");
+          String current = doc == null ? null : doc.getString("_rev");
+          if(current == null ? rev != null : !current.equals(rev)) {
+            status = 409;
+            response = "{\"error\":\"conflict\"}";
+          } else if(body == null) {
+            doc = null;
+            status = 200;
+          } else {
+            rev = write(body.getString("holder"), body.getJsonNumber("expires").longValue());
+            status = 201;
+            response = "{\"ok\":true,\"id\":\"cleanup\",\"rev\":\"" + rev + "\"}";
+          }
+        }
+      }
+      byte[] bytes = response.getBytes("UTF-8");
+      exchange.getResponseHeaders().add("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, bytes.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(bytes);
+      out.close();
+    }
+  }
+}
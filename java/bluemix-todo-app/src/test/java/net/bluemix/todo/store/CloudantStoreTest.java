@@ -15,33 +15,56 @@
  */
 package net.bluemix.todo.store;
 
+import static org.easymock.EasyMock.anyObject;
 import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createControl;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
 import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.client.AsyncInvoker;
 import javax.ws.rs.client.Entity;
 import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.Response;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.CloudantAllDocs;
+import net.bluemix.todo.model.CloudantBulkDocs;
 import net.bluemix.todo.model.CloudantCount;
 import net.bluemix.todo.model.CloudantPostResponse;
 import net.bluemix.todo.model.CloudantReducedRow;
 import net.bluemix.todo.model.CloudantRow;
 import net.bluemix.todo.model.CloudantToDo;
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
 
 import org.easymock.Capture;
+import org.easymock.CaptureType;
+import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 import org.glassfish.jersey.filter.LoggingFilter;
 import org.junit.After;
@@ -49,6 +72,11 @@ import org.junit.Before;
 import org.junit.Test;
 
 public class CloudantStoreTest {
+  //The design document the store creates, as Cloudant hands it back
+  private static final String DESIGN_DOC = "{\"_id\":\"_design/todos\",\"_rev\":\"2-abc\",\"views\":{" 
+          + "\"allTodos\":{\"reduce\":\"_count\",\"map\":\"function(doc){if(doc.title && doc.completed != null)"
+          + "{emit(doc.order,{title: doc.title,completed: doc.completed,rev: doc._rev})}}\"}}}";
+
   private CloudantAllDocs docs;
   private List<CloudantRow> rows;
   private CloudantRow row1;
@@ -73,6 +101,113 @@ public class CloudantStoreTest {
     return control.createMock(Invocation.Builder.class);
   }
   
+  private Response createStatusResponse(int status, int times) {
+    Response resp = createControl().createMock(Response.class);
+    expect(resp.getStatus()).andReturn(status).anyTimes();
+    expect(resp.bufferEntity()).andReturn(true).times(times);
+    resp.close();
+    expectLastCall().times(times);
+    replay(resp);
+    return resp;
+  }
+  
+  private <T> Response createEntityResponse(int status, Class<T> type, T entity) {
+    Response resp = createControl().createMock(Response.class);
+    expect(resp.getStatus()).andReturn(status).anyTimes();
+    expect(resp.readEntity(eq(type))).andReturn(entity);
+    resp.close();
+    expectLastCall();
+    replay(resp);
+    return resp;
+  }
+  
+  @SuppressWarnings("unchecked")
+  private Response createBulkResponse(BulkResult... results) {
+    Response resp = createControl().createMock(Response.class);
+    expect(resp.getStatus()).andReturn(201).anyTimes();
+    expect(resp.readEntity((GenericType<List<BulkResult>>)anyObject())).
+      andReturn(new ArrayList<BulkResult>(Arrays.asList(results)));
+    resp.close();
+    expectLastCall();
+    replay(resp);
+    return resp;
+  }
+  
+  private Response createAllDocsResponse(CloudantToDo... docs) {
+    CloudantAllDocs all = new CloudantAllDocs();
+    List<CloudantRow> rows = new ArrayList<CloudantRow>();
+    for(CloudantToDo doc : docs) {
+      CloudantRow row = new CloudantRow();
+      row.setDoc(doc);
+      rows.add(row);
+    }
+    all.setRows(rows);
+    return createEntityResponse(200, CloudantAllDocs.class, all);
+  }
+  
+  private BulkResult createResult(String id, String rev) {
+    BulkResult result = new BulkResult();
+    result.setId(id);
+    result.setRev(rev);
+    return result;
+  }
+  
+  private InputStream createViewStream(CloudantToDo... docs) throws Exception {
+    StringBuilder json = new StringBuilder("{\"total_rows\":" + docs.length + ",\"offset\":0,\"rows\":[");
+    for(int i = 0; i < docs.length; i++) {
+      if(i > 0) {
+        json.append(',');
+      }
+      json.append("{\"id\":\"").append(docs[i].get_id()).append("\",\"key\":").append(docs[i].getOrder()).
+        append(",\"value\":{\"title\":\"").append(docs[i].getTitle()).append("\",\"completed\":").
+        append(docs[i].isCompleted()).append(",\"rev\":\"").append(docs[i].get_rev()).append("\"}}");
+    }
+    json.append("]}");
+    return new ByteArrayInputStream(json.toString().getBytes("UTF-8"));
+  }
+  
+  private AsyncInvoker createAsyncInvoker(Invocation.Builder builder) {
+    AsyncInvoker invoker = createControl().createMock(AsyncInvoker.class);
+    expect(builder.async()).andReturn(invoker).anyTimes();
+    return invoker;
+  }
+  
+  /**
+   * Answers an asynchronous request by handing a response to its callback.
+   */
+  private <T> IAnswer<T> respond(final Response resp) {
+    return new IAnswer<T>() {
+      @SuppressWarnings("unchecked")
+      @Override
+      public T answer() throws Throwable {
+        Object[] args = getCurrentArguments();
+        ((InvocationCallback<Response>)args[args.length - 1]).completed(resp);
+        return null;
+      }
+    };
+  }
+  
+  private CloudantPostResponse createPostResponse(String id, String rev) {
+    CloudantPostResponse postResp = new CloudantPostResponse();
+    postResp.setId(id);
+    postResp.setOk(true);
+    postResp.setRev(rev);
+    return postResp;
+  }
+  
+  /**
+   * Sets up the requests made when the store is created, the database and design document
+   * already exist.
+   */
+  private void expectCreate(WebTarget wt, Invocation.Builder builder) {
+    expect(builder.get()).andReturn(createStatusResponse(200, 1));
+    expect(builder.get()).andReturn(createEntityResponse(200, String.class, DESIGN_DOC));
+    expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
+    expect(wt.path(eq("todos"))).andReturn(wt);
+    expect(wt.path(eq("_design"))).andReturn(wt);
+    expect(wt.request(eq("application/json"))).andReturn(builder).anyTimes();
+  }
+  
   @Before
   public void setUp() throws Exception {
     docs = new CloudantAllDocs();
@@ -126,17 +261,75 @@ public class CloudantStoreTest {
     reducedRows = null;
   }
 
+  @Test
+  public void testCreateDesignDoc() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expect(builder.get()).andReturn(createStatusResponse(200, 1));
+    expect(builder.get()).andReturn(createStatusResponse(404, 1));
+    Capture<Entity<String>> putCapture = new Capture<Entity<String>>();
+    expect(builder.put(capture(putCapture))).andReturn(createStatusResponse(201, 1));
+    replay(builder);
+    expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
+    expect(wt.path(eq("todos"))).andReturn(wt);
+    expect(wt.path(eq("_design"))).andReturn(wt);
+    expect(wt.request(eq("application/json"))).andReturn(builder).anyTimes();
+    replay(wt);
+    new CloudantStore(wt);
+    assertEquals(views(DESIGN_DOC), views(putCapture.getValue().getEntity()));
+    verify(wt);
+    verify(builder);
+  }
+
+  @Test
+  public void testUpdateDesignDoc() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    //Created by an earlier version of the app, the view does not emit revisions
+    String old = "{\"_id\":\"_design/todos\",\"_rev\":\"1-abc\",\"views\":{\"allTodos\":{" 
+            + "\"reduce\":\"_count\",\"map\":\"function(doc){if(doc.title && doc.completed != null)"
+            + "{emit(doc.order,{title: doc.title,completed: doc.completed})}}\"}}}";
+    for(int i = 0; i < 2; i++) {
+      expect(builder.get()).andReturn(createStatusResponse(200, 1)).
+              andReturn(createEntityResponse(200, String.class, old));
+    }
+    Capture<Entity<String>> putCapture = new Capture<Entity<String>>();
+    expect(builder.put(capture(putCapture))).andReturn(createStatusResponse(201, 1));
+    //Another app instance updated it first
+    expect(builder.put(isA(Entity.class))).andReturn(createStatusResponse(409, 1));
+    replay(builder);
+    expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(4);
+    expect(wt.path(eq("todos"))).andReturn(wt).times(2);
+    expect(wt.path(eq("_design"))).andReturn(wt).times(2);
+    expect(wt.request(eq("application/json"))).andReturn(builder).anyTimes();
+    replay(wt);
+    new CloudantStore(wt);
+    JsonObject updated = Json.createReader(new StringReader(putCapture.getValue().getEntity())).readObject();
+    assertEquals("1-abc", updated.getString("_rev"));
+    assertEquals(views(DESIGN_DOC), updated.getJsonObject("views"));
+    new CloudantStore(wt);
+    verify(wt);
+    verify(builder);
+  }
+
+  private static JsonObject views(String designDoc) {
+    return Json.createReader(new StringReader(designDoc)).readObject().getJsonObject("views");
+  }
+
   @Test
   public void testGetAll() throws Exception {
     IMocksControl control = createControl();
     Response resp = control.createMock(Response.class);
-    expect(resp.getStatus()).andReturn(200).times(3);
-    Capture<Class<CloudantAllDocs>> classCapture = new Capture<Class<CloudantAllDocs>>();
-    expect(resp.readEntity(capture(classCapture))).andReturn(docs);
+    expect(resp.getStatus()).andReturn(200).times(2);
+    Capture<Class<InputStream>> classCapture = new Capture<Class<InputStream>>();
+    expect(resp.readEntity(capture(classCapture))).andReturn(createViewStream(ctd1, ctd2, ctd3));
+    expect(resp.bufferEntity()).andReturn(true);
+    resp.close();
+    expectLastCall().times(2);
     replay(resp);
     WebTarget wt = createMockWebTarget();
     Invocation.Builder builder = createBuilder();
-    expect(builder.get()).andReturn(resp).times(3);
+    expect(builder.get()).andReturn(resp).andReturn(createEntityResponse(200, String.class, DESIGN_DOC)).andReturn(resp);
     replay(builder);
     expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
     expect(wt.path(eq("todos"))).andReturn(wt).times(2);
@@ -154,7 +347,7 @@ public class CloudantStoreTest {
     testToDos.add(ctd2.getToDo());
     testToDos.add(ctd3.getToDo());
     assertEquals(testToDos, todos);
-    assertEquals(CloudantAllDocs.class, classCapture.getValue());
+    assertEquals(InputStream.class, classCapture.getValue());
     verify(resp);
     verify(wt);
     verify(builder);
@@ -164,13 +357,16 @@ public class CloudantStoreTest {
   public void testGet() throws Exception {
     IMocksControl control = createControl();
     Response resp = control.createMock(Response.class);
-    expect(resp.getStatus()).andReturn(200).times(3);
+    expect(resp.getStatus()).andReturn(200).times(2);
     Capture<Class<CloudantToDo>> classCapture = new Capture<Class<CloudantToDo>>();
     expect(resp.readEntity(capture(classCapture))).andReturn(ctd1);
+    expect(resp.bufferEntity()).andReturn(true);
+    resp.close();
+    expectLastCall().times(2);
     replay(resp);
     WebTarget wt = createMockWebTarget();
     Invocation.Builder builder = createBuilder();
-    expect(builder.get()).andReturn(resp).times(3);
+    expect(builder.get()).andReturn(resp).andReturn(createEntityResponse(200, String.class, DESIGN_DOC)).andReturn(resp);
     replay(builder);
     expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
     expect(wt.path(eq("todos"))).andReturn(wt);
@@ -190,7 +386,7 @@ public class CloudantStoreTest {
   public void testPersist() throws Exception {
     IMocksControl control = createControl();
     Response resp = control.createMock(Response.class);
-    expect(resp.getStatus()).andReturn(200).times(2);
+    expect(resp.getStatus()).andReturn(200);
     expect(resp.getStatus()).andReturn(201);
     CloudantPostResponse postResp = new CloudantPostResponse();
     postResp.setId("123");
@@ -198,13 +394,16 @@ public class CloudantStoreTest {
     postResp.setRev("abc");
     Capture<Class<CloudantPostResponse>> classCapture = new Capture<Class<CloudantPostResponse>>();
     expect(resp.readEntity(capture(classCapture))).andReturn(postResp);
+    expect(resp.bufferEntity()).andReturn(true);
+    resp.close();
+    expectLastCall().times(2);
     replay(resp);
     WebTarget wt = createMockWebTarget();
     Invocation.Builder builder = createBuilder();
     ToDo td = new ToDo();
     td.setTitle("this is a test");
     expect(builder.post(isA(Entity.class))).andReturn(resp);
-    expect(builder.get()).andReturn(resp).times(2);
+    expect(builder.get()).andReturn(resp).andReturn(createEntityResponse(200, String.class, DESIGN_DOC));
     replay(builder);
     expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
     expect(wt.path(eq("todos"))).andReturn(wt);
@@ -226,7 +425,7 @@ public class CloudantStoreTest {
   public void testUpdate() throws Exception {
     IMocksControl control = createControl();
     Response resp = control.createMock(Response.class);
-    expect(resp.getStatus()).andReturn(200).times(3);
+    expect(resp.getStatus()).andReturn(200).times(2);
     expect(resp.getStatus()).andReturn(201);
     Capture<Class<CloudantToDo>> classToDoCapture = new Capture<Class<CloudantToDo>>();
     expect(resp.readEntity(capture(classToDoCapture))).andReturn(ctd1);
@@ -236,6 +435,9 @@ public class CloudantStoreTest {
     postResp.setRev("def");
     Capture<Class<CloudantPostResponse>> classCapture = new Capture<Class<CloudantPostResponse>>();
     expect(resp.readEntity(capture(classCapture))).andReturn(postResp);
+    expect(resp.bufferEntity()).andReturn(true);
+    resp.close();
+    expectLastCall().times(3);
     replay(resp);
     WebTarget wt = createMockWebTarget();
     Invocation.Builder builder = createBuilder();
@@ -243,7 +445,7 @@ public class CloudantStoreTest {
     td.setTitle("new text");
     td.setId("123");
     expect(builder.put(isA(Entity.class))).andReturn(resp);
-    expect(builder.get()).andReturn(resp).times(3);
+    expect(builder.get()).andReturn(resp).andReturn(createEntityResponse(200, String.class, DESIGN_DOC)).andReturn(resp);
     replay(builder);
     expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
     expect(wt.path(eq("todos"))).andReturn(wt);
@@ -271,10 +473,13 @@ public class CloudantStoreTest {
     expect(resp.getStatus()).andReturn(200).times(4);
     Capture<Class<CloudantToDo>> classCapture = new Capture<Class<CloudantToDo>>();
     expect(resp.readEntity(capture(classCapture))).andReturn(ctd1);
+    expect(resp.bufferEntity()).andReturn(true).times(2);
+    resp.close();
+    expectLastCall().times(3);
     replay(resp);
     WebTarget wt = createMockWebTarget();
     Invocation.Builder builder = createBuilder();
-    expect(builder.get()).andReturn(resp).times(3);
+    expect(builder.get()).andReturn(resp).andReturn(createEntityResponse(200, String.class, DESIGN_DOC)).andReturn(resp);
     expect(builder.delete()).andReturn(resp);
     replay(builder);
     expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
@@ -285,7 +490,7 @@ public class CloudantStoreTest {
     expect(wt.request(eq("application/json"))).andReturn(builder).times(4);
     replay(wt);
     CloudantStore store = new CloudantStore(wt);
-    store.delete("123");
+    assertTrue(store.delete("123"));
     assertEquals(CloudantToDo.class, classCapture.getValue());
     verify(resp);
     verify(wt);
@@ -296,13 +501,16 @@ public class CloudantStoreTest {
   public void testCount() throws Exception {
     IMocksControl control = createControl();
     Response resp = control.createMock(Response.class);
-    expect(resp.getStatus()).andReturn(200).times(3);
+    expect(resp.getStatus()).andReturn(200).times(2);
     Capture<Class<CloudantCount>> classCapture = new Capture<Class<CloudantCount>>();
     expect(resp.readEntity(capture(classCapture))).andReturn(count);
+    expect(resp.bufferEntity()).andReturn(true);
+    resp.close();
+    expectLastCall().times(2);
     replay(resp);
     WebTarget wt = createMockWebTarget();
     Invocation.Builder builder = createBuilder();
-    expect(builder.get()).andReturn(resp).times(3);
+    expect(builder.get()).andReturn(resp).andReturn(createEntityResponse(200, String.class, DESIGN_DOC)).andReturn(resp);
     replay(builder);
     expect(wt.path(eq("bluemix-todo"))).andReturn(wt).times(2);
     expect(wt.path(eq("todos"))).andReturn(wt).times(2);
@@ -318,4 +526,758 @@ public class CloudantStoreTest {
     verify(wt);
     verify(builder);
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testGetVersion() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expect(builder.get()).andReturn(createEntityResponse(200, String.class, 
+            "{\"db_name\":\"bluemix-todo\",\"sizes\":{\"file\":1234,\"update_seq\":1}," +
+            "\"update_seq\":\"12-g1AAAA\",\"doc_count\":2}"));
+    //CouchDB 1.x sequences are numbers
+    expect(builder.get()).andReturn(createEntityResponse(200, String.class, 
+            "{\"db_name\":\"bluemix-todo\",\"update_seq\":42}"));
+    expect(builder.get()).andReturn(createEntityResponse(200, String.class, 
+            "{\"db_name\":\"bluemix-todo\"}"));
+    Response error = createControl().createMock(Response.class);
+    expect(error.getStatus()).andReturn(500).anyTimes();
+    error.close();
+    expectLastCall();
+    replay(error);
+    expect(builder.get()).andReturn(error);
+    replay(builder);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertEquals("12-g1AAAA", store.getVersion());
+    assertEquals("42", store.getVersion());
+    for(int i = 0; i < 2; i++) {
+      try {
+        store.getVersion();
+        fail("Expected exception to be thrown.");
+      } catch(ToDoStoreException e) {
+        //expected
+      }
+    }
+    verify(error);
+    verify(wt);
+    verify(builder);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testGetVersionAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, String.class, "{\"update_seq\":\"3-g1AAAA\"}")));
+    replay(invoker);
+    replay(builder);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertEquals("3-g1AAAA", store.getVersionAsync().toCompletableFuture().get());
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+
+  private static InputStream createChangesStream() throws Exception {
+    String json = "{\"results\":[" +
+            "{\"seq\":\"5-g1AAAA\",\"id\":\"_design/todos\",\"changes\":[{\"rev\":\"1-aaa\"}]}," +
+            "{\"seq\":\"6-g1AAAA\",\"id\":\"123\",\"changes\":[{\"rev\":\"2-abc\"}]," +
+            "\"doc\":{\"_id\":\"123\",\"_rev\":\"2-abc\",\"title\":\"title1\",\"completed\":false}}," +
+            "{\"seq\":\"7-g1AAAA\",\"id\":\"456\",\"changes\":[{\"rev\":\"3-def\"}],\"deleted\":true}" +
+            "],\"last_seq\":\"7-g1AAAA\",\"pending\":0}";
+    return new ByteArrayInputStream(json.getBytes("UTF-8"));
+  }
+
+  private static void expectChanges(WebTarget wt, String since, int limit) {
+    expect(wt.path(eq("_changes"))).andReturn(wt);
+    expect(wt.queryParam(eq("include_docs"), eq(true))).andReturn(wt);
+    expect(wt.queryParam(eq("since"), eq(since))).andReturn(wt);
+    expect(wt.queryParam(eq("limit"), eq(limit))).andReturn(wt);
+  }
+
+  @Test
+  public void testGetChanges() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expectChanges(wt, "4-g1AAAA", 10);
+    expect(builder.get()).andReturn(createEntityResponse(200, InputStream.class, createChangesStream()));
+    //Cloudant does not know the sequence
+    expectChanges(wt, "nonsense", 10);
+    Response badRequest = createControl().createMock(Response.class);
+    expect(badRequest.getStatus()).andReturn(400).anyTimes();
+    badRequest.close();
+    expectLastCall();
+    replay(badRequest);
+    expect(builder.get()).andReturn(badRequest);
+    expect(builder.get()).andReturn(createEntityResponse(200, String.class, "{\"update_seq\":\"7-g1AAAA\"}"));
+    replay(builder);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDoChanges changes = store.getChanges("4-g1AAAA", 10);
+    assertFalse(changes.isResync());
+    assertFalse(changes.isMore());
+    assertEquals("7-g1AAAA", changes.getSeq());
+    assertEquals(1, changes.getUpserts().size());
+    assertEquals("title1", changes.getUpserts().get(0).getTitle());
+    assertEquals("2-abc", changes.getUpserts().get(0).getRev());
+    assertEquals(Arrays.asList("456"), changes.getDeleted());
+    changes = store.getChanges("nonsense", 10);
+    assertTrue(changes.isResync());
+    assertEquals("7-g1AAAA", changes.getSeq());
+    verify(badRequest);
+    verify(wt);
+    verify(builder);
+  }
+
+  @Test
+  public void testGetChangesAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expectChanges(wt, "4-g1AAAA", 2);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, InputStream.class, createChangesStream())));
+    //Without a sequence only the current one is needed
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, String.class, "{\"update_seq\":\"7-g1AAAA\"}")));
+    replay(invoker);
+    replay(builder);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDoChanges changes = store.getChangesAsync("4-g1AAAA", 2).toCompletableFuture().get();
+    assertEquals(1, changes.getUpserts().size());
+    assertEquals(1, changes.getDeleted().size());
+    assertTrue(changes.isMore());
+    changes = store.getChangesAsync(null, 2).toCompletableFuture().get();
+    assertTrue(changes.isResync());
+    assertEquals("7-g1AAAA", changes.getSeq());
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+
+  @Test
+  public void testUpdateWithRememberedRevision() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expect(builder.post(isA(Entity.class))).andReturn(
+            createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "1-abc")));
+    Capture<Entity<CloudantToDo>> putCapture = new Capture<Entity<CloudantToDo>>();
+    expect(builder.put(capture(putCapture))).andReturn(
+            createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "2-def")));
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("1-abc"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDo td = new ToDo();
+    td.setTitle("this is a test");
+    store.persist(td);
+    assertEquals("1-abc", td.getRev());
+    td.setCompleted(true);
+    ToDo updated = store.update("123", td);
+    assertEquals("2-def", updated.getRev());
+    assertEquals("1-abc", putCapture.getValue().getEntity().get_rev());
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testUpdateConflict() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expect(builder.post(isA(Entity.class))).andReturn(
+            createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "1-abc")));
+    Response conflict = createStatusResponse(409, 1);
+    Response updated = createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "3-ghi"));
+    expect(builder.put(isA(Entity.class))).andReturn(conflict).andReturn(updated);
+    CloudantToDo current = new CloudantToDo();
+    current.set_id("123");
+    current.set_rev("2-def");
+    expect(builder.get()).andReturn(createEntityResponse(200, CloudantToDo.class, current));
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("1-abc"))).andReturn(wt);
+    expect(wt.queryParam(eq("rev"), eq("2-def"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt).times(3);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDo td = new ToDo();
+    td.setTitle("this is a test");
+    store.persist(td);
+    assertEquals("3-ghi", store.update("123", td).getRev());
+    verify(conflict);
+    verify(updated);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testDeleteWithRememberedRevision() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expect(builder.get()).andReturn(createEntityResponse(200, CloudantToDo.class, ctd1));
+    Response deleted = createStatusResponse(200, 1);
+    expect(builder.delete()).andReturn(deleted);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("abc"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt).times(2);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertEquals(ctd1.getToDo(), store.get("123"));
+    store.delete("123");
+    verify(deleted);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testDeleteConflict() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    CloudantToDo current = new CloudantToDo();
+    current.set_id("123");
+    current.set_rev("2-def");
+    expect(builder.get()).andReturn(createEntityResponse(200, CloudantToDo.class, ctd1)).
+            andReturn(createEntityResponse(200, CloudantToDo.class, current));
+    Response conflict = createStatusResponse(409, 1);
+    Response deleted = createStatusResponse(200, 1);
+    expect(builder.delete()).andReturn(conflict).andReturn(deleted);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("abc"))).andReturn(wt);
+    expect(wt.queryParam(eq("rev"), eq("2-def"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt).times(4);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    store.get("123");
+    store.delete("123");
+    verify(conflict);
+    verify(deleted);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testDeleteMissing() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    Response missing = createStatusResponse(404, 1);
+    Response refetched = createStatusResponse(404, 1);
+    Response gone = createStatusResponse(404, 1);
+    expect(builder.get()).andReturn(missing).
+            andReturn(createEntityResponse(200, CloudantToDo.class, ctd1)).andReturn(refetched).
+            andReturn(createEntityResponse(200, CloudantToDo.class, ctd1));
+    //Deleted elsewhere since we remembered its revision, then deleted between our GET and DELETE
+    Response conflict = createStatusResponse(409, 1);
+    expect(builder.delete()).andReturn(conflict).andReturn(gone);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("abc"))).andReturn(wt).times(2);
+    expect(wt.path(eq("123"))).andReturn(wt).times(6);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertFalse(store.delete("123"));
+    store.get("123");
+    assertFalse(store.delete("123"));
+    store.get("123");
+    assertFalse(store.delete("123"));
+    verify(missing);
+    verify(refetched);
+    verify(conflict);
+    verify(gone);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testConditionalUpdate() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    Capture<Entity<CloudantToDo>> putCapture = new Capture<Entity<CloudantToDo>>();
+    //No GET, the given revision is used as it is
+    expect(builder.put(capture(putCapture))).andReturn(
+            createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "2-def")));
+    Response conflict = createStatusResponse(409, 1);
+    Response missing = createStatusResponse(404, 1);
+    expect(builder.put(isA(Entity.class))).andReturn(conflict).andReturn(missing);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("1-abc"))).andReturn(wt).times(2);
+    expect(wt.queryParam(eq("rev"), eq("2-xyz"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt).times(3);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDo td = new ToDo();
+    td.setTitle("this is a test");
+    assertEquals("2-def", store.update("123", td, "1-abc").getRev());
+    assertEquals("1-abc", putCapture.getValue().getEntity().get_rev());
+    for(String rev : new String[] {"1-abc", "2-xyz"}) {
+      try {
+        store.update("123", td, rev);
+        fail("Expected exception to be thrown.");
+      } catch(RevisionMismatchException e) {
+        //expected
+      }
+    }
+    verify(conflict);
+    verify(missing);
+    verify(wt);
+    verify(builder);
+  }
+
+  @Test
+  public void testConditionalDelete() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    Response deleted = createStatusResponse(200, 1);
+    Response conflict = createStatusResponse(409, 1);
+    expect(builder.delete()).andReturn(deleted).andReturn(conflict);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("1-abc"))).andReturn(wt).times(2);
+    expect(wt.path(eq("123"))).andReturn(wt).times(2);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    store.delete("123", "1-abc");
+    try {
+      store.delete("123", "1-abc");
+      fail("Expected exception to be thrown.");
+    } catch(RevisionMismatchException e) {
+      //expected
+    }
+    verify(deleted);
+    verify(conflict);
+    verify(wt);
+    verify(builder);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testConditionalWritesAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.put(isA(Entity.class), isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "2-def"))));
+    expect(invoker.delete(isA(InvocationCallback.class))).andAnswer(respond(createStatusResponse(409, 1)));
+    replay(invoker);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("1-abc"))).andReturn(wt).times(2);
+    expect(wt.path(eq("123"))).andReturn(wt).times(2);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDo td = new ToDo();
+    td.setTitle("this is a test");
+    assertEquals("2-def", store.updateAsync("123", td, "1-abc").toCompletableFuture().get().getRev());
+    try {
+      store.deleteAsync("123", "1-abc").toCompletableFuture().get();
+      fail("Expected exception to be thrown.");
+    } catch(ExecutionException e) {
+      assertTrue(e.getCause() instanceof RevisionMismatchException);
+    }
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+
+  @Test
+  public void testGetAllRemembersRevisions() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expect(builder.get()).andReturn(createEntityResponse(200, InputStream.class, 
+            createViewStream(ctd1, ctd2, ctd3)));
+    Response deleted = createStatusResponse(200, 1);
+    expect(builder.delete()).andReturn(deleted);
+    replay(builder);
+    expect(wt.path(eq("_design"))).andReturn(wt);
+    expect(wt.path(eq("todos"))).andReturn(wt);
+    expect(wt.path(eq("_view"))).andReturn(wt);
+    expect(wt.path(eq("allTodos"))).andReturn(wt);
+    expect(wt.queryParam(eq("reduce"), eq(false))).andReturn(wt);
+    expect(wt.queryParam(eq("rev"), eq("def"))).andReturn(wt);
+    expect(wt.path(eq("456"))).andReturn(wt);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    store.getAll();
+    store.delete("456");
+    verify(deleted);
+    verify(wt);
+    verify(builder);
+  }
+
+  @Test
+  public void testPersistAll() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    Capture<Entity<CloudantBulkDocs>> bulkCapture = Capture.newInstance(CaptureType.ALL);
+    expect(builder.post(capture(bulkCapture))).
+      andReturn(createBulkResponse(createResult("1", "1-a"), createResult("2", "1-b"))).
+      andReturn(createBulkResponse(createResult("3", "1-c")));
+    replay(builder);
+    expect(wt.path(eq("_bulk_docs"))).andReturn(wt).times(2);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt, 10, 2);
+    List<ToDo> tds = new ArrayList<ToDo>();
+    for(int i = 0; i < 3; i++) {
+      ToDo td = new ToDo();
+      td.setTitle("todo " + i);
+      td.setId("ignored");
+      tds.add(td);
+    }
+    List<BulkResult> results = store.persistAll(tds);
+    assertEquals(3, results.size());
+    for(int i = 0; i < 3; i++) {
+      assertTrue(results.get(i).isOk());
+      assertEquals(String.valueOf(i + 1), tds.get(i).getId());
+    }
+    assertEquals("1-c", tds.get(2).getRev());
+    assertEquals(2, bulkCapture.getValues().get(0).getEntity().getDocs().size());
+    assertEquals(1, bulkCapture.getValues().get(1).getEntity().getDocs().size());
+    assertEquals(null, bulkCapture.getValues().get(0).getEntity().getDocs().get(0).get_id());
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testUpdateAll() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    expect(builder.get()).andReturn(createEntityResponse(200, CloudantToDo.class, ctd1));
+    CloudantToDo current = new CloudantToDo();
+    current.set_id("123");
+    current.set_rev("2-abc");
+    Capture<Entity<?>> postCapture = Capture.newInstance(CaptureType.ALL);
+    expect(builder.post(capture(postCapture))).
+      andReturn(createAllDocsResponse(ctd2)).
+      andReturn(createBulkResponse(new BulkResult("123", "conflict", "Document update conflict."), 
+              createResult("456", "2-def"))).
+      andReturn(createAllDocsResponse(current)).
+      andReturn(createBulkResponse(createResult("123", "3-abc")));
+    replay(builder);
+    expect(wt.path(eq("123"))).andReturn(wt);
+    expect(wt.queryParam(eq("include_docs"), eq(true))).andReturn(wt).times(2);
+    expect(wt.path(eq("_all_docs"))).andReturn(wt).times(2);
+    expect(wt.path(eq("_bulk_docs"))).andReturn(wt).times(2);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    store.get("123");
+    List<BulkResult> results = store.updateAll(Arrays.asList(ctd1.getToDo(), ctd2.getToDo()));
+    assertEquals("3-abc", results.get(0).getRev());
+    assertTrue(results.get(0).isOk());
+    assertEquals("2-def", results.get(1).getRev());
+    assertTrue(results.get(1).isOk());
+    CloudantBulkDocs first = (CloudantBulkDocs)postCapture.getValues().get(1).getEntity();
+    assertEquals(2, first.getDocs().size());
+    assertEquals("def", first.getDocs().get(1).get_rev());
+    CloudantBulkDocs retry = (CloudantBulkDocs)postCapture.getValues().get(3).getEntity();
+    assertEquals(1, retry.getDocs().size());
+    assertEquals("2-abc", retry.getDocs().get(0).get_rev());
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testDeleteAll() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    Capture<Entity<?>> postCapture = Capture.newInstance(CaptureType.ALL);
+    expect(builder.post(capture(postCapture))).
+      andReturn(createAllDocsResponse(ctd1)).
+      andReturn(createBulkResponse(createResult("123", "2-abc")));
+    replay(builder);
+    expect(wt.queryParam(eq("include_docs"), eq(true))).andReturn(wt);
+    expect(wt.path(eq("_all_docs"))).andReturn(wt);
+    expect(wt.path(eq("_bulk_docs"))).andReturn(wt);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    List<BulkResult> results = store.deleteAll(Arrays.asList("123", "999"));
+    assertTrue(results.get(0).isOk());
+    assertFalse(results.get(1).isOk());
+    assertEquals("not_found", results.get(1).getError());
+    CloudantBulkDocs sent = (CloudantBulkDocs)postCapture.getValues().get(1).getEntity();
+    assertEquals(1, sent.getDocs().size());
+    assertEquals("abc", sent.getDocs().get(0).get_rev());
+    assertTrue(sent.getDocs().get(0).get_deleted());
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testBulkWithoutIds() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    //Nothing is sent, Cloudant would create new documents rather than change existing ones
+    replay(builder);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDo td = new ToDo();
+    td.setTitle("no ID");
+    List<BulkResult> updated = store.updateAll(Arrays.asList(td));
+    assertFalse(updated.get(0).isOk());
+    assertEquals("not_found", updated.get(0).getError());
+    List<BulkResult> deleted = store.deleteAllAsync(Arrays.asList((String)null))
+            .toCompletableFuture().get();
+    assertFalse(deleted.get(0).isOk());
+    assertEquals("not_found", deleted.get(0).getError());
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testBulkEmpty() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    replay(builder);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertTrue(store.persistAll(new ArrayList<ToDo>()).isEmpty());
+    assertTrue(store.deleteAll(new ArrayList<String>()).isEmpty());
+    verify(wt);
+    verify(builder);
+  }
+  
+  @Test
+  public void testGetPage() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    ctd2.setOrder(1);
+    ctd3.setOrder(1);
+    expect(builder.get()).andReturn(createEntityResponse(200, InputStream.class, 
+            createViewStream(ctd2, ctd3)));
+    replay(builder);
+    expect(wt.path(eq("_design"))).andReturn(wt);
+    expect(wt.path(eq("todos"))).andReturn(wt);
+    expect(wt.path(eq("_view"))).andReturn(wt);
+    expect(wt.path(eq("allTodos"))).andReturn(wt);
+    expect(wt.queryParam(eq("reduce"), eq(false))).andReturn(wt);
+    expect(wt.queryParam(eq("limit"), eq(2))).andReturn(wt);
+    expect(wt.queryParam(eq("startkey"), eq(1))).andReturn(wt);
+    expect(wt.queryParam(eq("startkey_docid"), eq("456"))).andReturn(wt);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDoPage page = store.getPage(new OrderKey(1, "456").encode(), 1);
+    assertEquals(1, page.getToDos().size());
+    assertEquals(ctd2.getToDo(), page.getToDos().get(0));
+    assertEquals(new OrderKey(1, "789"), OrderKey.decode(page.getNext()));
+    verify(wt);
+    verify(builder);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testGetAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, CloudantToDo.class, ctd1)));
+    replay(invoker);
+    replay(builder);
+    expect(wt.path(eq("123"))).andReturn(wt);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertEquals(ctd1.getToDo(), store.getAsync("123").toCompletableFuture().get());
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testGetAllAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, InputStream.class, createViewStream(ctd1, ctd2))));
+    replay(invoker);
+    replay(builder);
+    expect(wt.path(eq("_design"))).andReturn(wt);
+    expect(wt.path(eq("todos"))).andReturn(wt);
+    expect(wt.path(eq("_view"))).andReturn(wt);
+    expect(wt.path(eq("allTodos"))).andReturn(wt);
+    expect(wt.queryParam(eq("reduce"), eq(false))).andReturn(wt);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    Collection<ToDo> todos = store.getAllAsync().toCompletableFuture().get();
+    assertEquals(Arrays.asList(ctd1.getToDo(), ctd2.getToDo()), todos);
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testUpdateConflictAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.post(isA(Entity.class), isA(InvocationCallback.class))).andAnswer(respond(
+            createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "1-abc"))));
+    Response conflict = createStatusResponse(409, 1);
+    Response updated = createEntityResponse(201, CloudantPostResponse.class, createPostResponse("123", "3-ghi"));
+    expect(invoker.put(isA(Entity.class), isA(InvocationCallback.class))).andAnswer(respond(conflict)).
+      andAnswer(respond(updated));
+    CloudantToDo current = new CloudantToDo();
+    current.set_id("123");
+    current.set_rev("2-def");
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, CloudantToDo.class, current)));
+    replay(invoker);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("1-abc"))).andReturn(wt);
+    expect(wt.queryParam(eq("rev"), eq("2-def"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt).times(3);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    ToDo td = new ToDo();
+    td.setTitle("this is a test");
+    assertEquals("123", store.persistAsync(td).toCompletableFuture().get().getId());
+    assertEquals("3-ghi", store.updateAsync("123", td).toCompletableFuture().get().getRev());
+    verify(conflict);
+    verify(updated);
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testDeleteAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, CloudantToDo.class, ctd1)));
+    Response deleted = createStatusResponse(200, 1);
+    expect(invoker.delete(isA(InvocationCallback.class))).andAnswer(respond(deleted));
+    replay(invoker);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("abc"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt).times(2);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    store.deleteAsync("123").toCompletableFuture().get();
+    verify(deleted);
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testDeleteMissingAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    Response missing = createStatusResponse(404, 1);
+    Response refetched = createStatusResponse(404, 1);
+    expect(builder.get()).andReturn(createEntityResponse(200, CloudantToDo.class, ctd1));
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(respond(missing)).
+            andAnswer(respond(refetched));
+    Response conflict = createStatusResponse(409, 1);
+    expect(invoker.delete(isA(InvocationCallback.class))).andAnswer(respond(conflict));
+    replay(invoker);
+    replay(builder);
+    expect(wt.queryParam(eq("rev"), eq("abc"))).andReturn(wt);
+    expect(wt.path(eq("123"))).andReturn(wt).times(4);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertFalse(store.deleteAsync("123").toCompletableFuture().get());
+    store.get("123");
+    assertFalse(store.deleteAsync("123").toCompletableFuture().get());
+    verify(missing);
+    verify(refetched);
+    verify(conflict);
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCountAsync() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(200, CloudantCount.class, count)));
+    replay(invoker);
+    replay(builder);
+    expect(wt.path(eq("_design"))).andReturn(wt);
+    expect(wt.path(eq("todos"))).andReturn(wt);
+    expect(wt.path(eq("_view"))).andReturn(wt);
+    expect(wt.path(eq("allTodos"))).andReturn(wt);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    assertEquals(123, store.countAsync().toCompletableFuture().get().intValue());
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+  
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testAsyncFailure() throws Exception {
+    WebTarget wt = createMockWebTarget();
+    Invocation.Builder builder = createBuilder();
+    expectCreate(wt, builder);
+    AsyncInvoker invoker = createAsyncInvoker(builder);
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        ((InvocationCallback<Response>)getCurrentArguments()[0]).failed(
+                new ProcessingException("connection refused"));
+        return null;
+      }
+    });
+    expect(invoker.get(isA(InvocationCallback.class))).andAnswer(
+            respond(createEntityResponse(500, CloudantToDo.class, null)));
+    replay(invoker);
+    replay(builder);
+    expect(wt.path(eq("123"))).andReturn(wt).times(2);
+    replay(wt);
+    CloudantStore store = new CloudantStore(wt);
+    for(int i = 0; i < 2; i++) {
+      try {
+        store.getAsync("123").toCompletableFuture().get();
+        fail("Expected exception to be thrown.");
+      } catch(ExecutionException e) {
+        assertTrue(e.getCause() instanceof ToDoStoreException);
+      }
+    }
+    try {
+      store.getPageAsync(null, 0).toCompletableFuture().get();
+      fail("Expected exception to be thrown.");
+    } catch(ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+    verify(invoker);
+    verify(wt);
+    verify(builder);
+  }
+}
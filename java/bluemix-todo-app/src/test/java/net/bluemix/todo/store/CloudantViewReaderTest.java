@@ -0,0 +1,102 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.Test;
+
+public class CloudantViewReaderTest {
+
+  private static ByteArrayInputStream stream(String json) throws Exception {
+    return new ByteArrayInputStream(json.getBytes("UTF-8"));
+  }
+
+  @Test
+  public void testNext() throws Exception {
+    ByteArrayInputStream in = stream("{\"total_rows\":2,\"offset\":0,\"rows\":[" +
+        "{\"id\":\"123\",\"key\":1,\"value\":{\"title\":\"title1\",\"completed\":true,\"rev\":\"1-abc\"}}," +
+        "{\"value\":{\"rev\":\"2-def\",\"title\":\"title2\",\"completed\":false},\"key\":2,\"id\":\"456\"}" +
+        "],\"update_seq\":12}");
+    CloudantViewReader reader = new CloudantViewReader(in);
+    ToDo td = reader.next();
+    assertEquals("123", td.getId());
+    assertEquals(1, td.getOrder());
+    assertEquals("title1", td.getTitle());
+    assertTrue(td.isCompleted());
+    assertEquals("1-abc", td.getRev());
+    td = reader.next();
+    assertEquals("456", td.getId());
+    assertEquals(2, td.getOrder());
+    assertEquals("title2", td.getTitle());
+    assertFalse(td.isCompleted());
+    assertEquals("2-def", td.getRev());
+    assertNull(reader.next());
+    assertNull(reader.next());
+    //The whole response is read so the connection can be reused
+    assertEquals(0, in.available());
+    reader.close();
+  }
+
+  @Test
+  public void testSkipsUnknownFields() throws Exception {
+    CloudantViewReader reader = new CloudantViewReader(stream("{\"total_rows\":1,\"other\":{\"rows\":[1]}," +
+        "\"rows\":[{\"id\":\"123\",\"key\":[1,{\"a\":2}],\"doc\":{\"_id\":\"123\",\"tags\":[[],{}]}," +
+        "\"value\":{\"title\":\"title1\",\"extra\":{\"title\":\"nested\"},\"completed\":null}}]}"));
+    ToDo td = reader.next();
+    assertEquals("123", td.getId());
+    assertEquals(0, td.getOrder());
+    assertEquals("title1", td.getTitle());
+    assertFalse(td.isCompleted());
+    assertNull(td.getRev());
+    assertNull(reader.next());
+    reader.close();
+  }
+
+  @Test
+  public void testNoRows() throws Exception {
+    CloudantViewReader reader = new CloudantViewReader(stream("{\"total_rows\":0,\"offset\":0,\"rows\":[]}"));
+    assertNull(reader.next());
+    reader.close();
+    reader = new CloudantViewReader(stream("{\"total_rows\":0}"));
+    assertNull(reader.next());
+    reader.close();
+  }
+
+  @Test(expected = ToDoStoreException.class)
+  public void testNotAnObject() throws Exception {
+    new CloudantViewReader(stream("[]")).next();
+  }
+
+  @Test(expected = ToDoStoreException.class)
+  public void testInvalidJson() throws Exception {
+    CloudantViewReader reader = new CloudantViewReader(stream("{\"rows\":[{\"id\":\"123\",\"key\":1}"));
+    assertEquals("123", reader.next().getId());
+    reader.next();
+  }
+
+  @Test(expected = ToDoStoreException.class)
+  public void testTruncated() throws Exception {
+    new CloudantViewReader(stream("{\"rows\":[{\"id\":\"123\",\"ke")).next();
+  }
+}
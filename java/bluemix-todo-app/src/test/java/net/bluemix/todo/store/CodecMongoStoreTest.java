@@ -0,0 +1,511 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reportMatcher;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.easymock.Capture;
+import org.easymock.IAnswer;
+import org.easymock.IArgumentMatcher;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndReplaceOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+
+public class CodecMongoStoreTest {
+
+  private static final String ID = "aaaaaaaaaaaaaaaaaaaaaaa1";
+  private static final Bson ID_QUERY = Filters.eq("_id", new ObjectId(ID));
+  private static final Bson VERSION_QUERY = Filters.eq("_id", "todos");
+  private static final Bson VERSION_INC = Updates.inc("version", 1L);
+
+  private MongoCollection<ToDo> coll;
+  private MongoCollection<Document> versions;
+  private MongoCollection<Document> changes;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    coll = createMock(MongoCollection.class);
+    expect(coll.getCodecRegistry()).andReturn(MongoClient.getDefaultCodecRegistry());
+    expect(coll.withCodecRegistry(isA(CodecRegistry.class))).andReturn(coll);
+    versions = createMock(MongoCollection.class);
+    changes = createMock(MongoCollection.class);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testStreamAll() {
+    FindIterable<ToDo> all = createMock(FindIterable.class);
+    MongoCursor<ToDo> cursor = createMock(MongoCursor.class);
+    expect(coll.find()).andReturn(all);
+    //The cursor is asked for a batch at a time
+    expect(all.batchSize(100)).andReturn(all);
+    expect(all.iterator()).andReturn(cursor);
+    expect(cursor.hasNext()).andReturn(true);
+    expect(cursor.next()).andReturn(todo(ID, "pick up kids"));
+    cursor.close();
+    replay(coll, all, cursor);
+    try(ToDoCursor todos = store(null).streamAll()) {
+      assertTrue(todos.hasNext());
+      assertEquals("pick up kids", todos.next().getTitle());
+    }
+    verify(coll, all, cursor);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGet() {
+    FindIterable<ToDo> found = createMock(FindIterable.class);
+    expect(found.first()).andReturn(todo(ID, "pick up kids"));
+    FindIterable<ToDo> missing = createMock(FindIterable.class);
+    expect(missing.first()).andReturn(null);
+    //Looked up by ObjectId, not by its string
+    expect(coll.find(bson(ID_QUERY))).andReturn(found);
+    expect(coll.find(bson(Filters.eq("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"))))).andReturn(missing);
+    replay(coll, found, missing);
+    CodecMongoStore store = store(null);
+    assertEquals("pick up kids", store.get(ID).getTitle());
+    assertNull(store.get("aaaaaaaaaaaaaaaaaaaaaaa2"));
+    //Not an ObjectId, so there is no need to ask
+    assertNull(store.get("1"));
+    assertNull(store.get(null));
+    verify(coll, found, missing);
+  }
+
+  @Test
+  public void testPersist() {
+    Capture<ToDo> inserted = new Capture<ToDo>();
+    coll.insertOne(capture(inserted));
+    //The driver has the codec give the document an ID
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        new ToDoCodec().generateIdIfAbsentFromDocument((ToDo)getCurrentArguments()[0]);
+        return null;
+      }
+    });
+    expect(versions.updateOne(bson(VERSION_QUERY), bson(VERSION_INC), isA(UpdateOptions.class))).andReturn(null);
+    replay(coll, versions);
+    ToDo td = new ToDo();
+    td.setTitle("pick up kids");
+    ToDo saved = store(null).persist(td);
+    assertTrue(ObjectId.isValid(saved.getId()));
+    assertTrue(ObjectId.isValid(saved.getRev()));
+    assertEquals("pick up kids", saved.getTitle());
+    assertEquals(saved, inserted.getValue());
+    //The ToDo given is left alone
+    assertNull(td.getId());
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testUpdate() {
+    Capture<ToDo> replacement = new Capture<ToDo>();
+    ToDo after = todo(ID, "new title");
+    after.setRev("r2");
+    //One request that replaces and returns the new document
+    expect(coll.findOneAndReplace(bson(ID_QUERY), capture(replacement), 
+            isA(FindOneAndReplaceOptions.class))).andReturn(after);
+    Bson missing = Filters.eq("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"));
+    expect(coll.findOneAndReplace(bson(missing), isA(ToDo.class), 
+            isA(FindOneAndReplaceOptions.class))).andReturn(null);
+    expect(versions.updateOne(bson(VERSION_QUERY), bson(VERSION_INC), isA(UpdateOptions.class))).andReturn(null);
+    replay(coll, versions);
+    CodecMongoStore store = store(null);
+    ToDo td = todo(null, "new title");
+    td.setRev("r1");
+    assertEquals("r2", store.update(ID, td).getRev());
+    assertEquals(ID, replacement.getValue().getId());
+    assertFalse("r1".equals(replacement.getValue().getRev()));
+    assertNull(store.update("aaaaaaaaaaaaaaaaaaaaaaa2", td));
+    assertNull(store.update("1", td));
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testConditionalUpdate() throws Exception {
+    expect(coll.replaceOne(bson(Filters.and(ID_QUERY, Filters.eq("rev", "r1"))), isA(ToDo.class)))
+            .andReturn(UpdateResult.acknowledged(1, 1L, null));
+    expect(coll.replaceOne(bson(Filters.and(ID_QUERY, Filters.eq("rev", "r1"))), isA(ToDo.class)))
+            .andReturn(UpdateResult.acknowledged(0, 0L, null));
+    //Documents from before revisions were kept are at revision 0
+    expect(coll.replaceOne(bson(Filters.and(ID_QUERY, Filters.exists("rev", false))), isA(ToDo.class)))
+            .andReturn(UpdateResult.acknowledged(0, 0L, null));
+    expect(versions.updateOne(bson(VERSION_QUERY), bson(VERSION_INC), isA(UpdateOptions.class))).andReturn(null);
+    replay(coll, versions);
+    CodecMongoStore store = store(null);
+    ToDo result = store.update(ID, todo(null, "new title"), "r1");
+    assertEquals("new title", result.getTitle());
+    assertEquals(ID, result.getId());
+    assertFalse("r1".equals(result.getRev()));
+    for(String rev : Arrays.asList("r1", "0", null)) {
+      try {
+        store.update(ID, todo(null, "new title"), rev);
+        fail("Expected exception to be thrown.");
+      } catch(RevisionMismatchException e) {
+        //expected
+      }
+    }
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testConditionalDelete() throws Exception {
+    expect(coll.deleteOne(bson(Filters.and(ID_QUERY, Filters.eq("rev", "r1")))))
+            .andReturn(DeleteResult.acknowledged(1));
+    expect(coll.deleteOne(bson(Filters.and(ID_QUERY, Filters.eq("rev", "r2")))))
+            .andReturn(DeleteResult.acknowledged(0));
+    expect(versions.updateOne(bson(VERSION_QUERY), bson(VERSION_INC), isA(UpdateOptions.class))).andReturn(null);
+    replay(coll, versions);
+    CodecMongoStore store = store(null);
+    store.delete(ID, "r1");
+    try {
+      store.delete(ID, "r2");
+      fail("Expected exception to be thrown.");
+    } catch(RevisionMismatchException e) {
+      //expected
+    }
+    try {
+      store.delete("1", "r2");
+      fail("Expected exception to be thrown.");
+    } catch(RevisionMismatchException e) {
+      //expected
+    }
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testCount() {
+    //Counted exactly by the server, the cleanup evicts by it
+    expect(coll.countDocuments()).andReturn(2L);
+    replay(coll);
+    assertEquals(2, store(null).count());
+    verify(coll);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGetVersion() {
+    FindIterable<Document> found = createMock(FindIterable.class);
+    expect(found.first()).andReturn(new Document("_id", "todos").append("version", 5L));
+    FindIterable<Document> missing = createMock(FindIterable.class);
+    expect(missing.first()).andReturn(null);
+    expect(versions.find(bson(VERSION_QUERY))).andReturn(found);
+    expect(versions.find(bson(VERSION_QUERY))).andReturn(missing);
+    replay(coll, versions, found, missing);
+    CodecMongoStore store = store(null);
+    assertEquals("5", store.getVersion());
+    assertEquals("0", store.getVersion());
+    verify(versions, found, missing);
+  }
+
+  @Test
+  public void testDeleteMissing() {
+    //Nothing was deleted, so the version does not move
+    expect(coll.deleteOne(bson(ID_QUERY))).andReturn(DeleteResult.acknowledged(0));
+    replay(coll, versions);
+    CodecMongoStore store = store(null);
+    assertFalse(store.delete(ID));
+    assertFalse(store.delete("1"));
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testChangesRecorded() {
+    expect(coll.deleteOne(bson(ID_QUERY))).andReturn(DeleteResult.acknowledged(1));
+    Capture<Bson> inc = new Capture<Bson>();
+    expect(versions.findOneAndUpdate(bson(VERSION_QUERY), capture(inc), 
+            isA(FindOneAndUpdateOptions.class))).andReturn(new Document("version", 10L));
+    Capture<Document> change = new Capture<Document>();
+    changes.insertOne(capture(change));
+    //Every tenth of the history the oldest changes are trimmed
+    expect(changes.deleteMany(bson(Filters.lte("_id", -90L)))).andReturn(DeleteResult.acknowledged(0));
+    replay(coll, versions, changes);
+    store(changes).delete(ID);
+    assertEquals(10L, change.getValue().get("_id"));
+    assertEquals(Arrays.asList(ID), change.getValue().get("ids"));
+    assertTrue(change.getValue().get("at") instanceof Date);
+    //The versions document has the time of the latest write too
+    assertEquals(render(Updates.combine(VERSION_INC, Updates.set("at", change.getValue().get("at")))), 
+            render(inc.getValue()));
+    verify(coll, versions, changes);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGetChanges() {
+    FindIterable<Document> version = createMock(FindIterable.class);
+    expect(version.first()).andReturn(new Document("version", 2L));
+    expect(versions.find(bson(VERSION_QUERY))).andReturn(version);
+    FindIterable<Document> recorded = createMock(FindIterable.class);
+    MongoCursor<Document> cursor = createMock(MongoCursor.class);
+    expect(changes.find(bson(Filters.gt("_id", 0L)))).andReturn(recorded);
+    expect(recorded.sort(bson(Sorts.ascending("_id")))).andReturn(recorded);
+    expect(recorded.iterator()).andReturn(cursor);
+    expect(cursor.hasNext()).andReturn(true).times(2);
+    expect(cursor.next()).andReturn(new Document("_id", 1L).append("ids", Arrays.asList(ID)));
+    expect(cursor.next()).andReturn(new Document("_id", 2L).append("ids", 
+            Arrays.asList("aaaaaaaaaaaaaaaaaaaaaaa2")));
+    cursor.close();
+    FindIterable<ToDo> todos = createMock(FindIterable.class);
+    expect(coll.find(bson(Filters.in("_id", Arrays.asList(new ObjectId(ID), 
+            new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2")))))).andReturn(todos);
+    expect(todos.into(isA(List.class))).andAnswer(new IAnswer<List<ToDo>>() {
+      @Override
+      public List<ToDo> answer() throws Throwable {
+        List<ToDo> into = (List<ToDo>)getCurrentArguments()[0];
+        into.add(todo(ID, "pick up kids"));
+        return into;
+      }
+    });
+    replay(coll, versions, changes, version, recorded, cursor, todos);
+    ToDoChanges result = store(changes).getChanges("0", 10);
+    assertEquals(1, result.getUpserts().size());
+    assertEquals(ID, result.getUpserts().get(0).getId());
+    assertEquals(Arrays.asList("aaaaaaaaaaaaaaaaaaaaaaa2"), result.getDeleted());
+    assertEquals("2", result.getSeq());
+    assertFalse(result.isMore());
+    verify(coll, versions, changes, version, recorded, cursor, todos);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGetChangesResync() {
+    FindIterable<Document> version = createMock(FindIterable.class);
+    expect(version.first()).andReturn(new Document("version", 2L)).times(2);
+    expect(versions.find(bson(VERSION_QUERY))).andReturn(version).times(2);
+    replay(coll, versions, version);
+    CodecMongoStore store = store(changes);
+    assertTrue(store.getChanges("3", 10).isResync());
+    assertTrue(store.getChanges("abc", 10).isResync());
+    verify(versions, version);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testGetPage() {
+    FindIterable<ToDo> page = createMock(FindIterable.class);
+    Bson query = Filters.or(Filters.gt("order", 2), 
+            Filters.and(Filters.eq("order", 2), Filters.gte("_id", new ObjectId(ID))));
+    expect(coll.find(bson(query))).andReturn(page);
+    expect(page.sort(bson(Sorts.ascending("order", "_id")))).andReturn(page);
+    expect(page.limit(2)).andReturn(page);
+    expect(page.into(isA(List.class))).andAnswer(new IAnswer<List<ToDo>>() {
+      @Override
+      public List<ToDo> answer() throws Throwable {
+        List<ToDo> into = (List<ToDo>)getCurrentArguments()[0];
+        ToDo td = todo(ID, "pick up kids");
+        td.setOrder(2);
+        into.add(td);
+        return into;
+      }
+    });
+    replay(coll, page);
+    ToDoPage result = store(null).getPage(new OrderKey(2, ID).encode(), 1);
+    assertEquals(1, result.getToDos().size());
+    assertNull(result.getNext());
+    verify(coll, page);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testPersistAll() {
+    coll.insertMany(isA(List.class));
+    expectLastCall().andAnswer(new IAnswer<Object>() {
+      @Override
+      public Object answer() throws Throwable {
+        for(ToDo td : (List<ToDo>)getCurrentArguments()[0]) {
+          new ToDoCodec().generateIdIfAbsentFromDocument(td);
+        }
+        return null;
+      }
+    });
+    expect(versions.updateOne(bson(VERSION_QUERY), bson(VERSION_INC), isA(UpdateOptions.class))).andReturn(null);
+    replay(coll, versions);
+    Collection<ToDo> todos = Arrays.asList(todo(null, "a"), todo(null, "b"));
+    List<BulkResult> results = store(null).persistAll(todos);
+    assertEquals(2, results.size());
+    for(ToDo td : todos) {
+      assertTrue(ObjectId.isValid(td.getId()));
+      assertTrue(ObjectId.isValid(td.getRev()));
+    }
+    assertEquals(results.get(1).getId(), new ArrayList<ToDo>(todos).get(1).getId());
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testUpdateAll() {
+    expect(coll.replaceOne(bson(ID_QUERY), isA(ToDo.class))).andReturn(UpdateResult.acknowledged(1, 1L, null));
+    expect(coll.replaceOne(bson(Filters.eq("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"))), isA(ToDo.class)))
+            .andReturn(UpdateResult.acknowledged(0, 0L, null));
+    expect(versions.updateOne(bson(VERSION_QUERY), bson(VERSION_INC), isA(UpdateOptions.class))).andReturn(null);
+    replay(coll, versions);
+    List<BulkResult> results = store(null).updateAll(Arrays.asList(todo(ID, "a"), 
+            todo("aaaaaaaaaaaaaaaaaaaaaaa2", "b"), todo("1", "c")));
+    assertTrue(results.get(0).isOk());
+    assertEquals("not_found", results.get(1).getError());
+    assertEquals("not_found", results.get(2).getError());
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testUpdateAllNoneExist() {
+    expect(coll.replaceOne(bson(ID_QUERY), isA(ToDo.class))).andReturn(UpdateResult.acknowledged(0, 0L, null));
+    //Nothing was written, so the version does not move
+    replay(coll, versions);
+    CodecMongoStore store = store(null);
+    assertFalse(store.updateAll(Arrays.asList(todo(ID, "a"))).get(0).isOk());
+    assertTrue(store.updateAll(new ArrayList<ToDo>()).isEmpty());
+    verify(coll, versions);
+  }
+
+  @SuppressWarnings("unchecked")
+  private FindIterable<Document> existing(String... ids) {
+    FindIterable<Document> found = createMock(FindIterable.class);
+    expect(found.projection(bson(Projections.include("_id")))).andReturn(found);
+    expect(found.into(isA(List.class))).andAnswer(new IAnswer<List<Document>>() {
+      @Override
+      public List<Document> answer() throws Throwable {
+        List<Document> into = (List<Document>)getCurrentArguments()[0];
+        for(String id : ids) {
+          into.add(new Document("_id", new ObjectId(id)));
+        }
+        return into;
+      }
+    });
+    replay(found);
+    return found;
+  }
+
+  @Test
+  public void testDeleteAll() {
+    String other = "aaaaaaaaaaaaaaaaaaaaaaa2";
+    //The ones that exist are found, then one request deletes all of them
+    expect(coll.find(bson(Filters.in("_id", Arrays.asList(new ObjectId(ID), new ObjectId(other)))), 
+            eq(Document.class))).andReturn(existing(ID));
+    expect(coll.deleteMany(bson(Filters.in("_id", Arrays.asList(new ObjectId(ID))))))
+            .andReturn(DeleteResult.acknowledged(1));
+    expect(versions.updateOne(bson(VERSION_QUERY), bson(VERSION_INC), isA(UpdateOptions.class))).andReturn(null);
+    replay(coll, versions);
+    List<BulkResult> results = store(null).deleteAll(Arrays.asList(ID, "1", other));
+    assertTrue(results.get(0).isOk());
+    assertEquals("not_found", results.get(1).getError());
+    assertEquals("not_found", results.get(2).getError());
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testDeleteAllNoneExist() {
+    //Nothing is deleted and the version does not move
+    expect(coll.find(bson(Filters.in("_id", Arrays.asList(new ObjectId(ID)))), eq(Document.class)))
+            .andReturn(existing());
+    replay(coll, versions);
+    List<BulkResult> results = store(null).deleteAll(Arrays.asList(ID));
+    assertEquals("not_found", results.get(0).getError());
+    verify(coll, versions);
+  }
+
+  @Test
+  public void testEnsureIndexes() {
+    expect(coll.createIndex(bson(Sorts.ascending("order", "_id")))).andReturn("order_1__id_1");
+    expect(coll.createIndex(bson(new Document("completed", 1)))).andReturn("completed_1");
+    replay(coll);
+    store(null).ensureIndexes();
+    verify(coll);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoVersions() {
+    replay(coll);
+    new CodecMongoStore(coll, null, null, 0);
+  }
+
+  private CodecMongoStore store(MongoCollection<Document> changes) {
+    return new CodecMongoStore(coll, versions, changes, 100);
+  }
+
+  private static ToDo todo(String id, String title) {
+    ToDo td = new ToDo();
+    td.setId(id);
+    td.setTitle(title);
+    return td;
+  }
+
+  /**
+   * Matches a query, sort or update that renders to the same BSON as the one expected.
+   */
+  private static Bson bson(final Bson expected) {
+    reportMatcher(new IArgumentMatcher() {
+      @Override
+      public boolean matches(Object actual) {
+        return actual instanceof Bson && render((Bson)actual).equals(render(expected));
+      }
+
+      @Override
+      public void appendTo(StringBuffer buffer) {
+        buffer.append(render(expected));
+      }
+    });
+    return null;
+  }
+
+  private static BsonDocument render(Bson bson) {
+    return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+  }
+}
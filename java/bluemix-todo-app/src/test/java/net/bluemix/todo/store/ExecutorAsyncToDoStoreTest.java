@@ -0,0 +1,103 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExecutorAsyncToDoStoreTest {
+
+  private ExecutorService executor;
+  private InMemoryStore backing;
+  private ExecutorAsyncToDoStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    executor = Executors.newSingleThreadExecutor();
+    backing = new InMemoryStore();
+    store = new ExecutorAsyncToDoStore(backing, executor);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    executor = null;
+    backing = null;
+    store = null;
+  }
+
+  @Test
+  public void testOperations() throws Exception {
+    assertSame(backing, store.getStore());
+    ToDo td = new ToDo();
+    td.setTitle("pick up kids");
+    td = store.persistAsync(td).toCompletableFuture().get();
+    assertEquals(td, store.getAsync(td.getId()).toCompletableFuture().get());
+    ToDo updated = new ToDo();
+    updated.setTitle("pick up laundry");
+    assertEquals("pick up laundry", 
+            store.updateAsync(td.getId(), updated).toCompletableFuture().get().getTitle());
+    assertEquals(1, store.getAllAsync().toCompletableFuture().get().size());
+    assertEquals(1, store.getPageAsync(null, 10).toCompletableFuture().get().getToDos().size());
+    assertEquals(1, store.countAsync().toCompletableFuture().get().intValue());
+    store.deleteAsync(td.getId()).toCompletableFuture().get();
+    assertNull(store.getAsync(td.getId()).toCompletableFuture().get());
+    ToDo td2 = new ToDo();
+    td2.setTitle("pick up milk");
+    assertTrue(store.persistAllAsync(Arrays.asList(td2)).toCompletableFuture().get().get(0).isOk());
+    assertTrue(store.updateAllAsync(Arrays.asList(td2)).toCompletableFuture().get().get(0).isOk());
+    assertTrue(store.deleteAllAsync(Arrays.asList(td2.getId())).toCompletableFuture().get().get(0).isOk());
+    assertEquals(0, backing.count());
+    assertEquals(backing.getVersion(), 
+            store.getChangesAsync(null, 10).toCompletableFuture().get().getSeq());
+  }
+
+  @Test
+  public void testRunsOnExecutor() throws Exception {
+    Thread caller = Thread.currentThread();
+    ExecutorAsyncToDoStore threadStore = new ExecutorAsyncToDoStore(new InMemoryStore() {
+      @Override
+      public int count() {
+        return Thread.currentThread() == caller ? -1 : 1;
+      }
+    }, executor);
+    assertEquals(1, threadStore.countAsync().toCompletableFuture().get().intValue());
+  }
+
+  @Test
+  public void testBadCursor() throws Exception {
+    try {
+      store.getPageAsync("abc", 10).toCompletableFuture().get();
+      fail("Expected exception to be thrown.");
+    } catch(ExecutionException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+  }
+}
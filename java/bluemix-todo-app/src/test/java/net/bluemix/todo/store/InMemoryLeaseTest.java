@@ -0,0 +1,81 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class InMemoryLeaseTest {
+
+  private InMemoryLease lease;
+  private long time;
+
+  @Before
+  public void setUp() throws Exception {
+    time = 0;
+    lease = new InMemoryLease() {
+      @Override
+      protected long now() {
+        return time;
+      }
+    };
+  }
+
+  @Test
+  public void testAcquire() throws Exception {
+    assertNull(lease.getHolder());
+    assertTrue(lease.acquire("first", 10, TimeUnit.SECONDS));
+    assertFalse(lease.acquire("second", 10, TimeUnit.SECONDS));
+    assertEquals("first", lease.getHolder());
+  }
+
+  @Test
+  public void testRenew() throws Exception {
+    lease.acquire("first", 10, TimeUnit.SECONDS);
+    time += TimeUnit.SECONDS.toNanos(9);
+    assertTrue(lease.acquire("first", 10, TimeUnit.SECONDS));
+    time += TimeUnit.SECONDS.toNanos(9);
+    assertFalse(lease.acquire("second", 10, TimeUnit.SECONDS));
+    assertEquals("first", lease.getHolder());
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    lease.acquire("first", 10, TimeUnit.SECONDS);
+    time += TimeUnit.SECONDS.toNanos(10);
+    assertNull(lease.getHolder());
+    assertTrue(lease.acquire("second", 10, TimeUnit.SECONDS));
+    assertFalse(lease.acquire("first", 10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRelease() throws Exception {
+    lease.acquire("first", 10, TimeUnit.SECONDS);
+    //Only the holder can release the lease
+    lease.release("second");
+    assertEquals("first", lease.getHolder());
+    lease.release("first");
+    assertNull(lease.getHolder());
+    assertTrue(lease.acquire("second", 10, TimeUnit.SECONDS));
+  }
+}
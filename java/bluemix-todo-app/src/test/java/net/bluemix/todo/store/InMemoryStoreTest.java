@@ -16,12 +16,30 @@
 package net.bluemix.todo.store;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.bluemix.todo.model.BulkResult;
 
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
 
 import org.junit.After;
 import org.junit.Before;
@@ -63,6 +81,20 @@ public class InMemoryStoreTest {
 		assertTrue(todos.contains(td1));
 	}
 
+	@Test
+	public void testStreamAll() throws Exception {
+		List<ToDo> todos = new ArrayList<ToDo>();
+		try(ToDoCursor cursor = populatedStore.streamAll()) {
+			while(cursor.hasNext()) {
+				todos.add(cursor.next());
+			}
+		}
+		assertEquals(populatedStore.getAll(), todos);
+		try(ToDoCursor cursor = ((InMemoryStore)emptyStore).streamAllAsync().toCompletableFuture().get()) {
+			assertFalse(cursor.hasNext());
+		}
+	}
+
 	@Test
 	public void testGet() throws Exception {
 		assertNull(emptyStore.get("123"));
@@ -90,11 +122,122 @@ public class InMemoryStoreTest {
 		assertTrue(td.isCompleted());
 	}
 
+	@Test
+	public void testUpdateAfterPut() throws Exception {
+		InMemoryStore store = (InMemoryStore)emptyStore;
+		ToDo td = store.persist(new ToDo());
+		ToDo moved = new ToDo(td);
+		moved.setOrder(td.getOrder() + 10);
+		store.put(moved);
+		ToDo update = new ToDo();
+		update.setTitle("pick up milk");
+		assertEquals("pick up milk", store.update(td.getId(), update).getTitle());
+		assertEquals(1, store.getAll().size());
+		assertEquals(td.getOrder() + 10, store.get(td.getId()).getOrder());
+		assertTrue(store.delete(td.getId()));
+		assertTrue(store.getAll().isEmpty());
+	}
+
+	@Test
+	public void testRevisions() throws Exception {
+		assertEquals("1", td1.getRev());
+		ToDo td = new ToDo();
+		td.setTitle("pick up milk");
+		assertEquals("2", populatedStore.update(td1.getId(), td).getRev());
+		assertEquals("2", populatedStore.get(td1.getId()).getRev());
+		assertEquals("3", populatedStore.update(td1.getId(), td, "2").getRev());
+	}
+
+	@Test
+	public void testConditionalUpdate() throws Exception {
+		ToDo td = new ToDo();
+		td.setTitle("pick up milk");
+		ToDo updated = populatedStore.update(td1.getId(), td, td1.getRev());
+		assertEquals("pick up milk", populatedStore.get(td1.getId()).getTitle());
+		td.setTitle("pick up bread");
+		for(String rev : new String[] {td1.getRev(), null, "abc"}) {
+			try {
+				populatedStore.update(td1.getId(), td, rev);
+				fail("Expected exception to be thrown.");
+			} catch(RevisionMismatchException e) {
+				//expected
+			}
+		}
+		try {
+			emptyStore.update("123", td, "1");
+			fail("Expected exception to be thrown.");
+		} catch(RevisionMismatchException e) {
+			//expected
+		}
+		assertEquals("pick up milk", populatedStore.get(td1.getId()).getTitle());
+		populatedStore.update(td1.getId(), td, updated.getRev());
+		assertEquals("pick up bread", populatedStore.get(td1.getId()).getTitle());
+	}
+
+	@Test
+	public void testConditionalDelete() throws Exception {
+		ToDo td = new ToDo();
+		td.setTitle("pick up milk");
+		ToDo updated = populatedStore.update(td1.getId(), td);
+		try {
+			populatedStore.delete(td1.getId(), td1.getRev());
+			fail("Expected exception to be thrown.");
+		} catch(RevisionMismatchException e) {
+			//expected
+		}
+		assertEquals(2, populatedStore.count());
+		populatedStore.delete(td1.getId(), updated.getRev());
+		assertNull(populatedStore.get(td1.getId()));
+		assertEquals(1, populatedStore.getAll().size());
+		try {
+			populatedStore.delete(td1.getId(), updated.getRev());
+			fail("Expected exception to be thrown.");
+		} catch(RevisionMismatchException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void testConcurrentConditionalUpdates() throws Exception {
+		final InMemoryStore store = (InMemoryStore)populatedStore;
+		final String rev = td1.getRev();
+		final AtomicInteger won = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService exec = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for(int i = 0; i < 4; i++) {
+			final ToDo td = new ToDo();
+			td.setTitle("writer " + i);
+			futures.add(exec.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					start.await();
+					try {
+						store.update(td1.getId(), td, rev);
+						won.incrementAndGet();
+					} catch(RevisionMismatchException e) {
+						//Another writer got there first
+					}
+					return null;
+				}
+			}));
+		}
+		start.countDown();
+		for(Future<?> future : futures) {
+			future.get(10, TimeUnit.SECONDS);
+		}
+		exec.shutdown();
+		//Everyone started from the same revision so only one write can win
+		assertEquals(1, won.get());
+		assertEquals("2", store.get(td1.getId()).getRev());
+	}
+
 	@Test
 	public void testDelete() throws Exception {
-		emptyStore.delete("123");
-		populatedStore.delete(td1.getId());
+		assertFalse(emptyStore.delete("123"));
+		assertTrue(populatedStore.delete(td1.getId()));
 		assertNull(populatedStore.get(td1.getId()));
+		assertFalse(populatedStore.delete(td1.getId()));
 	}
 	
 	@Test
@@ -103,4 +246,335 @@ public class InMemoryStoreTest {
 	  assertEquals(2, populatedStore.count());
 	}
 
+	@Test
+	public void testVersion() throws Exception {
+		String version = populatedStore.getVersion();
+		assertEquals(version, populatedStore.getVersion());
+		assertEquals(version, ((InMemoryStore)populatedStore).getVersionAsync().toCompletableFuture().get());
+		populatedStore.update(td1.getId(), td2);
+		String updated = populatedStore.getVersion();
+		assertFalse(version.equals(updated));
+		populatedStore.delete(td1.getId());
+		assertFalse(updated.equals(populatedStore.getVersion()));
+		//Deleting nothing changes nothing
+		updated = populatedStore.getVersion();
+		populatedStore.delete(td1.getId());
+		assertEquals(updated, populatedStore.getVersion());
+		//Each store starts from its own epoch
+		assertFalse(emptyStore.getVersion().equals(new InMemoryStore().getVersion()));
+	}
+
+	@Test
+	public void testGetChanges() throws Exception {
+		InMemoryStore store = new InMemoryStore();
+		ToDoChanges changes = store.getChanges(null, 10);
+		assertTrue(changes.isResync());
+		String seq = changes.getSeq();
+		assertEquals(store.getVersion(), seq);
+		ToDo td = new ToDo();
+		td.setTitle("pick up kids");
+		td = store.persist(td);
+		ToDo other = new ToDo();
+		other.setTitle("pick up laundry");
+		other = store.persist(other);
+		store.update(td.getId(), other);
+		store.delete(other.getId());
+		changes = store.getChanges(seq, 10);
+		assertFalse(changes.isResync());
+		assertFalse(changes.isMore());
+		//Each ToDo is listed once, as it is now
+		assertEquals(1, changes.getUpserts().size());
+		assertEquals(td.getId(), changes.getUpserts().get(0).getId());
+		assertEquals("pick up laundry", changes.getUpserts().get(0).getTitle());
+		assertEquals(Arrays.asList(other.getId()), changes.getDeleted());
+		assertEquals(store.getVersion(), changes.getSeq());
+		//Nothing changed since
+		changes = store.getChanges(changes.getSeq(), 10);
+		assertFalse(changes.isResync());
+		assertTrue(changes.getUpserts().isEmpty());
+		assertTrue(changes.getDeleted().isEmpty());
+		assertEquals(store.getVersion(), store.getChangesAsync(seq, 10).toCompletableFuture().get().getSeq());
+	}
+
+	@Test
+	public void testGetChangesLimit() throws Exception {
+		InMemoryStore store = new InMemoryStore();
+		String seq = store.getVersion();
+		for(int i = 0; i < 5; i++) {
+			ToDo td = new ToDo();
+			td.setTitle("todo " + i);
+			store.persist(td);
+		}
+		ToDoChanges changes = store.getChanges(seq, 2);
+		assertEquals(2, changes.getUpserts().size());
+		assertTrue(changes.isMore());
+		changes = store.getChanges(changes.getSeq(), 2);
+		assertEquals("todo 2", changes.getUpserts().get(0).getTitle());
+		changes = store.getChanges(changes.getSeq(), 2);
+		assertEquals(1, changes.getUpserts().size());
+		assertFalse(changes.isMore());
+	}
+
+	@Test
+	public void testGetChangesResync() throws Exception {
+		InMemoryStore store = new InMemoryStore(2);
+		String seq = store.getVersion();
+		for(int i = 0; i < 3; i++) {
+			store.persist(new ToDo());
+		}
+		//Too old
+		ToDoChanges changes = store.getChanges(seq, 10);
+		assertTrue(changes.isResync());
+		assertTrue(changes.getUpserts().isEmpty());
+		assertEquals(store.getVersion(), changes.getSeq());
+		//From another store, or not a sequence at all
+		assertTrue(store.getChanges(new InMemoryStore().getVersion(), 10).isResync());
+		assertTrue(store.getChanges("nonsense", 10).isResync());
+		//After everything was removed
+		seq = store.getVersion();
+		store.clear();
+		assertTrue(store.getChanges(seq, 10).isResync());
+		assertFalse(store.getChanges(store.getVersion(), 10).isResync());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetChangesBadLimit() throws Exception {
+		emptyStore.getChanges(null, 0);
+	}
+
+	@Test
+	public void testPersistAll() throws Exception {
+		List<ToDo> tds = new ArrayList<ToDo>();
+		for(int i = 0; i < 3; i++) {
+			ToDo td = new ToDo();
+			td.setTitle("todo " + i);
+			tds.add(td);
+		}
+		List<BulkResult> results = emptyStore.persistAll(tds);
+		assertEquals(3, results.size());
+		assertEquals(3, emptyStore.count());
+		for(int i = 0; i < 3; i++) {
+			assertTrue(results.get(i).isOk());
+			assertEquals(tds.get(i).getId(), results.get(i).getId());
+			assertEquals(tds.get(i), emptyStore.get(tds.get(i).getId()));
+		}
+	}
+
+	@Test
+	public void testUpdateAll() throws Exception {
+		ToDo td = new ToDo();
+		td.setId(td1.getId());
+		td.setTitle("do a test");
+		ToDo missing = new ToDo();
+		missing.setId("123");
+		List<BulkResult> results = populatedStore.updateAll(Arrays.asList(td, missing));
+		assertTrue(results.get(0).isOk());
+		assertFalse(results.get(1).isOk());
+		assertEquals("do a test", populatedStore.get(td1.getId()).getTitle());
+	}
+
+	@Test
+	public void testDeleteAll() throws Exception {
+		List<BulkResult> results = populatedStore.deleteAll(Arrays.asList(td1.getId(), "123"));
+		assertTrue(results.get(0).isOk());
+		assertFalse(results.get(1).isOk());
+		assertEquals(1, populatedStore.count());
+	}
+
+	@Test
+	public void testGetPage() throws Exception {
+		int[] orders = {3, 1, 2, 1, 5, 4, 2};
+		for(int order : orders) {
+			ToDo td = new ToDo();
+			td.setOrder(order);
+			emptyStore.persist(td);
+		}
+		List<ToDo> seen = new ArrayList<ToDo>();
+		String cursor = null;
+		do {
+			ToDoPage page = emptyStore.getPage(cursor, 2);
+			assertTrue(page.getToDos().size() <= 2);
+			seen.addAll(page.getToDos());
+			cursor = page.getNext();
+		} while(cursor != null);
+		assertEquals(orders.length, seen.size());
+		for(int i = 1; i < seen.size(); i++) {
+			ToDo prev = seen.get(i - 1);
+			ToDo td = seen.get(i);
+			assertTrue(prev.getOrder() < td.getOrder() || 
+					(prev.getOrder() == td.getOrder() && prev.getId().compareTo(td.getId()) < 0));
+		}
+	}
+
+	@Test
+	public void testGetPageStable() throws Exception {
+		List<ToDo> tds = new ArrayList<ToDo>();
+		for(int i = 0; i < 4; i++) {
+			ToDo td = new ToDo();
+			td.setOrder(i);
+			tds.add(emptyStore.persist(td));
+		}
+		ToDoPage page = emptyStore.getPage(null, 2);
+		assertEquals(tds.subList(0, 2), page.getToDos());
+		//Changes before the cursor do not shift the next page
+		emptyStore.delete(tds.get(0).getId());
+		ToDo td = new ToDo();
+		td.setOrder(-1);
+		emptyStore.persist(td);
+		page = emptyStore.getPage(page.getNext(), 2);
+		assertEquals(tds.subList(2, 4), page.getToDos());
+		assertNull(page.getNext());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetPageBadCursor() throws Exception {
+		populatedStore.getPage("abc", 2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetPageBadLimit() throws Exception {
+		populatedStore.getPage(null, 0);
+	}
+
+	@Test
+	public void testGetAllOrdered() throws Exception {
+		int[] orders = {3, 1, 2};
+		for(int order : orders) {
+			ToDo td = new ToDo();
+			td.setOrder(order);
+			emptyStore.persist(td);
+		}
+		int expected = 1;
+		for(ToDo td : emptyStore.getAll()) {
+			assertEquals(expected++, td.getOrder());
+		}
+	}
+
+	@Test
+	public void testReturnsCopies() throws Exception {
+		ToDo td = populatedStore.get(td1.getId());
+		td.setTitle("changed");
+		assertEquals(td1.getTitle(), populatedStore.get(td1.getId()).getTitle());
+		populatedStore.getAll().iterator().next().setTitle("changed");
+		assertFalse(populatedStore.getAll().iterator().next().getTitle().equals("changed"));
+		td1.setTitle("changed after persist");
+		assertFalse(populatedStore.get(td1.getId()).getTitle().equals("changed after persist"));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final ToDo shared = emptyStore.persist(new ToDo());
+		final int threads = 4;
+		final int iterations = 2000;
+		final CountDownLatch start = new CountDownLatch(1);
+		final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+		ExecutorService exec = Executors.newFixedThreadPool(threads + 1);
+		for(int t = 0; t < threads; t++) {
+			final int thread = t;
+			exec.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < iterations; i++) {
+							ToDo td = new ToDo();
+							td.setTitle(thread + "-" + i);
+							td.setOrder(i);
+							emptyStore.persist(td);
+							ToDo update = new ToDo();
+							update.setTitle(thread + "-" + i);
+							update.setCompleted(thread % 2 == 0);
+							emptyStore.update(shared.getId(), update);
+							if(i % 2 == 0) {
+								emptyStore.delete(td.getId());
+							}
+						}
+					} catch(Throwable e) {
+						errors.add(e);
+					}
+				}
+			});
+		}
+		exec.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					start.await();
+					for(int i = 0; i < 200; i++) {
+						int last = Integer.MIN_VALUE;
+						for(ToDo td : emptyStore.getAll()) {
+							assertTrue(td.getOrder() >= last);
+							last = td.getOrder();
+						}
+					}
+				} catch(Throwable e) {
+					errors.add(e);
+				}
+			}
+		});
+		start.countDown();
+		exec.shutdown();
+		assertTrue(exec.awaitTermination(60, TimeUnit.SECONDS));
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(threads * iterations / 2 + 1, emptyStore.count());
+		assertEquals(threads * iterations / 2 + 1, emptyStore.getAll().size());
+		//Every update replaced the whole ToDo, the title and completed state come from the same update
+		ToDo td = emptyStore.get(shared.getId());
+		int thread = Integer.parseInt(td.getTitle().substring(0, td.getTitle().indexOf('-')));
+		assertEquals(thread % 2 == 0, td.isCompleted());
+	}
+
+	@Test
+	public void testGetAllSnapshot() throws Exception {
+		//There is always a ToDo, but a walk over the ToDos while they are written could miss both
+		ToDo first = new ToDo();
+		first.setOrder(100);
+		final String firstId = emptyStore.persist(first).getId();
+		final AtomicBoolean done = new AtomicBoolean();
+		final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<Throwable>();
+		Thread writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				String high = firstId;
+				try {
+					while(!done.get()) {
+						ToDo low = new ToDo();
+						low.setOrder(0);
+						String lowId = emptyStore.persist(low).getId();
+						emptyStore.delete(high);
+						ToDo next = new ToDo();
+						next.setOrder(100);
+						high = emptyStore.persist(next).getId();
+						emptyStore.delete(lowId);
+					}
+				} catch(Throwable e) {
+					errors.add(e);
+				}
+			}
+		});
+		writer.start();
+		try {
+			for(int i = 0; i < 20000; i++) {
+				assertFalse(emptyStore.getAll().isEmpty());
+				assertFalse(emptyStore.getPage(null, 10).getToDos().isEmpty());
+			}
+		} finally {
+			done.set(true);
+			writer.join();
+		}
+		assertTrue(errors.toString(), errors.isEmpty());
+	}
+
+	@Test
+	public void testAsync() throws Exception {
+		InMemoryStore store = (InMemoryStore)populatedStore;
+		//The stages are already complete, nothing runs on another thread
+		assertTrue(store.getAsync(td1.getId()).toCompletableFuture().isDone());
+		assertEquals(td1, store.getAsync(td1.getId()).toCompletableFuture().get());
+		assertEquals(2, store.getAllAsync().toCompletableFuture().get().size());
+		assertEquals(2, store.countAsync().toCompletableFuture().get().intValue());
+		store.deleteAsync(td1.getId()).toCompletableFuture().get();
+		assertNull(store.getAsync(td1.getId()).toCompletableFuture().get());
+		assertTrue(store.getPageAsync("abc", 1).toCompletableFuture().isCompletedExceptionally());
+	}
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LeaderElectionTest {
+
+  private long time;
+  private InMemoryLease lease;
+  private LeaderElection first;
+  private LeaderElection second;
+  private int elections;
+
+  @Before
+  public void setUp() throws Exception {
+    time = 0;
+    elections = 0;
+    lease = new InMemoryLease() {
+      @Override
+      protected long now() {
+        return time;
+      }
+    };
+    first = election(lease, "first");
+    second = election(lease, "second");
+  }
+
+  @Test
+  public void testElectsOne() throws Exception {
+    first.run();
+    second.run();
+    assertTrue(first.isLeader());
+    assertFalse(second.isLeader());
+    assertEquals(1, elections);
+    //Renewing does not elect again
+    time += TimeUnit.SECONDS.toNanos(5);
+    first.run();
+    second.run();
+    time += TimeUnit.SECONDS.toNanos(9);
+    assertTrue(first.isLeader());
+    assertEquals(1, elections);
+  }
+
+  @Test
+  public void testTakesOverWhenLeaderStops() throws Exception {
+    first.run();
+    time += TimeUnit.SECONDS.toNanos(5);
+    second.run();
+    assertFalse(second.isLeader());
+    //The leader stops renewing, and stops thinking it leads by the time the lease expires
+    time += TimeUnit.SECONDS.toNanos(5);
+    assertFalse(first.isLeader());
+    second.run();
+    assertTrue(second.isLeader());
+    first.run();
+    assertFalse(first.isLeader());
+    assertEquals(2, elections);
+  }
+
+  @Test
+  public void testResign() throws Exception {
+    first.run();
+    first.resign();
+    assertFalse(first.isLeader());
+    second.run();
+    assertTrue(second.isLeader());
+  }
+
+  @Test
+  public void testLeaseErrors() throws Exception {
+    final boolean[] failing = new boolean[1];
+    Lease flaky = new Lease() {
+      @Override
+      public boolean acquire(String holder, long duration, TimeUnit unit) throws ToDoStoreException {
+        if(failing[0]) {
+          throw new ToDoStoreException("Error");
+        }
+        return lease.acquire(holder, duration, unit);
+      }
+
+      @Override
+      public void release(String holder) throws ToDoStoreException {
+        throw new ToDoStoreException("Error");
+      }
+    };
+    LeaderElection election = election(flaky, "flaky");
+    election.run();
+    failing[0] = true;
+    //Still the leader until the lease it took expires
+    time += TimeUnit.SECONDS.toNanos(5);
+    election.run();
+    assertTrue(election.isLeader());
+    time += TimeUnit.SECONDS.toNanos(5);
+    election.run();
+    assertFalse(election.isLeader());
+    election.resign();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidDuration() {
+    new LeaderElection(lease, "first", 0, TimeUnit.SECONDS);
+  }
+
+  private LeaderElection election(Lease lease, String holder) {
+    LeaderElection election = new LeaderElection(lease, holder, 10, TimeUnit.SECONDS) {
+      @Override
+      protected long now() {
+        return time;
+      }
+    };
+    election.setListener(new LeaderElection.Listener() {
+      @Override
+      public void elected() {
+        elections++;
+      }
+    });
+    return election;
+  }
+}
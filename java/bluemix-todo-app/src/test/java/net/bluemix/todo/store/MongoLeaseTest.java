@@ -0,0 +1,139 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.lte;
+import static com.mongodb.client.model.Filters.or;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.reportMatcher;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.easymock.IArgumentMatcher;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+
+public class MongoLeaseTest {
+
+  private static final long NOW = 1400000000000L;
+
+  private MongoCollection<Document> coll;
+  private MongoLease lease;
+
+  @Before
+  @SuppressWarnings("unchecked")
+  public void setUp() throws Exception {
+    coll = createMock(MongoCollection.class);
+    lease = new MongoLease(coll, "cleanup") {
+      @Override
+      protected long now() {
+        return NOW;
+      }
+    };
+  }
+
+  @Test
+  public void testAcquire() throws Exception {
+    //Only matches the lease when it is free, in the same upsert that takes it
+    expect(coll.updateOne(bson(and(eq("_id", "cleanup"), 
+            or(eq("holder", "first"), lte("expires", new Date(NOW))))), 
+            bson(Updates.combine(Updates.set("holder", "first"), 
+                    Updates.set("expires", new Date(NOW + 10000)))), 
+            isA(UpdateOptions.class))).andReturn(UpdateResult.acknowledged(1, 1L, null));
+    replay(coll);
+    assertTrue(lease.acquire("first", 10, TimeUnit.SECONDS));
+    verify(coll);
+  }
+
+  @Test
+  public void testHeldBySomeoneElse() throws Exception {
+    expect(coll.updateOne(isA(Bson.class), isA(Bson.class), isA(UpdateOptions.class)))
+            .andThrow(writeError(11000));
+    replay(coll);
+    assertFalse(lease.acquire("second", 10, TimeUnit.SECONDS));
+    verify(coll);
+  }
+
+  @Test
+  public void testWriteError() throws Exception {
+    expect(coll.updateOne(isA(Bson.class), isA(Bson.class), isA(UpdateOptions.class)))
+            .andThrow(writeError(2));
+    replay(coll);
+    try {
+      lease.acquire("first", 10, TimeUnit.SECONDS);
+      fail("Expected exception to be thrown.");
+    } catch(MongoWriteException e) {
+      //expected
+    }
+    verify(coll);
+  }
+
+  @Test
+  public void testRelease() throws Exception {
+    expect(coll.deleteOne(bson(and(eq("_id", "cleanup"), eq("holder", "first")))))
+            .andReturn(DeleteResult.acknowledged(1));
+    replay(coll);
+    lease.release("first");
+    verify(coll);
+  }
+
+  private static MongoWriteException writeError(int code) {
+    return new MongoWriteException(new WriteError(code, "Error", new BsonDocument()), 
+            new ServerAddress());
+  }
+
+  private static Bson bson(final Bson expected) {
+    reportMatcher(new IArgumentMatcher() {
+      @Override
+      public boolean matches(Object actual) {
+        return actual instanceof Bson && render((Bson)actual).equals(render(expected));
+      }
+
+      @Override
+      public void appendTo(StringBuffer buffer) {
+        buffer.append(render(expected));
+      }
+    });
+    return null;
+  }
+
+  private static BsonDocument render(Bson bson) {
+    return bson.toBsonDocument(BsonDocument.class, MongoClient.getDefaultCodecRegistry());
+  }
+}
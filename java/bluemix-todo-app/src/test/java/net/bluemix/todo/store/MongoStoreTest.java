@@ -15,7 +15,9 @@
  */
 package net.bluemix.todo.store;
 
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.createControl;
+import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
@@ -24,22 +26,34 @@ import static org.easymock.EasyMock.isA;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
+import net.bluemix.todo.model.BulkResult;
 import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
 
 import org.bson.types.ObjectId;
+import org.easymock.Capture;
 import org.easymock.IAnswer;
 import org.easymock.IMocksControl;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.mongodb.AggregationOptions;
 import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
@@ -115,51 +129,51 @@ public class MongoStoreTest {
 	}
 
 	@Test
-	public void testGet() {
+	public void testStreamAll() {
 		DBCollection coll = createMockCollection();
 		DBCursor cursor = createMockCursor();
-		expect(cursor.hasNext()).andAnswer(new IAnswer<Boolean>() {
-			private int count = 0;
-			@Override
-			public Boolean answer() throws Throwable {
-				count++;
-				return count == 2 ? false : true;
-			}
-		}).anyTimes();
-		expect(cursor.next()).andAnswer(new IAnswer<DBObject>() {
-			private int count = 0;
-			@Override
-			public DBObject answer() throws Throwable {
-				count++;
-				BasicDBObject dbObj = new BasicDBObject();
-				dbObj.put("title", "This is todo " + count);
-				dbObj.put("completed", false);
-				dbObj.put("order", count);
-				//Object IDs must be 24 characters long
-				dbObj.put("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa" + count));
-				return dbObj;
-			}
-		}).anyTimes();
+		BasicDBObject dbObj = new BasicDBObject("title", "This is todo 1").append("completed", false).
+				append("order", 1).append("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1"));
+		expect(cursor.hasNext()).andReturn(true);
+		expect(cursor.next()).andReturn(dbObj);
+		//The cursor is asked for a batch at a time
+		expect(cursor.batchSize(100)).andReturn(cursor);
 		cursor.close();
 		expectLastCall();
 		replay(cursor);
-		DBCursor emptyCursor = createMockCursor();
-		expect(emptyCursor.hasNext()).andReturn(false);
-		replay(emptyCursor);
-		expect(coll.find(eq(new BasicDBObject("_id", "aaaaaaaaaaaaaaaaaaaaaaa1")))).andReturn(cursor);
-		expect(coll.find(eq(new BasicDBObject("_id", "1")))).andReturn(emptyCursor);
+		expect(coll.find()).andReturn(cursor);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		try(ToDoCursor todos = store.streamAll()) {
+			assertTrue(todos.hasNext());
+			assertEquals("This is todo 1", todos.next().getTitle());
+		}
+		verify(cursor);
+		verify(coll);
+	}
+
+	@Test
+	public void testGet() {
+		DBCollection coll = createMockCollection();
+		BasicDBObject dbObj = new BasicDBObject();
+		dbObj.put("title", "This is todo 1");
+		dbObj.put("completed", false);
+		dbObj.put("order", 1);
+		dbObj.put("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1"));
+		//Looked up by ObjectId, not by its string
+		expect(coll.findOne(eq(new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1"))))).andReturn(dbObj);
+		expect(coll.findOne(eq(new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"))))).andReturn(null);
 		replay(coll);
 		MongoStore store = new MongoStore(coll);
-		ToDo td = store.get("1");
-		assertNull(td);
-		td = store.get("aaaaaaaaaaaaaaaaaaaaaaa1");
+		//Not an ObjectId, so there is no need to ask
+		assertNull(store.get("1"));
+		assertNull(store.get("aaaaaaaaaaaaaaaaaaaaaaa2"));
+		ToDo td = store.get("aaaaaaaaaaaaaaaaaaaaaaa1");
 		ToDo td1 = new ToDo();
 		td1.setId("aaaaaaaaaaaaaaaaaaaaaaa1");
 		td1.setTitle("This is todo 1");
 		td1.setOrder(1);
 		assertEquals(td, td1);
-		verify(cursor);
-		verify(emptyCursor);
 		verify(coll);
 	}
 
@@ -186,28 +200,101 @@ public class MongoStoreTest {
 	@Test
 	public void testUpdate() {
 		DBCollection coll = createMockCollection();
-		DBCursor cursor = createMockCursor();
 		DBObject query = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"));
 		DBObject dbObj = new BasicDBObject();
 		dbObj.put("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"));
 		dbObj.put("title", "new title");
 		dbObj.put("completed", true);
 		dbObj.put("order", 0);
-		expect(cursor.next()).andReturn(dbObj);
-		cursor.close();
-		expectLastCall();
-		replay(cursor);
-		expect(coll.find(eq(query))).andReturn(cursor);
+		dbObj.put("rev", "2");
 		ToDo newTd = new ToDo();
 		newTd.setId("aaaaaaaaaaaaaaaaaaaaaaa2");
 		newTd.setCompleted(true);
 		newTd.setTitle("new title");
 		newTd.setOrder(0);
-		expect(coll.update(eq(query), eq(dbObj))).andReturn(null);
+		Capture<DBObject> update = new Capture<DBObject>();
+		//One request that updates and returns the new document
+		expect(coll.findAndModify(eq(query), (DBObject)eq(null), (DBObject)eq(null), eq(false), 
+				capture(update), eq(true), eq(false))).andReturn(dbObj);
+		DBObject missing = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa3"));
+		expect(coll.findAndModify(eq(missing), (DBObject)eq(null), (DBObject)eq(null), eq(false), 
+				isA(DBObject.class), eq(true), eq(false))).andReturn(null);
 		replay(coll);
 		MongoStore store = new MongoStore(coll);
-		assertEquals(newTd, store.update("aaaaaaaaaaaaaaaaaaaaaaa2", newTd));
-		verify(cursor);
+		ToDo updated = store.update("aaaaaaaaaaaaaaaaaaaaaaa2", newTd);
+		assertEquals(newTd, updated);
+		assertEquals("2", updated.getRev());
+		assertWritten(dbObj, update.getValue());
+		assertNull(store.update("aaaaaaaaaaaaaaaaaaaaaaa3", newTd));
+		verify(coll);
+	}
+
+	/**
+	 * Checks a document written has the expected fields and a new revision.
+	 */
+	private static void assertWritten(DBObject expected, DBObject written) {
+		assertTrue(ObjectId.isValid((String)written.get("rev")));
+		assertFalse(written.get("rev").equals(expected.get("rev")));
+		for(String field : expected.keySet()) {
+			if(!field.equals("rev")) {
+				assertEquals(expected.get(field), written.get(field));
+			}
+		}
+	}
+
+	@Test
+	public void testConditionalUpdate() throws Exception {
+		DBCollection coll = createMockCollection();
+		WriteResult updated = createMock(WriteResult.class);
+		expect(updated.getN()).andReturn(1);
+		WriteResult missed = createMock(WriteResult.class);
+		expect(missed.getN()).andReturn(0).times(2);
+		replay(updated, missed);
+		DBObject query = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2")).append("rev", "r1");
+		Capture<DBObject> update = new Capture<DBObject>();
+		expect(coll.update(eq(query), capture(update))).andReturn(updated);
+		expect(coll.update(eq(query), isA(DBObject.class))).andReturn(missed);
+		//Documents from before revisions were kept are at revision 0
+		DBObject legacy = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2")).
+				append("rev", new BasicDBObject("$exists", false));
+		expect(coll.update(eq(legacy), isA(DBObject.class))).andReturn(missed);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		ToDo td = new ToDo();
+		td.setTitle("new title");
+		ToDo result = store.update("aaaaaaaaaaaaaaaaaaaaaaa2", td, "r1");
+		assertEquals("new title", result.getTitle());
+		assertEquals("aaaaaaaaaaaaaaaaaaaaaaa2", result.getId());
+		assertEquals(update.getValue().get("rev"), result.getRev());
+		for(String rev : new String[] {"r1", "0"}) {
+			try {
+				store.update("aaaaaaaaaaaaaaaaaaaaaaa2", td, rev);
+				fail("Expected exception to be thrown.");
+			} catch(RevisionMismatchException e) {
+				//expected
+			}
+		}
+		verify(coll);
+	}
+
+	@Test
+	public void testConditionalDelete() throws Exception {
+		DBCollection coll = createMockCollection();
+		WriteResult missed = createMock(WriteResult.class);
+		expect(missed.getN()).andReturn(0);
+		replay(missed);
+		DBObject query = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2")).append("rev", "r1");
+		expect(coll.remove(eq(query))).andReturn(null);
+		expect(coll.remove(eq(query))).andReturn(missed);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		store.delete("aaaaaaaaaaaaaaaaaaaaaaa2", "r1");
+		try {
+			store.delete("aaaaaaaaaaaaaaaaaaaaaaa2", "r1");
+			fail("Expected exception to be thrown.");
+		} catch(RevisionMismatchException e) {
+			//expected
+		}
 		verify(coll);
 	}
 
@@ -222,44 +309,400 @@ public class MongoStoreTest {
 		expect(coll.remove(eq(dbObj))).andReturn(null);
 		replay(coll);
 		MongoStore store = new MongoStore(coll);
-		store.delete("aaaaaaaaaaaaaaaaaaaaaaa2");
+		assertTrue(store.delete("aaaaaaaaaaaaaaaaaaaaaaa2"));
 		verify(coll);
 	}
+
+	@Test
+	public void testDeleteMissing() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		expect(coll.remove(isA(DBObject.class))).andReturn(new WriteResult(0, false, null));
+		replay(coll, versions);
+		//Nothing was removed, so the version does not move
+		assertFalse(new MongoStore(coll, versions).delete("aaaaaaaaaaaaaaaaaaaaaaa2"));
+		verify(coll, versions);
+	}
 	
 	@Test
 	public void testCount() throws Exception {
-	  DBCollection coll = createMockCollection();
-    DBCursor cursor = createMockCursor();
-    expect(cursor.hasNext()).andAnswer(new IAnswer<Boolean>() {
-      private int count = 0;
-      @Override
-      public Boolean answer() throws Throwable {
-        count++;
-        return count == 3 ? false : true;
-      }
-    }).anyTimes();
-    expect(cursor.next()).andAnswer(new IAnswer<DBObject>() {
-      private int count = 0;
-      @Override
-      public DBObject answer() throws Throwable {
-        count++;
-        BasicDBObject dbObj = new BasicDBObject();
-        dbObj.put("title", "This is todo " + count);
-        dbObj.put("completed", false);
-        dbObj.put("order", count);
-        //Object IDs must be 24 characters long
-        dbObj.put("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa" + count));
-        return dbObj;
-      }
-    }).anyTimes();
-    cursor.close();
-    expectLastCall();
-    replay(cursor);
-    expect(coll.find()).andReturn(cursor);
-    replay(coll);
-    MongoStore store = new MongoStore(coll);
-    assertEquals(2, store.count());
-    verify(cursor);
-    verify(coll);
+		DBCollection coll = createMockCollection();
+		//Counted by the server going through the documents, not from the collection's metadata
+		List<DBObject> pipeline = Arrays.<DBObject>asList(
+				new BasicDBObject("$match", new BasicDBObject()),
+				new BasicDBObject("$group", new BasicDBObject("_id", 1).append("n", new BasicDBObject("$sum", 1))));
+		Cursor counted = createMock(Cursor.class);
+		expect(counted.hasNext()).andReturn(true);
+		expect(counted.next()).andReturn(new BasicDBObject("_id", 1).append("n", 2));
+		counted.close();
+		//An empty collection has no group at all
+		Cursor empty = createMock(Cursor.class);
+		expect(empty.hasNext()).andReturn(false);
+		empty.close();
+		replay(counted, empty);
+		expect(coll.aggregate(eq(pipeline), isA(AggregationOptions.class))).andReturn(counted).andReturn(empty);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		assertEquals(2, store.count());
+		assertEquals(0, store.count());
+		verify(coll, counted, empty);
+	}
+
+	@Test
+	public void testEnsureIndexes() {
+		DBCollection coll = createMockCollection();
+		coll.createIndex(eq(new BasicDBObject("order", 1).append("_id", 1)));
+		expectLastCall();
+		coll.createIndex(eq(new BasicDBObject("completed", 1)));
+		expectLastCall();
+		replay(coll);
+		new MongoStore(coll).ensureIndexes();
+		verify(coll);
+	}
+
+	@Test
+	public void testGetVersion() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		DBObject query = new BasicDBObject("_id", "todos");
+		expect(versions.findOne(eq(query))).andReturn(null);
+		expect(versions.update(eq(query), eq(new BasicDBObject("$inc", new BasicDBObject("version", 1L))),
+				eq(true), eq(false))).andReturn(null);
+		expect(versions.findOne(eq(query))).andReturn(new BasicDBObject("_id", "todos").append("version", 1L));
+		expect(coll.remove(isA(DBObject.class))).andReturn(null);
+		replay(versions);
+		replay(coll);
+		MongoStore store = new MongoStore(coll, versions);
+		assertEquals("0", store.getVersion());
+		store.delete("aaaaaaaaaaaaaaaaaaaaaaa2");
+		assertEquals("1", store.getVersion());
+		verify(versions);
+		verify(coll);
+	}
+
+	private DBCursor cursorOf(DBObject... docs) {
+		DBCursor cursor = createMockCursor();
+		Iterator<DBObject> it = Arrays.asList(docs).iterator();
+		expect(cursor.hasNext()).andAnswer(() -> it.hasNext()).anyTimes();
+		expect(cursor.next()).andAnswer(() -> it.next()).anyTimes();
+		expect(cursor.sort(eq(new BasicDBObject("_id", 1)))).andReturn(cursor).anyTimes();
+		cursor.close();
+		expectLastCall();
+		replay(cursor);
+		return cursor;
+	}
+
+	private static DBObject change(long seq, long age, String... ids) {
+		return new BasicDBObject("_id", seq).append("ids", Arrays.asList(ids)).
+				append("at", new Date(System.currentTimeMillis() - age));
+	}
+
+	@Test
+	public void testChangesRecorded() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		DBCollection changes = createMockCollection();
+		DBObject query = new BasicDBObject("_id", "todos");
+		Capture<DBObject> inc = new Capture<DBObject>();
+		expect(coll.remove(isA(DBObject.class))).andReturn(null).times(2);
+		expect(versions.findAndModify(eq(query), eq((DBObject)null), eq((DBObject)null), eq(false), capture(inc), 
+				eq(true), eq(true))).andReturn(new BasicDBObject("version", 11L));
+		expect(versions.findAndModify(eq(query), eq((DBObject)null), eq((DBObject)null), eq(false), capture(inc), 
+				eq(true), eq(true))).andReturn(new BasicDBObject("version", 12L));
+		Capture<DBObject> recorded = new Capture<DBObject>();
+		expect(changes.insert(capture(recorded))).andReturn(null).times(2);
+		//The history is trimmed every other write
+		expect(changes.remove(eq(new BasicDBObject("_id", new BasicDBObject("$lte", -8L))))).andReturn(null);
+		replay(coll, versions, changes);
+		MongoStore store = new MongoStore(coll, versions, changes, 20);
+		store.delete("aaaaaaaaaaaaaaaaaaaaaaa1");
+		store.delete("aaaaaaaaaaaaaaaaaaaaaaa2");
+		assertEquals(12L, recorded.getValue().get("_id"));
+		assertEquals(Arrays.asList("aaaaaaaaaaaaaaaaaaaaaaa2"), recorded.getValue().get("ids"));
+		assertTrue(recorded.getValue().get("at") instanceof Date);
+		//The versions document has the time of the latest write too
+		assertEquals(new BasicDBObject("version", 1L), inc.getValue().get("$inc"));
+		assertEquals(new BasicDBObject("at", recorded.getValue().get("at")), inc.getValue().get("$set"));
+		verify(coll, versions, changes);
+	}
+
+	@Test
+	public void testGetChanges() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		DBCollection changes = createMockCollection();
+		expect(versions.findOne(eq(new BasicDBObject("_id", "todos")))).
+				andReturn(new BasicDBObject("_id", "todos").append("version", 3L));
+		expect(changes.find(eq(new BasicDBObject("_id", new BasicDBObject("$gt", 1L))))).andReturn(cursorOf(
+				change(2, 0, "aaaaaaaaaaaaaaaaaaaaaaa1", "aaaaaaaaaaaaaaaaaaaaaaa2"), 
+				change(3, 0, "aaaaaaaaaaaaaaaaaaaaaaa1")));
+		DBObject doc = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1")).
+				append("title", "pick up kids").append("completed", false).append("order", 1).append("rev", "r1");
+		expect(coll.find(eq(new BasicDBObject("_id", new BasicDBObject("$in", Arrays.asList(
+				new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1"), new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"))))))).
+				andReturn(cursorOf(doc));
+		replay(coll, versions, changes);
+		MongoStore store = new MongoStore(coll, versions, changes, 20);
+		ToDoChanges result = store.getChanges("1", 10);
+		assertFalse(result.isResync());
+		assertFalse(result.isMore());
+		assertEquals("3", result.getSeq());
+		assertEquals(1, result.getUpserts().size());
+		assertEquals("pick up kids", result.getUpserts().get(0).getTitle());
+		assertEquals(Arrays.asList("aaaaaaaaaaaaaaaaaaaaaaa2"), result.getDeleted());
+		verify(coll, versions, changes);
+	}
+
+	@Test
+	public void testGetChangesGap() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		DBCollection changes = createMockCollection();
+		expect(versions.findOne(eq(new BasicDBObject("_id", "todos")))).
+				andReturn(new BasicDBObject("_id", "todos").append("version", 3L)).times(2);
+		//The write at 2 is still being recorded
+		expect(changes.find(eq(new BasicDBObject("_id", new BasicDBObject("$gt", 1L))))).andReturn(cursorOf(
+				change(3, 0, "aaaaaaaaaaaaaaaaaaaaaaa1")));
+		//The write at 2 was never recorded
+		expect(changes.find(eq(new BasicDBObject("_id", new BasicDBObject("$gt", 1L))))).andReturn(cursorOf(
+				change(3, 60000, "aaaaaaaaaaaaaaaaaaaaaaa1")));
+		replay(coll, versions, changes);
+		MongoStore store = new MongoStore(coll, versions, changes, 20);
+		ToDoChanges result = store.getChanges("1", 10);
+		assertFalse(result.isResync());
+		//Asking again straight away would not find the write at 2 either
+		assertFalse(result.isMore());
+		assertEquals("1", result.getSeq());
+		assertTrue(result.getUpserts().isEmpty());
+		result = store.getChanges("1", 10);
+		assertTrue(result.isResync());
+		assertEquals("3", result.getSeq());
+		verify(coll, versions, changes);
+	}
+
+	@Test
+	public void testGetChangesGapAtEnd() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		DBCollection changes = createMockCollection();
+		//Nothing is recorded after the write at 2, so the time the version moved tells its age
+		expect(versions.findOne(eq(new BasicDBObject("_id", "todos")))).
+				andReturn(new BasicDBObject("_id", "todos").append("version", 2L).append("at", new Date()));
+		expect(versions.findOne(eq(new BasicDBObject("_id", "todos")))).
+				andReturn(new BasicDBObject("_id", "todos").append("version", 2L).
+						append("at", new Date(System.currentTimeMillis() - 60000)));
+		expect(changes.find(eq(new BasicDBObject("_id", new BasicDBObject("$gt", 0L))))).andReturn(cursorOf(
+				change(1, 60000, "aaaaaaaaaaaaaaaaaaaaaaa1")));
+		expect(changes.find(eq(new BasicDBObject("_id", new BasicDBObject("$gt", 0L))))).andReturn(cursorOf(
+				change(1, 60000, "aaaaaaaaaaaaaaaaaaaaaaa1")));
+		DBObject doc = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1")).
+				append("title", "pick up kids").append("completed", false).append("order", 1).append("rev", "r1");
+		expect(coll.find(eq(new BasicDBObject("_id", new BasicDBObject("$in", Arrays.asList(
+				new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1"))))))).andReturn(cursorOf(doc));
+		replay(coll, versions, changes);
+		MongoStore store = new MongoStore(coll, versions, changes, 20);
+		ToDoChanges result = store.getChanges("0", 10);
+		assertFalse(result.isResync());
+		assertFalse(result.isMore());
+		assertEquals("1", result.getSeq());
+		assertEquals(1, result.getUpserts().size());
+		result = store.getChanges("0", 10);
+		assertTrue(result.isResync());
+		assertEquals("2", result.getSeq());
+		verify(coll, versions, changes);
+	}
+
+	@Test
+	public void testGetChangesResync() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		DBCollection changes = createMockCollection();
+		expect(versions.findOne(eq(new BasicDBObject("_id", "todos")))).
+				andReturn(new BasicDBObject("_id", "todos").append("version", 30L)).anyTimes();
+		replay(coll, versions, changes);
+		MongoStore store = new MongoStore(coll, versions, changes, 20);
+		for(String since : new String[] {null, "5", "31", "abc"}) {
+			ToDoChanges result = store.getChanges(since, 10);
+			assertTrue(since, result.isResync());
+			assertEquals("30", result.getSeq());
+		}
+		//Nothing is recorded without a changes collection
+		assertTrue(new MongoStore(coll, versions).getChanges("30", 10).isResync());
+		verify(coll, versions, changes);
+	}
+
+	@Test
+	public void testGetVersionInMemory() {
+		DBCollection coll = createMockCollection();
+		expect(coll.remove(isA(DBObject.class))).andReturn(null);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		String version = store.getVersion();
+		assertEquals(version, store.getVersion());
+		store.delete("aaaaaaaaaaaaaaaaaaaaaaa2");
+		assertFalse(version.equals(store.getVersion()));
+		//Another store does not hand out the same versions
+		assertFalse(version.equals(new MongoStore(coll).getVersion()));
+		verify(coll);
+	}
+
+	@Test
+	public void testPersistAll() {
+		DBCollection coll = createMockCollection();
+		expect(coll.insert(isA(List.class))).andAnswer(new IAnswer<WriteResult>() {
+			@Override
+			public WriteResult answer() throws Throwable {
+				@SuppressWarnings("unchecked")
+				List<DBObject> objs = (List<DBObject>)getCurrentArguments()[0];
+				int count = 0;
+				for(DBObject obj : objs) {
+					obj.put("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa" + ++count));
+				}
+				return null;
+			}
+		});
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		ToDo td1 = new ToDo();
+		td1.setTitle("This is todo 1");
+		ToDo td2 = new ToDo();
+		td2.setTitle("This is todo 2");
+		List<BulkResult> results = store.persistAll(Arrays.asList(td1, td2));
+		assertEquals("aaaaaaaaaaaaaaaaaaaaaaa1", td1.getId());
+		assertEquals("aaaaaaaaaaaaaaaaaaaaaaa2", results.get(1).getId());
+		assertTrue(results.get(1).isOk());
+		verify(coll);
+	}
+
+	@Test
+	public void testUpdateAll() {
+		DBCollection coll = createMockCollection();
+		ToDo td = new ToDo();
+		td.setId("aaaaaaaaaaaaaaaaaaaaaaa2");
+		td.setTitle("new title");
+		DBObject query = new BasicDBObject("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"));
+		DBObject dbObj = new BasicDBObject("title", "new title").append("completed", false).
+				append("order", 0).append("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"));
+		Capture<DBObject> update = new Capture<DBObject>();
+		expect(coll.update(eq(query), capture(update))).andReturn(null);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		ToDo invalid = new ToDo();
+		invalid.setId("1");
+		List<BulkResult> results = store.updateAll(Arrays.asList(td, invalid));
+		assertTrue(results.get(0).isOk());
+		assertFalse(results.get(1).isOk());
+		assertWritten(dbObj, update.getValue());
+		verify(coll);
+	}
+
+	@Test
+	public void testUpdateAllNoneExist() {
+		DBCollection coll = createMockCollection();
+		DBCollection versions = createMockCollection();
+		DBCollection changes = createMockCollection();
+		ToDo td = new ToDo();
+		td.setId("aaaaaaaaaaaaaaaaaaaaaaa2");
+		WriteResult missed = createMock(WriteResult.class);
+		expect(missed.getN()).andReturn(0);
+		replay(missed);
+		expect(coll.update(isA(DBObject.class), isA(DBObject.class))).andReturn(missed);
+		//Nothing was written, so the version does not move and no change is recorded
+		replay(coll, versions, changes);
+		MongoStore store = new MongoStore(coll, versions, changes, 20);
+		assertFalse(store.updateAll(Arrays.asList(td)).get(0).isOk());
+		assertTrue(store.updateAll(new ArrayList<ToDo>()).isEmpty());
+		verify(coll, versions, changes);
+	}
+
+	@Test
+	public void testDeleteAll() {
+		DBCollection coll = createMockCollection();
+		List<ObjectId> ids = Arrays.asList(new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1"), 
+				new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2"));
+		//Only the first exists, so only it is removed and reported removed
+		DBCursor cursor = createMockCursor();
+		expect(cursor.hasNext()).andReturn(true);
+		expect(cursor.next()).andReturn(new BasicDBObject("_id", ids.get(0)));
+		expect(cursor.hasNext()).andReturn(false);
+		cursor.close();
+		expectLastCall();
+		replay(cursor);
+		expect(coll.find(eq(new BasicDBObject("_id", new BasicDBObject("$in", ids))), 
+				eq(new BasicDBObject("_id", 1)))).andReturn(cursor);
+		expect(coll.remove(eq(new BasicDBObject("_id", new BasicDBObject("$in", ids.subList(0, 1))))))
+				.andReturn(null);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		List<BulkResult> results = store.deleteAll(Arrays.asList("aaaaaaaaaaaaaaaaaaaaaaa1", "1", 
+				"aaaaaaaaaaaaaaaaaaaaaaa2"));
+		assertTrue(results.get(0).isOk());
+		assertFalse(results.get(1).isOk());
+		assertFalse(results.get(2).isOk());
+		assertEquals("not_found", results.get(2).getError());
+		assertEquals("1", store.getVersion().replaceFirst(".*-", ""));
+		verify(coll);
+		verify(cursor);
+	}
+
+	@Test
+	public void testDeleteAllNoneExist() {
+		DBCollection coll = createMockCollection();
+		DBCursor cursor = createMockCursor();
+		expect(cursor.hasNext()).andReturn(false);
+		cursor.close();
+		expectLastCall();
+		replay(cursor);
+		expect(coll.find(isA(DBObject.class), isA(DBObject.class))).andReturn(cursor);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		String version = store.getVersion();
+		assertFalse(store.deleteAll(Arrays.asList("aaaaaaaaaaaaaaaaaaaaaaa1")).get(0).isOk());
+		//Nothing was removed, so nothing changed
+		assertEquals(version, store.getVersion());
+		verify(coll);
+	}
+
+	@Test
+	public void testGetPage() {
+		DBCollection coll = createMockCollection();
+		DBCursor cursor = createMockCursor();
+		expect(cursor.hasNext()).andReturn(true).times(2);
+		expect(cursor.hasNext()).andReturn(false);
+		expect(cursor.next()).andAnswer(new IAnswer<DBObject>() {
+			private int count = 1;
+			@Override
+			public DBObject answer() throws Throwable {
+				count++;
+				return new BasicDBObject("title", "This is todo " + count).append("completed", false).
+						append("order", 2).append("_id", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa" + count));
+			}
+		}).times(2);
+		DBObject sort = new BasicDBObject("order", 1).append("_id", 1);
+		expect(cursor.sort(eq(sort))).andReturn(cursor);
+		expect(cursor.limit(2)).andReturn(cursor);
+		cursor.close();
+		expectLastCall();
+		replay(cursor);
+		DBObject query = new BasicDBObject("$or", Arrays.asList(
+				new BasicDBObject("order", new BasicDBObject("$gt", 2)),
+				new BasicDBObject("order", 2).append("_id", 
+						new BasicDBObject("$gte", new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2")))));
+		expect(coll.find(eq(query))).andReturn(cursor);
+		replay(coll);
+		MongoStore store = new MongoStore(coll);
+		ToDoPage page = store.getPage(new OrderKey(2, "aaaaaaaaaaaaaaaaaaaaaaa2").encode(), 1);
+		assertEquals(1, page.getToDos().size());
+		assertEquals("aaaaaaaaaaaaaaaaaaaaaaa2", page.getToDos().get(0).getId());
+		assertEquals(new OrderKey(2, "aaaaaaaaaaaaaaaaaaaaaaa3"), OrderKey.decode(page.getNext()));
+		verify(cursor);
+		verify(coll);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testGetPageBadCursor() {
+		DBCollection coll = createMockCollection();
+		replay(coll);
+		new MongoStore(coll).getPage(new OrderKey(2, "123").encode(), 1);
 	}
 }
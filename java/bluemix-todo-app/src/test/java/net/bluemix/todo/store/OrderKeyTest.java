@@ -0,0 +1,90 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoPage;
+
+import org.junit.Test;
+
+public class OrderKeyTest {
+
+  @Test
+  public void testEncode() {
+    OrderKey key = new OrderKey(12, "abc:def");
+    String cursor = key.encode();
+    assertTrue(cursor.matches("[A-Za-z0-9_-]+"));
+    assertEquals(key, OrderKey.decode(cursor));
+    OrderKey negative = OrderKey.decode(new OrderKey(-3, "123").encode());
+    assertEquals(-3, negative.getOrder());
+    assertEquals("123", negative.getId());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecodeNotBase64() {
+    OrderKey.decode("not a cursor!");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecodeNoOrder() {
+    OrderKey.decode(new OrderKey(1, "x").encode().substring(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecodeBadOrder() throws Exception {
+    OrderKey.decode(java.util.Base64.getUrlEncoder().encodeToString("a:123".getBytes("UTF-8")));
+  }
+
+  @Test
+  public void testCompareTo() {
+    assertTrue(new OrderKey(1, "b").compareTo(new OrderKey(2, "a")) < 0);
+    assertTrue(new OrderKey(1, "b").compareTo(new OrderKey(1, "a")) > 0);
+    assertEquals(0, new OrderKey(1, "a").compareTo(new OrderKey(1, "a")));
+    assertFalse(new OrderKey(1, "a").equals(new OrderKey(2, "a")));
+    assertEquals(new OrderKey(1, "a").hashCode(), new OrderKey(1, "a").hashCode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCheckLimit() {
+    OrderKey.checkLimit(1);
+    OrderKey.checkLimit(0);
+  }
+
+  @Test
+  public void testToPage() {
+    List<ToDo> todos = new ArrayList<ToDo>();
+    for(int i = 0; i < 3; i++) {
+      ToDo td = new ToDo();
+      td.setId("id" + i);
+      td.setOrder(i);
+      todos.add(td);
+    }
+    ToDoPage page = OrderKey.toPage(todos, 2);
+    assertEquals(2, page.getToDos().size());
+    assertEquals(new OrderKey(2, "id2"), OrderKey.decode(page.getNext()));
+    page = OrderKey.toPage(todos, 3);
+    assertEquals(3, page.getToDos().size());
+    assertNull(page.getNext());
+  }
+}
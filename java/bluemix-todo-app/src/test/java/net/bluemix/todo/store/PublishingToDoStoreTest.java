@@ -0,0 +1,159 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PublishingToDoStoreTest {
+
+  private InMemoryStore backing;
+  private PublishingToDoStore store;
+  private List<ToDoEvent> events;
+
+  @Before
+  public void setUp() throws Exception {
+    backing = new InMemoryStore();
+    ToDoEventLog log = new ToDoEventLog(10, 10, Runnable::run);
+    events = new ArrayList<ToDoEvent>();
+    log.subscribe(null, new ToDoEventLog.Subscriber() {
+      @Override
+      public void send(ToDoEvent event) throws IOException {
+        events.add(event);
+      }
+
+      @Override
+      public void resync() throws IOException {
+        fail("Did not expect a resync.");
+      }
+
+      @Override
+      public void ping() throws IOException {
+      }
+
+      @Override
+      public void close() {
+      }
+    });
+    store = new PublishingToDoStore(backing, log);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    backing = null;
+    store = null;
+    events = null;
+  }
+
+  private static ToDo todo(String title) {
+    ToDo td = new ToDo();
+    td.setTitle(title);
+    return td;
+  }
+
+  private void assertEvent(int index, ToDoEvent.Type type, String id) {
+    assertEquals(type, events.get(index).getType());
+    assertEquals(id, events.get(index).getToDo().getId());
+  }
+
+  @Test
+  public void testWrites() throws Exception {
+    ToDo td = store.persist(todo("pick up kids"));
+    assertEvent(0, ToDoEvent.Type.CREATED, td.getId());
+    assertEquals("pick up kids", events.get(0).getToDo().getTitle());
+    ToDo updated = store.update(td.getId(), todo("pick up laundry"));
+    assertEvent(1, ToDoEvent.Type.UPDATED, td.getId());
+    assertEquals(updated.getRev(), events.get(1).getToDo().getRev());
+    store.delete(td.getId());
+    assertEvent(2, ToDoEvent.Type.DELETED, td.getId());
+    //Updating or deleting nothing is not a change
+    assertNull(store.update("123", todo("not there")));
+    assertFalse(store.delete(td.getId()));
+    assertFalse(store.deleteAsync(td.getId()).toCompletableFuture().get());
+    assertEquals(3, events.size());
+  }
+
+  @Test
+  public void testConditionalWrites() throws Exception {
+    ToDo td = store.persist(todo("pick up kids"));
+    try {
+      store.update(td.getId(), todo("pick up laundry"), "0");
+      fail("Expected exception to be thrown.");
+    } catch(RevisionMismatchException e) {
+      //expected
+    }
+    assertEquals(1, events.size());
+    td = store.update(td.getId(), todo("pick up laundry"), td.getRev());
+    assertEvent(1, ToDoEvent.Type.UPDATED, td.getId());
+    store.delete(td.getId(), td.getRev());
+    assertEvent(2, ToDoEvent.Type.DELETED, td.getId());
+  }
+
+  @Test
+  public void testBulkWrites() throws Exception {
+    ToDo td1 = todo("pick up kids");
+    ToDo td2 = todo("pick up laundry");
+    store.persistAll(Arrays.asList(td1, td2));
+    assertEvent(0, ToDoEvent.Type.CREATED, td1.getId());
+    assertEvent(1, ToDoEvent.Type.CREATED, td2.getId());
+    ToDo missing = todo("not there");
+    missing.setId("123");
+    td1.setTitle("pick up milk");
+    store.updateAll(Arrays.asList(td1, missing));
+    assertEquals(3, events.size());
+    assertEvent(2, ToDoEvent.Type.UPDATED, td1.getId());
+    assertEquals("pick up milk", events.get(2).getToDo().getTitle());
+    store.deleteAll(Arrays.asList(td1.getId(), td2.getId()));
+    assertEvent(3, ToDoEvent.Type.DELETED, td1.getId());
+    assertEvent(4, ToDoEvent.Type.DELETED, td2.getId());
+  }
+
+  @Test
+  public void testAsyncWrites() throws Exception {
+    ToDo td = store.persistAsync(todo("pick up kids")).toCompletableFuture().get();
+    assertEvent(0, ToDoEvent.Type.CREATED, td.getId());
+    td = store.updateAsync(td.getId(), todo("pick up laundry"), td.getRev()).toCompletableFuture().get();
+    assertEvent(1, ToDoEvent.Type.UPDATED, td.getId());
+    store.deleteAsync(td.getId()).toCompletableFuture().get();
+    assertEvent(2, ToDoEvent.Type.DELETED, td.getId());
+    store.persistAllAsync(Arrays.asList(todo("pick up milk"))).toCompletableFuture().get();
+    assertEquals(ToDoEvent.Type.CREATED, events.get(3).getType());
+  }
+
+  @Test
+  public void testReads() throws Exception {
+    ToDo td = backing.persist(todo("pick up kids"));
+    assertEquals(td, store.get(td.getId()));
+    assertEquals(1, store.getAll().size());
+    assertEquals(1, store.count());
+    assertEquals(backing.getVersion(), store.getVersion());
+    assertEquals(backing.getVersion(), store.getChanges(null, 10).getSeq());
+    assertEquals(0, events.size());
+  }
+}
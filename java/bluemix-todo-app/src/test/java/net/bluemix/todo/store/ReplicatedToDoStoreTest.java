@@ -0,0 +1,235 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicatedToDoStoreTest {
+
+  private ChangesFeedServer server;
+  private Client client;
+  private InMemoryStore backing;
+  private ReplicatedToDoStore store;
+  private AtomicInteger revs;
+
+  private static ToDo todo(String id, String rev, String title) {
+    ToDo td = new ToDo();
+    td.setId(id);
+    td.setRev(rev);
+    td.setTitle(title);
+    return td;
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = new ChangesFeedServer();
+    client = ClientBuilder.newClient();
+    revs = new AtomicInteger();
+    //Gives every write a new revision like Cloudant does
+    backing = new InMemoryStore() {
+      @Override
+      public ToDo persist(ToDo td) {
+        super.persist(td);
+        td.setRev(revs.incrementAndGet() + "-x");
+        return td;
+      }
+
+      @Override
+      public ToDo update(String id, ToDo td) {
+        ToDo updated = super.update(id, td);
+        if(updated != null) {
+          updated.setRev(revs.incrementAndGet() + "-x");
+        }
+        return updated;
+      }
+
+      @Override
+      public void delete(String id, String rev) {
+        //Revisions are made up above, so any will do
+        delete(id);
+      }
+    };
+    store = new ReplicatedToDoStore(backing, client.target(server.getUri()), 500, TimeUnit.MILLISECONDS);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    store.close();
+    client.close();
+    server.stop();
+  }
+
+  private void awaitFresh() throws InterruptedException {
+    for(int i = 0; i < 500 && !store.isFresh(); i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(store.isFresh());
+  }
+
+  private void awaitTitle(String id, String title) throws Exception {
+    for(int i = 0; i < 500; i++) {
+      ToDo td = store.get(id);
+      if(td == null ? title == null : td.getTitle().equals(title)) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    fail("The ToDo " + id + " was not " + title);
+  }
+
+  @Test
+  public void testReadsFromReplica() throws Exception {
+    server.put(todo("123", "1-a", "pick up kids"));
+    store.start();
+    awaitFresh();
+    //Only the feed knows about the ToDo, so it must have come from the replica
+    assertEquals("pick up kids", store.get("123").getTitle());
+    assertEquals(1, store.getAll().size());
+    assertEquals(1, store.count());
+    assertEquals(1, store.countAsync().toCompletableFuture().get().intValue());
+    assertEquals("pick up kids", store.getAsync("123").toCompletableFuture().get().getTitle());
+    assertEquals(0, store.getMissCount());
+    assertTrue(store.getHitCount() >= 5);
+    //Pages come from the backing store
+    assertEquals(0, store.getPage(null, 10).getToDos().size());
+    server.put(todo("123", "2-a", "pick up laundry"));
+    awaitTitle("123", "pick up laundry");
+    server.delete("123", "3-a");
+    awaitTitle("123", null);
+  }
+
+  @Test
+  public void testVersionFromReplica() throws Exception {
+    store.start();
+    awaitFresh();
+    String version = store.getVersion();
+    assertEquals(version, store.getVersionAsync().toCompletableFuture().get());
+    server.put(todo("123", "1-a", "pick up kids"));
+    awaitTitle("123", "pick up kids");
+    assertFalse(version.equals(store.getVersion()));
+    version = store.getVersion();
+    store.delete("123");
+    assertFalse(version.equals(store.getVersion()));
+    assertEquals(0, store.getMissCount());
+  }
+
+  @Test
+  public void testStaleReadsFromBacking() throws Exception {
+    assertFalse(store.isFresh());
+    assertEquals(0, store.getAll().size());
+    assertEquals(1, store.getMissCount());
+    server.put(todo("123", "1-a", "pick up kids"));
+    store.start();
+    awaitFresh();
+    server.stop();
+    for(int i = 0; i < 500 && store.isFresh(); i++) {
+      Thread.sleep(10);
+    }
+    assertFalse(store.isFresh());
+    assertNull(store.get("123"));
+    assertEquals(2, store.getMissCount());
+  }
+
+  @Test
+  public void testReadOwnWrites() throws Exception {
+    store.start();
+    awaitFresh();
+    ToDo td = store.persist(todo(null, null, "pick up kids"));
+    assertEquals("1-x", td.getRev());
+    //Seen straight away, before the feed has it
+    assertEquals("pick up kids", store.get(td.getId()).getTitle());
+    //The feed is behind, so the older revision is ignored
+    ToDo updated = store.update(td.getId(), todo(null, null, "pick up laundry"));
+    server.put(todo(td.getId(), "1-x", "pick up kids"));
+    server.put(todo("456", "1-b", "pick up milk"));
+    awaitTitle("456", "pick up milk");
+    assertEquals("pick up laundry", store.get(td.getId()).getTitle());
+    server.put(todo(td.getId(), updated.getRev(), "pick up laundry"));
+    server.put(todo(td.getId(), "3-y", "changed elsewhere"));
+    awaitTitle(td.getId(), "changed elsewhere");
+  }
+
+  @Test
+  public void testDeleteAheadOfFeed() throws Exception {
+    store.start();
+    awaitFresh();
+    ToDo td = store.persist(todo(null, null, "pick up kids"));
+    store.delete(td.getId());
+    assertNull(store.get(td.getId()));
+    //The feed catching up with the create does not bring the ToDo back
+    server.put(todo(td.getId(), "1-x", "pick up kids"));
+    server.put(todo("456", "1-b", "pick up milk"));
+    awaitTitle("456", "pick up milk");
+    assertNull(store.get(td.getId()));
+    server.delete(td.getId(), "2-x");
+    server.put(todo(td.getId(), "3-x", "recreated"));
+    awaitTitle(td.getId(), "recreated");
+  }
+
+  @Test
+  public void testConditionalDeleteAheadOfFeed() throws Exception {
+    store.start();
+    awaitFresh();
+    server.put(todo("123", "1-a", "pick up kids"));
+    awaitTitle("123", "pick up kids");
+    backing.put(todo("123", "2-a", "pick up laundry"));
+    //Deleted at a revision the replica has not seen yet
+    store.deleteAsync("123", "2-a").toCompletableFuture().get();
+    assertNull(store.get("123"));
+    server.put(todo("123", "2-a", "pick up laundry"));
+    server.put(todo("456", "1-b", "pick up milk"));
+    awaitTitle("456", "pick up milk");
+    assertNull(store.get("123"));
+  }
+
+  @Test
+  public void testBulkWrites() throws Exception {
+    store.start();
+    awaitFresh();
+    ToDo td1 = todo(null, null, "pick up kids");
+    ToDo td2 = todo(null, null, "pick up laundry");
+    store.persistAllAsync(Arrays.asList(td1, td2)).toCompletableFuture().get();
+    assertEquals(2, store.getAll().size());
+    store.deleteAll(Arrays.asList(td1.getId()));
+    assertEquals(1, store.count());
+    assertEquals(0, store.getMissCount());
+  }
+
+  @Test
+  public void testGeneration() {
+    assertEquals(12, ReplicatedToDoStore.generation("12-abc"));
+    assertEquals(0, ReplicatedToDoStore.generation(null));
+    assertEquals(0, ReplicatedToDoStore.generation("abc"));
+    assertEquals(0, ReplicatedToDoStore.generation("x-abc"));
+  }
+}
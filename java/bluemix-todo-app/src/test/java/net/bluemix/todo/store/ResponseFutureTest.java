@@ -0,0 +1,68 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ExecutionException;
+
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.Response;
+
+import org.junit.Test;
+
+public class ResponseFutureTest {
+
+  @Test
+  public void testCompleted() throws Exception {
+    Response resp = createMock(Response.class);
+    replay(resp);
+    ResponseFuture future = new ResponseFuture();
+    future.completed(resp);
+    assertSame(resp, future.get());
+    verify(resp);
+  }
+
+  @Test
+  public void testCompletedAfterCancel() throws Exception {
+    Response resp = createMock(Response.class);
+    resp.close();
+    expectLastCall();
+    replay(resp);
+    ResponseFuture future = new ResponseFuture();
+    future.cancel(false);
+    future.completed(resp);
+    verify(resp);
+  }
+
+  @Test
+  public void testFailed() throws Exception {
+    ResponseFuture future = new ResponseFuture();
+    future.failed(new ProcessingException("connection refused"));
+    try {
+      future.get();
+      fail("Expected exception to be thrown.");
+    } catch(ExecutionException e) {
+      assertTrue(e.getCause() instanceof ToDoStoreException);
+    }
+  }
+}
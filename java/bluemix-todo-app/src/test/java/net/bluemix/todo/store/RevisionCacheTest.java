@@ -0,0 +1,59 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class RevisionCacheTest {
+
+  @Test
+  public void testPutAndGet() {
+    RevisionCache cache = new RevisionCache(10);
+    assertNull(cache.get("123"));
+    cache.put("123", "1-abc");
+    assertEquals("1-abc", cache.get("123"));
+    cache.put("123", "2-def");
+    assertEquals("2-def", cache.get("123"));
+    cache.put("123", null);
+    assertNull(cache.get("123"));
+    cache.put(null, "1-abc");
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testRemove() {
+    RevisionCache cache = new RevisionCache(10);
+    cache.put("123", "1-abc");
+    cache.remove("123");
+    assertNull(cache.get("123"));
+  }
+
+  @Test
+  public void testBounded() {
+    RevisionCache cache = new RevisionCache(2);
+    cache.put("1", "1-a");
+    cache.put("2", "1-b");
+    cache.get("1");
+    cache.put("3", "1-c");
+    assertEquals(2, cache.size());
+    assertEquals("1-a", cache.get("1"));
+    assertNull(cache.get("2"));
+    assertEquals("1-c", cache.get("3"));
+  }
+}
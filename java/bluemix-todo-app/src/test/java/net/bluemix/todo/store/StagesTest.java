@@ -0,0 +1,80 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class StagesTest {
+
+  private static final Executor REJECT = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      throw new RejectedExecutionException();
+    }
+  };
+
+  private static Throwable cause(CompletableFuture<?> future) throws InterruptedException {
+    try {
+      future.get();
+      fail("Expected exception to be thrown.");
+      return null;
+    } catch(ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  @Test
+  public void testNow() throws Exception {
+    assertEquals("done", Stages.now(() -> "done").get());
+    assertTrue(cause(Stages.now(() -> {
+      throw new ToDoStoreException("Error");
+    })) instanceof ToDoStoreException);
+    assertTrue(cause(Stages.now(() -> {
+      throw new IllegalArgumentException();
+    })) instanceof IllegalArgumentException);
+  }
+
+  @Test
+  public void testStep() throws Exception {
+    CompletableFuture<Integer> future = CompletableFuture.completedFuture(1);
+    assertEquals(2, future.thenApply(Stages.step(i -> i + 1)).get().intValue());
+    assertTrue(cause(future.thenApply(Stages.step(i -> {
+      throw new ToDoStoreException("Error");
+    }))) instanceof ToDoStoreException);
+  }
+
+  @Test
+  public void testSupply() throws Exception {
+    assertEquals("done", Stages.supply(() -> "done", Runnable::run).get());
+    assertTrue(cause(Stages.supply(() -> {
+      throw new ToDoStoreException("Error");
+    }, Runnable::run)) instanceof ToDoStoreException);
+  }
+
+  @Test
+  public void testSupplyRejected() throws Exception {
+    assertTrue(cause(Stages.supply(() -> "done", REJECT)) instanceof ToDoStoreException);
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+public class ThreadsTest {
+
+  private static Callable<String> threadName() {
+    return new Callable<String>() {
+      @Override
+      public String call() {
+        return Thread.currentThread().getName();
+      }
+    };
+  }
+
+  @Test
+  public void testPlatformExecutor() throws Exception {
+    ExecutorService exec = Threads.newExecutor("test", 1, 1, false);
+    try {
+      assertEquals("test-1", exec.submit(threadName()).get());
+      final CountDownLatch block = new CountDownLatch(1);
+      final CountDownLatch started = new CountDownLatch(1);
+      Runnable blocked = new Runnable() {
+        @Override
+        public void run() {
+          started.countDown();
+          try {
+            block.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      };
+      exec.execute(blocked);
+      started.await();
+      exec.execute(blocked);
+      try {
+        exec.execute(blocked);
+        fail("Expected exception to be thrown.");
+      } catch(RejectedExecutionException e) {
+        //The thread is busy and the queue is full
+      }
+      block.countDown();
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testScheduledExecutor() throws Exception {
+    ScheduledExecutorService exec = Threads.newScheduledExecutor("test-scheduled");
+    try {
+      String name = exec.schedule(threadName(), 1, TimeUnit.MILLISECONDS).get();
+      assertTrue(name.startsWith("test-scheduled-"));
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testVirtualUnsupported() {
+    Assume.assumeTrue(!Threads.isVirtualSupported());
+    assertFalse(Threads.isVirtual());
+    try {
+      Threads.newVirtualExecutor("test");
+      fail("Expected exception to be thrown.");
+    } catch(UnsupportedOperationException e) {
+      //Expected on Java versions before 21
+    }
+  }
+
+  @Test
+  public void testVirtualExecutor() throws Exception {
+    Assume.assumeTrue(Threads.isVirtualSupported());
+    ExecutorService exec = Threads.newExecutor("test", 1, 1, true);
+    try {
+      boolean virtual = exec.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return (Boolean)Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+        }
+      }).get();
+      assertTrue(virtual);
+      assertTrue(exec.submit(threadName()).get().startsWith("test-"));
+    } finally {
+      exec.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt64;
+import org.bson.BsonNull;
+import org.bson.BsonObjectId;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+public class ToDoCodecTest {
+
+  private final ToDoCodec codec = new ToDoCodec();
+
+  @Test
+  public void testRoundTrip() {
+    ToDo td = new ToDo();
+    td.setId("aaaaaaaaaaaaaaaaaaaaaaa1");
+    td.setTitle("pick up kids");
+    td.setCompleted(true);
+    td.setOrder(3);
+    td.setRev("r1");
+    BsonDocument doc = encode(td);
+    assertEquals(new BsonObjectId(new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1")), doc.get("_id"));
+    assertEquals("pick up kids", doc.getString("title").getValue());
+    assertTrue(doc.getBoolean("completed").getValue());
+    assertEquals(3, doc.getInt32("order").getValue());
+    ToDo decoded = decode(doc);
+    assertEquals(td, decoded);
+    assertEquals("r1", decoded.getRev());
+  }
+
+  @Test
+  public void testWithoutIdOrRevision() {
+    ToDo td = new ToDo();
+    td.setTitle(null);
+    BsonDocument doc = encode(td);
+    assertFalse(doc.containsKey("_id"));
+    assertFalse(doc.containsKey("rev"));
+    assertEquals(BsonNull.VALUE, doc.get("title"));
+    ToDo decoded = decode(doc);
+    assertNull(decoded.getId());
+    assertNull(decoded.getTitle());
+    //Documents from before revisions were kept are at revision 0
+    assertEquals(ToDoCodec.NO_REVISION, decoded.getRev());
+  }
+
+  @Test
+  public void testLenientDecode() {
+    BsonDocument doc = new BsonDocument("_id", new BsonObjectId(new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa1")))
+            .append("title", new BsonString("pick up kids"))
+            .append("order", new BsonInt64(7))
+            .append("completed", new BsonString("not a boolean"))
+            .append("extra", new BsonDocument("nested", new BsonString("skipped")))
+            .append("rev", new BsonObjectId(new ObjectId("aaaaaaaaaaaaaaaaaaaaaaa2")));
+    ToDo td = decode(doc);
+    assertEquals("aaaaaaaaaaaaaaaaaaaaaaa1", td.getId());
+    assertEquals(7, td.getOrder());
+    assertFalse(td.isCompleted());
+    assertEquals("aaaaaaaaaaaaaaaaaaaaaaa2", td.getRev());
+  }
+
+  @Test
+  public void testIds() {
+    ToDo td = new ToDo();
+    assertFalse(codec.documentHasId(td));
+    codec.generateIdIfAbsentFromDocument(td);
+    assertTrue(ObjectId.isValid(td.getId()));
+    String id = td.getId();
+    codec.generateIdIfAbsentFromDocument(td);
+    assertEquals(id, td.getId());
+    assertEquals(new BsonObjectId(new ObjectId(id)), codec.getDocumentId(td));
+  }
+
+  private BsonDocument encode(ToDo td) {
+    BsonDocument doc = new BsonDocument();
+    codec.encode(new BsonDocumentWriter(doc), td, EncoderContext.builder().build());
+    return doc;
+  }
+
+  private ToDo decode(BsonDocument doc) {
+    return codec.decode(new BsonDocumentReader(doc), DecoderContext.builder().build());
+  }
+}
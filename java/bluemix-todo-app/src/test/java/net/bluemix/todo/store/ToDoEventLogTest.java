@@ -0,0 +1,343 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import net.bluemix.todo.model.ToDo;
+
+import org.junit.Test;
+
+public class ToDoEventLogTest {
+
+  private static final Executor DIRECT = Runnable::run;
+
+  private static ToDo todo(String id) {
+    ToDo td = new ToDo();
+    td.setId(id);
+    td.setTitle("todo " + id);
+    return td;
+  }
+
+  @Test
+  public void testPublishInOrder() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    RecordingSubscriber sub = new RecordingSubscriber();
+    log.subscribe(null, sub);
+    ToDoEvent created = log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    log.publish(ToDoEvent.Type.UPDATED, todo("1"));
+    log.publish(ToDoEvent.Type.DELETED, todo("1"));
+    assertEquals(3, sub.events.size());
+    assertEquals(created.getId(), sub.events.get(0).getId());
+    assertEquals(ToDoEvent.Type.CREATED, sub.events.get(0).getType());
+    assertEquals("todo 1", sub.events.get(0).getToDo().getTitle());
+    assertEquals(ToDoEvent.Type.UPDATED, sub.events.get(1).getType());
+    assertEquals(ToDoEvent.Type.DELETED, sub.events.get(2).getType());
+    //Only the ID of a deleted ToDo is sent
+    assertEquals("1", sub.events.get(2).getToDo().getId());
+    assertEquals("", sub.events.get(2).getToDo().getTitle());
+    assertFalse(sub.resynced);
+  }
+
+  @Test
+  public void testEventsAreCopies() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    ToDo td = todo("1");
+    ToDoEvent event = log.publish(ToDoEvent.Type.CREATED, td);
+    td.setTitle("changed");
+    assertEquals("todo 1", event.getToDo().getTitle());
+  }
+
+  @Test
+  public void testNewSubscriberOnlyGetsNewEvents() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    RecordingSubscriber sub = new RecordingSubscriber();
+    log.subscribe(null, sub);
+    log.publish(ToDoEvent.Type.CREATED, todo("2"));
+    assertEquals(1, sub.events.size());
+    assertEquals("2", sub.events.get(0).getToDo().getId());
+  }
+
+  @Test
+  public void testResume() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    ToDoEvent first = log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    log.publish(ToDoEvent.Type.CREATED, todo("2"));
+    ToDoEvent last = log.publish(ToDoEvent.Type.CREATED, todo("3"));
+    RecordingSubscriber sub = new RecordingSubscriber();
+    log.subscribe(first.getId(), sub);
+    log.publish(ToDoEvent.Type.CREATED, todo("4"));
+    assertEquals(3, sub.events.size());
+    assertEquals("2", sub.events.get(0).getToDo().getId());
+    assertEquals("4", sub.events.get(2).getToDo().getId());
+    assertFalse(sub.resynced);
+    //Resuming from the latest event replays nothing
+    RecordingSubscriber current = new RecordingSubscriber();
+    log.subscribe(sub.events.get(2).getId(), current);
+    assertEquals(0, current.events.size());
+    assertFalse(current.resynced);
+    RecordingSubscriber behind = new RecordingSubscriber();
+    log.subscribe(last.getId(), behind);
+    assertEquals(1, behind.events.size());
+  }
+
+  @Test
+  public void testResumeUnknownEventResyncs() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    ToDoEvent event = log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    for(String id : new String[] {"bad", "0-0", "abc-def", event.getId() + "5", 
+            event.getId().replace("-0", "--1")}) {
+      RecordingSubscriber sub = new RecordingSubscriber();
+      log.subscribe(id, sub);
+      assertTrue(id, sub.resynced);
+      assertEquals(0, sub.events.size());
+    }
+    //An event from another log, for example before a restart
+    RecordingSubscriber sub = new RecordingSubscriber();
+    new ToDoEventLog(10, 10, DIRECT).subscribe(event.getId(), sub);
+    assertTrue(sub.resynced);
+  }
+
+  @Test
+  public void testResumeTooFarBehindResyncs() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(3, 10, DIRECT);
+    ToDoEvent first = log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    for(int i = 2; i <= 5; i++) {
+      log.publish(ToDoEvent.Type.CREATED, todo(Integer.toString(i)));
+    }
+    RecordingSubscriber sub = new RecordingSubscriber();
+    log.subscribe(first.getId(), sub);
+    assertTrue(sub.resynced);
+    assertEquals(0, sub.events.size());
+    log.publish(ToDoEvent.Type.CREATED, todo("6"));
+    assertEquals(1, sub.events.size());
+    //More than fits in the buffer
+    log = new ToDoEventLog(10, 2, DIRECT);
+    first = log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    for(int i = 2; i <= 4; i++) {
+      log.publish(ToDoEvent.Type.CREATED, todo(Integer.toString(i)));
+    }
+    sub = new RecordingSubscriber();
+    log.subscribe(first.getId(), sub);
+    assertTrue(sub.resynced);
+  }
+
+  @Test
+  public void testSlowSubscriberDropped() throws Exception {
+    ManualExecutor exec = new ManualExecutor();
+    ToDoEventLog log = new ToDoEventLog(10, 2, exec);
+    RecordingSubscriber slow = new RecordingSubscriber();
+    log.subscribe(null, slow);
+    log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    log.publish(ToDoEvent.Type.CREATED, todo("2"));
+    assertEquals(1, log.getSubscriberCount());
+    //The buffer is full, publishing does not wait for the subscriber
+    log.publish(ToDoEvent.Type.CREATED, todo("3"));
+    assertEquals(0, log.getSubscriberCount());
+    assertEquals(1, log.getDroppedCount());
+    exec.runAll();
+    assertTrue(slow.closed);
+    assertEquals(1, slow.closeCount);
+    assertEquals(0, slow.events.size());
+  }
+
+  @Test
+  public void testSlowSubscriberDoesNotHoldUpOthers() throws Exception {
+    ManualExecutor exec = new ManualExecutor();
+    ToDoEventLog log = new ToDoEventLog(10, 2, exec);
+    RecordingSubscriber slow = new RecordingSubscriber();
+    RecordingSubscriber fast = new RecordingSubscriber();
+    log.subscribe(null, slow);
+    log.subscribe(null, fast);
+    for(int i = 0; i < 5; i++) {
+      log.publish(ToDoEvent.Type.CREATED, todo(Integer.toString(i)));
+      //Only the fast subscriber's drain runs
+      exec.runLast();
+    }
+    assertEquals(5, fast.events.size());
+    assertEquals(1, log.getSubscriberCount());
+    assertEquals(1, log.getDroppedCount());
+  }
+
+  @Test
+  public void testFailingSubscriberDropped() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    RecordingSubscriber sub = new RecordingSubscriber();
+    sub.fail = true;
+    log.subscribe(null, sub);
+    log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    assertTrue(sub.closed);
+    assertEquals(0, log.getSubscriberCount());
+    assertEquals(1, log.getDroppedCount());
+    log.publish(ToDoEvent.Type.CREATED, todo("2"));
+    assertEquals(1, sub.closeCount);
+  }
+
+  @Test
+  public void testRejectedSubscriberDropped() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, command -> {
+      throw new RejectedExecutionException();
+    });
+    RecordingSubscriber sub = new RecordingSubscriber();
+    log.subscribe(null, sub);
+    log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    assertTrue(sub.closed);
+    assertEquals(1, sub.closeCount);
+    assertEquals(1, log.getDroppedCount());
+  }
+
+  @Test
+  public void testPing() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    RecordingSubscriber sub = new RecordingSubscriber();
+    log.subscribe(null, sub);
+    log.ping();
+    assertEquals(1, sub.pings);
+    //A subscriber that went away is found by the ping
+    sub.fail = true;
+    log.ping();
+    assertTrue(sub.closed);
+    assertEquals(1, log.getDroppedCount());
+  }
+
+  @Test
+  public void testUnsubscribe() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    RecordingSubscriber sub = new RecordingSubscriber();
+    Closeable subscription = log.subscribe(null, sub);
+    subscription.close();
+    assertTrue(sub.closed);
+    assertEquals(0, log.getSubscriberCount());
+    assertEquals(0, log.getDroppedCount());
+    log.publish(ToDoEvent.Type.CREATED, todo("1"));
+    assertEquals(0, sub.events.size());
+    subscription.close();
+    assertEquals(1, sub.closeCount);
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    ToDoEventLog log = new ToDoEventLog(10, 10, DIRECT);
+    RecordingSubscriber sub1 = new RecordingSubscriber();
+    RecordingSubscriber sub2 = new RecordingSubscriber();
+    log.subscribe(null, sub1);
+    log.subscribe(null, sub2);
+    log.close();
+    assertTrue(sub1.closed);
+    assertTrue(sub2.closed);
+    assertEquals(0, log.getSubscriberCount());
+  }
+
+  @Test
+  public void testConcurrentPublishers() throws Exception {
+    final ToDoEventLog log = new ToDoEventLog(1000, 1000, DIRECT);
+    RecordingSubscriber sub = new RecordingSubscriber();
+    log.subscribe(null, sub);
+    List<Thread> threads = new ArrayList<Thread>();
+    for(int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for(int i = 0; i < 100; i++) {
+          log.publish(ToDoEvent.Type.CREATED, todo(Integer.toString(i)));
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for(Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(400, sub.events.size());
+    //Events arrive in the order they were published
+    for(int i = 0; i < 400; i++) {
+      assertTrue(sub.events.get(i).getId().endsWith("-" + i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSize() {
+    new ToDoEventLog(10, 0, DIRECT);
+  }
+
+  private static class RecordingSubscriber implements ToDoEventLog.Subscriber {
+    private final List<ToDoEvent> events = new ArrayList<ToDoEvent>();
+    private boolean resynced;
+    private int pings;
+    private boolean fail;
+    private boolean closed;
+    private int closeCount;
+
+    @Override
+    public void send(ToDoEvent event) throws IOException {
+      check();
+      events.add(event);
+    }
+
+    @Override
+    public void resync() throws IOException {
+      check();
+      resynced = true;
+    }
+
+    @Override
+    public void ping() throws IOException {
+      check();
+      pings++;
+    }
+
+    private void check() throws IOException {
+      if(fail) {
+        throw new IOException("Gone away.");
+      }
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+      closeCount++;
+    }
+  }
+
+  private static class ManualExecutor implements Executor {
+    private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    private void runAll() {
+      while(!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+
+    private void runLast() {
+      if(!tasks.isEmpty()) {
+        tasks.remove(tasks.size() - 1).run();
+      }
+    }
+  }
+}
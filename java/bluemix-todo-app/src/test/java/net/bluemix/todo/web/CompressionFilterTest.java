@@ -0,0 +1,331 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.web;
+
+import static org.easymock.EasyMock.anyInt;
+import static org.easymock.EasyMock.anyLong;
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressionFilterTest {
+
+  private Map<String, String> headers;
+  private ByteArrayOutputStream body;
+  private String contentType;
+  private CompressionFilter filter;
+  private boolean ready;
+  private WriteListener writeListener;
+
+  @Before
+  public void setUp() throws Exception {
+    headers = new HashMap<String, String>();
+    body = new ByteArrayOutputStream();
+    contentType = null;
+    ready = true;
+    writeListener = null;
+    filter = new CompressionFilter(true, 100, 6);
+  }
+
+  private static byte[] content(int size) {
+    StringBuilder sb = new StringBuilder();
+    while(sb.length() < size) {
+      sb.append("{\"title\":\"pick up kids\"},");
+    }
+    return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+  }
+
+  private HttpServletRequest createRequest(String acceptEncoding, String ifNoneMatch) {
+    HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+    expect(req.getHeader("Accept-Encoding")).andReturn(acceptEncoding).anyTimes();
+    expect(req.getHeader("If-None-Match")).andReturn(ifNoneMatch).anyTimes();
+    expect(req.getMethod()).andReturn("GET").anyTimes();
+    expect(req.getServletPath()).andReturn("/api").anyTimes();
+    expect(req.getPathInfo()).andReturn("/todos").anyTimes();
+    replay(req);
+    return req;
+  }
+
+  private HttpServletResponse createResponse() throws IOException {
+    HttpServletResponse resp = createNiceMock(HttpServletResponse.class);
+    resp.setHeader(anyString(), anyString());
+    expectLastCall().andAnswer(() -> headers.put((String)getCurrentArguments()[0],
+            (String)getCurrentArguments()[1])).anyTimes();
+    resp.addHeader(anyString(), anyString());
+    expectLastCall().andAnswer(() -> headers.put((String)getCurrentArguments()[0],
+            (String)getCurrentArguments()[1])).anyTimes();
+    expect(resp.getHeader(anyString())).andAnswer(
+            () -> headers.get(getCurrentArguments()[0])).anyTimes();
+    resp.setContentLengthLong(anyLong());
+    expectLastCall().andAnswer(() -> headers.put("Content-Length",
+            String.valueOf(getCurrentArguments()[0]))).anyTimes();
+    resp.setContentType(anyString());
+    expectLastCall().andAnswer(() -> contentType = (String)getCurrentArguments()[0]).anyTimes();
+    expect(resp.getContentType()).andAnswer(() -> contentType).anyTimes();
+    expect(resp.getStatus()).andReturn(200).anyTimes();
+    expect(resp.getCharacterEncoding()).andReturn("UTF-8").anyTimes();
+    expect(resp.getOutputStream()).andReturn(new ServletOutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        body.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return ready;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener listener) {
+        writeListener = listener;
+      }
+    }).anyTimes();
+    replay(resp);
+    return resp;
+  }
+
+  private static FilterChain writing(final String type, final byte[] content) {
+    return (ServletRequest req, ServletResponse resp) -> {
+      resp.setContentType(type);
+      ((HttpServletResponse)resp).setHeader("ETag", "\"abc\"");
+      resp.getOutputStream().write(content);
+    };
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int read;
+    while((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testCompressesLargeResponse() throws Exception {
+    byte[] content = content(5000);
+    filter.doFilter(createRequest("gzip, deflate", null), createResponse(),
+            writing("application/json", content));
+    assertEquals("gzip", headers.get("Content-Encoding"));
+    assertEquals("Accept-Encoding", headers.get("Vary"));
+    assertEquals("\"abc--gzip\"", headers.get("ETag"));
+    assertNull(headers.get("Content-Length"));
+    assertArrayEquals(content, read(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))));
+  }
+
+  @Test
+  public void testDeflate() throws Exception {
+    byte[] content = content(5000);
+    filter.doFilter(createRequest("deflate, gzip;q=0.5", null), createResponse(),
+            writing("application/json", content));
+    assertEquals("deflate", headers.get("Content-Encoding"));
+    assertArrayEquals(content, read(new InflaterInputStream(new ByteArrayInputStream(body.toByteArray()))));
+  }
+
+  @Test
+  public void testWriter() throws Exception {
+    final byte[] content = content(5000);
+    filter.doFilter(createRequest("gzip", null), createResponse(), (req, resp) -> {
+      resp.setContentType("text/html");
+      PrintWriter writer = resp.getWriter();
+      writer.write(new String(content, StandardCharsets.UTF_8));
+    });
+    assertEquals("gzip", headers.get("Content-Encoding"));
+    assertArrayEquals(content, read(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))));
+  }
+
+  @Test
+  public void testSmallResponseNotCompressed() throws Exception {
+    byte[] content = content(99);
+    filter.doFilter(createRequest("gzip", null), createResponse(),
+            writing("application/json", content));
+    assertNull(headers.get("Content-Encoding"));
+    assertEquals("Accept-Encoding", headers.get("Vary"));
+    assertEquals("\"abc\"", headers.get("ETag"));
+    assertEquals("99", headers.get("Content-Length"));
+    assertArrayEquals(content, body.toByteArray());
+  }
+
+  @Test
+  public void testImagesNotCompressed() throws Exception {
+    byte[] content = content(5000);
+    filter.doFilter(createRequest("gzip", null), createResponse(), writing("image/png", content));
+    assertNull(headers.get("Content-Encoding"));
+    assertNull(headers.get("Vary"));
+    assertArrayEquals(content, body.toByteArray());
+  }
+
+  @Test
+  public void testEventStreamFlushed() throws Exception {
+    filter.doFilter(createRequest("gzip", null), createResponse(), (req, resp) -> {
+      resp.setContentType("text/event-stream");
+      resp.getOutputStream().write(content(10));
+      resp.getOutputStream().flush();
+      assertEquals(10, body.size());
+    });
+    assertNull(headers.get("Content-Encoding"));
+  }
+
+  @Test
+  public void testNonBlockingNotCompressed() throws Exception {
+    final byte[] content = content(5000);
+    final WriteListener listener = createNiceMock(WriteListener.class);
+    filter.doFilter(createRequest("gzip", null), createResponse(), (req, resp) -> {
+      resp.setContentType("application/json");
+      ServletOutputStream out = resp.getOutputStream();
+      out.setWriteListener(listener);
+      assertSame(listener, writeListener);
+      ready = false;
+      assertFalse(out.isReady());
+      ready = true;
+      assertTrue(out.isReady());
+      out.write(content);
+    });
+    assertNull(headers.get("Content-Encoding"));
+    assertArrayEquals(content, body.toByteArray());
+  }
+
+  @Test
+  public void testNotAccepted() throws Exception {
+    final HttpServletResponse response = createResponse();
+    FilterChain chain = (req, resp) -> assertSame(response, resp);
+    filter.doFilter(createRequest(null, null), response, chain);
+    filter.doFilter(createRequest("gzip;q=0, identity", null), response, chain);
+    new CompressionFilter(false, 100, 6).doFilter(createRequest("gzip", null), response, chain);
+  }
+
+  @Test
+  public void testConditionalHeadersDecoded() throws Exception {
+    filter.doFilter(createRequest("gzip", "\"abc--gzip\", \"def\""), createResponse(),
+            (req, resp) -> assertEquals("\"abc\", \"def\"",
+                    ((HttpServletRequest)req).getHeader("If-None-Match")));
+  }
+
+  @Test
+  public void testPrecompressed() throws Exception {
+    ServletContext context = createMock(ServletContext.class);
+    RequestDispatcher dispatcher = createMock(RequestDispatcher.class);
+    expect(context.getResource("/js/app.js.gz")).andReturn(new URL("file:/js/app.js.gz"));
+    expect(context.getRequestDispatcher("/js/app.js.gz")).andReturn(dispatcher);
+    expect(context.getMimeType("/js/app.js")).andReturn("application/javascript");
+    dispatcher.forward(anyObject(ServletRequest.class), anyObject(ServletResponse.class));
+    expectLastCall().andAnswer(() -> {
+      //The container gives the copy the type of a gzip file
+      ((ServletResponse)getCurrentArguments()[1]).setContentType("application/gzip");
+      return null;
+    });
+    FilterConfig config = createMock(FilterConfig.class);
+    expect(config.getServletContext()).andReturn(context);
+    replay(context, dispatcher, config);
+    filter.init(config);
+    HttpServletRequest req = createNiceMock(HttpServletRequest.class);
+    expect(req.getHeader("Accept-Encoding")).andReturn("gzip").anyTimes();
+    expect(req.getMethod()).andReturn("GET").anyTimes();
+    expect(req.getServletPath()).andReturn("/js/app.js").anyTimes();
+    replay(req);
+    filter.doFilter(req, createResponse(), (request, resp) -> {
+      throw new AssertionError("The copy should have been sent.");
+    });
+    verify(context, dispatcher);
+    assertEquals("gzip", headers.get("Content-Encoding"));
+    assertEquals("Accept-Encoding", headers.get("Vary"));
+    assertEquals("application/javascript", contentType);
+  }
+
+  @Test
+  public void testNegotiate() {
+    assertEquals("gzip", CompressionFilter.negotiate("gzip, deflate"));
+    assertEquals("gzip", CompressionFilter.negotiate("deflate, gzip"));
+    assertEquals("deflate", CompressionFilter.negotiate("gzip;q=0.5, deflate"));
+    assertEquals("deflate", CompressionFilter.negotiate("deflate"));
+    assertEquals("gzip", CompressionFilter.negotiate("*"));
+    assertEquals("deflate", CompressionFilter.negotiate("gzip;q=0, *"));
+    assertNull(CompressionFilter.negotiate("identity"));
+    assertNull(CompressionFilter.negotiate("gzip;q=0"));
+    assertNull(CompressionFilter.negotiate("gzip;q=x"));
+    assertNull(CompressionFilter.negotiate(null));
+  }
+
+  @Test
+  public void testIsCompressible() {
+    assertEquals(true, CompressionFilter.isCompressible("application/json"));
+    assertEquals(true, CompressionFilter.isCompressible("text/html; charset=UTF-8"));
+    assertEquals(true, CompressionFilter.isCompressible("application/javascript"));
+    assertEquals(true, CompressionFilter.isCompressible("image/svg+xml"));
+    assertEquals(true, CompressionFilter.isCompressible("application/cbor"));
+    assertEquals(false, CompressionFilter.isCompressible("text/event-stream"));
+    assertEquals(false, CompressionFilter.isCompressible("image/png"));
+    assertEquals(false, CompressionFilter.isCompressible(null));
+  }
+
+  @Test
+  public void testTags() {
+    assertEquals("\"abc--gzip\"", CompressionFilter.encodeTag("\"abc\"", "gzip"));
+    assertEquals("W/\"abc--deflate\"", CompressionFilter.encodeTag("W/\"abc\"", "deflate"));
+    assertEquals("abc", CompressionFilter.encodeTag("abc", "gzip"));
+    assertEquals("\"abc\", W/\"def\"", CompressionFilter.decodeTags("\"abc--gzip\", W/\"def--deflate\""));
+    assertNull(CompressionFilter.decodeTags(null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLevel() {
+    new CompressionFilter(true, 100, 10);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMinSize() {
+    new CompressionFilter(true, -1, 6);
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GzipAssetsTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] content(int size) {
+    StringBuilder sb = new StringBuilder();
+    while(sb.length() < size) {
+      sb.append("var todo = new app.Todo();\n");
+    }
+    return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testGzip() throws Exception {
+    Path root = folder.getRoot().toPath();
+    Files.createDirectories(root.resolve("js"));
+    Files.createDirectories(root.resolve("WEB-INF"));
+    byte[] js = content(5000);
+    Files.write(root.resolve("js/app.js"), js);
+    Files.write(root.resolve("small.css"), content(50));
+    Files.write(root.resolve("image.png"), content(5000));
+    Files.write(root.resolve("WEB-INF/web.xml"), content(5000));
+    List<Path> gzipped = GzipAssets.gzip(root, 100);
+    assertEquals(1, gzipped.size());
+    Path copy = root.resolve("js/app.js.gz");
+    assertEquals(copy, gzipped.get(0));
+    assertEquals(Files.getLastModifiedTime(root.resolve("js/app.js")), Files.getLastModifiedTime(copy));
+    try(InputStream in = new GZIPInputStream(Files.newInputStream(copy))) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int read;
+      while((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      assertArrayEquals(js, out.toByteArray());
+    }
+    assertFalse(Files.exists(root.resolve("small.css.gz")));
+    assertFalse(Files.exists(root.resolve("image.png.gz")));
+    assertFalse(Files.exists(root.resolve("WEB-INF/web.xml.gz")));
+  }
+
+  @Test
+  public void testIncompressibleNotKept() throws Exception {
+    Path root = folder.getRoot().toPath();
+    Files.write(root.resolve("tiny.js"), "a".getBytes(StandardCharsets.UTF_8));
+    assertTrue(GzipAssets.gzip(root, 0).isEmpty());
+    assertFalse(Files.exists(root.resolve("tiny.js.gz")));
+  }
+}
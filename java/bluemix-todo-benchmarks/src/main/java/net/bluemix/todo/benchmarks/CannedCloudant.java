@@ -0,0 +1,152 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process HTTP server that answers the requests {@link net.bluemix.todo.store.CloudantStore}
+ * makes with canned responses, so benchmarks of the store measure the client side, the HTTP
+ * connection pool and the JSON codecs, without a network or a database.
+ *
+ * Nothing is stored.  Reads answer with the same ToDos every time and writes always succeed.
+ */
+public class CannedCloudant implements AutoCloseable {
+
+  static final String DB = "/bluemix-todo";
+  private static final String DESIGN = DB + "/_design/todos";
+  private static final String VIEW = DESIGN + "/_view/allTodos";
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final byte[] dbInfo;
+  private final byte[] design;
+  private final byte[] view;
+  private final byte[] count;
+  private final byte[] doc;
+  private final AtomicLong ids = new AtomicLong();
+
+  /**
+   * Starts a server on a free port of the loopback interface.
+   * @param rows The number of ToDos in the view.
+   * @param threads The number of threads answering requests.
+   * @throws IOException Thrown if the server cannot be started.
+   */
+  public CannedCloudant(int rows, int threads) throws IOException {
+    dbInfo = bytes("{\"db_name\":\"bluemix-todo\",\"update_seq\":\"" + rows 
+            + "-g1AAAAEzeJzLYWBg4MhgTmEQTM4vTc5ISXIwNDLXMwBCwxyQVCJDUv3___\",\"doc_count\":" + rows + "}");
+    //The views the store creates, so it finds them up to date and leaves them alone
+    design = bytes("{\"_id\":\"_design/todos\",\"_rev\":\"1-abc\",\"views\":{\"allTodos\":{"
+            + "\"reduce\":\"_count\",\"map\":\"function(doc){if(doc.title && doc.completed != null)"
+            + "{emit(doc.order,{title: doc.title,completed: doc.completed,rev: doc._rev})}}\"}}}");
+    StringBuilder sb = new StringBuilder("{\"total_rows\":").append(rows).append(",\"offset\":0,\"rows\":[");
+    for(int i = 0; i < rows; i++) {
+      if(i > 0) {
+        sb.append(',');
+      }
+      sb.append("{\"id\":\"").append(id(i)).append("\",\"key\":").append(i)
+        .append(",\"value\":{\"title\":\"todo number ").append(i)
+        .append(" with a title\",\"completed\":").append(i % 3 == 0)
+        .append(",\"rev\":\"1-").append(Integer.toHexString(i * 7919)).append("\"}}");
+    }
+    view = bytes(sb.append("]}").toString());
+    count = bytes("{\"rows\":[{\"key\":null,\"value\":" + rows + "}]}");
+    doc = bytes("{\"_id\":\"" + id(0) + "\",\"_rev\":\"1-abc\",\"title\":\"todo number 0 with a title\","
+            + "\"completed\":false,\"order\":0}");
+    executor = Executors.newFixedThreadPool(threads);
+    server = CloudantStandIn.createServer(0);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Gets the URL of the server, to give the store.
+   * @return The URL of the server.
+   */
+  public String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Gets the ID of one of the ToDos in the view.
+   * @param i The row of the ToDo.
+   * @return The ID.
+   */
+  public static String id(int i) {
+    return String.format("%032x", i);
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try(InputStream in = exchange.getRequestBody()) {
+      byte[] skip = new byte[4096];
+      while(in.read(skip) != -1) {
+        //The request is not looked at, but has to be read for the connection to be reused
+      }
+    }
+    String method = exchange.getRequestMethod();
+    String path = exchange.getRequestURI().getPath();
+    String query = exchange.getRequestURI().getRawQuery();
+    if(path.equals(DB) && method.equals("GET")) {
+      send(exchange, 200, dbInfo);
+    } else if(path.equals(DB) && method.equals("POST")) {
+      send(exchange, 201, saved("new-" + ids.incrementAndGet(), "1-abc"));
+    } else if(path.equals(DESIGN)) {
+      send(exchange, 200, design);
+    } else if(path.equals(VIEW)) {
+      send(exchange, 200, query != null && query.contains("reduce=false") ? view : count);
+    } else if(path.startsWith(DB + "/") && method.equals("GET")) {
+      send(exchange, 200, doc);
+    } else if(path.startsWith(DB + "/") && method.equals("PUT")) {
+      send(exchange, 201, saved(path.substring(DB.length() + 1), "2-abc"));
+    } else if(path.startsWith(DB + "/") && method.equals("DELETE")) {
+      send(exchange, 200, saved(path.substring(DB.length() + 1), "3-abc"));
+    } else {
+      send(exchange, 404, bytes("{\"error\":\"not_found\",\"reason\":\"missing\"}"));
+    }
+  }
+
+  private static byte[] saved(String id, String rev) {
+    return bytes("{\"ok\":true,\"id\":\"" + id + "\",\"rev\":\"" + rev + "\"}");
+  }
+
+  private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, body.length);
+    try(OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+}
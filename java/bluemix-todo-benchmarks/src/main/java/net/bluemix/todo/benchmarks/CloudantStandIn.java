@@ -0,0 +1,544 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+
+import net.bluemix.todo.benchmarks.StandInDatabase.Changes;
+import net.bluemix.todo.benchmarks.StandInDatabase.Doc;
+import net.bluemix.todo.benchmarks.StandInDatabase.Row;
+import net.bluemix.todo.benchmarks.StandInDatabase.StandInException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process HTTP server that behaves like Cloudant for the requests
+ * {@link net.bluemix.todo.store.CloudantStore} makes, so the store and the app can be load
+ * tested without a Cloudant account.  Everything is kept in memory.
+ *
+ * It supports creating, reading and deleting databases, creating, reading, updating and
+ * deleting documents, design documents included, with revisions and conflicts,
+ * <code>_all_docs</code>, <code>_bulk_docs</code>, <code>_changes</code> with long polling, and
+ * views, which are all computed like the app's <code>allTodos</code> view, see
+ * {@link StandInDatabase}.  Credentials are not checked.
+ *
+ * Every request can be made to wait a fixed latency plus a random jitter, and a share of them
+ * can be failed, to see how the app behaves with a slow or unreliable database.  Both can be
+ * changed while the server runs.
+ */
+public class CloudantStandIn implements AutoCloseable {
+
+  private static final String CONTENT_TYPE = "application/json";
+
+  static {
+    //Without it small responses wait on delayed acknowledgements, and every request takes 40ms
+    //or so longer than it should, which the benchmarks would measure instead of the store
+    if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+      System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Map<String, StandInDatabase> databases = new ConcurrentHashMap<String, StandInDatabase>();
+  private volatile long latencyNanos;
+  private volatile long jitterNanos;
+  private volatile double errorRate;
+  private volatile int errorStatus = 500;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+
+  /**
+   * Starts a server on a free port of the loopback interface.
+   * @throws IOException Thrown if the server cannot be started.
+   */
+  public CloudantStandIn() throws IOException {
+    this(0);
+  }
+
+  /**
+   * Starts a server on the loopback interface.
+   * @param port The port to listen on, 0 for a free one.
+   * @throws IOException Thrown if the server cannot be started.
+   */
+  public CloudantStandIn(int port) throws IOException {
+    //Requests wait for latency and long polls, so a thread is needed for each one in flight
+    executor = Executors.newCachedThreadPool(r -> {
+      Thread t = new Thread(r, "cloudant-stand-in");
+      t.setDaemon(true);
+      return t;
+    });
+    server = createServer(port);
+    server.createContext("/", this::handle);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /**
+   * Creates an HTTP server on the loopback interface that sends small responses straight away.
+   * @param port The port to listen on, 0 for a free one.
+   * @return The server, not started.
+   * @throws IOException Thrown if the server cannot be created.
+   */
+  static HttpServer createServer(int port) throws IOException {
+    return HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+  }
+
+  /**
+   * Gets the URL of the server, to use as the Cloudant URL.
+   * @return The URL of the server.
+   */
+  public String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Sets how long each request waits before it is answered.  Each request waits for the latency
+   * plus a random time up to the jitter.
+   * @param latency The time every request waits.
+   * @param jitter The most extra time a request waits.
+   * @param unit The unit of the times.
+   */
+  public void setLatency(long latency, long jitter, TimeUnit unit) {
+    if(latency < 0 || jitter < 0) {
+      throw new IllegalArgumentException("The latency and jitter cannot be negative.");
+    }
+    this.latencyNanos = unit.toNanos(latency);
+    this.jitterNanos = unit.toNanos(jitter);
+  }
+
+  /**
+   * Sets the share of requests that fail.  Failed requests are answered with the status and a
+   * CouchDB error, after waiting the latency like any other request.
+   * @param rate The share of requests to fail, from 0 for none to 1 for all of them.
+   * @param status The HTTP status of the failed requests, 500 or 503 for example.
+   */
+  public void setErrorRate(double rate, int status) {
+    if(rate < 0 || rate > 1) {
+      throw new IllegalArgumentException("The error rate must be between 0 and 1.");
+    }
+    this.errorRate = rate;
+    this.errorStatus = status;
+  }
+
+  /**
+   * Gets the number of requests received.
+   * @return The number of requests.
+   */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Gets the number of requests that were failed on purpose.
+   * @return The number of failed requests.
+   */
+  public long getErrorCount() {
+    return errors.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * Runs a stand-in until the process is killed, to point the app at.
+   * @param args The port, the latency and jitter in milliseconds and the share of requests to
+   * fail, all optional.
+   * @throws Exception Thrown if the server cannot be started.
+   */
+  public static void main(String[] args) throws Exception {
+    CloudantStandIn standIn = new CloudantStandIn(args.length > 0 ? Integer.parseInt(args[0]) : 5984);
+    standIn.setLatency(args.length > 1 ? Long.parseLong(args[1]) : 0, 
+            args.length > 2 ? Long.parseLong(args[2]) : 0, TimeUnit.MILLISECONDS);
+    standIn.setErrorRate(args.length > 3 ? Double.parseDouble(args[3]) : 0, 500);
+    System.out.println("Cloudant stand-in listening on " + standIn.getUrl());
+    Thread.currentThread().join();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    try {
+      byte[] body = readBody(exchange.getRequestBody());
+      long wait = latencyNanos + (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0);
+      if(wait > 0) {
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+      if(errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+        errors.incrementAndGet();
+        throw new StandInException(errorStatus, "injected_error", "The stand-in failed this request on purpose.");
+      }
+      route(exchange, body);
+    } catch(StandInException e) {
+      send(exchange, e.status, error(e.error, e.getMessage()));
+    } catch(JsonException | ClassCastException | NullPointerException e) {
+      send(exchange, 400, error("bad_request", "invalid UTF-8 JSON"));
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      exchange.close();
+    } catch(RuntimeException e) {
+      send(exchange, 500, error("unknown_error", String.valueOf(e)));
+    }
+  }
+
+  private void route(HttpExchange exchange, byte[] body)
+          throws IOException, StandInException, InterruptedException {
+    String method = exchange.getRequestMethod();
+    Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+    List<String> path = new ArrayList<String>();
+    for(String segment : exchange.getRequestURI().getRawPath().split("/")) {
+      if(!segment.isEmpty()) {
+        path.add(URLDecoder.decode(segment, "UTF-8"));
+      }
+    }
+    if(path.isEmpty()) {
+      send(exchange, 200, Json.createObjectBuilder().add("couchdb", "Welcome")
+              .add("version", "2.1.1").add("vendor", Json.createObjectBuilder()
+              .add("name", "Cloudant stand-in")).build());
+      return;
+    }
+    String name = path.get(0);
+    if(path.size() == 1) {
+      database(exchange, method, name, body);
+      return;
+    }
+    StandInDatabase db = databases.get(name);
+    if(db == null) {
+      throw new StandInException(404, "not_found", "Database does not exist.");
+    }
+    String second = path.get(1);
+    if(path.size() == 2 && second.equals("_all_docs")) {
+      allDocs(exchange, db, query, method.equals("POST") ? parse(body) : null);
+    } else if(path.size() == 2 && second.equals("_bulk_docs") && method.equals("POST")) {
+      bulkDocs(exchange, db, parse(body));
+    } else if(path.size() == 2 && second.equals("_changes")) {
+      changes(exchange, db, query);
+    } else if(path.size() == 5 && second.equals("_design") && path.get(3).equals("_view")) {
+      view(exchange, db, StandInDatabase.DESIGN_PREFIX + path.get(2), path.get(4), query);
+    } else if(path.size() == 3 && second.equals("_design")) {
+      document(exchange, method, db, StandInDatabase.DESIGN_PREFIX + path.get(2), query, body);
+    } else if(path.size() == 2 && !second.startsWith("_")) {
+      document(exchange, method, db, second, query, body);
+    } else {
+      throw new StandInException(404, "not_found", "missing");
+    }
+  }
+
+  private void database(HttpExchange exchange, String method, String name, byte[] body) 
+          throws IOException, StandInException {
+    StandInDatabase db = databases.get(name);
+    switch(method) {
+      case "PUT":
+        if(databases.putIfAbsent(name, new StandInDatabase(name)) != null) {
+          throw new StandInException(412, "file_exists", 
+                  "The database could not be created, the file already exists.");
+        }
+        send(exchange, 201, ok());
+        return;
+      case "DELETE":
+        if(databases.remove(name) == null) {
+          throw new StandInException(404, "not_found", "Database does not exist.");
+        }
+        send(exchange, 200, ok());
+        return;
+      case "GET":
+        if(db == null) {
+          throw new StandInException(404, "not_found", "Database does not exist.");
+        }
+        send(exchange, 200, Json.createObjectBuilder().add("db_name", name)
+                .add("update_seq", db.getUpdateSeq()).add("doc_count", db.getDocCount())
+                .add("doc_del_count", db.getDeletedCount()).add("instance_start_time", "0").build());
+        return;
+      case "POST":
+        if(db == null) {
+          throw new StandInException(404, "not_found", "Database does not exist.");
+        }
+        JsonObject doc = parse(body);
+        send(exchange, 201, saved(db.put(id(doc), doc, rev(doc))));
+        return;
+      default:
+        throw new StandInException(405, "method_not_allowed", "Only DELETE,GET,HEAD,POST,PUT allowed");
+    }
+  }
+
+  private void document(HttpExchange exchange, String method, StandInDatabase db, String id, 
+          Map<String, String> query, byte[] body) throws IOException, StandInException {
+    switch(method) {
+      case "GET":
+        Doc doc = db.get(id);
+        if(doc == null || doc.deleted) {
+          throw new StandInException(404, "not_found", doc == null ? "missing" : "deleted");
+        }
+        send(exchange, 200, doc.body);
+        return;
+      case "PUT":
+        JsonObject put = parse(body);
+        String rev = query.containsKey("rev") ? query.get("rev") : rev(put);
+        send(exchange, 201, saved(db.put(id, put, rev)));
+        return;
+      case "DELETE":
+        send(exchange, 200, saved(db.delete(id, query.get("rev"))));
+        return;
+      default:
+        throw new StandInException(405, "method_not_allowed", "Only DELETE,GET,HEAD,POST,PUT allowed");
+    }
+  }
+
+  private void allDocs(HttpExchange exchange, StandInDatabase db, Map<String, String> query, 
+          JsonObject keys) throws IOException {
+    boolean includeDocs = Boolean.parseBoolean(query.get("include_docs"));
+    JsonArrayBuilder rows = Json.createArrayBuilder();
+    int total = db.getDocCount();
+    if(keys != null) {
+      for(JsonValue key : keys.getJsonArray("keys")) {
+        String id = ((JsonString)key).getString();
+        Doc doc = db.get(id);
+        if(doc == null) {
+          rows.add(Json.createObjectBuilder().add("key", id).add("error", "not_found"));
+          continue;
+        }
+        JsonObjectBuilder value = Json.createObjectBuilder().add("rev", doc.rev);
+        JsonObjectBuilder row = Json.createObjectBuilder().add("id", id).add("key", id);
+        if(doc.deleted) {
+          row.add("value", value.add("deleted", true));
+          if(includeDocs) {
+            row.addNull("doc");
+          }
+        } else {
+          row.add("value", value);
+          if(includeDocs) {
+            row.add("doc", doc.body);
+          }
+        }
+        rows.add(row);
+      }
+    } else {
+      int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : Integer.MAX_VALUE;
+      for(Doc doc : db.getAll()) {
+        if(limit-- == 0) {
+          break;
+        }
+        JsonObjectBuilder row = Json.createObjectBuilder().add("id", doc.id).add("key", doc.id)
+                .add("value", Json.createObjectBuilder().add("rev", doc.rev));
+        if(includeDocs) {
+          row.add("doc", doc.body);
+        }
+        rows.add(row);
+      }
+    }
+    send(exchange, 200, Json.createObjectBuilder().add("total_rows", total).add("offset", 0)
+            .add("rows", rows).build());
+  }
+
+  private void bulkDocs(HttpExchange exchange, StandInDatabase db, JsonObject request) 
+          throws IOException {
+    JsonArrayBuilder results = Json.createArrayBuilder();
+    for(JsonValue value : request.getJsonArray("docs")) {
+      JsonObject doc = (JsonObject)value;
+      String id = id(doc);
+      try {
+        Doc saved = db.put(id, doc, rev(doc));
+        results.add(Json.createObjectBuilder().add("ok", true).add("id", saved.id).add("rev", saved.rev));
+      } catch(StandInException e) {
+        JsonObjectBuilder result = Json.createObjectBuilder();
+        if(id != null) {
+          result.add("id", id);
+        }
+        results.add(result.add("error", e.error).add("reason", e.getMessage()));
+      }
+    }
+    send(exchange, 201, results.build());
+  }
+
+  private void changes(HttpExchange exchange, StandInDatabase db, Map<String, String> query) 
+          throws IOException, StandInException, InterruptedException {
+    String feed = query.get("feed");
+    long timeout = 0;
+    if("longpoll".equals(feed)) {
+      timeout = query.containsKey("timeout") ? Long.parseLong(query.get("timeout")) : 60000;
+    } else if(feed != null && !feed.equals("normal")) {
+      throw new StandInException(400, "bad_request", "Only the normal and longpoll feeds are supported.");
+    }
+    int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : -1;
+    boolean includeDocs = Boolean.parseBoolean(query.get("include_docs"));
+    Changes changes = db.changes(query.get("since"), limit, timeout);
+    JsonArrayBuilder results = Json.createArrayBuilder();
+    for(Doc doc : changes.docs) {
+      JsonObjectBuilder result = Json.createObjectBuilder().add("seq", db.seqString(doc.seq))
+              .add("id", doc.id)
+              .add("changes", Json.createArrayBuilder().add(Json.createObjectBuilder().add("rev", doc.rev)));
+      if(doc.deleted) {
+        result.add("deleted", true);
+      }
+      if(includeDocs) {
+        result.add("doc", doc.body);
+      }
+      results.add(result);
+    }
+    send(exchange, 200, Json.createObjectBuilder().add("results", results)
+            .add("last_seq", changes.lastSeq).add("pending", changes.pending).build());
+  }
+
+  private void view(HttpExchange exchange, StandInDatabase db, String design, String name, 
+          Map<String, String> query) throws IOException, StandInException {
+    List<Row> rows = db.view(design, name);
+    JsonValue startKey = query.containsKey("startkey") ? parseValue(query.get("startkey")) : null;
+    String startDocId = query.get("startkey_docid");
+    JsonValue endKey = query.containsKey("endkey") ? parseValue(query.get("endkey")) : null;
+    List<Row> selected = new ArrayList<Row>();
+    int offset = 0;
+    for(Row row : rows) {
+      if(startKey != null) {
+        int compare = StandInDatabase.collate(row.key, startKey);
+        if(compare < 0 || (compare == 0 && startDocId != null && row.doc.id.compareTo(startDocId) < 0)) {
+          offset++;
+          continue;
+        }
+      }
+      if(endKey != null && StandInDatabase.collate(row.key, endKey) > 0) {
+        break;
+      }
+      selected.add(row);
+    }
+    if(!"false".equals(query.get("reduce"))) {
+      JsonArrayBuilder reduced = Json.createArrayBuilder();
+      if(!selected.isEmpty()) {
+        reduced.add(Json.createObjectBuilder().addNull("key").add("value", selected.size()));
+      }
+      send(exchange, 200, Json.createObjectBuilder().add("rows", reduced).build());
+      return;
+    }
+    int skip = query.containsKey("skip") ? Integer.parseInt(query.get("skip")) : 0;
+    int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : Integer.MAX_VALUE;
+    boolean includeDocs = Boolean.parseBoolean(query.get("include_docs"));
+    JsonArrayBuilder out = Json.createArrayBuilder();
+    for(int i = skip; i < selected.size() && i - skip < limit; i++) {
+      Row row = selected.get(i);
+      JsonObjectBuilder json = Json.createObjectBuilder().add("id", row.doc.id).add("key", row.key)
+              .add("value", row.value);
+      if(includeDocs) {
+        json.add("doc", row.doc.body);
+      }
+      out.add(json);
+    }
+    send(exchange, 200, Json.createObjectBuilder().add("total_rows", rows.size())
+            .add("offset", offset + skip).add("rows", out).build());
+  }
+
+  private static JsonObject saved(Doc doc) {
+    return Json.createObjectBuilder().add("ok", true).add("id", doc.id).add("rev", doc.rev).build();
+  }
+
+  private static JsonObject ok() {
+    return Json.createObjectBuilder().add("ok", true).build();
+  }
+
+  private static JsonObject error(String error, String reason) {
+    return Json.createObjectBuilder().add("error", error).add("reason", reason).build();
+  }
+
+  private static String id(JsonObject doc) {
+    return doc.containsKey("_id") ? doc.getString("_id") : null;
+  }
+
+  private static String rev(JsonObject doc) {
+    return doc.containsKey("_rev") ? doc.getString("_rev") : null;
+  }
+
+  private static JsonObject parse(byte[] body) {
+    return Json.createReader(new ByteArrayInputStream(body)).readObject();
+  }
+
+  /**
+   * Parses a JSON value in a query parameter, which JSON-P cannot read on its own.
+   */
+  private static JsonValue parseValue(String json) {
+    JsonArray wrapped = Json.createReader(new StringReader("[" + json + "]")).readArray();
+    return wrapped.get(0);
+  }
+
+  private static Map<String, String> parseQuery(String raw) throws UnsupportedEncodingException {
+    Map<String, String> query = new HashMap<String, String>();
+    if(raw != null) {
+      for(String param : raw.split("&")) {
+        int equals = param.indexOf('=');
+        if(equals > 0) {
+          query.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"), 
+                  URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+        }
+      }
+    }
+    return query;
+  }
+
+  private static byte[] readBody(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while((read = in.read(buffer)) != -1) {
+        body.write(buffer, 0, read);
+      }
+      return body.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void send(HttpExchange exchange, int status, JsonStructure json) throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    JsonWriter writer = Json.createWriter(body);
+    writer.write(json);
+    writer.close();
+    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+    exchange.sendResponseHeaders(status, body.size());
+    try(OutputStream out = exchange.getResponseBody()) {
+      body.writeTo(out);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.client.Client;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.CloudantConnectionPool;
+import net.bluemix.todo.store.CloudantStore;
+import net.bluemix.todo.store.ToDoStoreException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CloudantStore} operations against a {@link CannedCloudant} on the loopback
+ * interface, through the same connection pool and client the app uses.  The server answers
+ * from memory, so what is measured is the cost of the store, Jersey, the connection pool and
+ * the codecs, plus the loopback round trip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class CloudantStoreBenchmark {
+
+  @Param({"10", "1000"})
+  public int rows;
+
+  private CannedCloudant server;
+  private CloudantConnectionPool pool;
+  private Client client;
+  private CloudantStore store;
+
+  @Setup
+  public void setUp() throws IOException, ToDoStoreException {
+    server = new CannedCloudant(rows, 8);
+    pool = new CloudantConnectionPool(16, 16, 5000, 30000, -1);
+    client = pool.createClient("user", "password");
+    store = new CloudantStore(client.target(server.getUrl()));
+  }
+
+  @TearDown
+  public void tearDown() {
+    client.close();
+    pool.close();
+    server.close();
+  }
+
+  private static ToDo todo() {
+    ToDo td = new ToDo();
+    td.setTitle("a new todo with a title");
+    td.setOrder(ThreadLocalRandom.current().nextInt(1000));
+    return td;
+  }
+
+  @Benchmark
+  public ToDo get() throws ToDoStoreException {
+    return store.get(CannedCloudant.id(ThreadLocalRandom.current().nextInt(rows)));
+  }
+
+  @Benchmark
+  public Object getAll() throws ToDoStoreException {
+    return store.getAll();
+  }
+
+  @Benchmark
+  public int count() throws ToDoStoreException {
+    return store.count();
+  }
+
+  @Benchmark
+  public String getVersion() throws ToDoStoreException {
+    return store.getVersion();
+  }
+
+  @Benchmark
+  public ToDo persist() throws ToDoStoreException {
+    return store.persist(todo());
+  }
+
+  @Benchmark
+  public ToDo update() throws ToDoStoreException {
+    return store.update(CannedCloudant.id(ThreadLocalRandom.current().nextInt(rows)), todo(), 
+            "1-abc");
+  }
+
+  @Benchmark
+  public ToDo getAsync() throws Exception {
+    return store.getAsync(CannedCloudant.id(ThreadLocalRandom.current().nextInt(rows)))
+            .toCompletableFuture().get();
+  }
+}
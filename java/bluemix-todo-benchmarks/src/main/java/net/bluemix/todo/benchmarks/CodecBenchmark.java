@@ -0,0 +1,105 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.MediaType;
+
+import net.bluemix.todo.json.CborCodecProvider;
+import net.bluemix.todo.json.JsonCodecProvider;
+import net.bluemix.todo.model.ToDo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures writing and reading lists of ToDos with the codec providers the API uses, as JSON
+ * and as CBOR.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+  private static final Annotation[] NONE = new Annotation[0];
+  private static final Type TODO_LIST = new GenericType<List<ToDo>>(){}.getType();
+  @SuppressWarnings("unchecked")
+  private static final Class<Object> LIST = (Class<Object>)(Class<?>)List.class;
+
+  @Param({"1", "100", "1000"})
+  public int size;
+
+  @Param({"application/json", "application/cbor"})
+  public String format;
+
+  private JsonCodecProvider provider;
+  private MediaType type;
+  private List<ToDo> todos;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() throws IOException {
+    provider = format.equals(CborCodecProvider.APPLICATION_CBOR) ? new CborCodecProvider() 
+            : new JsonCodecProvider();
+    type = MediaType.valueOf(format);
+    todos = new ArrayList<ToDo>();
+    for(int i = 0; i < size; i++) {
+      ToDo td = new ToDo();
+      td.setId(UUID.randomUUID().toString());
+      td.setRev("1-" + Integer.toHexString(i * 7919));
+      td.setTitle("todo number " + i + " with a title");
+      td.setCompleted(i % 3 == 0);
+      td.setOrder(i);
+      todos.add(td);
+    }
+    encoded = write().toByteArray();
+  }
+
+  @Benchmark
+  public ByteArrayOutputStream write() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(encoded == null ? 256 : encoded.length);
+    provider.writeTo(todos, ArrayList.class, TODO_LIST, NONE, type, null, out);
+    return out;
+  }
+
+  @Benchmark
+  public Object read() throws IOException {
+    return provider.readFrom(LIST, TODO_LIST, NONE, type, null, 
+            new ByteArrayInputStream(encoded));
+  }
+}
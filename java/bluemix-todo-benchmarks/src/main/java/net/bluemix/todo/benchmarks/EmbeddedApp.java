@@ -0,0 +1,92 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.util.EnumSet;
+
+import javax.servlet.DispatcherType;
+
+import net.bluemix.todo.rest.FormatTagFilter;
+import net.bluemix.todo.rest.ToDoAPI;
+import net.bluemix.todo.store.ToDoStore;
+import net.bluemix.todo.web.CompressionFilter;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.servlet.ServletContainer;
+
+/**
+ * Runs the app's ToDo API in an embedded Jetty, the way the WAR's web.xml sets it up, but with
+ * the {@link ToDoStore} given to it instead of the one the app would find in its environment.
+ */
+public class EmbeddedApp implements AutoCloseable {
+
+  private final Server server;
+
+  /**
+   * Starts the app on a free port of the loopback interface.
+   * @param store The store the API uses.
+   * @throws Exception Thrown if the server cannot be started.
+   */
+  public EmbeddedApp(ToDoStore store) throws Exception {
+    this(store, 0);
+  }
+
+  /**
+   * Starts the app on the loopback interface.
+   * @param store The store the API uses.
+   * @param port The port to listen on, 0 for a free one.
+   * @throws Exception Thrown if the server cannot be started.
+   */
+  public EmbeddedApp(ToDoStore store, int port) throws Exception {
+    //The same resources and providers web.xml scans for, with the API given its store
+    ResourceConfig config = new ResourceConfig().register(new ToDoAPI(store))
+            .register(FormatTagFilter.class).packages("net.bluemix.todo.json");
+    ServletHolder servlet = new ServletHolder(new ServletContainer(config));
+    servlet.setAsyncSupported(true);
+    FilterHolder compression = new FilterHolder(new CompressionFilter());
+    compression.setAsyncSupported(true);
+    ServletContextHandler context = new ServletContextHandler();
+    context.setContextPath("/");
+    context.addFilter(compression, "/*", EnumSet.of(DispatcherType.REQUEST));
+    context.addServlet(servlet, "/api/*");
+    server = new Server();
+    ServerConnector connector = new ServerConnector(server);
+    connector.setHost("127.0.0.1");
+    connector.setPort(port);
+    server.addConnector(connector);
+    server.setHandler(context);
+    server.start();
+  }
+
+  /**
+   * Gets the URL of the ToDo API.
+   * @return The URL of the ToDos, the API's <code>/api/todos</code>.
+   */
+  public String getUrl() {
+    return "http://127.0.0.1:" + ((ServerConnector)server.getConnectors()[0]).getLocalPort() 
+            + "/api/todos";
+  }
+
+  @Override
+  public void close() throws Exception {
+    server.stop();
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.InMemoryStore;
+import net.bluemix.todo.store.ToDoStoreException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link InMemoryStore} on its own and with readers and writers contending for it.
+ *
+ * The groups run their methods at the same time on one store, with three threads reading for
+ * every thread writing in <code>readMostly</code> and as many writing as reading in
+ * <code>writeHeavy</code>.  JMH reports each method of a group separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InMemoryStoreBenchmark {
+
+  @Param({"100", "1000"})
+  public int size;
+
+  private InMemoryStore store;
+  private String[] ids;
+
+  @Setup
+  public void setUp() {
+    store = new InMemoryStore();
+    ids = new String[size];
+    for(int i = 0; i < size; i++) {
+      ToDo td = new ToDo();
+      td.setTitle("todo number " + i + " with a title");
+      td.setOrder(i);
+      ids[i] = store.persist(td).getId();
+    }
+  }
+
+  private String randomId() {
+    return ids[ThreadLocalRandom.current().nextInt(ids.length)];
+  }
+
+  @Benchmark
+  public ToDo get() {
+    return store.get(randomId());
+  }
+
+  @Benchmark
+  public Object getAll() {
+    return store.getAll();
+  }
+
+  @Benchmark
+  public Object getPage() {
+    return store.getPage(null, 100);
+  }
+
+  @Benchmark
+  public int count() throws ToDoStoreException {
+    return store.count();
+  }
+
+  @Benchmark
+  public ToDo update() {
+    String id = randomId();
+    ToDo td = new ToDo();
+    td.setTitle("updated");
+    td.setOrder(ThreadLocalRandom.current().nextInt(ids.length));
+    return store.update(id, td);
+  }
+
+  @Benchmark
+  @Group("readMostly")
+  @GroupThreads(3)
+  public ToDo readMostlyGet() {
+    return get();
+  }
+
+  @Benchmark
+  @Group("readMostly")
+  @GroupThreads(1)
+  public ToDo readMostlyUpdate() {
+    return update();
+  }
+
+  @Benchmark
+  @Group("writeHeavy")
+  @GroupThreads(2)
+  public Object writeHeavyGetPage() {
+    return getPage();
+  }
+
+  @Benchmark
+  @Group("writeHeavy")
+  @GroupThreads(2)
+  public ToDo writeHeavyUpdate() {
+    return update();
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in buckets that are never more than about 1.6% wide, so percentiles can be
+ * read back without keeping every latency.  Latencies from 0 to 127 nanoseconds are counted
+ * exactly, and every power of two above that is split into 64 buckets.  Recording is lock free
+ * and can be done from many threads at once.
+ */
+class LatencyHistogram {
+
+  private static final int EXACT = 128;
+  private static final int SUB_BUCKETS = 64;
+  //Enough buckets for any positive long
+  private static final int BUCKETS = EXACT + (Long.SIZE - 8) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong total = new AtomicLong();
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Counts a latency.
+   * @param nanos The latency in nanoseconds, negative latencies are counted as 0.
+   */
+  void record(long nanos) {
+    long value = Math.max(nanos, 0);
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    total.addAndGet(value);
+    long current;
+    while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      //try again
+    }
+  }
+
+  /**
+   * Adds the latencies counted by another histogram to this one.
+   * @param other The other histogram.
+   */
+  void add(LatencyHistogram other) {
+    for(int i = 0; i < BUCKETS; i++) {
+      long c = other.counts.get(i);
+      if(c > 0) {
+        counts.addAndGet(i, c);
+      }
+    }
+    count.addAndGet(other.count.get());
+    total.addAndGet(other.total.get());
+    long current;
+    long value = other.max.get();
+    while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+      //try again
+    }
+  }
+
+  /**
+   * Gets the number of latencies counted.
+   * @return The number of latencies.
+   */
+  long getCount() {
+    return count.get();
+  }
+
+  /**
+   * Gets the highest latency counted.
+   * @return The highest latency in nanoseconds, exactly, or 0 if none were counted.
+   */
+  long getMax() {
+    return max.get();
+  }
+
+  /**
+   * Gets the mean of the latencies counted.
+   * @return The mean latency in nanoseconds, or 0 if none were counted.
+   */
+  double getMean() {
+    long n = count.get();
+    return n == 0 ? 0 : (double)total.get() / n;
+  }
+
+  /**
+   * Gets the latency that a percentage of the latencies counted are at or below.
+   * @param percentile The percentage, from 0 to 100.
+   * @return The highest latency of the bucket the percentile falls in, never more than the
+   * highest latency counted, or 0 if none were counted.
+   */
+  long getPercentile(double percentile) {
+    if(percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+    }
+    long n = count.get();
+    if(n == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long)Math.ceil(percentile / 100 * n));
+    long seen = 0;
+    for(int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if(seen >= target) {
+        return Math.min(highest(i), max.get());
+      }
+    }
+    return max.get();
+  }
+
+  static int index(long value) {
+    if(value < EXACT) {
+      return (int)value;
+    }
+    //Keep the top 7 bits, the top one is always set so 6 of them pick the sub-bucket
+    int shift = Long.SIZE - 7 - Long.numberOfLeadingZeros(value);
+    return EXACT + (shift - 1) * SUB_BUCKETS + (int)((value >>> shift) - SUB_BUCKETS);
+  }
+
+  static long highest(int index) {
+    if(index < EXACT) {
+      return index;
+    }
+    int shift = (index - EXACT) / SUB_BUCKETS + 1;
+    long lowest = (long)((index - EXACT) % SUB_BUCKETS + SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
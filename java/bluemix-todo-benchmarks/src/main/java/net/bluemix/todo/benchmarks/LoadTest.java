@@ -0,0 +1,517 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.json.Json;
+import javax.ws.rs.client.Client;
+
+import net.bluemix.todo.store.CloudantConnectionPool;
+import net.bluemix.todo.store.CloudantStore;
+import net.bluemix.todo.store.InMemoryStore;
+import net.bluemix.todo.store.ToDoStore;
+import net.bluemix.todo.store.ToDoStoreFactory;
+
+/**
+ * Sends a mix of requests to the ToDo API at a fixed rate and reports their latency and the
+ * throughput reached.
+ *
+ * Requests are sent on a schedule that does not wait for earlier requests to finish, and each
+ * request's latency is measured from when the schedule says it should have been sent, not from
+ * when a thread got round to sending it.  A server that stalls is charged for every request that
+ * queued up behind the stall, as a user would see it, instead of the stall only showing up once
+ * (coordinated omission).  The time from actually sending a request to its response is reported
+ * too, the difference between the two is the time requests spent waiting to be sent.
+ *
+ * Gets, updates and deletes pick from the ToDos the test created, so a get or an update that
+ * races with the delete of the same ToDo can fail and is counted as an error.
+ *
+ * {@link #main(String[])} runs the app in an {@link EmbeddedApp} against an in-memory store, a
+ * {@link CloudantStandIn} or a real Cloudant database, and any other store can be tested by
+ * starting an {@link EmbeddedApp} for it and giving its URL to a load test.
+ */
+public class LoadTest {
+
+  static {
+    //HttpURLConnection only keeps 5 idle connections to a host by default, the rest would be
+    //opened and closed with every request
+    if(System.getProperty("http.maxConnections") == null) {
+      System.setProperty("http.maxConnections", "1000");
+    }
+  }
+
+  /**
+   * The requests a load test sends.
+   */
+  public enum Operation {
+    /** <code>GET /api/todos</code> */
+    LIST,
+    /** <code>GET /api/todos/{id}</code> */
+    GET,
+    /** <code>POST /api/todos</code> */
+    CREATE,
+    /** <code>PUT /api/todos/{id}</code> */
+    UPDATE,
+    /** <code>DELETE /api/todos/{id}</code> */
+    DELETE
+  }
+
+  private final String url;
+  private final Map<Operation, Integer> mix;
+  private final int weights;
+  private final double rate;
+  private final int threads;
+  //IDs of the ToDos that exist, so gets, updates and deletes hit real ToDos
+  private final List<String> ids = new ArrayList<String>();
+  private final AtomicLong created = new AtomicLong();
+
+  /**
+   * Creates a load test.
+   * @param url The URL of the ToDos, see {@link EmbeddedApp#getUrl()}.
+   * @param mix How often each operation is sent, relative to the others.
+   * @param rate How many requests to send a second.
+   * @param threads How many requests can be in flight at once.  Requests due to be sent while
+   * they all are wait, and the wait counts towards their latency.
+   */
+  public LoadTest(String url, Map<Operation, Integer> mix, double rate, int threads) {
+    if(rate <= 0 || threads < 1) {
+      throw new IllegalArgumentException("The rate and the number of threads must be positive.");
+    }
+    int sum = 0;
+    for(int weight : mix.values()) {
+      if(weight < 0) {
+        throw new IllegalArgumentException("The mix cannot have negative weights.");
+      }
+      sum += weight;
+    }
+    if(sum == 0) {
+      throw new IllegalArgumentException("The mix must have at least one operation.");
+    }
+    this.url = url;
+    this.mix = new EnumMap<Operation, Integer>(mix);
+    this.weights = sum;
+    this.rate = rate;
+    this.threads = threads;
+  }
+
+  /**
+   * Creates ToDos to load test with.
+   * @param count The number of ToDos to create.
+   * @throws IOException Thrown if a ToDo cannot be created.
+   */
+  public void populate(int count) throws IOException {
+    for(int i = 0; i < count; i++) {
+      if(send(Operation.CREATE) >= 300) {
+        throw new IOException("Could not create a ToDo to load test with.");
+      }
+    }
+  }
+
+  /**
+   * Runs the load test.  Requests sent during the warm up are not reported.
+   * @param warmup How long to send requests for before measuring.
+   * @param duration How long to send requests for while measuring.
+   * @param unit The unit of the times.
+   * @return The measurements.
+   * @throws InterruptedException Thrown if interrupted while sending requests.
+   */
+  public Result run(long warmup, long duration, TimeUnit unit) throws InterruptedException {
+    Result result = new Result(rate);
+    ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "load-test");
+      t.setDaemon(true);
+      return t;
+    });
+    double interval = TimeUnit.SECONDS.toNanos(1) / rate;
+    long start = System.nanoTime();
+    long measured = start + unit.toNanos(warmup);
+    long end = measured + unit.toNanos(duration);
+    result.start = measured;
+    try {
+      for(long i = 0; ; i++) {
+        final long intended = start + (long)(i * interval);
+        if(intended - end >= 0) {
+          break;
+        }
+        long wait;
+        while((wait = intended - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        if(Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        final Operation operation = pick();
+        executor.execute(() -> {
+          long sent = System.nanoTime();
+          int status;
+          try {
+            status = send(operation);
+          } catch(IOException e) {
+            status = -1;
+          }
+          if(intended - measured >= 0) {
+            result.record(operation, intended, sent, System.nanoTime(), status);
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+      //Requests still queued are part of the measurement, a backlog is what the test is for
+      executor.awaitTermination(1, TimeUnit.MINUTES);
+      executor.shutdownNow();
+    }
+    return result;
+  }
+
+  private Operation pick() {
+    int pick = ThreadLocalRandom.current().nextInt(weights);
+    for(Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+      pick -= entry.getValue();
+      if(pick < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new IllegalStateException();
+  }
+
+  private int send(Operation operation) throws IOException {
+    String id = null;
+    if(operation != Operation.LIST && operation != Operation.CREATE) {
+      id = operation == Operation.DELETE ? takeId() : pickId();
+      if(id == null) {
+        //Nothing left to get, change or delete, so make something
+        operation = Operation.CREATE;
+      }
+    }
+    long n = created.incrementAndGet();
+    String body = null;
+    String method;
+    switch(operation) {
+      case CREATE:
+        method = "POST";
+        body = "{\"title\":\"load test ToDo number " + n + "\",\"order\":" + n + "}";
+        break;
+      case UPDATE:
+        method = "PUT";
+        body = "{\"title\":\"updated load test ToDo number " + n + "\",\"completed\":true,\"order\":" 
+                + n + "}";
+        break;
+      case DELETE:
+        method = "DELETE";
+        break;
+      default:
+        method = "GET";
+    }
+    HttpURLConnection connection = (HttpURLConnection)new URL(id == null ? url : url + "/" + id)
+            .openConnection();
+    connection.setRequestMethod(method);
+    connection.setRequestProperty("Accept", "application/json");
+    if(body != null) {
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/json");
+      try(OutputStream out = connection.getOutputStream()) {
+        out.write(body.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    int status = connection.getResponseCode();
+    //Responses must be read to the end for the connection to be reused
+    InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+    byte[] response = in == null ? new byte[0] : read(in);
+    if(operation == Operation.CREATE && status < 300) {
+      addId(Json.createReader(new StringReader(new String(response, StandardCharsets.UTF_8)))
+              .readObject().getString("id"));
+    }
+    return status;
+  }
+
+  private synchronized void addId(String id) {
+    ids.add(id);
+  }
+
+  private synchronized String pickId() {
+    return ids.isEmpty() ? null : ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+  }
+
+  private synchronized String takeId() {
+    if(ids.isEmpty()) {
+      return null;
+    }
+    int i = ThreadLocalRandom.current().nextInt(ids.size());
+    String id = ids.get(i);
+    ids.set(i, ids.get(ids.size() - 1));
+    ids.remove(ids.size() - 1);
+    return id;
+  }
+
+  private static byte[] read(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * The measurements of a load test.
+   */
+  public static class Result {
+    private final double rate;
+    private final Map<Operation, LatencyHistogram> latencies = 
+            new EnumMap<Operation, LatencyHistogram>(Operation.class);
+    private final Map<Operation, AtomicLong> errors = new EnumMap<Operation, AtomicLong>(Operation.class);
+    private final LatencyHistogram serviceTimes = new LatencyHistogram();
+    private final AtomicLong last = new AtomicLong();
+    private long start;
+
+    private Result(double rate) {
+      this.rate = rate;
+      for(Operation operation : Operation.values()) {
+        latencies.put(operation, new LatencyHistogram());
+        errors.put(operation, new AtomicLong());
+      }
+    }
+
+    private void record(Operation operation, long intended, long sent, long done, int status) {
+      latencies.get(operation).record(done - intended);
+      serviceTimes.record(done - sent);
+      if(status < 200 || status >= 400) {
+        errors.get(operation).incrementAndGet();
+      }
+      long current;
+      while(done - (current = last.get()) > 0 && !last.compareAndSet(current, done)) {
+        //try again
+      }
+    }
+
+    /**
+     * Gets the number of requests measured.
+     * @param operation The operation to count, or null for all of them.
+     * @return The number of requests.
+     */
+    public long getCount(Operation operation) {
+      return latencies(operation).getCount();
+    }
+
+    /**
+     * Gets the number of requests that failed, with an error status or without a response.
+     * @param operation The operation to count, or null for all of them.
+     * @return The number of failed requests.
+     */
+    public long getErrors(Operation operation) {
+      if(operation != null) {
+        return errors.get(operation).get();
+      }
+      long sum = 0;
+      for(AtomicLong count : errors.values()) {
+        sum += count.get();
+      }
+      return sum;
+    }
+
+    /**
+     * Gets a percentile of the latency of requests, measured from when they were due to be sent.
+     * @param operation The operation, or null for all of them.
+     * @param percentile The percentile, 99.9 for the 99.9th percentile for example.
+     * @param unit The unit to get the latency in.
+     * @return The latency.
+     */
+    public double getLatency(Operation operation, double percentile, TimeUnit unit) {
+      return (double)latencies(operation).getPercentile(percentile) / unit.toNanos(1);
+    }
+
+    /**
+     * Gets a percentile of the time requests took from being sent to being answered, without the
+     * time they waited to be sent.
+     * @param percentile The percentile, 99.9 for the 99.9th percentile for example.
+     * @param unit The unit to get the time in.
+     * @return The service time.
+     */
+    public double getServiceTime(double percentile, TimeUnit unit) {
+      return (double)serviceTimes.getPercentile(percentile) / unit.toNanos(1);
+    }
+
+    /**
+     * Gets the number of requests answered a second, from the start of the measurement to the
+     * last response.
+     * @return The throughput.
+     */
+    public double getThroughput() {
+      long elapsed = last.get() - start;
+      return elapsed <= 0 ? 0 : getCount(null) * (double)TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    /**
+     * Writes the measurements as a table.
+     * @param out Where to write them.
+     */
+    public void print(PrintStream out) {
+      out.printf("%-10s %10s %8s %10s %10s %10s %10s%n", "operation", "requests", "errors", 
+              "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+      for(Operation operation : Operation.values()) {
+        if(getCount(operation) > 0) {
+          print(out, operation.name().toLowerCase(), operation);
+        }
+      }
+      print(out, "all", null);
+      out.printf("throughput %.1f requests/s, the target was %.1f%n", getThroughput(), rate);
+      out.printf("service time without waiting to be sent p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms%n", 
+              getServiceTime(50, TimeUnit.MILLISECONDS), getServiceTime(99, TimeUnit.MILLISECONDS), 
+              getServiceTime(99.9, TimeUnit.MILLISECONDS));
+    }
+
+    private void print(PrintStream out, String name, Operation operation) {
+      out.printf("%-10s %10d %8d %10.3f %10.3f %10.3f %10.3f%n", name, getCount(operation), 
+              getErrors(operation), getLatency(operation, 50, TimeUnit.MILLISECONDS), 
+              getLatency(operation, 99, TimeUnit.MILLISECONDS), 
+              getLatency(operation, 99.9, TimeUnit.MILLISECONDS), 
+              (double)latencies(operation).getMax() / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private LatencyHistogram latencies(Operation operation) {
+      if(operation != null) {
+        return latencies.get(operation);
+      }
+      LatencyHistogram all = new LatencyHistogram();
+      for(LatencyHistogram histogram : latencies.values()) {
+        all.add(histogram);
+      }
+      return all;
+    }
+  }
+
+  /**
+   * Runs the app in an embedded Jetty and load tests it.  Options are given as
+   * <code>name=value</code> arguments:
+   * <ul>
+   * <li><code>store</code> - <code>memory</code>, the default, <code>standin</code> for a
+   * {@link CloudantStandIn} or <code>cloudant</code> for the database at <code>url</code>.</li>
+   * <li><code>url</code> - The Cloudant URL, with the user and password.</li>
+   * <li><code>cache</code> - <code>true</code> to cache the store's reads.</li>
+   * <li><code>latency</code> - The latency of the stand-in in milliseconds, 0 by default.</li>
+   * <li><code>rate</code> - Requests a second, 200 by default.</li>
+   * <li><code>threads</code> - Requests in flight at most, 50 by default.</li>
+   * <li><code>warmup</code> and <code>duration</code> - Seconds to warm up and measure for, 10
+   * and 30 by default.</li>
+   * <li><code>todos</code> - ToDos to create before starting, 100 by default.</li>
+   * <li><code>mix</code> - Relative weights of the operations, 
+   * <code>list:10,get:50,create:15,update:15,delete:10</code> by default.</li>
+   * </ul>
+   * @param args The options.
+   * @throws Exception Thrown if the load test cannot be run.
+   */
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<String, String>();
+    options.put("store", "memory");
+    options.put("latency", "0");
+    options.put("rate", "200");
+    options.put("threads", "50");
+    options.put("warmup", "10");
+    options.put("duration", "30");
+    options.put("todos", "100");
+    options.put("mix", "list:10,get:50,create:15,update:15,delete:10");
+    options.put("url", "");
+    options.put("cache", "false");
+    for(String arg : args) {
+      int equals = arg.indexOf('=');
+      if(equals < 0 || !options.containsKey(arg.substring(0, equals))) {
+        throw new IllegalArgumentException("Unknown option " + arg);
+      }
+      options.put(arg.substring(0, equals), arg.substring(equals + 1));
+    }
+    Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+    for(String weight : options.get("mix").split(",")) {
+      String[] parts = weight.split(":");
+      mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+    }
+    int threads = Integer.parseInt(options.get("threads"));
+    List<AutoCloseable> resources = new ArrayList<AutoCloseable>();
+    try {
+      ToDoStore store;
+      String url = options.get("url").isEmpty() ? null : options.get("url");
+      switch(options.get("store")) {
+        case "memory":
+          store = new InMemoryStore();
+          break;
+        case "standin":
+          CloudantStandIn standIn = new CloudantStandIn();
+          resources.add(0, standIn);
+          long latency = Long.parseLong(options.get("latency"));
+          standIn.setLatency(latency, latency / 5, TimeUnit.MILLISECONDS);
+          url = standIn.getUrl();
+          //fall through, the stand-in is just another Cloudant
+        case "cloudant":
+          if(url == null) {
+            throw new IllegalArgumentException("The cloudant store needs a url.");
+          }
+          URI uri = new URI(url);
+          String[] user = uri.getUserInfo() == null ? new String[] {"", ""} : uri.getUserInfo().split(":", 2);
+          CloudantConnectionPool pool = new CloudantConnectionPool(threads, threads, 5000, 30000, 60000);
+          resources.add(0, pool);
+          Client client = pool.createClient(user[0], user[1]);
+          resources.add(0, client::close);
+          store = new CloudantStore(client.target(new URI(uri.getScheme(), null, uri.getHost(), 
+                  uri.getPort(), uri.getPath(), null, null).toString()));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown store " + options.get("store"));
+      }
+      if(Boolean.parseBoolean(options.get("cache"))) {
+        store = ToDoStoreFactory.cached(store);
+      }
+      EmbeddedApp app = new EmbeddedApp(store);
+      resources.add(0, app);
+      LoadTest test = new LoadTest(app.getUrl(), mix, Double.parseDouble(options.get("rate")), threads);
+      test.populate(Integer.parseInt(options.get("todos")));
+      System.out.printf("Load testing %s at %s requests/s with %s threads and a mix of %s%n", 
+              store.getClass().getSimpleName(), options.get("rate"), threads, mix);
+      test.run(Long.parseLong(options.get("warmup")), Long.parseLong(options.get("duration")), 
+              TimeUnit.SECONDS).print(System.out);
+    } finally {
+      for(AutoCloseable resource : resources) {
+        resource.close();
+      }
+    }
+    //The app's store threads would keep the JVM running
+    System.exit(0);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import net.bluemix.todo.model.CloudantToDo;
+import net.bluemix.todo.model.ToDo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures comparing, hashing, copying and converting the model, which the stores and caches do
+ * for every ToDo they hand out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+
+  private ToDo todo;
+  private ToDo same;
+  private ToDo other;
+  private CloudantToDo cloudantToDo;
+  private CloudantToDo sameCloudantToDo;
+
+  private static ToDo todo(String title) {
+    ToDo td = new ToDo();
+    td.setId("2b7d4d4c0e2f4a1c9a37cd29cb1c70f2");
+    td.setRev("1-0c5d2b8b4f9c4e2d8f1f1e6f8f0a4b3c");
+    td.setTitle(title);
+    td.setOrder(42);
+    return td;
+  }
+
+  @Setup
+  public void setUp() {
+    todo = todo("todo number 42 with a title");
+    same = todo("todo number 42 with a title");
+    //Differs only at the end of the title, the worst case for equals
+    other = todo("todo number 42 with a titlf");
+    cloudantToDo = new CloudantToDo(todo);
+    sameCloudantToDo = new CloudantToDo(same);
+  }
+
+  @Benchmark
+  public boolean toDoEquals() {
+    return todo.equals(same);
+  }
+
+  @Benchmark
+  public boolean toDoNotEquals() {
+    return todo.equals(other);
+  }
+
+  @Benchmark
+  public int toDoHashCode() {
+    return todo.hashCode();
+  }
+
+  @Benchmark
+  public ToDo toDoCopy() {
+    return new ToDo(todo);
+  }
+
+  @Benchmark
+  public boolean cloudantToDoEquals() {
+    return cloudantToDo.equals(sameCloudantToDo);
+  }
+
+  @Benchmark
+  public int cloudantToDoHashCode() {
+    return cloudantToDo.hashCode();
+  }
+
+  @Benchmark
+  public CloudantToDo toCloudantToDo() {
+    return new CloudantToDo(todo);
+  }
+
+  @Benchmark
+  public ToDo fromCloudantToDo() {
+    return cloudantToDo.getToDo();
+  }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.ToDoCodec;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.DBObjectCodec;
+import com.mongodb.MongoClient;
+
+/**
+ * Measures turning a batch of BSON documents into ToDos and back the way each Mongo store does.
+ * The legacy path, which {@link net.bluemix.todo.store.MongoStore} uses, goes through a
+ * {@link DBObject} for every document, the codec path, which
+ * {@link net.bluemix.todo.store.CodecMongoStore} uses, reads and writes the ToDo directly.  The
+ * round trip to the server is the same for both, so it is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MongoCodecBenchmark {
+
+  private static final DecoderContext DECODE = DecoderContext.builder().build();
+  private static final EncoderContext ENCODE = EncoderContext.builder().build();
+
+  @Param({"1", "100", "1000"})
+  public int size;
+
+  private Codec<DBObject> legacy;
+  private ToDoCodec codec;
+  private List<ToDo> todos;
+  private List<byte[]> documents;
+
+  @Setup
+  public void setUp() {
+    legacy = new DBObjectCodec(MongoClient.getDefaultCodecRegistry());
+    codec = new ToDoCodec();
+    todos = new ArrayList<ToDo>(size);
+    documents = new ArrayList<byte[]>(size);
+    for(int i = 0; i < size; i++) {
+      ToDo td = new ToDo();
+      td.setId(new ObjectId().toHexString());
+      td.setRev(new ObjectId().toHexString());
+      td.setTitle("todo number " + i + " with a title");
+      td.setCompleted(i % 3 == 0);
+      td.setOrder(i);
+      todos.add(td);
+      documents.add(encode(codec, td));
+    }
+  }
+
+  @Benchmark
+  public List<ToDo> decodeLegacy() {
+    List<ToDo> decoded = new ArrayList<ToDo>(size);
+    for(byte[] doc : documents) {
+      decoded.add(toToDo(legacy.decode(reader(doc), DECODE)));
+    }
+    return decoded;
+  }
+
+  @Benchmark
+  public List<ToDo> decodeCodec() {
+    List<ToDo> decoded = new ArrayList<ToDo>(size);
+    for(byte[] doc : documents) {
+      decoded.add(codec.decode(reader(doc), DECODE));
+    }
+    return decoded;
+  }
+
+  @Benchmark
+  public int encodeLegacy() {
+    int bytes = 0;
+    for(ToDo td : todos) {
+      bytes += encode(legacy, toDBObject(td)).length;
+    }
+    return bytes;
+  }
+
+  @Benchmark
+  public int encodeCodec() {
+    int bytes = 0;
+    for(ToDo td : todos) {
+      bytes += encode(codec, td).length;
+    }
+    return bytes;
+  }
+
+  private static BsonBinaryReader reader(byte[] doc) {
+    return new BsonBinaryReader(ByteBuffer.wrap(doc));
+  }
+
+  private static <T> byte[] encode(Codec<T> codec, T value) {
+    BasicOutputBuffer buffer = new BasicOutputBuffer(128);
+    try(BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+      codec.encode(writer, value, ENCODE);
+    }
+    return buffer.toByteArray();
+  }
+
+  /**
+   * Converts a document the way MongoStore does.
+   */
+  private static ToDo toToDo(DBObject dbObj) {
+    ToDo td = new ToDo();
+    td.setTitle((String)dbObj.get("title"));
+    td.setCompleted((Boolean)dbObj.get("completed"));
+    td.setId(((ObjectId)dbObj.get("_id")).toString());
+    td.setOrder((Integer)dbObj.get("order"));
+    Object rev = dbObj.get("rev");
+    td.setRev(rev == null ? "0" : rev.toString());
+    return td;
+  }
+
+  /**
+   * Converts a ToDo the way MongoStore does, keeping its revision so both paths write the same.
+   */
+  private static DBObject toDBObject(ToDo td) {
+    return new BasicDBObject("_id", new ObjectId(td.getId())).append("title", td.getTitle()).
+            append("completed", td.isCompleted()).append("order", td.getOrder()).append("rev", td.getRev());
+  }
+}
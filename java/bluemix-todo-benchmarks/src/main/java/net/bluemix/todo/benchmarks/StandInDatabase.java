@@ -0,0 +1,388 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+/**
+ * A database of the {@link CloudantStandIn}, its documents, their revisions and the changes made
+ * to them.  Every method is atomic.
+ *
+ * Map functions in design documents are not run, there is no JavaScript here.  Every view is
+ * computed like the app's <code>allTodos</code> view instead: documents with a title and a
+ * completed field are emitted with their order as the key and their title, completed field and
+ * revision as the value, and the view reduces to a count.
+ */
+final class StandInDatabase {
+
+  static final String DESIGN_PREFIX = "_design/";
+
+  //Orders view rows the way CouchDB collates keys: null, false, true, numbers, then strings
+  private static final Comparator<JsonValue> COLLATION = (a, b) -> {
+    int rank = Integer.compare(rank(a), rank(b));
+    if(rank != 0) {
+      return rank;
+    }
+    if(a instanceof JsonNumber) {
+      return ((JsonNumber)a).bigDecimalValue().compareTo(((JsonNumber)b).bigDecimalValue());
+    }
+    if(a instanceof JsonString) {
+      return ((JsonString)a).getString().compareTo(((JsonString)b).getString());
+    }
+    return a.toString().compareTo(b.toString());
+  };
+
+  private final String name;
+  //Sequences from another database, or from before a restart, are not ones this database knows
+  private final String instance;
+  private final TreeMap<String, Doc> docs = new TreeMap<String, Doc>();
+  //The latest change of each document, by its sequence
+  private final TreeMap<Long, Doc> changes = new TreeMap<Long, Doc>();
+  private long seq;
+  private int deleted;
+
+  /**
+   * Creates an empty database.
+   * @param name The name of the database.
+   */
+  StandInDatabase(String name) {
+    this.name = name;
+    this.instance = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+  }
+
+  /**
+   * A revision of a document.
+   */
+  static final class Doc {
+    final String id;
+    final String rev;
+    final long seq;
+    final boolean deleted;
+    //The whole document, with its _id and _rev
+    final JsonObject body;
+
+    private Doc(String id, String rev, long seq, boolean deleted, JsonObject body) {
+      this.id = id;
+      this.rev = rev;
+      this.seq = seq;
+      this.deleted = deleted;
+      this.body = body;
+    }
+
+    private int generation() {
+      return Integer.parseInt(rev.substring(0, rev.indexOf('-')));
+    }
+  }
+
+  /**
+   * A row of a view.
+   */
+  static final class Row {
+    final JsonValue key;
+    final Doc doc;
+    final JsonObject value;
+
+    private Row(JsonValue key, Doc doc, JsonObject value) {
+      this.key = key;
+      this.doc = doc;
+      this.value = value;
+    }
+  }
+
+  /**
+   * The changes since a sequence.
+   */
+  static final class Changes {
+    final List<Doc> docs;
+    final String lastSeq;
+    final int pending;
+
+    private Changes(List<Doc> docs, String lastSeq, int pending) {
+      this.docs = docs;
+      this.lastSeq = lastSeq;
+      this.pending = pending;
+    }
+  }
+
+  String getName() {
+    return name;
+  }
+
+  synchronized String getUpdateSeq() {
+    return seqString(seq);
+  }
+
+  synchronized int getDocCount() {
+    return docs.size() - deleted;
+  }
+
+  synchronized int getDeletedCount() {
+    return deleted;
+  }
+
+  /**
+   * Gets the current revision of a document.
+   * @param id The ID of the document.
+   * @return The document, which may be deleted, or null if it never existed.
+   */
+  synchronized Doc get(String id) {
+    return docs.get(id);
+  }
+
+  /**
+   * Writes a document, as a PUT of the document or one of the documents of a bulk request does.
+   * @param id The ID of the document, or null to give it a new one.
+   * @param body The document.  If it has <code>_deleted</code> set the document is deleted.
+   * @param rev The revision being replaced, null when creating a document.
+   * @return The new revision.
+   * @throws StandInException Thrown with a 409 if the revision is not the current one.
+   */
+  synchronized Doc put(String id, JsonObject body, String rev) throws StandInException {
+    if(id == null) {
+      id = UUID.randomUUID().toString().replace("-", "");
+    }
+    Doc current = docs.get(id);
+    boolean delete = body.getBoolean("_deleted", false);
+    if(current == null || current.deleted) {
+      if(rev != null && (current == null || !rev.equals(current.rev))) {
+        throw conflict();
+      }
+      if(delete) {
+        throw new StandInException(404, "not_found", current == null ? "missing" : "deleted");
+      }
+    } else if(!current.rev.equals(rev)) {
+      throw conflict();
+    }
+    String newRev = (current == null ? 1 : current.generation() + 1) + "-" 
+            + UUID.randomUUID().toString().replace("-", "");
+    JsonObjectBuilder doc = Json.createObjectBuilder().add("_id", id).add("_rev", newRev);
+    if(delete) {
+      doc.add("_deleted", true);
+    } else {
+      for(Map.Entry<String, JsonValue> field : body.entrySet()) {
+        if(!field.getKey().startsWith("_")) {
+          doc.add(field.getKey(), field.getValue());
+        }
+      }
+    }
+    Doc written = new Doc(id, newRev, ++seq, delete, doc.build());
+    docs.put(id, written);
+    if(current != null) {
+      changes.remove(current.seq);
+      if(current.deleted) {
+        deleted--;
+      }
+    }
+    if(delete) {
+      deleted++;
+    }
+    changes.put(written.seq, written);
+    notifyAll();
+    return written;
+  }
+
+  /**
+   * Deletes a document.
+   * @param id The ID of the document.
+   * @param rev The revision being deleted.
+   * @return The deleted revision.
+   * @throws StandInException Thrown with a 404 if there is no such document or a 409 if the
+   * revision is not the current one.
+   */
+  synchronized Doc delete(String id, String rev) throws StandInException {
+    Doc current = docs.get(id);
+    if(current == null || current.deleted) {
+      throw new StandInException(404, "not_found", current == null ? "missing" : "deleted");
+    }
+    return put(id, Json.createObjectBuilder().add("_deleted", true).build(), rev);
+  }
+
+  /**
+   * Gets every document that has not been deleted, by ID.
+   * @return The documents.
+   */
+  synchronized List<Doc> getAll() {
+    List<Doc> all = new ArrayList<Doc>(docs.size() - deleted);
+    for(Doc doc : docs.values()) {
+      if(!doc.deleted) {
+        all.add(doc);
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Gets the rows of a view, in key order.
+   * @param view The name of the view, it must be defined by the design document.
+   * @param design The ID of the design document.
+   * @return The rows.
+   * @throws StandInException Thrown with a 404 if the view is not defined.
+   */
+  synchronized List<Row> view(String design, String view) throws StandInException {
+    Doc ddoc = docs.get(design);
+    JsonObject views = ddoc == null || ddoc.deleted ? null : ddoc.body.getJsonObject("views");
+    if(views == null || !views.containsKey(view)) {
+      throw new StandInException(404, "not_found", "missing_named_view");
+    }
+    List<Row> rows = new ArrayList<Row>();
+    for(Doc doc : docs.values()) {
+      if(doc.deleted || doc.id.startsWith(DESIGN_PREFIX)) {
+        continue;
+      }
+      //function(doc){if(doc.title && doc.completed != null){emit(doc.order,{...})}}
+      JsonValue title = doc.body.get("title");
+      JsonValue completed = doc.body.get("completed");
+      if(!truthy(title) || completed == null || completed == JsonValue.NULL) {
+        continue;
+      }
+      JsonValue key = doc.body.containsKey("order") ? doc.body.get("order") : JsonValue.NULL;
+      rows.add(new Row(key, doc, Json.createObjectBuilder().add("title", title)
+              .add("completed", completed).add("rev", doc.rev).build()));
+    }
+    rows.sort((a, b) -> {
+      int compare = COLLATION.compare(a.key, b.key);
+      return compare != 0 ? compare : a.doc.id.compareTo(b.doc.id);
+    });
+    return rows;
+  }
+
+  /**
+   * Gets the changes since a sequence, the latest change of each document once.
+   * @param since The sequence, <code>0</code> for every change or <code>now</code> for none.
+   * @param limit The maximum number of changes, or -1 for no limit.
+   * @param timeout How long to wait for a change, in milliseconds, if there are none yet.
+   * @return The changes.
+   * @throws StandInException Thrown with a 400 if the sequence is not one of this database's.
+   * @throws InterruptedException Thrown if interrupted while waiting.
+   */
+  synchronized Changes changes(String since, int limit, long timeout) 
+          throws StandInException, InterruptedException {
+    long from = parseSeq(since);
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    long wait;
+    while(seq <= from && (wait = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime())) > 0) {
+      wait(wait);
+    }
+    Map<Long, Doc> after = changes.tailMap(from, false);
+    List<Doc> changed = new ArrayList<Doc>();
+    for(Doc doc : after.values()) {
+      if(limit >= 0 && changed.size() == limit) {
+        break;
+      }
+      changed.add(doc);
+    }
+    String last = changed.isEmpty() ? seqString(Math.max(from, seq)) 
+            : seqString(changed.get(changed.size() - 1).seq);
+    return new Changes(changed, last, after.size() - changed.size());
+  }
+
+  /**
+   * Compares two view keys the way CouchDB collates them.
+   */
+  static int collate(JsonValue a, JsonValue b) {
+    return COLLATION.compare(a, b);
+  }
+
+  /**
+   * Gets the sequence of a change as a string.
+   */
+  String seqString(long seq) {
+    return seq + "-" + instance;
+  }
+
+  private long parseSeq(String since) throws StandInException {
+    if(since == null || since.equals("0")) {
+      return 0;
+    }
+    if(since.equals("now")) {
+      return seq;
+    }
+    int dash = since.indexOf('-');
+    if(dash > 0 && since.substring(dash + 1).equals(instance)) {
+      try {
+        long parsed = Long.parseLong(since.substring(0, dash));
+        if(parsed >= 0 && parsed <= seq) {
+          return parsed;
+        }
+      } catch(NumberFormatException e) {
+        //not one of ours
+      }
+    }
+    throw new StandInException(400, "bad_request", "Malformed sequence supplied in 'since' parameter.");
+  }
+
+  private static StandInException conflict() {
+    return new StandInException(409, "conflict", "Document update conflict.");
+  }
+
+  private static boolean truthy(JsonValue value) {
+    if(value == null) {
+      return false;
+    }
+    switch(value.getValueType()) {
+      case NULL:
+      case FALSE:
+        return false;
+      case STRING:
+        return !((JsonString)value).getString().isEmpty();
+      case NUMBER:
+        return ((JsonNumber)value).doubleValue() != 0;
+      default:
+        return true;
+    }
+  }
+
+  private static int rank(JsonValue value) {
+    switch(value.getValueType()) {
+      case NULL: return 0;
+      case FALSE: return 1;
+      case TRUE: return 2;
+      case NUMBER: return 3;
+      case STRING: return 4;
+      case ARRAY: return 5;
+      default: return 6;
+    }
+  }
+
+  /**
+   * A request the database refuses, with the status and error CouchDB answers with.
+   */
+  static final class StandInException extends Exception {
+    private static final long serialVersionUID = 2958370291623817446L;
+    final int status;
+    final String error;
+
+    StandInException(int status, String error, String reason) {
+      super(reason);
+      this.status = status;
+      this.error = error;
+    }
+  }
+}
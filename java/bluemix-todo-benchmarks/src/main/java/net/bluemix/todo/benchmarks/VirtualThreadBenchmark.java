@@ -0,0 +1,142 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.ExecutorAsyncToDoStore;
+import net.bluemix.todo.store.InMemoryStore;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how store calls scale with the number of requests in flight when they run on the
+ * default pool of platform threads and when they run on virtual threads, as they do with
+ * <code>todo.virtualThreads.enabled</code>.
+ *
+ * Each call blocks for <code>latency</code> milliseconds, like a call to a database.  Each
+ * operation starts <code>inFlight</code> calls and waits for them all, the
+ * <code>requests</code> counter is the rate calls complete at and <code>rejected</code> the rate
+ * the pool turned them away at.  Virtual threads need Java 21 or later, on older JVMs only the
+ * platform threads can be measured, with <code>-p threads=platform</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VirtualThreadBenchmark {
+
+  //The defaults of todo.store.threads and todo.store.queue
+  private static final int STORE_THREADS = 50;
+  private static final int STORE_QUEUE = 1000;
+
+  @Param({"platform", "virtual"})
+  public String threads;
+
+  @Param({"50", "200", "1000", "5000"})
+  public int inFlight;
+
+  @Param({"10"})
+  public int latency;
+
+  private ExecutorService executor;
+  private ExecutorAsyncToDoStore store;
+  private String id;
+
+  /**
+   * Counts the calls of each operation.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Calls {
+    public long requests;
+    public long rejected;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      requests = 0;
+      rejected = 0;
+    }
+  }
+
+  @Setup
+  public void setUp() throws ReflectiveOperationException {
+    if(threads.equals("virtual")) {
+      executor = (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+              .invoke(null);
+    } else {
+      executor = new ThreadPoolExecutor(STORE_THREADS, STORE_THREADS, 0, TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(STORE_QUEUE));
+    }
+    InMemoryStore slow = new InMemoryStore() {
+      @Override
+      public ToDo get(String id) {
+        try {
+          Thread.sleep(latency);
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return super.get(id);
+      }
+    };
+    ToDo td = new ToDo();
+    td.setTitle("pick up kids");
+    id = slow.persist(td).getId();
+    store = new ExecutorAsyncToDoStore(slow, executor);
+  }
+
+  @TearDown
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  public void get(Calls calls) {
+    CompletableFuture<?>[] pending = new CompletableFuture<?>[inFlight];
+    for(int i = 0; i < inFlight; i++) {
+      pending[i] = store.getAsync(id).toCompletableFuture();
+    }
+    for(CompletableFuture<?> call : pending) {
+      try {
+        call.join();
+        calls.requests++;
+      } catch(RuntimeException e) {
+        calls.rejected++;
+      }
+    }
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Collection;
+
+import javax.ws.rs.client.Client;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.CloudantConnectionPool;
+import net.bluemix.todo.store.CloudantStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CannedCloudantTest {
+
+  private CannedCloudant server;
+  private CloudantConnectionPool pool;
+  private Client client;
+  private CloudantStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new CannedCloudant(3, 2);
+    pool = new CloudantConnectionPool(2, 2, 5000, 5000, -1);
+    client = pool.createClient("user", "password");
+    store = new CloudantStore(client.target(server.getUrl()));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    pool.close();
+    server.close();
+  }
+
+  @Test
+  public void testReads() throws Exception {
+    Collection<ToDo> todos = store.getAll();
+    assertEquals(3, todos.size());
+    ToDo first = todos.iterator().next();
+    assertEquals(CannedCloudant.id(0), first.getId());
+    assertEquals("todo number 0 with a title", first.getTitle());
+    assertEquals(first.getTitle(), store.get(CannedCloudant.id(0)).getTitle());
+    assertEquals(3, store.count());
+    assertNotNull(store.getVersion());
+  }
+
+  @Test
+  public void testWrites() throws Exception {
+    ToDo td = new ToDo();
+    td.setTitle("pick up kids");
+    td = store.persist(td);
+    assertEquals("1-abc", td.getRev());
+    assertEquals("2-abc", store.update(td.getId(), td, td.getRev()).getRev());
+    store.delete(td.getId(), "2-abc");
+  }
+}
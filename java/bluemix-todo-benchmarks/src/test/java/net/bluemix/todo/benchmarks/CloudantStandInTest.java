@@ -0,0 +1,230 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.Response;
+
+import net.bluemix.todo.model.BulkResult;
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.model.ToDoChanges;
+import net.bluemix.todo.model.ToDoPage;
+import net.bluemix.todo.store.CloudantConnectionPool;
+import net.bluemix.todo.store.CloudantStore;
+import net.bluemix.todo.store.RevisionMismatchException;
+import net.bluemix.todo.store.ToDoStoreException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CloudantStandInTest {
+
+  private CloudantStandIn server;
+  private CloudantConnectionPool pool;
+  private Client client;
+  private CloudantStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new CloudantStandIn();
+    pool = new CloudantConnectionPool(2, 2, 5000, 5000, -1);
+    client = pool.createClient("user", "password");
+    store = new CloudantStore(client.target(server.getUrl()));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    pool.close();
+    server.close();
+  }
+
+  @Test
+  public void testCrud() throws Exception {
+    assertEquals(0, store.count());
+    ToDo td = store.persist(todo("pick up kids", 1));
+    assertTrue(td.getRev().startsWith("1-"));
+    assertEquals("pick up kids", store.get(td.getId()).getTitle());
+    String rev = td.getRev();
+    td.setCompleted(true);
+    ToDo updated = store.update(td.getId(), td, rev);
+    assertTrue(updated.getRev().startsWith("2-"));
+    assertTrue(store.get(td.getId()).isCompleted());
+    assertEquals(1, store.count());
+    try {
+      store.delete(td.getId(), rev);
+      fail("Expected exception to be thrown.");
+    } catch(RevisionMismatchException e) {
+      //expected
+    }
+    store.delete(td.getId(), updated.getRev());
+    assertEquals(0, store.count());
+    assertEquals(0, store.getAll().size());
+  }
+
+  @Test
+  public void testPaging() throws Exception {
+    store.persist(todo("third", 3));
+    store.persist(todo("first", 1));
+    store.persist(todo("second", 2));
+    store.persist(todo("also second", 2));
+    List<String> titles = new ArrayList<String>();
+    ToDoPage page = store.getPage(null, 3);
+    assertEquals(3, page.getToDos().size());
+    for(ToDo td : page.getToDos()) {
+      titles.add(td.getTitle());
+    }
+    page = store.getPage(page.getNext(), 3);
+    assertEquals(1, page.getToDos().size());
+    assertEquals("third", page.getToDos().get(0).getTitle());
+    assertEquals("first", titles.get(0));
+    assertTrue(titles.contains("second"));
+    assertTrue(titles.contains("also second"));
+    assertEquals(4, store.count());
+  }
+
+  @Test
+  public void testVersionAndChanges() throws Exception {
+    String version = store.getVersion();
+    String seq = store.getChanges(null, 10).getSeq();
+    ToDo td = store.persist(todo("pick up kids", 1));
+    ToDo other = store.persist(todo("pick up laundry", 2));
+    assertFalse(version.equals(store.getVersion()));
+    ToDoChanges changes = store.getChanges(seq, 1);
+    assertEquals(1, changes.getUpserts().size());
+    assertTrue(changes.isMore());
+    changes = store.getChanges(changes.getSeq(), 10);
+    assertEquals(other.getId(), changes.getUpserts().get(0).getId());
+    store.delete(td.getId(), td.getRev());
+    changes = store.getChanges(changes.getSeq(), 10);
+    assertEquals(Arrays.asList(td.getId()), changes.getDeleted());
+    assertTrue(store.getChanges("12-unknown", 10).isResync());
+  }
+
+  @Test
+  public void testBulk() throws Exception {
+    List<BulkResult> results = store.persistAll(Arrays.asList(todo("a", 1), todo("b", 2)));
+    assertTrue(results.get(0).isOk());
+    assertTrue(results.get(1).isOk());
+    ToDo a = store.get(results.get(0).getId());
+    a.setTitle("changed");
+    ToDo missing = todo("missing", 3);
+    missing.setId("123");
+    results = store.updateAll(Arrays.asList(a, missing));
+    assertTrue(results.get(0).isOk());
+    assertFalse(results.get(1).isOk());
+    assertEquals("changed", store.get(a.getId()).getTitle());
+    results = store.deleteAll(Arrays.asList(a.getId()));
+    assertTrue(results.get(0).isOk());
+    assertEquals(1, store.count());
+  }
+
+  @Test
+  public void testLongPoll() throws Exception {
+    JsonObject first = read(client.target(server.getUrl()).path("bluemix-todo/_changes")
+            .request().get(String.class));
+    final String since = first.getString("last_seq");
+    long start = System.nanoTime();
+    Thread writer = new Thread(() -> {
+      try {
+        Thread.sleep(200);
+        store.persist(todo("pick up kids", 1));
+      } catch(InterruptedException | ToDoStoreException e) {
+        throw new RuntimeException(e);
+      }
+    });
+    writer.start();
+    JsonObject changes = read(client.target(server.getUrl()).path("bluemix-todo/_changes")
+            .queryParam("feed", "longpoll").queryParam("since", since)
+            .queryParam("timeout", 10000).request().get(String.class));
+    writer.join();
+    assertEquals(1, changes.getJsonArray("results").size());
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    changes = read(client.target(server.getUrl()).path("bluemix-todo/_changes")
+            .queryParam("feed", "longpoll").queryParam("since", changes.getString("last_seq"))
+            .queryParam("timeout", 100).request().get(String.class));
+    assertEquals(0, changes.getJsonArray("results").size());
+  }
+
+  @Test
+  public void testDatabases() throws Exception {
+    Response response = client.target(server.getUrl()).path("other").request().put(Entity.json("{}"));
+    assertEquals(201, response.getStatus());
+    response.close();
+    response = client.target(server.getUrl()).path("other").request().put(Entity.json("{}"));
+    assertEquals(412, response.getStatus());
+    assertEquals("file_exists", read(response.readEntity(String.class)).getString("error"));
+    response = client.target(server.getUrl()).path("other").request().delete();
+    assertEquals(200, response.getStatus());
+    response.close();
+    response = client.target(server.getUrl()).path("other/123").request().get();
+    assertEquals(404, response.getStatus());
+    response.close();
+  }
+
+  @Test
+  public void testErrors() throws Exception {
+    server.setErrorRate(1, 503);
+    try {
+      store.count();
+      fail("Expected exception to be thrown.");
+    } catch(ToDoStoreException e) {
+      //expected
+    }
+    assertEquals(1, server.getErrorCount());
+    server.setErrorRate(0, 503);
+    assertEquals(0, store.count());
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    server.setLatency(50, 10, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    store.count();
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidErrorRate() {
+    server.setErrorRate(2, 500);
+  }
+
+  private static JsonObject read(String json) {
+    return Json.createReader(new StringReader(json)).readObject();
+  }
+
+  private static ToDo todo(String title, int order) {
+    ToDo td = new ToDo();
+    td.setTitle(title);
+    td.setOrder(order);
+    return td;
+  }
+}
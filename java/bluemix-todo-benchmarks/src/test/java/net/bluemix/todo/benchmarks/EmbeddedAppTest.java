@@ -0,0 +1,98 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import net.bluemix.todo.model.ToDo;
+import net.bluemix.todo.store.InMemoryStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EmbeddedAppTest {
+
+  private InMemoryStore store;
+  private EmbeddedApp app;
+
+  @Before
+  public void setUp() throws Exception {
+    store = new InMemoryStore();
+    app = new EmbeddedApp(store);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    app.close();
+  }
+
+  @Test
+  public void testUsesStore() throws Exception {
+    ToDo td = new ToDo();
+    td.setTitle("pick up kids");
+    td = store.persist(td);
+    HttpURLConnection connection = (HttpURLConnection)new URL(app.getUrl() + "/" + td.getId())
+            .openConnection();
+    assertEquals(200, connection.getResponseCode());
+    assertTrue(read(connection.getInputStream()).contains("pick up kids"));
+    connection = (HttpURLConnection)new URL(app.getUrl()).openConnection();
+    connection.setRequestMethod("POST");
+    connection.setDoOutput(true);
+    connection.setRequestProperty("Content-Type", "application/json");
+    try(OutputStream out = connection.getOutputStream()) {
+      out.write("{\"title\":\"pick up laundry\"}".getBytes(StandardCharsets.UTF_8));
+    }
+    assertEquals(200, connection.getResponseCode());
+    read(connection.getInputStream());
+    assertEquals(2, store.count());
+    //All the ToDos are streamed to the response
+    String all = read(new URL(app.getUrl()).openStream());
+    assertTrue(all.contains("pick up kids") && all.contains("pick up laundry"));
+  }
+
+  @Test
+  public void testProviders() throws Exception {
+    HttpURLConnection connection = (HttpURLConnection)new URL(app.getUrl()).openConnection();
+    connection.setRequestProperty("Accept", "application/cbor");
+    assertEquals(200, connection.getResponseCode());
+    assertEquals("application/cbor", connection.getContentType());
+    assertTrue(connection.getHeaderField("ETag").contains("--cbor"));
+    read(connection.getInputStream());
+  }
+
+  private static String read(InputStream in) throws Exception {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int read;
+      while((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+      return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    } finally {
+      in.close();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(99));
+    assertEquals(0, histogram.getMean(), 0);
+  }
+
+  @Test
+  public void testExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for(int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(50, histogram.getPercentile(50));
+    assertEquals(99, histogram.getPercentile(99));
+    assertEquals(100, histogram.getPercentile(100));
+    assertEquals(1, histogram.getPercentile(0));
+    assertEquals(50.5, histogram.getMean(), 0);
+  }
+
+  @Test
+  public void testPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for(int i = 0; i < 990; i++) {
+      histogram.record(1000000);
+    }
+    for(int i = 0; i < 10; i++) {
+      histogram.record(250000000);
+    }
+    long p50 = histogram.getPercentile(50);
+    assertTrue(p50 >= 1000000 && p50 <= 1016000);
+    long p999 = histogram.getPercentile(99.9);
+    assertTrue(p999 >= 250000000 && p999 <= 254000000);
+    assertEquals(250000000, histogram.getMax());
+  }
+
+  @Test
+  public void testBuckets() {
+    long[] values = {0, 127, 128, 129, 130, 1000, 123456789, Long.MAX_VALUE};
+    for(long value : values) {
+      int index = LatencyHistogram.index(value);
+      assertTrue(LatencyHistogram.highest(index) >= value);
+      assertTrue(index == 0 || LatencyHistogram.highest(index - 1) < value);
+    }
+    assertEquals(LatencyHistogram.index(128), LatencyHistogram.index(129));
+  }
+
+  @Test
+  public void testAdd() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    a.record(10);
+    b.record(20);
+    b.record(-5);
+    a.add(b);
+    assertEquals(3, a.getCount());
+    assertEquals(20, a.getMax());
+    assertEquals(0, a.getPercentile(0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidPercentile() {
+    new LatencyHistogram().getPercentile(101);
+  }
+}
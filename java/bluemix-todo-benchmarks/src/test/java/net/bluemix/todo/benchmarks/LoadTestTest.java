@@ -0,0 +1,92 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.bluemix.todo.benchmarks.LoadTest.Operation;
+import net.bluemix.todo.benchmarks.LoadTest.Result;
+import net.bluemix.todo.store.InMemoryStore;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadTestTest {
+
+  private InMemoryStore store;
+  private EmbeddedApp app;
+
+  @Before
+  public void setUp() throws Exception {
+    store = new InMemoryStore();
+    app = new EmbeddedApp(store);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    app.close();
+  }
+
+  @Test
+  public void testRun() throws Exception {
+    Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+    mix.put(Operation.LIST, 1);
+    mix.put(Operation.GET, 1);
+    mix.put(Operation.CREATE, 1);
+    LoadTest test = new LoadTest(app.getUrl(), mix, 100, 4);
+    test.populate(5);
+    assertEquals(5, store.count());
+    Result result = test.run(200, 1000, TimeUnit.MILLISECONDS);
+    //100 a second for a second, give or take the request in flight at the boundaries
+    assertTrue(Math.abs(result.getCount(null) - 100) <= 1);
+    assertEquals(0, result.getCount(Operation.DELETE));
+    assertEquals(0, result.getErrors(null));
+    assertEquals(result.getCount(null), result.getCount(Operation.LIST) 
+            + result.getCount(Operation.GET) + result.getCount(Operation.CREATE));
+    assertTrue(store.count() >= 5 + result.getCount(Operation.CREATE));
+    assertTrue(result.getLatency(null, 99.9, TimeUnit.MILLISECONDS) 
+            >= result.getLatency(null, 50, TimeUnit.MILLISECONDS));
+    assertTrue(result.getThroughput() > 0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    result.print(new PrintStream(out, true));
+    assertTrue(out.toString().contains("throughput"));
+  }
+
+  @Test
+  public void testDeletesEverything() throws Exception {
+    Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+    mix.put(Operation.DELETE, 1);
+    LoadTest test = new LoadTest(app.getUrl(), mix, 50, 1);
+    test.populate(3);
+    Result result = test.run(0, 100, TimeUnit.MILLISECONDS);
+    assertEquals(0, result.getErrors(null));
+    //Once there is nothing left to delete ToDos are created instead
+    assertTrue(store.count() <= 1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyMix() {
+    new LoadTest("http://127.0.0.1/api/todos", new EnumMap<Operation, Integer>(Operation.class), 10, 1);
+  }
+}
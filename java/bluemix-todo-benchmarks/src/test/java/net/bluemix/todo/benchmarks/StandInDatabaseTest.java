@@ -0,0 +1,162 @@
+/*
+ * Copyright IBM Corp. 2014
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.bluemix.todo.benchmarks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+
+import net.bluemix.todo.benchmarks.StandInDatabase.Changes;
+import net.bluemix.todo.benchmarks.StandInDatabase.Doc;
+import net.bluemix.todo.benchmarks.StandInDatabase.Row;
+import net.bluemix.todo.benchmarks.StandInDatabase.StandInException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class StandInDatabaseTest {
+
+  private StandInDatabase db;
+
+  @Before
+  public void setUp() throws Exception {
+    db = new StandInDatabase("test");
+    db.put("_design/todos", Json.createObjectBuilder().add("views", Json.createObjectBuilder()
+            .add("allTodos", Json.createObjectBuilder().add("map", "function(doc){}"))).build(), null);
+  }
+
+  @Test
+  public void testPut() throws Exception {
+    Doc doc = db.put("a", todo("pick up kids", 1), null);
+    assertTrue(doc.rev.startsWith("1-"));
+    assertEquals("a", doc.body.getString("_id"));
+    assertEquals(doc.rev, doc.body.getString("_rev"));
+    Doc updated = db.put("a", todo("pick up laundry", 1), doc.rev);
+    assertTrue(updated.rev.startsWith("2-"));
+    assertEquals("pick up laundry", db.get("a").body.getString("title"));
+    try {
+      db.put("a", todo("pick up milk", 1), doc.rev);
+      fail("Expected exception to be thrown.");
+    } catch(StandInException e) {
+      assertEquals(409, e.status);
+    }
+    try {
+      db.put("a", todo("pick up milk", 1), null);
+      fail("Expected exception to be thrown.");
+    } catch(StandInException e) {
+      assertEquals(409, e.status);
+    }
+    assertEquals(2, db.getDocCount());
+  }
+
+  @Test
+  public void testPutGeneratesIds() throws Exception {
+    Doc doc = db.put(null, todo("pick up kids", 1), null);
+    assertEquals(32, doc.id.length());
+    assertEquals(doc.id, db.get(doc.id).id);
+  }
+
+  @Test
+  public void testDelete() throws Exception {
+    Doc doc = db.put("a", todo("pick up kids", 1), null);
+    Doc deleted = db.delete("a", doc.rev);
+    assertTrue(deleted.deleted);
+    assertTrue(db.get("a").deleted);
+    assertEquals(1, db.getDocCount());
+    assertEquals(1, db.getDeletedCount());
+    try {
+      db.delete("a", deleted.rev);
+      fail("Expected exception to be thrown.");
+    } catch(StandInException e) {
+      assertEquals(404, e.status);
+    }
+    //A deleted document can be created again
+    assertTrue(db.put("a", todo("pick up kids", 1), null).rev.startsWith("3-"));
+    assertEquals(0, db.getDeletedCount());
+  }
+
+  @Test
+  public void testView() throws Exception {
+    db.put("b", todo("second", 2), null);
+    db.put("a", todo("also second", 2), null);
+    db.put("c", todo("first", 1), null);
+    db.put("d", Json.createObjectBuilder().add("title", "not a ToDo").build(), null);
+    db.put("e", Json.createObjectBuilder().add("title", "no order").add("completed", false).build(), null);
+    List<Row> rows = db.view("_design/todos", "allTodos");
+    assertEquals(4, rows.size());
+    assertEquals(JsonValue.NULL, rows.get(0).key);
+    assertEquals("c", rows.get(1).doc.id);
+    assertEquals("a", rows.get(2).doc.id);
+    assertEquals("b", rows.get(3).doc.id);
+    assertEquals("first", rows.get(1).value.getString("title"));
+    assertEquals(rows.get(1).doc.rev, rows.get(1).value.getString("rev"));
+  }
+
+  @Test(expected = StandInException.class)
+  public void testMissingView() throws Exception {
+    db.view("_design/todos", "someTodos");
+  }
+
+  @Test
+  public void testChanges() throws Exception {
+    Doc a = db.put("a", todo("pick up kids", 1), null);
+    db.put("b", todo("pick up laundry", 2), null);
+    db.put("a", todo("pick up milk", 1), a.rev);
+    Changes changes = db.changes("0", 2, 0);
+    assertEquals(2, changes.docs.size());
+    assertEquals("_design/todos", changes.docs.get(0).id);
+    assertEquals("b", changes.docs.get(1).id);
+    assertEquals(1, changes.pending);
+    changes = db.changes(changes.lastSeq, -1, 0);
+    assertEquals(1, changes.docs.size());
+    assertEquals("pick up milk", changes.docs.get(0).body.getString("title"));
+    assertEquals(db.getUpdateSeq(), changes.lastSeq);
+    assertEquals(0, db.changes("now", -1, 0).docs.size());
+  }
+
+  @Test
+  public void testUnknownSeq() throws Exception {
+    try {
+      db.changes("1-abc", -1, 0);
+      fail("Expected exception to be thrown.");
+    } catch(StandInException e) {
+      assertEquals(400, e.status);
+    }
+    try {
+      db.changes(new StandInDatabase("other").seqString(1), -1, 0);
+      fail("Expected exception to be thrown.");
+    } catch(StandInException e) {
+      assertEquals(400, e.status);
+    }
+  }
+
+  @Test
+  public void testGetMissing() throws Exception {
+    assertNull(db.get("a"));
+  }
+
+  private static JsonObject todo(String title, int order) {
+    return Json.createObjectBuilder().add("title", title).add("completed", false)
+            .add("order", order).build();
+  }
+}